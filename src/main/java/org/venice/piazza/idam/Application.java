@@ -24,6 +24,7 @@ import java.security.NoSuchAlgorithmException;
 import java.security.UnrecoverableKeyException;
 import java.security.cert.CertificateException;
 import java.util.Arrays;
+import java.util.Collections;
 
 import javax.net.ssl.SSLContext;
 
@@ -31,6 +32,7 @@ import org.apache.http.HeaderElement;
 import org.apache.http.HeaderElementIterator;
 import org.apache.http.HttpResponse;
 import org.apache.http.client.HttpClient;
+import org.apache.http.client.config.RequestConfig;
 import org.apache.http.conn.ConnectionKeepAliveStrategy;
 import org.apache.http.conn.ssl.NoopHostnameVerifier;
 import org.apache.http.conn.ssl.TrustSelfSignedStrategy;
@@ -39,11 +41,15 @@ import org.apache.http.message.BasicHeaderElementIterator;
 import org.apache.http.protocol.HTTP;
 import org.apache.http.protocol.HttpContext;
 import org.apache.http.ssl.SSLContexts;
+import org.springframework.amqp.core.AcknowledgeMode;
 import org.springframework.amqp.rabbit.annotation.EnableRabbit;
+import org.springframework.amqp.rabbit.config.SimpleRabbitListenerContainerFactory;
+import org.springframework.amqp.rabbit.connection.ConnectionFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.autoconfigure.amqp.SimpleRabbitListenerContainerFactoryConfigurer;
 import org.springframework.boot.autoconfigure.domain.EntityScan;
 import org.springframework.boot.builder.SpringApplicationBuilder;
 import org.springframework.boot.web.support.SpringBootServletInitializer;
@@ -56,6 +62,9 @@ import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
 import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
 import org.springframework.scheduling.annotation.EnableAsync;
 import org.springframework.scheduling.annotation.EnableScheduling;
+import org.springframework.scheduling.annotation.SchedulingConfigurer;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.scheduling.config.ScheduledTaskRegistrar;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configuration.WebSecurityConfigurerAdapter;
 import org.springframework.security.web.access.channel.ChannelProcessingFilter;
@@ -66,6 +75,7 @@ import org.springframework.web.cors.UrlBasedCorsConfigurationSource;
 import org.springframework.web.filter.CorsFilter;
 import org.venice.piazza.idam.authn.GxAuthenticator;
 import org.venice.piazza.idam.authn.PiazzaAuthenticator;
+import org.venice.piazza.idam.util.GxCallInterceptor;
 
 @SpringBootApplication
 @EnableAsync
@@ -112,6 +122,64 @@ public class Application extends SpringBootServletInitializer {
 		}
 	}
 
+	@Configuration
+	protected static class SchedulerConfig implements SchedulingConfigurer {
+
+		@Value("${scheduler.pool.size}")
+		private int poolSize;
+
+		/**
+		 * Runs the scheduled tasks on a pool rather than on the single default thread, so that a long task, such as a
+		 * full UserProfileDaemon run, cannot hold up the periodic throttle flushes behind it.
+		 */
+		@Bean(destroyMethod = "shutdown")
+		public ThreadPoolTaskScheduler taskScheduler() {
+			ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
+			scheduler.setPoolSize(poolSize);
+			scheduler.setThreadNamePrefix("scheduler-");
+			return scheduler;
+		}
+
+		@Override
+		public void configureTasks(ScheduledTaskRegistrar taskRegistrar) {
+			taskRegistrar.setTaskScheduler(taskScheduler());
+		}
+	}
+
+	@Configuration
+	protected static class ThrottleConsumerConfig {
+
+		@Value("${throttle.consumer.batch.enabled}")
+		private boolean batchEnabled;
+
+		@Value("${throttle.consumer.batch.size}")
+		private int batchSize;
+
+		@Value("${throttle.consumer.batch.timeout.ms}")
+		private long batchTimeoutMs;
+
+		/**
+		 * Listener container factory for the Job throttle consumer. In batch mode, messages are acknowledged manually
+		 * after each batch is written, and the prefetch allows a full batch to be outstanding. Each container then has a
+		 * single consumer, and publishes an idle event on it after the batch timeout so that partial batches are written
+		 * on the thread that owns their channel.
+		 */
+		@Bean
+		public SimpleRabbitListenerContainerFactory throttleListenerContainerFactory(SimpleRabbitListenerContainerFactoryConfigurer configurer,
+				ConnectionFactory connectionFactory) {
+			SimpleRabbitListenerContainerFactory factory = new SimpleRabbitListenerContainerFactory();
+			configurer.configure(factory, connectionFactory);
+			if (batchEnabled) {
+				factory.setAcknowledgeMode(AcknowledgeMode.MANUAL);
+				factory.setPrefetchCount(batchSize);
+				factory.setConcurrentConsumers(1);
+				factory.setMaxConcurrentConsumers(1);
+				factory.setIdleEventInterval(batchTimeoutMs);
+			}
+			return factory;
+		}
+	}
+
 	@Configuration
 	@Profile({ "disable-authn" })
 	protected static class DisabledConfig {
@@ -136,6 +204,15 @@ public class Application extends SpringBootServletInitializer {
 		@Value("${http.max.route}")
 		private int httpMaxRoute;
 
+		@Value("${http.connect.timeout.ms}")
+		private int httpConnectTimeoutMs;
+
+		@Value("${http.read.timeout.ms}")
+		private int httpReadTimeoutMs;
+
+		@Value("${http.connection.request.timeout.ms}")
+		private int httpConnectionRequestTimeoutMs;
+
 		@Value("${JKS_FILE}")
 		private String keystoreFileName;
 
@@ -150,13 +227,19 @@ public class Application extends SpringBootServletInitializer {
 			return new GxAuthenticator();
 		}
 
+		/**
+		 * The RestTemplate for all GeoAxis calls. Every call is bounded by the connect, read and connection pool
+		 * timeouts, and guarded by the circuit breaker and bulkhead of its endpoint.
+		 */
 		@Bean
-		public RestTemplate restTemplate() throws KeyManagementException, UnrecoverableKeyException, NoSuchAlgorithmException,
+		public RestTemplate restTemplate(final GxCallInterceptor gxCallInterceptor) throws KeyManagementException, UnrecoverableKeyException, NoSuchAlgorithmException,
 				KeyStoreException, CertificateException, IOException {
 			SSLContext sslContext = SSLContexts.custom().loadKeyMaterial(getStore(), piazzaKeyPassphrase.toCharArray())
 					.loadTrustMaterial(getStore(), new TrustSelfSignedStrategy()).useProtocol("TLS").build();
 			HttpClient httpClient = HttpClientBuilder.create().setMaxConnTotal(httpMaxTotal).setSSLContext(sslContext)
 					.setMaxConnPerRoute(httpMaxRoute).setSSLHostnameVerifier(new NoopHostnameVerifier())
+					.setDefaultRequestConfig(RequestConfig.custom().setConnectTimeout(httpConnectTimeoutMs)
+							.setSocketTimeout(httpReadTimeoutMs).setConnectionRequestTimeout(httpConnectionRequestTimeoutMs).build())
 					.setKeepAliveStrategy(new ConnectionKeepAliveStrategy() {
 						@Override
 						public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
@@ -175,11 +258,20 @@ public class Application extends SpringBootServletInitializer {
 
 			RestTemplate restTemplate = new RestTemplate();
 			restTemplate.setRequestFactory(new HttpComponentsClientHttpRequestFactory(httpClient));
+			restTemplate.setInterceptors(Collections.singletonList(gxCallInterceptor));
 			restTemplate.setMessageConverters(Arrays.asList(new MappingJackson2HttpMessageConverter())); // Why is this
 																											// required?
 			return restTemplate;
 		}
 
+		/**
+		 * The Piazza key store, which also holds the certificates trusted for local certificate validation.
+		 */
+		@Bean
+		public KeyStore piazzaTrustStore() throws KeyStoreException, CertificateException, NoSuchAlgorithmException, IOException {
+			return getStore();
+		}
+
 		protected KeyStore getStore() throws KeyStoreException, IOException, CertificateException, NoSuchAlgorithmException {
 			final KeyStore store = KeyStore.getInstance(KeyStore.getDefaultType());
 			InputStream inputStream = getClass().getClassLoader().getResourceAsStream(keystoreFileName);
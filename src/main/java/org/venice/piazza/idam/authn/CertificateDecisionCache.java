@@ -0,0 +1,154 @@
+/**
+ * Copyright 2016, RadiantBlue Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package org.venice.piazza.idam.authn;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+import org.venice.piazza.idam.util.BoundedCache;
+
+import model.response.AuthResponse;
+
+/**
+ * Size-bounded, least-recently-used cache of successful PKI certificate decisions, keyed by the SHA-256 fingerprint of
+ * the DER certificate. Each entry holds the decision and the UID and DN it resolved to. Entries live for at most the
+ * configured TTL, and never past the notAfter date of their certificate. Entries can be revoked explicitly by
+ * fingerprint or by user.
+ */
+@Component
+@Profile({ "geoaxis" })
+public class CertificateDecisionCache {
+	@Value("${gx.cert.cache.max.size}")
+	private int maxSize;
+	@Value("${gx.cert.cache.ttl.ms}")
+	private long ttlMs;
+
+	private final AtomicLong revocations = new AtomicLong();
+	private LongSupplier clock = System::currentTimeMillis;
+	private final BoundedCache<String, Entry> entries = new BoundedCache<>(() -> maxSize);
+
+	/**
+	 * Gets the cached decision for the certificate.
+	 *
+	 * @param fingerprint
+	 *            The SHA-256 fingerprint of the DER certificate
+	 * @return The cached entry, or null if the certificate is not cached or its entry has expired
+	 */
+	public Entry get(final String fingerprint) {
+		return entries.get(fingerprint, entry -> clock.getAsLong() < entry.expiresOn);
+	}
+
+	/**
+	 * Caches a successful decision for the certificate.
+	 *
+	 * @param fingerprint
+	 *            The SHA-256 fingerprint of the DER certificate
+	 * @param uid
+	 *            The UID that the certificate resolved to
+	 * @param dn
+	 *            The DN that the certificate resolved to
+	 * @param notAfter
+	 *            The end of the validity period of the certificate, in epoch milliseconds
+	 * @param decision
+	 *            The successful decision
+	 */
+	public void put(final String fingerprint, final String uid, final String dn, final long notAfter, final AuthResponse decision) {
+		long now = clock.getAsLong();
+		long expiresOn = Math.min(now + ttlMs, notAfter);
+		if (expiresOn <= now) {
+			return;
+		}
+		Entry entry = new Entry(uid, dn, decision, expiresOn);
+		entries.put(fingerprint, entry);
+	}
+
+	/**
+	 * Revokes the cached decision of a certificate, so that its next authentication is checked again.
+	 *
+	 * @param fingerprint
+	 *            The SHA-256 fingerprint of the DER certificate
+	 * @return True if a decision was cached for the certificate
+	 */
+	public boolean revoke(final String fingerprint) {
+		boolean revoked = entries.remove(fingerprint.toLowerCase()) != null;
+		if (revoked) {
+			revocations.incrementAndGet();
+		}
+		return revoked;
+	}
+
+	/**
+	 * Revokes the cached decisions of every certificate that resolved to the user.
+	 *
+	 * @param uid
+	 *            The UID of the user
+	 * @return The number of revoked decisions
+	 */
+	public int revokeUser(final String uid) {
+		int revoked = entries.removeIf(entry -> entry.uid.equals(uid));
+		revocations.addAndGet(revoked);
+		return revoked;
+	}
+
+	/**
+	 * Gets the current cache statistics.
+	 *
+	 * @return Map of the statistic name to its value
+	 */
+	public Map<String, Object> getStatistics() {
+		Map<String, Object> statistics = entries.getStatistics();
+		statistics.put("ttlMs", ttlMs);
+		statistics.put("revocations", revocations.get());
+		return statistics;
+	}
+
+	/**
+	 * A cached certificate decision.
+	 */
+	public static final class Entry {
+		private final String uid;
+		private final String dn;
+		private final AuthResponse decision;
+		private final long expiresOn;
+
+		private Entry(final String uid, final String dn, final AuthResponse decision, final long expiresOn) {
+			this.uid = uid;
+			this.dn = dn;
+			this.decision = decision;
+			this.expiresOn = expiresOn;
+		}
+
+		public String getUid() {
+			return uid;
+		}
+
+		public String getDn() {
+			return dn;
+		}
+
+		public AuthResponse getDecision() {
+			return decision;
+		}
+
+		public long getExpiresOn() {
+			return expiresOn;
+		}
+	}
+}
@@ -0,0 +1,142 @@
+/**
+ * Copyright 2016, RadiantBlue Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package org.venice.piazza.idam.authn;
+
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Map;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+import org.venice.piazza.idam.util.BoundedCache;
+
+import model.response.AuthResponse;
+
+/**
+ * Size-bounded, least-recently-used cache of successful GeoAxis username and password decisions. The credential is
+ * never held; each entry holds a PBKDF2 hash of it with a random per-entry salt, and a login is only served from the
+ * cache if its credential hashes to the same value. Entries live for at most the configured TTL.
+ */
+@Component
+@Profile({ "geoaxis" })
+public class CredentialDecisionCache {
+	@Value("${gx.basic.cache.max.size}")
+	private int maxSize;
+	@Value("${gx.basic.cache.ttl.ms}")
+	private long ttlMs;
+	@Value("${gx.basic.cache.hash.iterations}")
+	private int hashIterations;
+
+	private static final String HASH_ALGORITHM = "PBKDF2WithHmacSHA256";
+	private static final int SALT_LENGTH = 16;
+	private static final int HASH_LENGTH = 256;
+	private final SecureRandom random = new SecureRandom();
+	private final BoundedCache<String, Entry> entries = new BoundedCache<>(() -> maxSize);
+
+	/**
+	 * Gets the cached decision for the username and credential. An entry whose credential does not match is removed.
+	 *
+	 * @param username
+	 *            The username
+	 * @param credential
+	 *            The credential of the login
+	 * @return The cached successful decision, or null if the login must be checked by GeoAxis
+	 */
+	public AuthResponse get(final String username, final String credential) throws GeneralSecurityException {
+		if (username == null || credential == null) {
+			return null;
+		}
+		Entry entry = entries.peek(username);
+		// Hash outside of the lock, as it is deliberately slow
+		if (entry != null && (System.currentTimeMillis() - entry.cachedOn <= ttlMs)
+				&& MessageDigest.isEqual(entry.hash, hash(credential, entry.salt))) {
+			entries.recordHit();
+			return entry.decision;
+		}
+		if (entry != null) {
+			// Only if it has not since been replaced by a newer login
+			entries.remove(username, entry);
+		}
+		entries.recordMiss();
+		return null;
+	}
+
+	/**
+	 * Caches a successful decision for the username and credential.
+	 *
+	 * @param username
+	 *            The username
+	 * @param credential
+	 *            The credential of the login
+	 * @param decision
+	 *            The successful decision of GeoAxis
+	 */
+	public void put(final String username, final String credential, final AuthResponse decision) throws GeneralSecurityException {
+		byte[] salt = new byte[SALT_LENGTH];
+		random.nextBytes(salt);
+		Entry entry = new Entry(salt, hash(credential, salt), decision, System.currentTimeMillis());
+		entries.put(username, entry);
+	}
+
+	/**
+	 * Removes the cached decision of the username, if any, so that its next login is checked by GeoAxis.
+	 *
+	 * @param username
+	 *            The username
+	 */
+	public void invalidate(final String username) {
+		entries.remove(username);
+	}
+
+	/**
+	 * Gets the current cache statistics.
+	 *
+	 * @return Map of the statistic name to its value
+	 */
+	public Map<String, Object> getStatistics() {
+		Map<String, Object> statistics = entries.getStatistics();
+		statistics.put("ttlMs", ttlMs);
+		return statistics;
+	}
+
+	private byte[] hash(final String credential, final byte[] salt) throws GeneralSecurityException {
+		PBEKeySpec keySpec = new PBEKeySpec(credential.toCharArray(), salt, hashIterations, HASH_LENGTH);
+		try {
+			return SecretKeyFactory.getInstance(HASH_ALGORITHM).generateSecret(keySpec).getEncoded();
+		} finally {
+			keySpec.clearPassword();
+		}
+	}
+
+	private static final class Entry {
+		private final byte[] salt;
+		private final byte[] hash;
+		private final AuthResponse decision;
+		private final long cachedOn;
+
+		private Entry(final byte[] salt, final byte[] hash, final AuthResponse decision, final long cachedOn) {
+			this.salt = salt;
+			this.hash = hash;
+			this.decision = decision;
+			this.cachedOn = cachedOn;
+		}
+	}
+}
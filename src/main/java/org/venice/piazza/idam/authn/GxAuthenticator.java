@@ -15,8 +15,18 @@
  **/
 package org.venice.piazza.idam.authn;
 
+import java.security.GeneralSecurityException;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import javax.naming.InvalidNameException;
+import javax.naming.ldap.LdapName;
+import javax.naming.ldap.Rdn;
 import org.joda.time.DateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Profile;
@@ -27,7 +37,7 @@ import org.venice.piazza.idam.model.GxAuthNCertificateRequest;
 import org.venice.piazza.idam.model.GxAuthNResponse;
 import org.venice.piazza.idam.model.GxAuthNUserPassRequest;
 import org.venice.piazza.idam.model.PrincipalItem;
-import org.venice.piazza.idam.util.GxUserProfileClient;
+import org.venice.piazza.idam.util.ProfileAttributeCache;
 
 import model.logger.AuditElement;
 import model.logger.Severity;
@@ -60,16 +70,31 @@ public class GxAuthenticator implements PiazzaAuthenticator {
 	@Autowired
 	private PiazzaLogger logger;
 	@Autowired
-	private GxUserProfileClient gxUserProfileClient;
+	private ProfileAttributeCache profileAttributeCache;
 	@Autowired
 	private RestTemplate restTemplate;
 	@Autowired
 	private DatabaseAccessor accessor;
+	@Autowired
+	private CredentialDecisionCache credentialDecisionCache;
+	@Autowired
+	private CertificateDecisionCache certificateDecisionCache;
+	@Autowired
+	private LocalCertificateValidator localCertificateValidator;
 	
 	private static final String USER_FAILED_AUTH = "userFailedAuthentication";
+	private static final Logger LOGGER = LoggerFactory.getLogger(GxAuthenticator.class);
 
 	@Override
 	public AuthResponse getAuthenticationDecision(final String username, final String credential) {
+		// Serve repeated logins with the same credential without a GeoAxis call
+		final AuthResponse cachedDecision = getCachedDecision(username, credential);
+		if (cachedDecision != null) {
+			logger.log(String.format("Credential check for Username %s served from cache.", username), Severity.INFORMATIONAL,
+					new AuditElement(username, "loginAttempt", ""));
+			return cachedDecision;
+		}
+
 		logger.log(String.format("Performing credential check for Username %s to GeoAxis.", username), Severity.INFORMATIONAL,
 				new AuditElement(username, "loginAttempt", ""));
 		final GxAuthNUserPassRequest request = new GxAuthNUserPassRequest();
@@ -80,11 +105,58 @@ public class GxAuthenticator implements PiazzaAuthenticator {
 
 		final GxAuthNResponse gxResponse = restTemplate.postForObject(gxApiUrlAtnBasic, request, GxAuthNResponse.class);
 
-		return processGxResponse(gxResponse);
+		final AuthResponse decision = processGxResponse(gxResponse);
+		cacheDecision(username, credential, decision);
+		return decision;
+	}
+
+	private AuthResponse getCachedDecision(final String username, final String credential) {
+		try {
+			return credentialDecisionCache.get(username, credential);
+		} catch (GeneralSecurityException exception) {
+			LOGGER.error("Error hashing credential, checking with GeoAxis.", exception);
+			return null;
+		}
+	}
+
+	/**
+	 * Caches successful decisions, and invalidates any cached decision of the user on failure.
+	 */
+	private void cacheDecision(final String username, final String credential, final AuthResponse decision) {
+		if (!decision.getIsAuthSuccess().booleanValue()) {
+			credentialDecisionCache.invalidate(username);
+			return;
+		}
+		try {
+			credentialDecisionCache.put(username, credential, decision);
+		} catch (GeneralSecurityException exception) {
+			LOGGER.error("Error hashing credential, the decision is not cached.", exception);
+		}
 	}
 
 	@Override
 	public AuthResponse getAuthenticationDecision(final String pem) {
+		// Serve certificates that have already authenticated by their fingerprint, without reformatting the PEM
+		final byte[] der = PemCertificates.decode(pem);
+		final String fingerprint = der != null ? PemCertificates.getFingerprint(der) : null;
+		if (fingerprint != null) {
+			final CertificateDecisionCache.Entry cachedDecision = certificateDecisionCache.get(fingerprint);
+			if (cachedDecision != null) {
+				logger.log(String.format("Cert check for %s served from cache.", cachedDecision.getDn()), Severity.INFORMATIONAL,
+						new AuditElement(cachedDecision.getUid(), "loginCertAttempt", ""));
+				return cachedDecision.getDecision();
+			}
+		}
+
+		// NPE certificates may be validated locally, without a GeoAxis call
+		if (der != null && localCertificateValidator.isEnabled()) {
+			final AuthResponse localDecision = getLocalDecision(der);
+			if (localDecision != null) {
+				cacheCertificateDecision(fingerprint, der, localDecision);
+				return localDecision;
+			}
+		}
+
 		logger.log("Performing cert check for PKI Cert to GeoAxis", Severity.INFORMATIONAL,
 				new AuditElement("idam", "loginCertAttempt", ""));
 		
@@ -95,7 +167,87 @@ public class GxAuthenticator implements PiazzaAuthenticator {
 
 		final GxAuthNResponse gxResponse = restTemplate.postForObject(gxApiUrlAtnCert, request, GxAuthNResponse.class);
 
-		return processGxResponse(gxResponse);
+		final AuthResponse decision = processGxResponse(gxResponse);
+		if (fingerprint != null) {
+			cacheCertificateDecision(fingerprint, der, decision);
+		}
+		return decision;
+	}
+
+	/**
+	 * Validates the certificate against the local trust store.
+	 * 
+	 * @return The decision, or null if the certificate must be checked by GeoAxis
+	 */
+	private AuthResponse getLocalDecision(final byte[] der) {
+		final X509Certificate certificate;
+		try {
+			certificate = PemCertificates.parse(der);
+		} catch (CertificateException exception) {
+			LOGGER.info("Certificate could not be parsed, deferring to GeoAxis.", exception);
+			return null;
+		}
+		final LocalCertificateValidator.Identity identity = localCertificateValidator.validate(certificate);
+		if (identity == null) {
+			return null;
+		}
+		logger.log(String.format("Validated NPE cert for %s locally.", identity.getDn()), Severity.INFORMATIONAL,
+				new AuditElement(identity.getUid(), "userLoggedIn", ""));
+		final UserProfile userProfile = getLocalUserProfile(identity.getUid(), identity.getDn());
+		return new AuthResponse(userProfile != null, userProfile);
+	}
+
+	/**
+	 * Gets the stored profile of a locally validated NPE. The profile is only requested from GeoAxis if the NPE has no
+	 * stored profile with the same DN.
+	 */
+	private UserProfile getLocalUserProfile(final String username, final String dn) {
+		final UserProfile userProfile = accessor.getUserProfileByUsername(username);
+		if (userProfile != null && isSameDn(dn, userProfile.getDistinguishedName())) {
+			return userProfile;
+		}
+		return getUserProfile(username, dn, true);
+	}
+
+	/**
+	 * Determines if two DNs name the same subject. The DN of a locally validated certificate is in RFC 2253 format,
+	 * while the stored DN is as GeoAxis formatted it, so the DNs are compared by their parsed RDNs, in either order. DNs
+	 * that cannot be parsed are compared as strings.
+	 */
+	private static boolean isSameDn(final String dn, final String storedDn) {
+		if (storedDn == null) {
+			return false;
+		}
+		try {
+			final List<Rdn> rdns = new LdapName(dn).getRdns();
+			final List<Rdn> storedRdns = new ArrayList<>(new LdapName(storedDn).getRdns());
+			if (rdns.equals(storedRdns)) {
+				return true;
+			}
+			Collections.reverse(storedRdns);
+			return rdns.equals(storedRdns);
+		} catch (InvalidNameException exception) {
+			LOGGER.debug("Could not parse DN, comparing it as a string.", exception);
+			return dn.equalsIgnoreCase(storedDn);
+		}
+	}
+
+	/**
+	 * Caches successful decisions until at most the expiry of the certificate, and revokes any cached decision of the
+	 * certificate on failure.
+	 */
+	private void cacheCertificateDecision(final String fingerprint, final byte[] der, final AuthResponse decision) {
+		if (!decision.getIsAuthSuccess().booleanValue()) {
+			certificateDecisionCache.revoke(fingerprint);
+			return;
+		}
+		try {
+			final UserProfile userProfile = decision.getUserProfile();
+			certificateDecisionCache.put(fingerprint, userProfile.getUsername(), userProfile.getDistinguishedName(),
+					PemCertificates.parse(der).getNotAfter().getTime(), decision);
+		} catch (CertificateException exception) {
+			LOGGER.error("Error parsing authenticated certificate, the decision is not cached.", exception);
+		}
 	}
 	
 	private AuthResponse processGxResponse(final GxAuthNResponse gxResponse) {
@@ -185,8 +337,8 @@ public class GxAuthenticator implements PiazzaAuthenticator {
 			logger.log(String.format("GeoAxis response contains: Username %s with DN %s", username, dn),
 					Severity.INFORMATIONAL);
 
-			// Get the latest information from Gx
-			final UserProfile userProfile = gxUserProfileClient.getUserProfileFromGx(username, dn);
+			// Get the latest information from Gx, refreshed in the background for returning users
+			final UserProfile userProfile = profileAttributeCache.getUserProfile(username, dn);
 			
 			if (accessor.hasUserProfile(username, dn)) {
 				final UserProfile originalUserProfile = accessor.getUserProfileByUsername(username);
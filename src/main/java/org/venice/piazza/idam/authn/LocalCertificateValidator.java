@@ -0,0 +1,181 @@
+/**
+ * Copyright 2016, RadiantBlue Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package org.venice.piazza.idam.authn;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.cert.CertPathBuilder;
+import java.security.cert.CertStore;
+import java.security.cert.Certificate;
+import java.security.cert.CollectionCertStoreParameters;
+import java.security.cert.PKIXBuilderParameters;
+import java.security.cert.TrustAnchor;
+import java.security.cert.X509CertSelector;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.PostConstruct;
+import javax.naming.InvalidNameException;
+import javax.naming.ldap.LdapName;
+import javax.naming.ldap.Rdn;
+import javax.security.auth.x500.X500Principal;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+/**
+ * Validates non-person-entity (NPE) certificates locally, without a GeoAxis call. A certificate is accepted if its
+ * subject is an NPE (OU=component) with a UID, it is within its validity period, and a chain can be built from it to
+ * a trusted certificate of the Piazza trust store. The trust store may also hold the intermediate certificates.
+ * <p>
+ * Revocation is not checked locally, as that would require a network hop to the CRL or OCSP responder. Any certificate
+ * that is not accepted here, including all person certificates, is left to GeoAxis.
+ * </p>
+ */
+@Component
+@Profile({ "geoaxis" })
+public class LocalCertificateValidator {
+	@Value("${gx.cert.local.validation.enabled}")
+	private boolean enabled;
+	@Autowired(required = false)
+	private KeyStore piazzaTrustStore;
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(LocalCertificateValidator.class);
+	private static final String NPE_UNIT = "component";
+	private Set<TrustAnchor> trustAnchors = Collections.emptySet();
+	private CertStore certStore;
+
+	/**
+	 * Loads the trust anchors and intermediate certificates from the trust store. Without any trusted certificates,
+	 * local validation is disabled.
+	 */
+	@PostConstruct
+	public void initialize() throws GeneralSecurityException {
+		if (!enabled) {
+			return;
+		}
+		if (piazzaTrustStore == null) {
+			LOGGER.warn("No trust store is configured, local certificate validation is disabled.");
+			enabled = false;
+			return;
+		}
+		Set<TrustAnchor> anchors = new HashSet<>();
+		List<Certificate> certificates = new ArrayList<>();
+		for (String alias : Collections.list(piazzaTrustStore.aliases())) {
+			if (piazzaTrustStore.isCertificateEntry(alias)) {
+				X509Certificate certificate = (X509Certificate) piazzaTrustStore.getCertificate(alias);
+				anchors.add(new TrustAnchor(certificate, null));
+				certificates.add(certificate);
+			} else if (piazzaTrustStore.getCertificateChain(alias) != null) {
+				Collections.addAll(certificates, piazzaTrustStore.getCertificateChain(alias));
+			}
+		}
+		if (anchors.isEmpty()) {
+			LOGGER.warn("The trust store has no trusted certificates, local certificate validation is disabled.");
+			enabled = false;
+			return;
+		}
+		trustAnchors = anchors;
+		certStore = CertStore.getInstance("Collection", new CollectionCertStoreParameters(certificates));
+		LOGGER.info("Local certificate validation is enabled with {} trust anchors.", anchors.size());
+	}
+
+	/**
+	 * @return True if certificates may be validated locally
+	 */
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Validates the certificate locally.
+	 *
+	 * @param certificate
+	 *            The certificate presented for authentication
+	 * @return The identity of the certificate, or null if it is not an NPE certificate that validates locally
+	 */
+	public Identity validate(final X509Certificate certificate) {
+		if (!enabled) {
+			return null;
+		}
+		String dn = certificate.getSubjectX500Principal().getName(X500Principal.RFC2253);
+		String uid = null;
+		boolean npe = false;
+		try {
+			for (Rdn rdn : new LdapName(dn).getRdns()) {
+				if ("UID".equalsIgnoreCase(rdn.getType())) {
+					uid = rdn.getValue().toString();
+				} else if ("OU".equalsIgnoreCase(rdn.getType()) && NPE_UNIT.equalsIgnoreCase(rdn.getValue().toString())) {
+					npe = true;
+				}
+			}
+		} catch (InvalidNameException exception) {
+			LOGGER.info("Certificate subject {} could not be parsed, deferring to GeoAxis.", dn, exception);
+			return null;
+		}
+		if (!npe || uid == null) {
+			return null;
+		}
+
+		try {
+			certificate.checkValidity();
+			X509CertSelector target = new X509CertSelector();
+			target.setCertificate(certificate);
+			PKIXBuilderParameters parameters = new PKIXBuilderParameters(trustAnchors, target);
+			parameters.addCertStore(certStore);
+			parameters.addCertStore(CertStore.getInstance("Collection",
+					new CollectionCertStoreParameters(Collections.singletonList(certificate))));
+			parameters.setRevocationEnabled(false);
+			CertPathBuilder.getInstance("PKIX").build(parameters);
+		} catch (GeneralSecurityException exception) {
+			LOGGER.info("Certificate {} did not validate locally, deferring to GeoAxis: {}", dn, exception.getMessage());
+			return null;
+		}
+		return new Identity(uid, dn);
+	}
+
+	/**
+	 * The identity of a locally validated certificate.
+	 */
+	public static final class Identity {
+		private final String uid;
+		private final String dn;
+
+		private Identity(final String uid, final String dn) {
+			this.uid = uid;
+			this.dn = dn;
+		}
+
+		public String getUid() {
+			return uid;
+		}
+
+		/**
+		 * @return The subject DN, in RFC 2253 form
+		 */
+		public String getDn() {
+			return dn;
+		}
+	}
+}
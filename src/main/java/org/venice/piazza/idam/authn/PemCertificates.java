@@ -0,0 +1,96 @@
+/**
+ * Copyright 2016, RadiantBlue Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package org.venice.piazza.idam.authn;
+
+import java.io.ByteArrayInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.Base64;
+
+/**
+ * Helpers for the PEM certificates presented for PKI authentication. The PEM may arrive with its lines joined by
+ * spaces, as it does when passed through a header.
+ */
+public final class PemCertificates {
+	private static final String PEM_HEADER = "-----BEGIN CERTIFICATE-----";
+	private static final String PEM_FOOTER = "-----END CERTIFICATE-----";
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	private PemCertificates() {
+	}
+
+	/**
+	 * Decodes the DER encoding of the certificate.
+	 *
+	 * @param pem
+	 *            The PEM certificate
+	 * @return The DER bytes, or null if the PEM is not a well formed certificate encoding
+	 */
+	public static byte[] decode(final String pem) {
+		if (pem == null) {
+			return null;
+		}
+		int start = pem.indexOf(PEM_HEADER);
+		int end = pem.indexOf(PEM_FOOTER);
+		if (start < 0 || end < start) {
+			return null;
+		}
+		try {
+			// The MIME decoder skips the whitespace between lines, whether newlines or spaces
+			byte[] der = Base64.getMimeDecoder().decode(pem.substring(start + PEM_HEADER.length(), end));
+			return der.length > 0 ? der : null;
+		} catch (IllegalArgumentException exception) {
+			return null;
+		}
+	}
+
+	/**
+	 * Parses the DER encoding of a certificate.
+	 *
+	 * @param der
+	 *            The DER bytes
+	 * @return The certificate
+	 */
+	public static X509Certificate parse(final byte[] der) throws CertificateException {
+		return (X509Certificate) CertificateFactory.getInstance("X.509").generateCertificate(new ByteArrayInputStream(der));
+	}
+
+	/**
+	 * Gets the SHA-256 fingerprint of the DER encoding of a certificate.
+	 *
+	 * @param der
+	 *            The DER bytes
+	 * @return The lowercase hex fingerprint
+	 */
+	public static String getFingerprint(final byte[] der) {
+		byte[] digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256").digest(der);
+		} catch (NoSuchAlgorithmException exception) {
+			// Every Java platform is required to support SHA-256
+			throw new IllegalStateException(exception);
+		}
+		char[] fingerprint = new char[digest.length * 2];
+		for (int i = 0; i < digest.length; i++) {
+			fingerprint[i * 2] = HEX[(digest[i] >> 4) & 0xF];
+			fingerprint[i * 2 + 1] = HEX[digest[i] & 0xF];
+		}
+		return new String(fingerprint);
+	}
+}
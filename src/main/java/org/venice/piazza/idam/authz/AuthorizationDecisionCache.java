@@ -0,0 +1,152 @@
+/**
+ * Copyright 2016, RadiantBlue Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package org.venice.piazza.idam.authz;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.LongSupplier;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.venice.piazza.idam.util.BoundedCache;
+
+import model.response.AuthResponse;
+import model.security.authz.AuthorizationCheck;
+import model.security.authz.Permission;
+
+/**
+ * Size-bounded, least-recently-used cache of the decisions of individual Authorizers, keyed by the Authorizer, the
+ * username, and the request method and uri of the check. A decision is served for at most the configured TTL, or the
+ * maximum decision age of its Authorizer if that is shorter. Checks that do not specify a request method and uri are
+ * never cached, so that they always reach the Authorizers which deny them.
+ */
+@Component
+public class AuthorizationDecisionCache {
+	@Value("${authz.decision.cache.max.size}")
+	private int maxSize;
+	@Value("${authz.decision.cache.ttl.ms}")
+	private long ttlMs;
+
+	private LongSupplier clock = System::currentTimeMillis;
+	private final BoundedCache<DecisionKey, Entry> entries = new BoundedCache<>(() -> maxSize);
+
+	/**
+	 * Gets the cached decision of the Authorizer for the check.
+	 *
+	 * @param authorizer
+	 *            The Authorizer
+	 * @param authorizationCheck
+	 *            The check
+	 * @return The cached decision, or null if there is none that is recent enough for the Authorizer
+	 */
+	public AuthResponse get(final Authorizer authorizer, final AuthorizationCheck authorizationCheck) {
+		long maxAgeMs = Math.min(ttlMs, authorizer.getMaxDecisionAgeMs());
+		if (maxAgeMs <= 0 || !isCacheable(authorizationCheck)) {
+			return null;
+		}
+		Entry entry = entries.get(new DecisionKey(authorizer, authorizationCheck),
+				cached -> clock.getAsLong() - cached.cachedOn <= maxAgeMs);
+		return entry != null ? entry.decision : null;
+	}
+
+	/**
+	 * Caches the decision of the Authorizer for the check.
+	 *
+	 * @param authorizer
+	 *            The Authorizer
+	 * @param authorizationCheck
+	 *            The check
+	 * @param decision
+	 *            The decision
+	 */
+	public void put(final Authorizer authorizer, final AuthorizationCheck authorizationCheck, final AuthResponse decision) {
+		if (!isCacheable(authorizationCheck)) {
+			return;
+		}
+		Entry entry = new Entry(decision, clock.getAsLong());
+		entries.put(new DecisionKey(authorizer, authorizationCheck), entry);
+	}
+
+	/**
+	 * Removes all entries from the cache.
+	 */
+	public void clear() {
+		entries.clear();
+	}
+
+	/**
+	 * Gets the current cache statistics, for reporting through the admin endpoint.
+	 *
+	 * @return Map of the statistic name to its value
+	 */
+	public Map<String, Object> getStatistics() {
+		Map<String, Object> statistics = entries.getStatistics();
+		statistics.put("ttlMs", ttlMs);
+		return statistics;
+	}
+
+	private static boolean isCacheable(final AuthorizationCheck authorizationCheck) {
+		Permission action = authorizationCheck.getAction();
+		return action != null && action.getRequestMethod() != null && action.getUri() != null;
+	}
+
+	/**
+	 * Identifies the decision of an Authorizer for one user, method and uri.
+	 */
+	private static final class DecisionKey {
+		private final Class<?> authorizerClass;
+		private final String username;
+		private final String requestMethod;
+		private final String uri;
+		private final int hash;
+
+		private DecisionKey(final Authorizer authorizer, final AuthorizationCheck authorizationCheck) {
+			this.authorizerClass = authorizer.getClass();
+			this.username = authorizationCheck.getUsername();
+			this.requestMethod = authorizationCheck.getAction().getRequestMethod();
+			this.uri = authorizationCheck.getAction().getUri();
+			this.hash = Objects.hash(authorizerClass, username, requestMethod, uri);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object object) {
+			if (this == object) {
+				return true;
+			}
+			if (!(object instanceof DecisionKey)) {
+				return false;
+			}
+			DecisionKey other = (DecisionKey) object;
+			return authorizerClass == other.authorizerClass && Objects.equals(username, other.username)
+					&& Objects.equals(requestMethod, other.requestMethod) && Objects.equals(uri, other.uri);
+		}
+	}
+
+	private static final class Entry {
+		private final AuthResponse decision;
+		private final long cachedOn;
+
+		private Entry(final AuthResponse decision, final long cachedOn) {
+			this.decision = decision;
+			this.cachedOn = cachedOn;
+		}
+	}
+}
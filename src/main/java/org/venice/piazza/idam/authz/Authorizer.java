@@ -15,6 +15,9 @@
  **/
 package org.venice.piazza.idam.authz;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import model.response.AuthResponse;
 import model.security.authz.AuthorizationCheck;
 
@@ -37,4 +40,92 @@ public interface Authorizer {
 	 *         detailed information to be present.
 	 */
 	public AuthResponse canUserPerformAction(AuthorizationCheck authorizationCheck);
+
+	/**
+	 * Determines if the user can perform each of the specified actions. All checks belong to the same user, so that
+	 * implementations may load the user's state once for the whole group rather than once per check.
+	 * 
+	 * @param authorizationChecks
+	 *            The authorization checks for a single user
+	 * @return The Authorization details for each check, in the order of the checks
+	 */
+	public default List<AuthResponse> canUserPerformActions(List<AuthorizationCheck> authorizationChecks) {
+		List<AuthResponse> responses = new ArrayList<>(authorizationChecks.size());
+		for (AuthorizationCheck authorizationCheck : authorizationChecks) {
+			responses.add(canUserPerformAction(authorizationCheck));
+		}
+		return responses;
+	}
+
+	/**
+	 * Determines if decisions of this Authorizer may be served from the {@link AuthorizationDecisionCache}.
+	 * 
+	 * @return True if decisions may be cached, for at most {@link #getMaxDecisionAgeMs()}
+	 */
+	public default boolean isCacheable() {
+		return getMaxDecisionAgeMs() > 0;
+	}
+
+	/**
+	 * Gets the estimated cost of a single check by this Authorizer. This is used to order the chain of Authorizers
+	 * until enough checks have been observed to measure it.
+	 * 
+	 * @return The estimated latency of a check, in microseconds
+	 */
+	public default double getEstimatedCost() {
+		return 100;
+	}
+
+	/**
+	 * Gets the expected fraction of checks that this Authorizer denies. This is used to order the chain of Authorizers
+	 * until enough checks have been observed to measure it.
+	 * 
+	 * @return The expected denial rate, between 0 and 1
+	 */
+	public default double getExpectedDenialRate() {
+		return 0.01;
+	}
+
+	/**
+	 * Determines if a check by this Authorizer changes state, such as consuming a rate limit permit. Such Authorizers
+	 * are always evaluated after every other Authorizer has permitted the check, whatever the order or parallelism of
+	 * the chain, so that a check denied for another reason consumes nothing.
+	 * 
+	 * @return True if a check has side effects
+	 */
+	public default boolean hasSideEffects() {
+		return false;
+	}
+
+	/**
+	 * Gets the maximum age of a decision of this Authorizer that may be served from the
+	 * {@link AuthorizationDecisionCache} rather than evaluated live. Decisions that only depend on slowly changing
+	 * state, such as endpoint permissions, may be cached; decisions that depend on live counters should be evaluated on
+	 * every check.
+	 * 
+	 * @return The maximum age, in milliseconds, of a cached decision. Zero if decisions must never be cached.
+	 */
+	public default long getMaxDecisionAgeMs() {
+		return 0;
+	}
+
+	/**
+	 * Gets the time that a check of this Authorizer may take when the chain is in parallel mode, after which the check
+	 * is cancelled and its failure policy applies. Outside of parallel mode, checks run on the calling thread and are
+	 * not timed out.
+	 * 
+	 * @return The timeout, in milliseconds. Zero if the check is waited on indefinitely.
+	 */
+	public default long getTimeoutMs() {
+		return 0;
+	}
+
+	/**
+	 * Determines the policy when a check of this Authorizer times out or fails with an error.
+	 * 
+	 * @return True if the check is then permitted (fail-open), false if it is denied (fail-closed)
+	 */
+	public default boolean isFailOpen() {
+		return false;
+	}
 }
@@ -0,0 +1,505 @@
+/**
+ * Copyright 2016, RadiantBlue Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package org.venice.piazza.idam.authz;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.venice.piazza.idam.authz.endpoint.EndpointAuthorizer;
+import org.venice.piazza.idam.authz.throttle.ThrottleAuthorizer;
+
+import model.logger.Severity;
+import model.response.AuthResponse;
+import model.security.authz.AuthorizationCheck;
+import util.PiazzaLogger;
+
+/**
+ * The ordered Authorizers that an authorization check must pass. A check is denied by the first Authorizer that denies
+ * it. Decisions of Authorizers that declare a maximum decision age are served from the
+ * {@link AuthorizationDecisionCache}; all other Authorizers are evaluated live on every check.
+ * <p>
+ * An Authorizer that fails with an error is permitted or denied according to its failure policy. In parallel mode, the
+ * uncached Authorizers of a single check are run concurrently on a bounded executor, so that the latency of a check is
+ * that of its slowest Authorizer rather than the sum of all of them. The first denial is returned immediately and the
+ * remaining Authorizers are cancelled. Authorizers that run one at a time, such as those with side effects, also run
+ * on the executor in parallel mode, so that an Authorizer that exceeds its timeout is abandoned and its failure policy
+ * applies whether or not it ran concurrently. When the executor is saturated, Authorizers run on the calling thread.
+ * </p>
+ * <p>
+ * With adaptive ordering, the chain is periodically reordered from moving averages of the observed latency and denial
+ * rate of each Authorizer, so that cheap Authorizers that frequently deny run first and expensive Authorizers are
+ * skipped for checks that are already denied. Until an Authorizer has been observed, its declared estimates are used.
+ * </p>
+ * <p>
+ * Authorizers with side effects, such as the rate limit of the {@link ThrottleAuthorizer}, are kept at the end of the
+ * chain and are never run in parallel with the others, so that they only act on checks every other Authorizer permits.
+ * </p>
+ */
+@Component
+public class AuthorizerChain {
+	@Autowired
+	private EndpointAuthorizer endpointAuthorizer;
+	@Autowired
+	private ThrottleAuthorizer throttleAuthorizer;
+	@Autowired
+	private AuthorizationDecisionCache decisionCache;
+	@Autowired
+	private PiazzaLogger pzLogger;
+	@Value("${authz.parallel.enabled}")
+	private boolean parallelEnabled;
+	@Value("${authz.parallel.threads}")
+	private int parallelThreads;
+	@Value("${authz.parallel.queue.size}")
+	private int parallelQueueSize;
+	@Value("${authz.ordering.adaptive}")
+	private boolean adaptiveOrdering;
+	@Value("${authz.ordering.smoothing}")
+	private double smoothing;
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(AuthorizerChain.class);
+	// Floor on the denial rate when ranking, so that Authorizers that never deny are ordered by cost
+	private static final double MIN_DENIAL_RATE = 0.001;
+	private static final Comparator<Authorizer> SIDE_EFFECTS_LAST = Comparator.comparing(Authorizer::hasSideEffects);
+	private volatile List<Authorizer> authorizers = Collections.emptyList();
+	private final Map<Authorizer, AuthorizerStatistics> statistics = new ConcurrentHashMap<>();
+	private ExecutorService executor;
+
+	/**
+	 * Collects all of the Authorizers into a list that can be iterated through for a specific authorization check.
+	 */
+	@PostConstruct
+	public void initializeAuthorizers() {
+		List<Authorizer> ordered = new ArrayList<>(Arrays.asList(endpointAuthorizer, throttleAuthorizer));
+		ordered.sort(SIDE_EFFECTS_LAST);
+		authorizers = Collections.unmodifiableList(ordered);
+		statistics.clear();
+		for (Authorizer authorizer : authorizers) {
+			statistics.put(authorizer, new AuthorizerStatistics(authorizer));
+		}
+		if (parallelEnabled && executor == null) {
+			AtomicInteger threadCount = new AtomicInteger();
+			ThreadPoolExecutor threadPool = new ThreadPoolExecutor(parallelThreads, parallelThreads, 60, TimeUnit.SECONDS,
+					new ArrayBlockingQueue<>(parallelQueueSize), runnable -> {
+						Thread thread = new Thread(runnable, "authorizer-" + threadCount.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					}, new ThreadPoolExecutor.CallerRunsPolicy());
+			threadPool.allowCoreThreadTimeOut(true);
+			executor = threadPool;
+		}
+	}
+
+	/**
+	 * Stops the parallel evaluation threads.
+	 */
+	@PreDestroy
+	public void shutdown() {
+		if (executor != null) {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Every interval, reorders the chain by the ratio of the observed latency to the observed denial rate of each
+	 * Authorizer, which minimizes the expected cost of a check when Authorizers deny independently. Authorizers with side
+	 * effects stay after all others.
+	 */
+	@Scheduled(fixedDelayString = "${authz.ordering.interval.ms}")
+	public void reorderAuthorizers() {
+		if (!adaptiveOrdering) {
+			return;
+		}
+		Map<Authorizer, Double> ranks = new HashMap<>();
+		for (Authorizer authorizer : authorizers) {
+			ranks.put(authorizer, statistics.get(authorizer).getRank());
+		}
+		List<Authorizer> ordered = new ArrayList<>(authorizers);
+		ordered.sort(SIDE_EFFECTS_LAST.thenComparingDouble(ranks::get));
+		if (!ordered.equals(authorizers)) {
+			authorizers = Collections.unmodifiableList(ordered);
+			LOGGER.info("Reordered Authorizers: {}", getStatistics().get("authorizers"));
+		}
+	}
+
+	/**
+	 * @return The observed statistics of each Authorizer, in the order of the chain
+	 */
+	public Map<String, Object> getStatistics() {
+		Map<String, Object> stats = new HashMap<>();
+		List<Map<String, Object>> authorizerStats = new ArrayList<>();
+		for (Authorizer authorizer : authorizers) {
+			authorizerStats.add(statistics.get(authorizer).toMap());
+		}
+		stats.put("authorizers", authorizerStats);
+		stats.put("adaptiveOrdering", adaptiveOrdering);
+		stats.put("parallel", executor != null);
+		return stats;
+	}
+
+	/**
+	 * Determines if the user can perform the action of the check.
+	 *
+	 * @param authorizationCheck
+	 *            The authorization check
+	 * @return The decision of the first Authorizer that denies the check, or a successful response if all permit it
+	 */
+	public AuthResponse authorize(AuthorizationCheck authorizationCheck) {
+		// Cached denials are returned without evaluating anything
+		List<Authorizer> uncached = new ArrayList<>(authorizers.size());
+		for (Authorizer authorizer : authorizers) {
+			AuthResponse decision = getCachedDecision(authorizer, authorizationCheck);
+			if (decision == null) {
+				uncached.add(authorizer);
+			} else if (!decision.getIsAuthSuccess().booleanValue()) {
+				return decision;
+			}
+		}
+		List<Authorizer> sequential = uncached;
+		if (executor != null) {
+			// Only Authorizers without side effects may run concurrently; the others run once they have all permitted
+			List<Authorizer> concurrent = new ArrayList<>(uncached.size());
+			sequential = new ArrayList<>(uncached.size());
+			for (Authorizer authorizer : uncached) {
+				(authorizer.hasSideEffects() ? sequential : concurrent).add(authorizer);
+			}
+			if (concurrent.size() > 1) {
+				AuthResponse decision = authorizeConcurrently(authorizationCheck, concurrent);
+				if (!decision.getIsAuthSuccess().booleanValue()) {
+					return decision;
+				}
+			} else {
+				sequential.addAll(0, concurrent);
+			}
+		}
+		for (Authorizer authorizer : sequential) {
+			AuthResponse decision = authorizeSequentially(authorizationCheck, authorizer);
+			if (!decision.getIsAuthSuccess().booleanValue()) {
+				return decision;
+			}
+		}
+		return new AuthResponse(true);
+	}
+
+	/**
+	 * Runs a single Authorizer, applying its failure policy if it fails. In parallel mode, an Authorizer with a timeout
+	 * runs on the executor so that it can be abandoned once the timeout passes.
+	 */
+	private AuthResponse authorizeSequentially(AuthorizationCheck authorizationCheck, Authorizer authorizer) {
+		if (executor == null || authorizer.getTimeoutMs() <= 0) {
+			try {
+				AuthResponse decision = evaluate(authorizer, authorizationCheck);
+				cacheDecision(authorizer, authorizationCheck, decision);
+				return decision;
+			} catch (RuntimeException exception) {
+				return getFailureDecision(authorizationCheck, authorizer, String.format("failed: %s", exception.getMessage()), exception);
+			}
+		}
+		Future<AuthResponse> future = executor.submit(() -> evaluate(authorizer, authorizationCheck));
+		try {
+			future.get(authorizer.getTimeoutMs(), TimeUnit.MILLISECONDS);
+			return getDecision(authorizationCheck, authorizer, future);
+		} catch (TimeoutException exception) {
+			future.cancel(true);
+			return getFailureDecision(authorizationCheck, authorizer,
+					String.format("did not complete within %s ms", authorizer.getTimeoutMs()), null);
+		} catch (ExecutionException exception) {
+			return getFailureDecision(authorizationCheck, authorizer, String.format("failed: %s", exception.getCause().getMessage()),
+					exception.getCause());
+		} catch (InterruptedException exception) {
+			Thread.currentThread().interrupt();
+			future.cancel(true);
+			LOGGER.warn("Interrupted while checking authorization.", exception);
+			return new AuthResponse(false, "Authorization check was interrupted.");
+		}
+	}
+
+	/**
+	 * Runs the Authorizers concurrently, returning the first denial. Any Authorizers still running on return are
+	 * cancelled.
+	 */
+	private AuthResponse authorizeConcurrently(AuthorizationCheck authorizationCheck, List<Authorizer> pending) {
+		CompletionService<AuthResponse> completionService = new ExecutorCompletionService<>(executor);
+		Map<Future<AuthResponse>, Authorizer> running = new HashMap<>();
+		long start = System.nanoTime();
+		try {
+			for (Authorizer authorizer : pending) {
+				running.put(completionService.submit(() -> evaluate(authorizer, authorizationCheck)), authorizer);
+			}
+			while (!running.isEmpty()) {
+				Future<AuthResponse> completed = completionService.poll(getNextTimeoutNanos(running, start), TimeUnit.NANOSECONDS);
+				if (completed == null) {
+					// Apply the failure policy of every Authorizer that is past its timeout
+					AuthResponse denial = expireTimedOut(authorizationCheck, running, System.nanoTime() - start);
+					if (denial != null) {
+						return denial;
+					}
+					continue;
+				}
+				// Cancelled Authorizers are also queued on completion, and have already been accounted for
+				Authorizer authorizer = running.remove(completed);
+				if (authorizer == null) {
+					continue;
+				}
+				AuthResponse decision = getDecision(authorizationCheck, authorizer, completed);
+				if (!decision.getIsAuthSuccess().booleanValue()) {
+					return decision;
+				}
+			}
+			return new AuthResponse(true);
+		} catch (InterruptedException exception) {
+			Thread.currentThread().interrupt();
+			LOGGER.warn("Interrupted while checking authorization.", exception);
+			return new AuthResponse(false, "Authorization check was interrupted.");
+		} finally {
+			for (Future<AuthResponse> future : running.keySet()) {
+				future.cancel(true);
+			}
+		}
+	}
+
+	/**
+	 * Runs a single check through the Authorizer, recording its latency and decision.
+	 */
+	private AuthResponse evaluate(Authorizer authorizer, AuthorizationCheck authorizationCheck) {
+		long start = System.nanoTime();
+		AuthResponse decision = authorizer.canUserPerformAction(authorizationCheck);
+		statistics.get(authorizer).record(System.nanoTime() - start, 1, decision.getIsAuthSuccess().booleanValue() ? 0 : 1, smoothing);
+		return decision;
+	}
+
+	/**
+	 * Runs a group of checks through the Authorizer, recording its latency and decisions and caching them. If the
+	 * Authorizer fails, its failure policy decides every check of the group, and nothing is cached.
+	 */
+	private List<AuthResponse> evaluateAll(Authorizer authorizer, List<AuthorizationCheck> authorizationChecks) {
+		long start = System.nanoTime();
+		List<AuthResponse> decisions;
+		try {
+			decisions = authorizer.canUserPerformActions(authorizationChecks);
+		} catch (RuntimeException exception) {
+			AuthResponse decision = getFailureDecision(authorizationChecks.get(0), authorizer,
+					String.format("failed: %s", exception.getMessage()), exception);
+			return Collections.nCopies(authorizationChecks.size(), decision);
+		}
+		int denials = 0;
+		for (int i = 0; i < decisions.size(); i++) {
+			cacheDecision(authorizer, authorizationChecks.get(i), decisions.get(i));
+			if (!decisions.get(i).getIsAuthSuccess().booleanValue()) {
+				denials++;
+			}
+		}
+		statistics.get(authorizer).record(System.nanoTime() - start, authorizationChecks.size(), denials, smoothing);
+		return decisions;
+	}
+
+	/**
+	 * Gets the time until the earliest timeout of the running Authorizers.
+	 */
+	private static long getNextTimeoutNanos(Map<Future<AuthResponse>, Authorizer> running, long start) {
+		long elapsed = System.nanoTime() - start;
+		long next = Long.MAX_VALUE;
+		for (Authorizer authorizer : running.values()) {
+			if (authorizer.getTimeoutMs() > 0) {
+				next = Math.min(next, Math.max(0, TimeUnit.MILLISECONDS.toNanos(authorizer.getTimeoutMs()) - elapsed));
+			}
+		}
+		return next;
+	}
+
+	/**
+	 * Cancels the running Authorizers that are past their timeout.
+	 * 
+	 * @return The denial of the first timed out Authorizer that fails closed, or null if all of them fail open
+	 */
+	private AuthResponse expireTimedOut(AuthorizationCheck authorizationCheck, Map<Future<AuthResponse>, Authorizer> running,
+			long elapsed) {
+		Iterator<Map.Entry<Future<AuthResponse>, Authorizer>> iterator = running.entrySet().iterator();
+		while (iterator.hasNext()) {
+			Map.Entry<Future<AuthResponse>, Authorizer> entry = iterator.next();
+			Authorizer authorizer = entry.getValue();
+			if (authorizer.getTimeoutMs() > 0 && elapsed >= TimeUnit.MILLISECONDS.toNanos(authorizer.getTimeoutMs())) {
+				entry.getKey().cancel(true);
+				iterator.remove();
+				AuthResponse decision = getFailureDecision(authorizationCheck, authorizer,
+						String.format("did not complete within %s ms", authorizer.getTimeoutMs()), null);
+				if (!decision.getIsAuthSuccess().booleanValue()) {
+					return decision;
+				}
+			}
+		}
+		return null;
+	}
+
+	private AuthResponse getDecision(AuthorizationCheck authorizationCheck, Authorizer authorizer, Future<AuthResponse> completed)
+			throws InterruptedException {
+		try {
+			AuthResponse decision = completed.get();
+			cacheDecision(authorizer, authorizationCheck, decision);
+			return decision;
+		} catch (ExecutionException exception) {
+			return getFailureDecision(authorizationCheck, authorizer, String.format("failed: %s", exception.getCause().getMessage()),
+					exception.getCause());
+		}
+	}
+
+	/**
+	 * Applies the failure policy of an Authorizer that timed out or failed. Failure decisions are not cached.
+	 */
+	private AuthResponse getFailureDecision(AuthorizationCheck authorizationCheck, Authorizer authorizer, String reason,
+			Throwable cause) {
+		String error = String.format("Authorization of user %s by %s %s.", authorizationCheck.getUsername(),
+				authorizer.getClass().getSimpleName(), reason);
+		LOGGER.error(error, cause);
+		pzLogger.log(error, Severity.WARNING);
+		return authorizer.isFailOpen() ? new AuthResponse(true) : new AuthResponse(false, error);
+	}
+
+	/**
+	 * Determines if the user can perform the action of each check. All checks belong to the same user. Checks that are
+	 * not cached are passed to each Authorizer as a group, and a check is no longer evaluated once it has been denied.
+	 * Groups are always evaluated sequentially, as each Authorizer already amortizes its work across the group. An
+	 * Authorizer that fails with an error decides the whole group by its failure policy.
+	 *
+	 * @param authorizationChecks
+	 *            The authorization checks for a single user
+	 * @return The decision for each check, in the order of the checks
+	 */
+	public List<AuthResponse> authorizeAll(List<AuthorizationCheck> authorizationChecks) {
+		AuthResponse[] decisions = new AuthResponse[authorizationChecks.size()];
+		List<Integer> pending = new ArrayList<>(authorizationChecks.size());
+		for (int i = 0; i < authorizationChecks.size(); i++) {
+			pending.add(i);
+		}
+		for (Authorizer authorizer : authorizers) {
+			if (pending.isEmpty()) {
+				break;
+			}
+			// Serve what can be served from the cache, and evaluate the rest together
+			AuthResponse[] authorizerDecisions = new AuthResponse[pending.size()];
+			List<Integer> uncached = new ArrayList<>(pending.size());
+			List<AuthorizationCheck> uncachedChecks = new ArrayList<>(pending.size());
+			for (int i = 0; i < pending.size(); i++) {
+				AuthorizationCheck authorizationCheck = authorizationChecks.get(pending.get(i));
+				authorizerDecisions[i] = getCachedDecision(authorizer, authorizationCheck);
+				if (authorizerDecisions[i] == null) {
+					uncached.add(i);
+					uncachedChecks.add(authorizationCheck);
+				}
+			}
+			if (!uncachedChecks.isEmpty()) {
+				List<AuthResponse> liveDecisions = evaluateAll(authorizer, uncachedChecks);
+				for (int i = 0; i < uncached.size(); i++) {
+					authorizerDecisions[uncached.get(i)] = liveDecisions.get(i);
+				}
+			}
+
+			List<Integer> permitted = new ArrayList<>(pending.size());
+			for (int i = 0; i < pending.size(); i++) {
+				if (authorizerDecisions[i].getIsAuthSuccess().booleanValue()) {
+					permitted.add(pending.get(i));
+				} else {
+					decisions[pending.get(i)] = authorizerDecisions[i];
+				}
+			}
+			pending = permitted;
+		}
+
+		// The remaining checks passed every Authorizer
+		for (Integer index : pending) {
+			decisions[index] = new AuthResponse(true);
+		}
+		return Arrays.asList(decisions);
+	}
+
+	private AuthResponse getCachedDecision(Authorizer authorizer, AuthorizationCheck authorizationCheck) {
+		return authorizer.isCacheable() ? decisionCache.get(authorizer, authorizationCheck) : null;
+	}
+
+	private void cacheDecision(Authorizer authorizer, AuthorizationCheck authorizationCheck, AuthResponse decision) {
+		if (authorizer.isCacheable()) {
+			decisionCache.put(authorizer, authorizationCheck, decision);
+		}
+	}
+
+	/**
+	 * Exponentially weighted moving averages of the latency and denial rate of an Authorizer, seeded with its declared
+	 * estimates. Cached decisions are not observed.
+	 */
+	private static final class AuthorizerStatistics {
+		private final String name;
+		private final double estimatedCost;
+		private double latencyUs;
+		private double denialRate;
+		private long evaluations;
+
+		private AuthorizerStatistics(final Authorizer authorizer) {
+			this.name = authorizer.getClass().getSimpleName();
+			this.estimatedCost = authorizer.getEstimatedCost();
+			this.latencyUs = estimatedCost;
+			this.denialRate = authorizer.getExpectedDenialRate();
+		}
+
+		/**
+		 * Records the evaluation of a group of checks, weighted as that many individual observations.
+		 */
+		private synchronized void record(final long latencyNanos, final int checks, final int denials, final double smoothing) {
+			double weight = 1 - Math.pow(1 - smoothing, checks);
+			latencyUs += weight * ((latencyNanos / 1000.0 / checks) - latencyUs);
+			denialRate += weight * (((double) denials / checks) - denialRate);
+			evaluations += checks;
+		}
+
+		private synchronized double getRank() {
+			return latencyUs / Math.max(denialRate, MIN_DENIAL_RATE);
+		}
+
+		private synchronized Map<String, Object> toMap() {
+			Map<String, Object> stats = new HashMap<>();
+			stats.put("name", name);
+			stats.put("estimatedCost", estimatedCost);
+			stats.put("latencyUs", latencyUs);
+			stats.put("denialRate", denialRate);
+			stats.put("evaluations", evaluations);
+			return stats;
+		}
+	}
+}
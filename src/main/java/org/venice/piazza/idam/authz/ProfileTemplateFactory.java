@@ -15,17 +15,11 @@
  **/
 package org.venice.piazza.idam.authz;
 
-import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
 
-import org.apache.commons.io.IOUtils;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
-
 import model.security.authz.ProfileTemplate;
 
 /**
@@ -37,14 +31,15 @@ import model.security.authz.ProfileTemplate;
  */
 @Component
 public class ProfileTemplateFactory {
-	private static final Logger LOGGER = LoggerFactory.getLogger(ProfileTemplateFactory.class);
-	private ObjectMapper mapper = new ObjectMapper();
+	@Autowired
+	private ProfileTemplateRegistry profileTemplateRegistry;
 
 	/**
 	 * Gets the ProfileTemplate for the specified role. This role must have an accompanying .json file in the
-	 * resources/profiles folder.
+	 * resources/profiles folder, or in the external profile templates directory.
 	 * <p>
-	 * The ID is not set.
+	 * The ID is not set. The template is served from the {@link ProfileTemplateRegistry}, already parsed, and is shared
+	 * between callers.
 	 * </p>
 	 * 
 	 * @param role
@@ -52,24 +47,11 @@ public class ProfileTemplateFactory {
 	 * @return ProfileTemplate for the specified role.
 	 */
 	public ProfileTemplate getDefaultTemplate(String role) throws IOException {
-		// Load the .json resource
-		ClassLoader classLoader = getClass().getClassLoader();
-		InputStream templateStream = null;
-		String templateString = null;
-		try {
-			templateStream = classLoader.getResourceAsStream(String.format("%s%s%s.json", "profiles", File.separator, role));
-			templateString = IOUtils.toString(templateStream);
-		} finally {
-			try {
-				if( templateStream != null ) {
-					templateStream.close();
-				}
-			} catch (Exception exception) {
-				LOGGER.error("Error closing Template Stream.", exception);
-			}
+		ProfileTemplate template = profileTemplateRegistry.getTemplate(role);
+		if (template == null) {
+			throw new IOException(String.format("No Profile Template found for role %s.", role));
 		}
-		// Read the String into the Template object
-		return mapper.readValue(templateString, ProfileTemplate.class);
+		return template;
 	}
 
 	/**
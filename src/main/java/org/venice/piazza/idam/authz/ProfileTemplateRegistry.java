@@ -0,0 +1,190 @@
+/**
+ * Copyright 2016, RadiantBlue Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package org.venice.piazza.idam.authz;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.annotation.PostConstruct;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import model.logger.Severity;
+import model.security.authz.ProfileTemplate;
+import util.PiazzaLogger;
+
+/**
+ * Registry of the parsed ProfileTemplates for each role. Every template under the classpath profiles folder is parsed
+ * once at startup. Templates in the optional external directory override and extend them; the directory is polled for
+ * changes, and a changed set of templates is parsed in full and swapped in atomically, without a restart. If any
+ * template fails to parse, the previous set is kept.
+ * <p>
+ * The served templates are shared between callers and their collections are unmodifiable.
+ * </p>
+ */
+@Component
+public class ProfileTemplateRegistry {
+	@Autowired
+	private PiazzaLogger pzLogger;
+	@Value("${profile.templates.directory:}")
+	private String externalDirectory;
+
+	private static final String CLASSPATH_TEMPLATES = "classpath*:profiles/*.json";
+	private static final String TEMPLATE_EXTENSION = ".json";
+	private static final Logger LOGGER = LoggerFactory.getLogger(ProfileTemplateRegistry.class);
+	private ObjectMapper mapper = new ObjectMapper();
+
+	private volatile Map<String, ProfileTemplate> templates = Collections.emptyMap();
+	private volatile long externalFingerprint = 0;
+	private volatile long loadTimeMs = 0;
+	private volatile long loadedOn = 0;
+	private volatile long loads = 0;
+
+	/**
+	 * Loads all templates at startup. Failing to parse the packaged templates is fatal.
+	 */
+	@PostConstruct
+	public void initialize() throws IOException {
+		load();
+	}
+
+	/**
+	 * Gets the parsed template for the specified role.
+	 *
+	 * @param role
+	 *            The role
+	 * @return The template, or null if there is no template for the role
+	 */
+	public ProfileTemplate getTemplate(final String role) {
+		return templates.get(role);
+	}
+
+	/**
+	 * @return The current template of each role. A new map is swapped in on every reload.
+	 */
+	public Map<String, ProfileTemplate> getTemplates() {
+		return templates;
+	}
+
+	/**
+	 * Every interval, reloads all templates if the external directory has changed.
+	 */
+	@Scheduled(fixedDelayString = "${profile.templates.reload.interval.ms}")
+	public void reloadIfChanged() {
+		if (getExternalFingerprint() == externalFingerprint) {
+			return;
+		}
+		try {
+			load();
+			String message = String.format("Reloaded %s Profile Templates.", templates.size());
+			LOGGER.info(message);
+			pzLogger.log(message, Severity.INFORMATIONAL);
+		} catch (Exception exception) {
+			String error = String.format("Error reloading Profile Templates, the previous templates remain in use: %s",
+					exception.getMessage());
+			LOGGER.error(error, exception);
+			pzLogger.log(error, Severity.WARNING);
+		}
+	}
+
+	/**
+	 * @return Statistics of the loaded templates
+	 */
+	public Map<String, Object> getStatistics() {
+		Map<String, Object> stats = new HashMap<>();
+		stats.put("templateCount", templates.size());
+		stats.put("roles", new ArrayList<>(templates.keySet()));
+		stats.put("loadTimeMs", loadTimeMs);
+		stats.put("loadedOn", loadedOn);
+		stats.put("loads", loads);
+		stats.put("externalDirectory", externalDirectory);
+		return stats;
+	}
+
+	/**
+	 * Parses all templates, and then swaps them in. The fingerprint of the external directory is taken first, so that a
+	 * change made during loading triggers another reload.
+	 */
+	private synchronized void load() throws IOException {
+		long start = System.currentTimeMillis();
+		long fingerprint = getExternalFingerprint();
+		Map<String, ProfileTemplate> loaded = new HashMap<>();
+		for (Resource resource : new PathMatchingResourcePatternResolver().getResources(CLASSPATH_TEMPLATES)) {
+			try (InputStream templateStream = resource.getInputStream()) {
+				loaded.put(getRole(resource.getFilename()), mapper.readValue(templateStream, ProfileTemplate.class));
+			}
+		}
+		for (File file : getExternalFiles()) {
+			loaded.put(getRole(file.getName()), mapper.readValue(file, ProfileTemplate.class));
+		}
+		for (ProfileTemplate template : loaded.values()) {
+			makeUnmodifiable(template);
+		}
+		templates = Collections.unmodifiableMap(loaded);
+		externalFingerprint = fingerprint;
+		loadedOn = System.currentTimeMillis();
+		loadTimeMs = loadedOn - start;
+		loads++;
+	}
+
+	private static void makeUnmodifiable(final ProfileTemplate template) {
+		if (template.getPermissions() != null) {
+			template.setPermissions(Collections.unmodifiableMap(template.getPermissions()));
+		}
+		if (template.getThrottles() != null) {
+			template.setThrottles(Collections.unmodifiableList(template.getThrottles()));
+		}
+	}
+
+	private static String getRole(final String fileName) {
+		return fileName.substring(0, fileName.length() - TEMPLATE_EXTENSION.length());
+	}
+
+	private File[] getExternalFiles() {
+		if (externalDirectory == null || externalDirectory.isEmpty()) {
+			return new File[0];
+		}
+		File[] files = new File(externalDirectory).listFiles((directory, name) -> name.endsWith(TEMPLATE_EXTENSION));
+		return files != null ? files : new File[0];
+	}
+
+	/**
+	 * Fingerprints the names, sizes and modification times of the external templates.
+	 */
+	private long getExternalFingerprint() {
+		long fingerprint = 1;
+		for (File file : getExternalFiles()) {
+			fingerprint = 31 * fingerprint + file.getName().hashCode();
+			fingerprint = 31 * fingerprint + file.length();
+			fingerprint = 31 * fingerprint + file.lastModified();
+		}
+		return fingerprint;
+	}
+}
@@ -15,18 +15,36 @@
  **/
 package org.venice.piazza.idam.authz.endpoint;
 
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 import org.venice.piazza.idam.authz.Authorizer;
 import org.venice.piazza.idam.authz.ProfileTemplateFactory;
+import org.venice.piazza.idam.authz.ProfileTemplateRegistry;
 
+import model.logger.Severity;
 import model.response.AuthResponse;
 import model.security.authz.AuthorizationCheck;
+import model.security.authz.Permission;
+import model.security.authz.ProfileTemplate;
 import util.PiazzaLogger;
 
 /**
  * Authorizer that determines if a specified user action will be prevented due to restricted access to a particular
  * endpoint in the Piazza API.
+ * <p>
+ * The permission keys of all ProfileTemplates are compiled into a {@link RouteTrie}, and the permissions of each
+ * template into a BitSet over its route ids. A check is then a trie walk over the request path and a bit lookup. The
+ * compiled permissions are rebuilt whenever the {@link ProfileTemplateRegistry} swaps in new templates.
+ * </p>
  * 
  * @author Patrick.Doody
  *
@@ -37,13 +55,119 @@ public class EndpointAuthorizer implements Authorizer {
 	private PiazzaLogger pzLogger;
 	@Autowired
 	private ProfileTemplateFactory profileTemplateFactory;
+	@Autowired
+	private ProfileTemplateRegistry profileTemplateRegistry;
+	@Value("${endpoint.authz.unknown.allowed}")
+	private boolean unknownEndpointsAllowed;
+	@Value("${endpoint.authz.timeout.ms}")
+	private long timeoutMs;
+	@Value("${endpoint.authz.fail.open}")
+	private boolean failOpen;
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(EndpointAuthorizer.class);
+	private volatile CompiledPermissions compiledPermissions;
+
+	@Override
+	public AuthResponse canUserPerformAction(AuthorizationCheck authorizationCheck) {
+		Permission action = authorizationCheck.getAction();
+		if (action == null || action.getRequestMethod() == null || action.getUri() == null) {
+			return new AuthResponse(false, "Authorization Check does not specify a request method and URI.");
+		}
+		CompiledPermissions permissions = getCompiledPermissions();
+		int routeId = permissions.routes.match(action.getRequestMethod(), action.getUri());
+		if (routeId < 0) {
+			if (unknownEndpointsAllowed) {
+				return new AuthResponse(true);
+			}
+			return new AuthResponse(false, String.format("%s %s is not a recognized endpoint.", action.getRequestMethod(), action.getUri()));
+		}
+
+		// Determine if the template of the user allows the route
+		ProfileTemplate template;
+		try {
+			template = profileTemplateFactory.getProfileTemplateForUser(authorizationCheck.getUsername());
+		} catch (Exception exception) {
+			String error = String.format("Error getting Profile Template for user %s: %s", authorizationCheck.getUsername(),
+					exception.getMessage());
+			LOGGER.error(error, exception);
+			pzLogger.log(error, Severity.ERROR);
+			return new AuthResponse(false, error);
+		}
+		if (permissions.getAllowedRoutes(template).get(routeId)) {
+			return new AuthResponse(true);
+		}
+		return new AuthResponse(false, String.format("User %s does not have permission to %s %s.", authorizationCheck.getUsername(),
+				action.getRequestMethod(), action.getUri()));
+	}
 
 	/**
-	 * TODO: This is a placeholder. We will eventually delegate this call to GeoAxis. No need to use Piazza code for
-	 * this, for now.
+	 * Endpoint decisions only change when the templates or the role of the user change, so they may be cached for the
+	 * full TTL of the decision cache.
 	 */
 	@Override
-	public AuthResponse canUserPerformAction(AuthorizationCheck authorizationCheck) {
-		return new AuthResponse(true);
+	public long getMaxDecisionAgeMs() {
+		return Long.MAX_VALUE;
+	}
+
+	/**
+	 * A check is a trie walk and a bit lookup over the compiled permissions.
+	 */
+	@Override
+	public double getEstimatedCost() {
+		return 20;
+	}
+
+	@Override
+	public long getTimeoutMs() {
+		return timeoutMs;
+	}
+
+	@Override
+	public boolean isFailOpen() {
+		return failOpen;
+	}
+
+	/**
+	 * Gets the permissions compiled from the current templates, compiling them if the templates have been reloaded.
+	 */
+	private CompiledPermissions getCompiledPermissions() {
+		Map<String, ProfileTemplate> templates = profileTemplateRegistry.getTemplates();
+		CompiledPermissions permissions = compiledPermissions;
+		if (permissions == null || permissions.templates != templates) {
+			permissions = new CompiledPermissions(templates);
+			compiledPermissions = permissions;
+		}
+		return permissions;
+	}
+
+	/**
+	 * The routes of a set of templates, and the allowed routes of each template.
+	 */
+	private static final class CompiledPermissions {
+		private final Map<String, ProfileTemplate> templates;
+		private final RouteTrie routes;
+		private final Map<ProfileTemplate, BitSet> allowedRoutes = new IdentityHashMap<>();
+
+		private CompiledPermissions(final Map<String, ProfileTemplate> templates) {
+			this.templates = templates;
+			Set<String> permissionKeys = new HashSet<>();
+			for (ProfileTemplate template : templates.values()) {
+				if (template.getPermissions() != null) {
+					permissionKeys.addAll(template.getPermissions().keySet());
+				}
+			}
+			routes = RouteTrie.compile(permissionKeys);
+			for (ProfileTemplate template : templates.values()) {
+				allowedRoutes.put(template, routes.getAllowedRoutes(template.getPermissions()));
+			}
+		}
+
+		/**
+		 * Gets the allowed routes of the template. Templates that are not in the registry are compiled on demand.
+		 */
+		private BitSet getAllowedRoutes(final ProfileTemplate template) {
+			BitSet allowed = allowedRoutes.get(template);
+			return allowed != null ? allowed : routes.getAllowedRoutes(template.getPermissions());
+		}
 	}
 }
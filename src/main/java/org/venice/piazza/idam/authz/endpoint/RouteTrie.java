@@ -0,0 +1,213 @@
+/**
+ * Copyright 2016, RadiantBlue Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package org.venice.piazza.idam.authz.endpoint;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable trie of the routes named by ProfileTemplate permission keys, such as "POST data/file". Each route is
+ * assigned an id, so that a set of permissions can be held as a BitSet over route ids.
+ * <p>
+ * A request matches the route with the longest matching prefix of path segments, so "GET data" also covers
+ * "GET data/{dataId}", while a more specific route such as "GET data/me" takes precedence. Matching walks the request
+ * path in place and does not allocate.
+ * </p>
+ */
+public final class RouteTrie {
+	private final Node[] methodRoots;
+	private final String[] methods;
+	private final int routeCount;
+
+	private RouteTrie(final List<String> methods, final List<Node> methodRoots, final int routeCount) {
+		this.methods = methods.toArray(new String[methods.size()]);
+		this.methodRoots = methodRoots.toArray(new Node[methodRoots.size()]);
+		this.routeCount = routeCount;
+	}
+
+	/**
+	 * Compiles the routes named by the specified permission keys. Keys that do not have the form "METHOD path" are
+	 * ignored.
+	 *
+	 * @param permissionKeys
+	 *            The permission keys
+	 * @return The compiled routes
+	 */
+	public static RouteTrie compile(final Collection<String> permissionKeys) {
+		List<String> methods = new ArrayList<>();
+		List<Node> methodRoots = new ArrayList<>();
+		int routeCount = 0;
+		for (String permissionKey : permissionKeys) {
+			int separator = permissionKey.indexOf(' ');
+			if (separator <= 0) {
+				continue;
+			}
+			String method = permissionKey.substring(0, separator).toUpperCase();
+			int methodIndex = methods.indexOf(method);
+			if (methodIndex < 0) {
+				methods.add(method);
+				methodRoots.add(new Node(""));
+				methodIndex = methods.size() - 1;
+			}
+			Node node = methodRoots.get(methodIndex);
+			for (String segment : permissionKey.substring(separator + 1).split("/")) {
+				if (!segment.isEmpty()) {
+					node = node.getOrAddChild(segment);
+				}
+			}
+			if (node.routeId < 0) {
+				node.routeId = routeCount++;
+			}
+		}
+		return new RouteTrie(methods, methodRoots, routeCount);
+	}
+
+	/**
+	 * @return The number of distinct routes
+	 */
+	public int getRouteCount() {
+		return routeCount;
+	}
+
+	/**
+	 * Gets the id of the route that the permission key names.
+	 *
+	 * @param permissionKey
+	 *            The permission key, such as "POST data/file"
+	 * @return The route id, or -1 if the key does not name a route exactly
+	 */
+	public int getRouteId(final String permissionKey) {
+		int separator = permissionKey.indexOf(' ');
+		if (separator <= 0) {
+			return -1;
+		}
+		Node node = getMethodRoot(permissionKey, 0, separator);
+		int start = separator + 1;
+		while (node != null && start < permissionKey.length()) {
+			int end = permissionKey.indexOf('/', start);
+			if (end < 0) {
+				end = permissionKey.length();
+			}
+			if (end > start) {
+				node = node.getChild(permissionKey, start, end);
+			}
+			start = end + 1;
+		}
+		return node != null ? node.routeId : -1;
+	}
+
+	/**
+	 * Compiles the allowed routes of a set of permissions.
+	 *
+	 * @param permissions
+	 *            The permissions of a ProfileTemplate
+	 * @return The ids of the routes that the permissions allow
+	 */
+	public BitSet getAllowedRoutes(final Map<String, Boolean> permissions) {
+		BitSet allowedRoutes = new BitSet(routeCount);
+		if (permissions != null) {
+			for (Map.Entry<String, Boolean> permission : permissions.entrySet()) {
+				int routeId = getRouteId(permission.getKey());
+				if (routeId >= 0 && Boolean.TRUE.equals(permission.getValue())) {
+					allowedRoutes.set(routeId);
+				}
+			}
+		}
+		return allowedRoutes;
+	}
+
+	/**
+	 * Matches a request against the routes.
+	 *
+	 * @param method
+	 *            The HTTP method of the request
+	 * @param uri
+	 *            The path of the request. Leading, trailing and repeated slashes are ignored.
+	 * @return The id of the route with the longest matching prefix, or -1 if no route matches
+	 */
+	public int match(final String method, final String uri) {
+		Node node = getMethodRoot(method, 0, method.length());
+		if (node == null) {
+			return -1;
+		}
+		int routeId = node.routeId;
+		int start = 0;
+		while (start < uri.length()) {
+			int end = uri.indexOf('/', start);
+			if (end < 0) {
+				end = uri.length();
+			}
+			if (end > start) {
+				node = node.getChild(uri, start, end);
+				if (node == null) {
+					break;
+				}
+				if (node.routeId >= 0) {
+					routeId = node.routeId;
+				}
+			}
+			start = end + 1;
+		}
+		return routeId;
+	}
+
+	private Node getMethodRoot(final String source, final int start, final int end) {
+		for (int i = 0; i < methods.length; i++) {
+			if (methods[i].length() == end - start && methods[i].regionMatches(true, 0, source, start, end - start)) {
+				return methodRoots[i];
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * A path segment. Children are held in an array, as the fan-out of the Piazza API is small.
+	 */
+	private static final class Node {
+		private final String segment;
+		private Node[] children = new Node[0];
+		private int routeId = -1;
+
+		private Node(final String segment) {
+			this.segment = segment;
+		}
+
+		private Node getChild(final String source, final int start, final int end) {
+			int length = end - start;
+			for (Node child : children) {
+				if (child.segment.length() == length && child.segment.regionMatches(0, source, start, length)) {
+					return child;
+				}
+			}
+			return null;
+		}
+
+		private Node getOrAddChild(final String childSegment) {
+			Node child = getChild(childSegment, 0, childSegment.length());
+			if (child == null) {
+				child = new Node(childSegment);
+				Node[] expanded = new Node[children.length + 1];
+				System.arraycopy(children, 0, expanded, 0, children.length);
+				expanded[children.length] = child;
+				children = expanded;
+			}
+			return child;
+		}
+	}
+}
@@ -16,22 +16,28 @@
 package org.venice.piazza.idam.authz.throttle;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.LongSupplier;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.amqp.core.Message;
 import org.springframework.amqp.rabbit.annotation.Exchange;
 import org.springframework.amqp.rabbit.annotation.Queue;
 import org.springframework.amqp.rabbit.annotation.QueueBinding;
 import org.springframework.amqp.rabbit.annotation.RabbitListener;
+import org.springframework.amqp.rabbit.listener.ListenerContainerIdleEvent;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Component;
 import org.venice.piazza.idam.data.DatabaseAccessor;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.rabbitmq.client.Channel;
 
 import messaging.job.JobMessageFactory;
-import model.job.Job;
 import model.logger.Severity;
 import util.PiazzaLogger;
 
@@ -39,6 +45,16 @@ import util.PiazzaLogger;
  * Message Receiver class that listens for all Jobs as they are created throughout Piazza, and records the username and
  * job type information into the throttle table. This information is later used when determining when a user should be
  * throttled.
+ * <p>
+ * In batch mode, messages are acknowledged manually. The Jobs of each consumer are aggregated per user until the batch
+ * size is reached or the batch timeout elapses; each batch is then written as one bulk increment, and the whole batch
+ * is acknowledged only after the write has committed. If the write fails, the batch is requeued.
+ * </p>
+ * <p>
+ * Channels are not thread-safe, so batches are only ever written and acknowledged on the listener container thread
+ * that consumed them. A batch is timed out either when the next message arrives on that thread, or when the container
+ * publishes its idle event, which it does on the consumer thread.
+ * </p>
  * 
  * @author Patrick.Doody
  *
@@ -48,48 +64,161 @@ public class JobConsumer {
 	@Autowired
 	private PiazzaLogger pzLogger;
 	@Autowired
+	private ThrottleCounters throttleCounters;
+	@Autowired
 	private DatabaseAccessor accessor;
 	@Value("${SPACE}")
 	private String space;
+	@Value("${throttle.consumer.batch.enabled}")
+	private boolean batchEnabled;
+	@Value("${throttle.consumer.batch.size}")
+	private int batchSize;
+	@Value("${throttle.consumer.batch.timeout.ms}")
+	private long batchTimeoutMs;
 
-	private ObjectMapper mapper = new ObjectMapper();
+	private JobMessageReader jobMessageReader = new JobMessageReader();
+	private LongSupplier clock = System::currentTimeMillis;
+	private final ThreadLocal<JobBatch> batches = new ThreadLocal<>();
 	private static final Logger LOGGER = LoggerFactory.getLogger(JobConsumer.class);
 
+	/**
+	 * Receives a Job Message coming through the Message Bus, and either processes it immediately or adds it to the
+	 * batch of its channel.
+	 * 
+	 * @param message
+	 *            The message, containing the serialized PiazzaJobType Model
+	 * @param channel
+	 *            The channel the message was delivered on
+	 */
+	@RabbitListener(containerFactory = "throttleListenerContainerFactory", bindings = @QueueBinding(key = "IngestJob-${SPACE}", value = @Queue(value = "IDAMThrottles-${SPACE}", autoDelete = "false", durable = "true"), exchange = @Exchange(value = JobMessageFactory.PIAZZA_EXCHANGE_NAME, autoDelete = "false", durable = "true")))
+	@RabbitListener(containerFactory = "throttleListenerContainerFactory", bindings = @QueueBinding(key = "AccessJob-${SPACE}", value = @Queue(value = "IDAMThrottles-${SPACE}", autoDelete = "false", durable = "true"), exchange = @Exchange(value = JobMessageFactory.PIAZZA_EXCHANGE_NAME, autoDelete = "false", durable = "true")))
+	@RabbitListener(containerFactory = "throttleListenerContainerFactory", bindings = @QueueBinding(key = "ExecuteServiceJob-${SPACE}", value = @Queue(value = "IDAMThrottles-${SPACE}", autoDelete = "false", durable = "true"), exchange = @Exchange(value = JobMessageFactory.PIAZZA_EXCHANGE_NAME, autoDelete = "false", durable = "true")))
+	public void receiveJobMessage(Message message, Channel channel) {
+		String jobTypeString = new String(message.getBody(), StandardCharsets.UTF_8);
+		if (!batchEnabled) {
+			processJobMessage(jobTypeString);
+			return;
+		}
+
+		// Add the Job to the batch of this consumer, and write the batch if it is full or has timed out
+		JobBatch batch = batches.get();
+		if (batch == null || batch.channel != channel) {
+			// The unacknowledged messages of a previous channel are redelivered by the broker once it has closed
+			batch = new JobBatch(channel);
+			batches.set(batch);
+		}
+		long now = clock.getAsLong();
+		if (batch.size == 0) {
+			batch.startedOn = now;
+		}
+		batch.add(getJobCreator(jobTypeString), message.getMessageProperties().getDeliveryTag());
+		if (batch.size >= batchSize || now - batch.startedOn >= batchTimeoutMs) {
+			flushBatch(batch);
+		}
+	}
+
 	/**
 	 * Process a Job Message coming through the Message Bus and determine if it represents a throttable Job
 	 * 
 	 * @param jobTypeString
 	 *            The serialized PiazzaJobType Model
 	 */
-	@RabbitListener(bindings = @QueueBinding(key = "IngestJob-${SPACE}", value = @Queue(value = "IDAMThrottles-${SPACE}", autoDelete = "false", durable = "true"), exchange = @Exchange(value = JobMessageFactory.PIAZZA_EXCHANGE_NAME, autoDelete = "false", durable = "true")))
-	@RabbitListener(bindings = @QueueBinding(key = "AccessJob-${SPACE}", value = @Queue(value = "IDAMThrottles-${SPACE}", autoDelete = "false", durable = "true"), exchange = @Exchange(value = JobMessageFactory.PIAZZA_EXCHANGE_NAME, autoDelete = "false", durable = "true")))
-	@RabbitListener(bindings = @QueueBinding(key = "ExecuteServiceJob-${SPACE}", value = @Queue(value = "IDAMThrottles-${SPACE}", autoDelete = "false", durable = "true"), exchange = @Exchange(value = JobMessageFactory.PIAZZA_EXCHANGE_NAME, autoDelete = "false", durable = "true")))
 	public void processJobMessage(String jobTypeString) {
-		try {
-			// Deserialize the Job
-			Job job = mapper.readValue(jobTypeString, Job.class);
-			// Process it
-			processThrottle(job);
+		String username = getJobCreator(jobTypeString);
+		if (username != null) {
+			processThrottle(username);
 			LOGGER.info("Throttle Processed");
+		}
+	}
+
+	/**
+	 * Writes the partial batch of a consumer once its container has received no messages for the batch timeout. The
+	 * event is published on the consumer thread, so this only writes the batch of the consumer that published it.
+	 * 
+	 * @param event
+	 *            The idle event of the listener container
+	 */
+	@EventListener
+	public void onContainerIdle(ListenerContainerIdleEvent event) {
+		JobBatch batch = batches.get();
+		if (batch != null) {
+			flushBatch(batch);
+		}
+	}
+
+	/**
+	 * Writes the aggregated increments of the batch, and acknowledges all of its messages once the write has committed.
+	 * Must be called on the consumer thread of the batch.
+	 * 
+	 * @param batch
+	 *            The batch
+	 */
+	private void flushBatch(JobBatch batch) {
+		if (batch.size == 0) {
+			return;
+		}
+		if (!batch.channel.isOpen()) {
+			// The unacknowledged messages of a closed channel are redelivered by the broker
+			batch.clear();
+			return;
+		}
+		try {
+			accessor.incrementUserThrottles(new HashMap<>(batch.counts), model.security.authz.Throttle.Component.JOB);
+			batch.channel.basicAck(batch.lastDeliveryTag, true);
+			LOGGER.info("Throttle Batch of {} Jobs Processed", batch.size);
+		} catch (Exception exception) {
+			String error = String.format("Error updating Throttles for a batch of %s Jobs : %s. The batch will be redelivered.",
+					batch.size, exception.getMessage());
+			LOGGER.error(error, exception);
+			pzLogger.log(error, Severity.ERROR);
+			requeueBatch(batch);
+		} finally {
+			batch.clear();
+		}
+	}
+
+	private void requeueBatch(JobBatch batch) {
+		try {
+			batch.channel.basicNack(batch.lastDeliveryTag, true, true);
+		} catch (IOException exception) {
+			String error = String.format("Error requeueing a batch of %s Jobs : %s", batch.size, exception.getMessage());
+			LOGGER.error(error, exception);
+			pzLogger.log(error, Severity.ERROR);
+		}
+	}
+
+	/**
+	 * Gets the user that created the Job in the message.
+	 * 
+	 * @param jobTypeString
+	 *            The serialized PiazzaJobType Model
+	 * @return The username, or null if the message could not be read
+	 */
+	private String getJobCreator(String jobTypeString) {
+		try {
+			// Read only the fields needed for throttling, rather than deserializing the whole Job
+			JobMessageReader.JobFields jobFields = jobMessageReader.read(jobTypeString);
+			LOGGER.debug("Read {} Job created by {}", jobFields.getJobType(), jobFields.getCreatedBy());
+			return jobFields.getCreatedBy();
 		} catch (IOException exception) {
 			String error = String.format("Error Reading Job Message from Queue %s", exception.getMessage());
 			LOGGER.error(error, exception);
 			pzLogger.log(error, Severity.ERROR);
+			return null;
 		}
 	}
 
 	/**
 	 * Adds information to the throttle table for an incoming job request.
 	 * 
-	 * @param jobRequest
-	 *            The job request
+	 * @param username
+	 *            The user that created the Job
 	 */
-	private void processThrottle(Job job) {
-		String username = job.getCreatedBy();
+	private void processThrottle(String username) {
 		model.security.authz.Throttle.Component component = model.security.authz.Throttle.Component.JOB;
-		// Update persistence
+		// Update the live counters. These are persisted in periodic batches.
 		try {
-			accessor.incrementUserThrottles(username, component);
+			throttleCounters.increment(username, component);
 		} catch (Exception exception) {
 			String error = String.format(
 					"Error updating Throttle for Component %s for User %s : %s. The users Throttles could not be updated.", component,
@@ -98,4 +227,33 @@ public class JobConsumer {
 			pzLogger.log(error, Severity.ERROR);
 		}
 	}
+
+	/**
+	 * The unacknowledged Jobs received by one consumer, aggregated per user.
+	 */
+	private static final class JobBatch {
+		private final Channel channel;
+		private final Map<String, Integer> counts = new HashMap<>();
+		private int size = 0;
+		private long lastDeliveryTag;
+		private long startedOn;
+
+		private JobBatch(Channel channel) {
+			this.channel = channel;
+		}
+
+		private void add(String username, long deliveryTag) {
+			// Unreadable messages are still acknowledged with the batch, as they would be outside of batch mode
+			if (username != null) {
+				counts.merge(username, 1, Integer::sum);
+			}
+			size++;
+			lastDeliveryTag = deliveryTag;
+		}
+
+		private void clear() {
+			counts.clear();
+			size = 0;
+		}
+	}
 }
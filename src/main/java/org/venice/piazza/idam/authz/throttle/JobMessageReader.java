@@ -0,0 +1,107 @@
+/**
+ * Copyright 2016, RadiantBlue Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package org.venice.piazza.idam.authz.throttle;
+
+import java.io.IOException;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * Reads the creator and the type of a serialized Job without binding the whole Job. The message is scanned at the
+ * token level, the contents of all other fields are skipped without being materialized, and parsing stops as soon as
+ * both fields have been found.
+ */
+public class JobMessageReader {
+	private static final String CREATED_BY = "createdBy";
+	private static final String JOB_TYPE = "jobType";
+	private static final String TYPE = "type";
+
+	private final JsonFactory jsonFactory = new JsonFactory();
+
+	/**
+	 * Reads the creator and the type of the Job.
+	 * 
+	 * @param jobTypeString
+	 *            The serialized Job
+	 * @return The fields of the Job. Fields absent from the message are null.
+	 */
+	public JobFields read(final String jobTypeString) throws IOException {
+		try (JsonParser parser = jsonFactory.createParser(jobTypeString)) {
+			if (parser.nextToken() != JsonToken.START_OBJECT) {
+				throw new JsonParseException(parser, "Job message is not a JSON object.");
+			}
+			String createdBy = null;
+			String jobType = null;
+			boolean createdByFound = false;
+			boolean jobTypeFound = false;
+			while (!(createdByFound && jobTypeFound) && parser.nextToken() == JsonToken.FIELD_NAME) {
+				String fieldName = parser.getCurrentName();
+				JsonToken value = parser.nextToken();
+				if (CREATED_BY.equals(fieldName)) {
+					createdBy = value == JsonToken.VALUE_NULL ? null : parser.getValueAsString();
+					createdByFound = true;
+				} else if (JOB_TYPE.equals(fieldName) && value == JsonToken.START_OBJECT) {
+					jobType = readType(parser);
+					jobTypeFound = true;
+				} else {
+					parser.skipChildren();
+				}
+			}
+			return new JobFields(createdBy, jobType);
+		}
+	}
+
+	/**
+	 * Reads the type discriminator of the Job Type object the parser is positioned at, skipping its other fields.
+	 */
+	private String readType(final JsonParser parser) throws IOException {
+		String type = null;
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			String fieldName = parser.getCurrentName();
+			parser.nextToken();
+			if (TYPE.equals(fieldName)) {
+				type = parser.getValueAsString();
+			} else {
+				parser.skipChildren();
+			}
+		}
+		return type;
+	}
+
+	/**
+	 * The fields of a Job that are relevant to throttling.
+	 */
+	public static final class JobFields {
+		private final String createdBy;
+		private final String jobType;
+
+		public JobFields(final String createdBy, final String jobType) {
+			this.createdBy = createdBy;
+			this.jobType = jobType;
+		}
+
+		public String getCreatedBy() {
+			return createdBy;
+		}
+
+		public String getJobType() {
+			return jobType;
+		}
+	}
+}
@@ -0,0 +1,48 @@
+/**
+ * Copyright 2016, RadiantBlue Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package org.venice.piazza.idam.authz.throttle;
+
+import java.util.Collections;
+import java.util.Map;
+
+import model.security.authz.Throttle;
+
+/**
+ * Interface for rate limiting engines that bound how quickly a user may invoke a throttled component. The engine in
+ * use is selected by the throttle.ratelimit.algorithm property.
+ */
+@FunctionalInterface
+public interface RateLimiter {
+	/**
+	 * Attempts to admit one invocation of the component by the user.
+	 * 
+	 * @param username
+	 *            The username
+	 * @param component
+	 *            The component
+	 * @return True if the invocation is admitted, false if the user is over the rate limit
+	 */
+	public boolean tryAcquire(String username, Throttle.Component component);
+
+	/**
+	 * Gets the current statistics of the engine, for reporting through the admin endpoint.
+	 * 
+	 * @return Map of the statistic name to its value
+	 */
+	public default Map<String, Object> getStatistics() {
+		return Collections.emptyMap();
+	}
+}
@@ -0,0 +1,65 @@
+/**
+ * Copyright 2016, RadiantBlue Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package org.venice.piazza.idam.authz.throttle;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/**
+ * Sliding window counter rate limiter. Admits at most the limit of invocations in any window-length period,
+ * approximated by weighting the count of the previous fixed window by how much of it still overlaps the sliding
+ * window. Unlike a fixed window, there is no reset at which all users may burst at once.
+ */
+@Component
+@ConditionalOnProperty(name = "throttle.ratelimit.algorithm", havingValue = "sliding-window", matchIfMissing = true)
+public class SlidingWindowRateLimiter extends UserRateLimiter<SlidingWindowRateLimiter.Window> {
+	@Override
+	protected Window createState() {
+		return new Window();
+	}
+
+	@Override
+	protected boolean tryAcquire(Window window, long now) {
+		long windowStart = now - (now % windowMs);
+		if (window.windowStart != windowStart) {
+			// Roll the windows forward. The previous count only carries over if it is for the adjacent window.
+			window.previousCount = (windowStart - window.windowStart == windowMs) ? window.currentCount : 0;
+			window.currentCount = 0;
+			window.windowStart = windowStart;
+		}
+		double previousWeight = 1.0 - (double) (now - windowStart) / windowMs;
+		if (window.previousCount * previousWeight + window.currentCount >= limit) {
+			return false;
+		}
+		window.currentCount++;
+		return true;
+	}
+
+	@Override
+	protected boolean isIdle(Window window, long now) {
+		// Neither count carries over once the current window is not adjacent to the last one used
+		return now - window.windowStart >= 2 * windowMs;
+	}
+
+	/**
+	 * The counts of the current and previous fixed windows of one user and component.
+	 */
+	static final class Window {
+		private long windowStart;
+		private int previousCount;
+		private int currentCount;
+	}
+}
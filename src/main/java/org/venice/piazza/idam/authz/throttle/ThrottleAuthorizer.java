@@ -18,26 +18,21 @@ package org.venice.piazza.idam.authz.throttle;
 import java.util.Arrays;
 import java.util.List;
 
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpMethod;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 import org.venice.piazza.idam.authz.Authorizer;
-import org.venice.piazza.idam.data.DatabaseAccessor;
 
-import model.logger.Severity;
 import model.response.AuthResponse;
 import model.security.authz.AuthorizationCheck;
 import model.security.authz.Permission;
-import util.PiazzaLogger;
 
 /**
  * Authorizer that determines if a specified user action will be prevented due to excessive use of that action
- * (throttling). This will use Throttle information in the DB instance to determine if a user should be throttled or
- * not.
+ * (throttling). This will use the live Throttle counters, which are persisted to the DB instance, to determine if a
+ * user should be throttled or not.
  * 
  * @author Patrick.Doody
  *
@@ -45,48 +40,97 @@ import util.PiazzaLogger;
 @Component
 public class ThrottleAuthorizer implements Authorizer {
 	@Autowired
-	private DatabaseAccessor accessor;
+	private ThrottleCounters throttleCounters;
 	@Autowired
-	private PiazzaLogger pzLogger;
+	private RateLimiter rateLimiter;
 	@Value("${throttle.frequency.interval}")
 	private Integer THROTTLE_FREQUENCY_INTERVAL;
+	@Value("${throttle.decision.max.age.ms}")
+	private long maxDecisionAgeMs;
+	@Value("${throttle.authz.timeout.ms}")
+	private long timeoutMs;
+	@Value("${throttle.authz.fail.open}")
+	private boolean failOpen;
 
 	private static final List<String> THROTTLED_POST_ENDPOINTS = Arrays.asList("data", "job", "data/file", "deployment");
-	private static final Logger LOGGER = LoggerFactory.getLogger(ThrottleAuthorizer.class);
 
 	@Override
 	public AuthResponse canUserPerformAction(AuthorizationCheck authorizationCheck) {
 		// Check if the user is trying to perform a Piazza Job, which is subject to throttling
 		Permission action = authorizationCheck.getAction();
 		if (isJobThrottlable(action)) {
-			// Subject to throttling. Perform a lookup in the Jobs table.
-			Integer invocations = null;
-			try {
-				// Get the number of invocations for this user
-				invocations = accessor.getInvocationsForUserThrottle(authorizationCheck.getUsername(),
-						model.security.authz.Throttle.Component.JOB);
-				// Determine if the number of invocations exceeds the limit
-				if (isThrottleInvocationsExceeded(invocations, authorizationCheck.getUsername())) {
-					String message = String.format("Number of Jobs for user %s has been exceeded (%s). Please try again tomorrow.",
-							authorizationCheck.getUsername(), invocations);
-					return new AuthResponse(false, message);
-				} else {
-					return new AuthResponse(true);
-				}
-			} catch (Exception exception) {
-				String error = String.format(
-						"Error getting number of invocations for Auth Check %s. %s. Throttle authorization checks may not be functioning correctly.",
-						authorizationCheck.toString(), exception.getMessage());
-				LOGGER.error(error, exception);
-				pzLogger.log(error, Severity.ERROR);
-				// Currently, do not deny this request. The database is not properly working and we don't want to
-				// blacklist everything if the database can't be reached.
+			// Subject to throttling. Read the live number of invocations for this user, without a database round trip.
+			long invocations = throttleCounters.getInvocations(authorizationCheck.getUsername(),
+					model.security.authz.Throttle.Component.JOB);
+			// Determine if the number of invocations exceeds the limit
+			AuthResponse response = getInvocationsDecision(invocations, authorizationCheck.getUsername());
+			// Within the daily limit, ensure the user is also not invoking Jobs faster than the rate limit
+			if (response.getIsAuthSuccess().booleanValue()
+					&& !rateLimiter.tryAcquire(authorizationCheck.getUsername(), model.security.authz.Throttle.Component.JOB)) {
+				String message = String.format("Rate of Jobs for user %s has been exceeded. Please try again later.",
+						authorizationCheck.getUsername());
+				return new AuthResponse(false, message);
 			}
+			return response;
 		}
 
 		return new AuthResponse(true);
 	}
 
+	/**
+	 * Throttle decisions are evaluated live unless a maximum staleness is configured. A cached decision does not acquire
+	 * from the rate limiter, so the bound should be kept well below the rate limit window.
+	 */
+	@Override
+	public long getMaxDecisionAgeMs() {
+		return maxDecisionAgeMs;
+	}
+
+	/**
+	 * A permitted Job check acquires from the rate limiter, so it must only run once the check is otherwise permitted.
+	 */
+	@Override
+	public boolean hasSideEffects() {
+		return true;
+	}
+
+	/**
+	 * A check reads the in-memory throttle counters and rate limiter.
+	 */
+	@Override
+	public double getEstimatedCost() {
+		return 10;
+	}
+
+	@Override
+	public long getTimeoutMs() {
+		return timeoutMs;
+	}
+
+	@Override
+	public boolean isFailOpen() {
+		return failOpen;
+	}
+
+	/**
+	 * Gets the Authorization details for a user with the specified number of Job invocations.
+	 * 
+	 * @param invocations
+	 *            The number of current invocations
+	 * @param username
+	 *            The username
+	 * @return The Authorization details, denied if the throttle has been exceeded
+	 */
+	private AuthResponse getInvocationsDecision(long invocations, String username) {
+		if (isThrottleInvocationsExceeded(invocations, username)) {
+			String message = String.format("Number of Jobs for user %s has been exceeded (%s). Please try again tomorrow.", username,
+					invocations);
+			return new AuthResponse(false, message);
+		} else {
+			return new AuthResponse(true);
+		}
+	}
+
 	/**
 	 * Determines if the number of invocations for a Job Component throttle exceeds the throttle limit.
 	 * 
@@ -96,7 +140,7 @@ public class ThrottleAuthorizer implements Authorizer {
 	 *            The username
 	 * @return True if the throttle has been exceeded (denied!), false if not
 	 */
-	private boolean isThrottleInvocationsExceeded(Integer invocations, String username) {
+	private boolean isThrottleInvocationsExceeded(long invocations, String username) {
 		// TODO: Tie in some group management, roles, access, rules. Lots of stuff.
 		// This will be handled by GeoAxis.
 		return (invocations > 10000);
@@ -119,6 +163,6 @@ public class ThrottleAuthorizer implements Authorizer {
 	 */
 	@Scheduled(cron = "0 0 3 * * ?")
 	private void clearThrottles() {
-		accessor.clearThrottles();
+		throttleCounters.clear();
 	}
 }
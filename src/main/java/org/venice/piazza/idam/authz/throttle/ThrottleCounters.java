@@ -0,0 +1,218 @@
+/**
+ * Copyright 2016, RadiantBlue Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package org.venice.piazza.idam.authz.throttle;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.venice.piazza.idam.data.DatabaseAccessor;
+
+import model.logger.Severity;
+import model.security.authz.Throttle;
+import model.security.authz.UserThrottles;
+import util.PiazzaLogger;
+
+/**
+ * Live per-user, per-component throttle counters. Increments and reads are lock-free and never touch the database;
+ * the counters are persisted to the throttle table in periodic batched flushes, and are rehydrated from the throttle
+ * table on startup and after every flush, so that increments recorded by other instances become visible, as does a
+ * clear of the table by any instance.
+ */
+@Component
+public class ThrottleCounters {
+	@Autowired
+	private DatabaseAccessor accessor;
+	@Autowired
+	private PiazzaLogger pzLogger;
+
+	private static final Throttle.Component[] COMPONENTS = Throttle.Component.values();
+	private static final Logger LOGGER = LoggerFactory.getLogger(ThrottleCounters.class);
+	private final Map<String, Counter[]> counters = new ConcurrentHashMap<>();
+
+	/**
+	 * Records one invocation of the component by the user.
+	 *
+	 * @param username
+	 *            The username
+	 * @param component
+	 *            The component
+	 */
+	public void increment(final String username, final Throttle.Component component) {
+		getCounters(username)[component.ordinal()].total.increment();
+	}
+
+	/**
+	 * Gets the current number of invocations of the component by the user, including increments not yet flushed.
+	 *
+	 * @param username
+	 *            The username
+	 * @param component
+	 *            The component
+	 * @return The number of invocations
+	 */
+	public long getInvocations(final String username, final Throttle.Component component) {
+		Counter[] userCounters = counters.get(username);
+		return userCounters != null ? userCounters[component.ordinal()].get() : 0;
+	}
+
+	/**
+	 * Loads the persisted counters on startup. A failure is logged and leaves the counters starting from zero; they are
+	 * rehydrated again after the next flush.
+	 */
+	@PostConstruct
+	public void initialize() {
+		try {
+			rehydrate();
+		} catch (Exception exception) {
+			String error = String.format("Error loading Throttle counters: %s", exception.getMessage());
+			LOGGER.error(error, exception);
+			pzLogger.log(error, Severity.WARNING);
+		}
+	}
+
+	/**
+	 * Every interval, persist the increments recorded since the last flush, in one batched update per component, and
+	 * refresh the counters from the throttle table.
+	 */
+	@Scheduled(fixedDelayString = "${throttle.flush.interval.ms}")
+	public synchronized void flush() {
+		try {
+			int flushed = 0;
+			for (Throttle.Component component : COMPONENTS) {
+				Map<String, Integer> deltas = new HashMap<>();
+				for (Map.Entry<String, Counter[]> userCounters : counters.entrySet()) {
+					Counter counter = userCounters.getValue()[component.ordinal()];
+					long delta = counter.total.sum() - counter.flushed;
+					if (delta > 0) {
+						deltas.put(userCounters.getKey(), (int) delta);
+					}
+				}
+				if (deltas.isEmpty()) {
+					continue;
+				}
+				accessor.incrementUserThrottles(deltas, component);
+				// Only once the batch is committed; a failed batch is retried whole on the next flush
+				for (Map.Entry<String, Integer> delta : deltas.entrySet()) {
+					counters.get(delta.getKey())[component.ordinal()].flushed += delta.getValue();
+				}
+				flushed += deltas.size();
+			}
+			if (flushed > 0) {
+				LOGGER.debug("Flushed {} Throttle counters.", flushed);
+			}
+			rehydrate();
+		} catch (Exception exception) {
+			String error = String.format("Error flushing Throttle counters: %s", exception.getMessage());
+			LOGGER.error(error, exception);
+			pzLogger.log(error, Severity.WARNING);
+		}
+	}
+
+	/**
+	 * Flushes the unpersisted increments before the application stops.
+	 */
+	@PreDestroy
+	public void shutdown() {
+		flush();
+	}
+
+	/**
+	 * Clears all throttle invocations, both in the throttle table and in memory.
+	 */
+	public synchronized void clear() {
+		accessor.clearThrottles();
+		counters.clear();
+	}
+
+	/**
+	 * Replaces the persisted part of every counter with the current contents of the throttle table. Only called while
+	 * holding the lock, so that no flush is in progress.
+	 */
+	private synchronized void rehydrate() {
+		List<UserThrottles> allUserThrottles = accessor.getAllUserThrottles();
+		Set<String> persistedUsernames = new HashSet<>();
+		for (UserThrottles userThrottles : allUserThrottles) {
+			persistedUsernames.add(userThrottles.getUsername());
+			Counter[] userCounters = getCounters(userThrottles.getUsername());
+			for (Throttle.Component component : COMPONENTS) {
+				Integer invocations = userThrottles.getThrottles().get(component.toString());
+				Counter counter = userCounters[component.ordinal()];
+				counter.persisted = new Persisted(invocations != null ? invocations : 0, counter.flushed);
+			}
+		}
+		// A user without a row was cleared, by this instance or another, so none of its flushed increments remain
+		for (Map.Entry<String, Counter[]> userCounters : counters.entrySet()) {
+			if (!persistedUsernames.contains(userCounters.getKey())) {
+				for (Counter counter : userCounters.getValue()) {
+					counter.persisted = new Persisted(0, counter.flushed);
+				}
+			}
+		}
+	}
+
+	private Counter[] getCounters(final String username) {
+		return counters.computeIfAbsent(username, key -> {
+			Counter[] userCounters = new Counter[COMPONENTS.length];
+			for (int i = 0; i < userCounters.length; i++) {
+				userCounters[i] = new Counter();
+			}
+			return userCounters;
+		});
+	}
+
+	/**
+	 * A single counter. The total of local increments only ever grows, so increments that race a flush are never lost;
+	 * they are either included in this flush or in the next one.
+	 */
+	private static final class Counter {
+		private final LongAdder total = new LongAdder();
+		// Only accessed by the flushing thread, while holding the lock
+		private long flushed = 0;
+		private volatile Persisted persisted = new Persisted(0, 0);
+
+		private long get() {
+			Persisted snapshot = persisted;
+			return snapshot.invocations + total.sum() - snapshot.flushed;
+		}
+	}
+
+	/**
+	 * The persisted number of invocations, and the number of local increments that were already flushed and so are
+	 * included in it.
+	 */
+	private static final class Persisted {
+		private final long invocations;
+		private final long flushed;
+
+		private Persisted(final long invocations, final long flushed) {
+			this.invocations = invocations;
+			this.flushed = flushed;
+		}
+	}
+}
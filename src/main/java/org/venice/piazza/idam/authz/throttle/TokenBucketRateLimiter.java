@@ -0,0 +1,63 @@
+/**
+ * Copyright 2016, RadiantBlue Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package org.venice.piazza.idam.authz.throttle;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/**
+ * Token bucket rate limiter. Each bucket holds up to the limit of tokens and is refilled continuously at the limit per
+ * window, so users may burst up to the limit and are then held to the sustained rate.
+ */
+@Component
+@ConditionalOnProperty(name = "throttle.ratelimit.algorithm", havingValue = "token-bucket")
+public class TokenBucketRateLimiter extends UserRateLimiter<TokenBucketRateLimiter.Bucket> {
+	@Override
+	protected Bucket createState() {
+		// Buckets start full
+		Bucket bucket = new Bucket();
+		bucket.tokens = limit;
+		return bucket;
+	}
+
+	@Override
+	protected boolean tryAcquire(Bucket bucket, long now) {
+		if (bucket.lastRefill != 0) {
+			double refill = (double) (now - bucket.lastRefill) * limit / windowMs;
+			bucket.tokens = Math.min(limit, bucket.tokens + refill);
+		}
+		bucket.lastRefill = now;
+		if (bucket.tokens < 1) {
+			return false;
+		}
+		bucket.tokens -= 1;
+		return true;
+	}
+
+	@Override
+	protected boolean isIdle(Bucket bucket, long now) {
+		// A bucket refills completely within one window
+		return now - bucket.lastRefill >= windowMs;
+	}
+
+	/**
+	 * The tokens of one user and component.
+	 */
+	static final class Bucket {
+		private double tokens;
+		private long lastRefill;
+	}
+}
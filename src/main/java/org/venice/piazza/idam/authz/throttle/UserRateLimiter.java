@@ -0,0 +1,154 @@
+/**
+ * Copyright 2016, RadiantBlue Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package org.venice.piazza.idam.authz.throttle;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import model.security.authz.Throttle;
+
+/**
+ * Base for rate limiters that keep the state of each user and component separately, so that no user can use up the
+ * budget of another. Memory is bounded by the number of recently active users: once the state of a user is idle, that
+ * is, indistinguishable from a fresh state, it is evicted by a periodic sweep. Evicting idle state never loosens the
+ * limit.
+ *
+ * @param <S>
+ *            The type of the state of one user and component
+ */
+public abstract class UserRateLimiter<S> implements RateLimiter {
+	@Value("${throttle.ratelimit.limit}")
+	protected int limit;
+	@Value("${throttle.ratelimit.window.ms}")
+	protected long windowMs;
+
+	private LongSupplier clock = System::currentTimeMillis;
+	private final Map<Key, S> states = new ConcurrentHashMap<>();
+	private final AtomicLong evictions = new AtomicLong();
+
+	@Override
+	public boolean tryAcquire(final String username, final Throttle.Component component) {
+		final long now = clock.getAsLong();
+		final boolean[] admitted = new boolean[1];
+		// Acquire within compute, so that a concurrent sweep cannot evict the state while it is updated
+		states.compute(new Key(username, component), (key, state) -> {
+			S current = state != null ? state : createState();
+			admitted[0] = tryAcquire(current, now);
+			return current;
+		});
+		return admitted[0];
+	}
+
+	/**
+	 * Every rate limit window, evicts the state of the users that have been idle long enough for it to be reset.
+	 */
+	@Scheduled(fixedDelayString = "${throttle.ratelimit.window.ms}")
+	public void evictIdleUsers() {
+		final long now = clock.getAsLong();
+		for (Key key : states.keySet()) {
+			states.computeIfPresent(key, (k, state) -> {
+				if (isIdle(state, now)) {
+					evictions.incrementAndGet();
+					return null;
+				}
+				return state;
+			});
+		}
+	}
+
+	/**
+	 * Gets the number of users and components being limited, for reporting through the admin endpoint.
+	 *
+	 * @return Map of the statistic name to its value
+	 */
+	@Override
+	public Map<String, Object> getStatistics() {
+		Map<String, Object> statistics = new HashMap<>();
+		statistics.put("tracked", states.size());
+		statistics.put("evictions", evictions.get());
+		statistics.put("limit", limit);
+		statistics.put("windowMs", windowMs);
+		return statistics;
+	}
+
+	/**
+	 * Creates the state of a user and component that has not invoked the component recently.
+	 * 
+	 * @return The new state
+	 */
+	protected abstract S createState();
+
+	/**
+	 * Attempts to admit one invocation against the state. Called while no other thread can access the state.
+	 * 
+	 * @param state
+	 *            The state of the user and component
+	 * @param now
+	 *            The current time, in milliseconds
+	 * @return True if the invocation is admitted
+	 */
+	protected abstract boolean tryAcquire(S state, long now);
+
+	/**
+	 * Determines if the state would admit exactly as a newly created state would, so that it may be evicted.
+	 * 
+	 * @param state
+	 *            The state of the user and component
+	 * @param now
+	 *            The current time, in milliseconds
+	 * @return True if the state is idle
+	 */
+	protected abstract boolean isIdle(S state, long now);
+
+	/**
+	 * Identifies the state of one user and component.
+	 */
+	private static final class Key {
+		private final String username;
+		private final Throttle.Component component;
+		private final int hash;
+
+		private Key(final String username, final Throttle.Component component) {
+			this.username = username;
+			this.component = component;
+			this.hash = Objects.hash(username, component);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object object) {
+			if (this == object) {
+				return true;
+			}
+			if (!(object instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) object;
+			return component == other.component && Objects.equals(username, other.username);
+		}
+	}
+}
@@ -15,7 +15,9 @@
  **/
 package org.venice.piazza.idam.controller;
 
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -28,12 +30,23 @@ import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RestController;
+import org.venice.piazza.idam.authn.CertificateDecisionCache;
+import org.venice.piazza.idam.authz.AuthorizationDecisionCache;
+import org.venice.piazza.idam.authz.AuthorizerChain;
+import org.venice.piazza.idam.authz.ProfileTemplateRegistry;
+import org.venice.piazza.idam.authz.throttle.RateLimiter;
+import org.venice.piazza.idam.data.ApiKeyCache;
 import org.venice.piazza.idam.data.DatabaseAccessor;
+import org.venice.piazza.idam.timer.UserProfileDaemon;
+import org.venice.piazza.idam.util.GxCallInterceptor;
+import org.venice.piazza.idam.util.GxRequestExecutor;
+import org.venice.piazza.idam.util.ProfileAttributeCache;
 
 import model.logger.AuditElement;
 import model.logger.Severity;
 import model.response.ErrorResponse;
 import model.response.PiazzaResponse;
+import model.response.SuccessResponse;
 import model.response.UserProfileResponse;
 import model.security.authz.UserProfile;
 import model.security.authz.UserThrottles;
@@ -52,6 +65,26 @@ public class AdminController {
 	private Environment env;
 	@Autowired
 	private DatabaseAccessor accessor;
+	@Autowired
+	private ApiKeyCache apiKeyCache;
+	@Autowired
+	private ProfileTemplateRegistry profileTemplateRegistry;
+	@Autowired
+	private AuthorizationDecisionCache authorizationDecisionCache;
+	@Autowired
+	private AuthorizerChain authorizerChain;
+	@Autowired
+	private RateLimiter rateLimiter;
+	@Autowired(required = false)
+	private CertificateDecisionCache certificateDecisionCache;
+	@Autowired(required = false)
+	private ProfileAttributeCache profileAttributeCache;
+	@Autowired(required = false)
+	private UserProfileDaemon userProfileDaemon;
+	@Autowired(required = false)
+	private GxCallInterceptor gxCallInterceptor;
+	@Autowired(required = false)
+	private GxRequestExecutor gxRequestExecutor;
 
 	private static final Logger LOGGER = LoggerFactory.getLogger(AdminController.class);
 
@@ -65,9 +98,40 @@ public class AdminController {
 		return "Hello, Health Check here for pz-idam.";
 	}
 
+	/**
+	 * Returns the administrative statistics for this instance, such as the active Spring profiles, cache performance
+	 * and the loaded profile templates.
+	 * 
+	 * @return Map of statistics
+	 */
 	@RequestMapping(value = "/admin/stats", method = RequestMethod.GET, produces = MediaType.APPLICATION_JSON_VALUE)
-	public String getAdminStats() {
-		return "{ \"profiles\":\"" + String.join(",", env.getActiveProfiles()) + "\" }";
+	public Map<String, Object> getAdminStats() {
+		Map<String, Object> stats = new HashMap<>();
+		stats.put("profiles", String.join(",", env.getActiveProfiles()));
+		stats.put("apiKeyCache", apiKeyCache.getStatistics());
+		stats.put("profileTemplates", profileTemplateRegistry.getStatistics());
+		stats.put("authzDecisionCache", authorizationDecisionCache.getStatistics());
+		stats.put("authorizerChain", authorizerChain.getStatistics());
+		stats.put("rateLimiter", rateLimiter.getStatistics());
+		if (certificateDecisionCache != null) {
+			stats.put("certificateCache", certificateDecisionCache.getStatistics());
+		}
+		if (profileAttributeCache != null) {
+			stats.put("profileAttributeCache", profileAttributeCache.getStatistics());
+		}
+		if (userProfileDaemon != null) {
+			stats.put("userProfileDaemon", userProfileDaemon.getStatistics());
+		}
+		if (gxCallInterceptor != null) {
+			stats.put("geoaxis", gxCallInterceptor.getStatistics());
+			if (gxCallInterceptor.getLimiterStatistics() != null) {
+				stats.put("geoaxisLimiter", gxCallInterceptor.getLimiterStatistics());
+			}
+		}
+		if (gxRequestExecutor != null) {
+			stats.put("gxRequests", gxRequestExecutor.getStatistics());
+		}
+		return stats;
 	}
 
 	/**
@@ -80,6 +144,32 @@ public class AdminController {
 		return accessor.getAllUserThrottles();
 	}
 
+	/**
+	 * Revokes the cached authentication decision of a PKI certificate, so that its next authentication is checked by
+	 * GeoAxis again.
+	 * 
+	 * @param fingerprint
+	 *            The SHA-256 fingerprint of the DER certificate, in hex
+	 * @return Success if a decision was cached for the certificate
+	 */
+	@RequestMapping(value = "/admin/certificates/{fingerprint}", method = RequestMethod.DELETE, produces = MediaType.APPLICATION_JSON_VALUE)
+	public ResponseEntity<PiazzaResponse> revokeCertificate(@PathVariable(value = "fingerprint") String fingerprint) {
+		if (certificateDecisionCache == null) {
+			String error = "Certificate authentication is not enabled.";
+			LOGGER.info(error);
+			return new ResponseEntity<>(new ErrorResponse(error, "IDAM"), HttpStatus.NOT_FOUND);
+		}
+		if (certificateDecisionCache.revoke(fingerprint)) {
+			pzLogger.log(String.format("Revoked cached decision of certificate %s.", fingerprint), Severity.INFORMATIONAL,
+					new AuditElement("idam", "revokedCertificate", fingerprint));
+			return new ResponseEntity<>(new SuccessResponse("Revoked cached decision of certificate " + fingerprint, "IDAM"),
+					HttpStatus.OK);
+		}
+		String error = "No cached decision found for certificate " + fingerprint;
+		LOGGER.info(error);
+		return new ResponseEntity<>(new ErrorResponse(error, "IDAM"), HttpStatus.NOT_FOUND);
+	}
+
 	/**
 	 * Returns the User Profile information by username
 	 * 
@@ -17,19 +17,28 @@ package org.venice.piazza.idam.controller;
 
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import javax.annotation.PostConstruct;
-import javax.servlet.http.Cookie;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+
 import javax.servlet.http.HttpServletRequest;
-import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Profile;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
@@ -39,18 +48,17 @@ import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
-import org.springframework.web.client.HttpClientErrorException;
-import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.HttpStatusCodeException;
 import org.springframework.web.client.RestTemplate;
 import org.springframework.web.servlet.view.RedirectView;
 import org.venice.piazza.idam.authn.PiazzaAuthenticator;
-import org.venice.piazza.idam.authz.Authorizer;
-import org.venice.piazza.idam.authz.endpoint.EndpointAuthorizer;
-import org.venice.piazza.idam.authz.throttle.ThrottleAuthorizer;
+import org.venice.piazza.idam.authz.AuthorizerChain;
 import org.venice.piazza.idam.data.DatabaseAccessor;
 import org.venice.piazza.idam.model.GxOAuthResponse;
 import org.venice.piazza.idam.model.authz.AuthorizationException;
 import org.venice.piazza.idam.util.GxOAuthClient;
+import org.venice.piazza.idam.util.GxRequestExecutor;
+import org.venice.piazza.idam.util.GxUnavailableException;
 
 import model.logger.AuditElement;
 import model.logger.Severity;
@@ -82,27 +90,18 @@ public class AuthController {
 	@Autowired
 	private HttpServletRequest request;
 	@Autowired
-	private ThrottleAuthorizer throttleAuthorizer;
-	@Autowired
-	private EndpointAuthorizer endpointAuthorizer;
+	private AuthorizerChain authorizerChain;
 	@Autowired
 	private RestTemplate restTemplate;
 	@Autowired(required = false)
 	private GxOAuthClient oAuthClient;
+	@Autowired
+	private GxRequestExecutor gxRequestExecutor;
+	@Value("${auth.batch.max.size}")
+	private int authBatchMaxSize;
 
 	private static final Logger LOGGER = LoggerFactory.getLogger(AuthController.class);
 	private static final String IDAM_COMPONENT_NAME = "IDAM";
-	private List<Authorizer> authorizers = new ArrayList<>();
-
-	/**
-	 * Collects all of the Authorizers into a list that can be iterated through for a specific authorization check.
-	 */
-	@PostConstruct
-	public void initializeAuthorizers() {
-		authorizers.clear();
-		authorizers.add(endpointAuthorizer);
-		authorizers.add(throttleAuthorizer);
-	}
 
 	/**
 	 * Verifies that an API key is valid. Authentication.
@@ -117,9 +116,9 @@ public class AuthController {
 		try {
 			String uuid = body.get("uuid");
 			if (uuid != null) {
-				if (accessor.isApiKeyValid(uuid)) {
-					// Look up the user profile
-					UserProfile userProfile = accessor.getUserProfileByApiKey(uuid);
+				// Validate the key and look up the user profile in one step
+				UserProfile userProfile = accessor.getUserProfileByValidApiKey(uuid);
+				if (userProfile != null) {
 					pzLogger.log("Verified API Key.", Severity.INFORMATIONAL,
 							new AuditElement(userProfile.getUsername(), "verifiedApiKey", ""));
 					// Send back the success
@@ -143,6 +142,56 @@ public class AuthController {
 		}
 	}
 
+	/**
+	 * Verifies that a batch of API keys are valid. Authentication. All keys are resolved with set-based queries, so
+	 * that callers can amortize the request and database overhead across many keys.
+	 * 
+	 * @param body
+	 *            A JSON object containing the 'uuids' field, an array of API keys.
+	 * 
+	 * @return List of AuthResponse objects, one for each API key, in the order of the request
+	 */
+	@RequestMapping(value = "/authn/batch", method = RequestMethod.POST, produces = MediaType.APPLICATION_JSON_VALUE)
+	public ResponseEntity<List<AuthResponse>> authenticateApiKeys(@RequestBody Map<String, List<String>> body) {
+		try {
+			List<String> uuids = body.get("uuids");
+			if (uuids == null) {
+				pzLogger.log("Received a null API Key list during batch verification.", Severity.INFORMATIONAL);
+				return new ResponseEntity<>(Collections.singletonList(new AuthResponse(false, "API Key list is null.")),
+						HttpStatus.BAD_REQUEST);
+			}
+			if (uuids.size() > authBatchMaxSize) {
+				String error = String.format("Cannot verify more than %s API Keys per request.", authBatchMaxSize);
+				pzLogger.log(error, Severity.INFORMATIONAL);
+				return new ResponseEntity<>(Collections.singletonList(new AuthResponse(false, error)), HttpStatus.BAD_REQUEST);
+			}
+
+			// Validate all keys and look up their user profiles together
+			Map<String, UserProfile> userProfiles = accessor.getUserProfilesByValidApiKeys(uuids);
+			List<AuthResponse> responses = new ArrayList<>(uuids.size());
+			for (String uuid : uuids) {
+				UserProfile userProfile = uuid != null ? userProfiles.get(uuid) : null;
+				if (userProfile != null) {
+					pzLogger.log("Verified API Key.", Severity.INFORMATIONAL,
+							new AuditElement(userProfile.getUsername(), "verifiedApiKey", ""));
+					responses.add(new AuthResponse(true, userProfile));
+				} else if (uuid != null) {
+					pzLogger.log("Unable to verify API Key.", Severity.INFORMATIONAL,
+							new AuditElement("idam", "failedToVerifyApiKey", uuid));
+					responses.add(new AuthResponse(false));
+				} else {
+					responses.add(new AuthResponse(false, "API Key is null."));
+				}
+			}
+			return new ResponseEntity<>(responses, HttpStatus.OK);
+		} catch (Exception exception) {
+			String error = String.format("Error authenticating UUIDs: %s", exception.getMessage());
+			LOGGER.error(error, exception);
+			pzLogger.log(error, Severity.ERROR);
+			return new ResponseEntity<>(Collections.singletonList(new AuthResponse(false, error)), HttpStatus.INTERNAL_SERVER_ERROR);
+		}
+	}
+
 	/**
 	 * Authorization check. Parameters define the username requesting an action.
 	 * 
@@ -183,14 +232,12 @@ public class AuthController {
 				throw new AuthorizationException("Incomplete request details", new AuthResponse(false, "API Key or Username not specified."));
 			}
 
-			// Loop through all Authorizations and check if the action is permitted by each
-			for (Authorizer authorizer : authorizers) {
-				AuthResponse response = authorizer.canUserPerformAction(authorizationCheck);
-				if (!response.getIsAuthSuccess().booleanValue()) {
-					pzLogger.log("Failed authorization check.", Severity.INFORMATIONAL,
-							new AuditElement(authorizationCheck.getUsername(), "authorizationCheckFailed", authorizationCheck.toString()));
-					throw new AuthorizationException("Failed to Authorize", response);
-				}
+			// Check if the action is permitted by each Authorizer
+			AuthResponse response = authorizerChain.authorize(authorizationCheck);
+			if (!response.getIsAuthSuccess().booleanValue()) {
+				pzLogger.log("Failed authorization check.", Severity.INFORMATIONAL,
+						new AuditElement(authorizationCheck.getUsername(), "authorizationCheckFailed", authorizationCheck.toString()));
+				throw new AuthorizationException("Failed to Authorize", response);
 			}
 
 			// Return successful response.
@@ -214,6 +261,148 @@ public class AuthController {
 		}
 	}
 	
+	/**
+	 * Batch authorization check. The checks are grouped by user, so that each user's API Key, throttles and profile are
+	 * loaded once for the group, and the Authorizers are run over each group.
+	 * 
+	 * @param authorizationChecks
+	 *            The models holding the username and the action of each check
+	 * @return List of Auth responses, one for each check, in the order of the request
+	 */
+	@RequestMapping(value = "/authz/batch", method = RequestMethod.POST, produces = MediaType.APPLICATION_JSON_VALUE)
+	public ResponseEntity<List<AuthResponse>> authenticateAndAuthorizeBatch(@RequestBody List<AuthorizationCheck> authorizationChecks) {
+		try {
+			if (authorizationChecks == null) {
+				pzLogger.log("Received a null Authorization Check list.", Severity.INFORMATIONAL);
+				return new ResponseEntity<>(Collections.singletonList(new AuthResponse(false, "Authorization Check list is null.")),
+						HttpStatus.BAD_REQUEST);
+			}
+			if (authorizationChecks.size() > authBatchMaxSize) {
+				String error = String.format("Cannot check more than %s Authorizations per request.", authBatchMaxSize);
+				pzLogger.log(error, Severity.INFORMATIONAL);
+				return new ResponseEntity<>(Collections.singletonList(new AuthResponse(false, error)), HttpStatus.BAD_REQUEST);
+			}
+
+			// Authenticate all of the API Keys, and look up their user profiles, together
+			Set<String> apiKeys = new HashSet<>();
+			for (AuthorizationCheck authorizationCheck : authorizationChecks) {
+				if (authorizationCheck != null && authorizationCheck.getApiKey() != null) {
+					apiKeys.add(authorizationCheck.getApiKey());
+				}
+			}
+			Map<String, UserProfile> apiKeyProfiles = apiKeys.isEmpty() ? Collections.emptyMap()
+					: accessor.getUserProfilesByValidApiKeys(apiKeys);
+
+			// Group the authenticated checks by user
+			AuthResponse[] responses = new AuthResponse[authorizationChecks.size()];
+			Map<String, List<Integer>> checksByUser = new LinkedHashMap<>();
+			for (int i = 0; i < authorizationChecks.size(); i++) {
+				try {
+					String username = authenticateAuthorizationCheck(authorizationChecks.get(i), apiKeyProfiles);
+					checksByUser.computeIfAbsent(username, key -> new ArrayList<>()).add(i);
+				} catch (AuthorizationException authException) {
+					responses[i] = getFailedAuthorizationResponse(authException.getMessage(), authException.getResponse());
+				}
+			}
+
+			// Look up the profiles of the users that were not authenticated by API Key
+			Map<String, UserProfile> userProfiles = new HashMap<>();
+			for (UserProfile userProfile : apiKeyProfiles.values()) {
+				userProfiles.put(userProfile.getUsername(), userProfile);
+			}
+			Set<String> remainingUsernames = new HashSet<>(checksByUser.keySet());
+			remainingUsernames.removeAll(userProfiles.keySet());
+			userProfiles.putAll(accessor.getUserProfilesByUsernames(remainingUsernames));
+
+			// Run the Authorizers over each user's group of checks
+			for (Map.Entry<String, List<Integer>> userChecks : checksByUser.entrySet()) {
+				authorizeUserChecks(authorizationChecks, userChecks.getValue(), userProfiles.get(userChecks.getKey()), responses);
+			}
+			return new ResponseEntity<>(Arrays.asList(responses), HttpStatus.OK);
+		} catch (Exception exception) {
+			// Logging
+			String error = String.format("Error checking authorizations: %s", exception.getMessage());
+			LOGGER.error(error, exception);
+			pzLogger.log(error, Severity.ERROR);
+			// Return Error
+			return new ResponseEntity<>(Collections.singletonList(new AuthResponse(false, error)), HttpStatus.INTERNAL_SERVER_ERROR);
+		}
+	}
+
+	/**
+	 * Authenticates a single check of a batch against the already resolved API Keys, populating the username of the
+	 * check if only the API Key was specified.
+	 * 
+	 * @param authorizationCheck
+	 *            The check
+	 * @param apiKeyProfiles
+	 *            The profiles of all valid API Keys in the batch
+	 * @return The authenticated username of the check
+	 */
+	private String authenticateAuthorizationCheck(AuthorizationCheck authorizationCheck, Map<String, UserProfile> apiKeyProfiles)
+			throws AuthorizationException {
+		if (authorizationCheck == null) {
+			throw new AuthorizationException("Incomplete request details", new AuthResponse(false, "Authorization Check is null."));
+		}
+		if (authorizationCheck.getApiKey() != null) {
+			UserProfile userProfile = apiKeyProfiles.get(authorizationCheck.getApiKey());
+			if (userProfile == null) {
+				throw new AuthorizationException("Failed to Authenticate.", new AuthResponse(false, "Invalid API Key."));
+			} else if (authorizationCheck.getUsername() == null) {
+				authorizationCheck.setUsername(userProfile.getUsername());
+			}
+
+			// Ensure the API Key matches the Payload
+			if (!userProfile.getUsername().equals(authorizationCheck.getUsername())) {
+				throw new AuthorizationException("Failed to Authenticate.",
+						new AuthResponse(false, "API Key identity does not match the authorization check username."));
+			}
+		} else if ((authorizationCheck.getUsername() == null) || (authorizationCheck.getUsername().isEmpty())) {
+			throw new AuthorizationException("Incomplete request details", new AuthResponse(false, "API Key or Username not specified."));
+		}
+		return authorizationCheck.getUsername();
+	}
+
+	/**
+	 * Runs the Authorizers over the group of checks belonging to a single user.
+	 * 
+	 * @param authorizationChecks
+	 *            All checks of the batch
+	 * @param indices
+	 *            The indices of the user's checks within the batch
+	 * @param userProfile
+	 *            The profile of the user
+	 * @param responses
+	 *            The responses of the batch, populated at the indices of the user's checks
+	 */
+	private void authorizeUserChecks(List<AuthorizationCheck> authorizationChecks, List<Integer> indices, UserProfile userProfile,
+			AuthResponse[] responses) {
+		List<AuthorizationCheck> checks = new ArrayList<>(indices.size());
+		for (Integer index : indices) {
+			checks.add(authorizationChecks.get(index));
+		}
+		List<AuthResponse> decisions = authorizerChain.authorizeAll(checks);
+		for (int i = 0; i < indices.size(); i++) {
+			AuthorizationCheck authorizationCheck = checks.get(i);
+			AuthResponse decision = decisions.get(i);
+			if (decision.getIsAuthSuccess().booleanValue()) {
+				pzLogger.log("Passed authorization check.", Severity.INFORMATIONAL,
+						new AuditElement(authorizationCheck.getUsername(), "authorizationCheckPassed", authorizationCheck.toString()));
+				responses[indices.get(i)] = new AuthResponse(true, userProfile);
+			} else {
+				pzLogger.log("Failed authorization check.", Severity.INFORMATIONAL,
+						new AuditElement(authorizationCheck.getUsername(), "authorizationCheckFailed", authorizationCheck.toString()));
+				responses[indices.get(i)] = getFailedAuthorizationResponse("Failed to Authorize", decision);
+			}
+		}
+	}
+
+	private AuthResponse getFailedAuthorizationResponse(String message, AuthResponse response) {
+		String error = String.format("%s: %s", message, response.getDetails().toString());
+		LOGGER.info(error);
+		return new AuthResponse(false, error);
+	}
+
 	/**
 	 * Generates a new API Key based on the provided username and credential for GeoAxis.
 	 * 
@@ -223,37 +412,40 @@ public class AuthController {
 	 * @return String UUID generated from the UUIDFactory in pz-jobcommon
 	 */
 	@RequestMapping(value = "/key", method = RequestMethod.GET, produces = MediaType.APPLICATION_JSON_VALUE)
-	public ResponseEntity<PiazzaResponse> generateApiKey() {
+	public CompletableFuture<ResponseEntity<PiazzaResponse>> generateApiKey() {
 		try {
-			final String headerValue = request.getHeader("Authorization");
-			String username = null;
-
-			if (headerValue != null && headerValue.split(" ").length == 2) {
-				final String[] headerParts = headerValue.split(" ");
+			final String decodedAuthNInfo = getDecodedAuthorizationHeader();
+			if (decodedAuthNInfo == null) {
+				return CompletableFuture.completedFuture(getFailedApiKeyGenerationResponse(null));
+			}
 
-				String decodedAuthNInfo = new String(Base64.getDecoder().decode(headerParts[1]), StandardCharsets.UTF_8);
-				username = getAuthenticatedUsername(decodedAuthNInfo);
+			// Authenticate against GeoAxis off the servlet thread
+			return gxRequestExecutor.supplyAsync(() -> generateApiKey(decodedAuthNInfo)).exceptionally(this::getApiKeyErrorResponse);
+		} catch (Exception exception) {
+			return CompletableFuture.completedFuture(getApiKeyErrorResponse(exception));
+		}
+	}
 
-				if (username != null) {
-					String uuid = uuidFactory.getUUID();
-					updateAPIKey(username, uuid);
+	private ResponseEntity<PiazzaResponse> generateApiKey(final String decodedAuthNInfo) {
+		final String username = getAuthenticatedUsername(decodedAuthNInfo);
 
-					// Return the Key
-					pzLogger.log("Successfully verified Key.", Severity.INFORMATIONAL,
-							new AuditElement(username, "generateApiKey", ""));
-					return new ResponseEntity<>(new UUIDResponse(uuid), HttpStatus.CREATED);
-				}
-			}
+		if (username != null) {
+			String uuid = uuidFactory.getUUID();
+			updateAPIKey(username, uuid);
 
-			final String error = "Authentication failed for user " + username;
-			pzLogger.log(error, Severity.INFORMATIONAL, new AuditElement(username, "failedToGenerateKey", ""));
-			return new ResponseEntity<>(new ErrorResponse(error, IDAM_COMPONENT_NAME), HttpStatus.UNAUTHORIZED);
-		} catch (Exception exception) {
-			String error = String.format("Error retrieving API Key: %s", exception.getMessage());
-			LOGGER.error(error, exception);
-			pzLogger.log(error, Severity.ERROR);
-			return new ResponseEntity<>(new ErrorResponse(error, IDAM_COMPONENT_NAME), HttpStatus.UNAUTHORIZED);
+			// Return the Key
+			pzLogger.log("Successfully verified Key.", Severity.INFORMATIONAL,
+					new AuditElement(username, "generateApiKey", ""));
+			return new ResponseEntity<>(new UUIDResponse(uuid), HttpStatus.CREATED);
 		}
+
+		return getFailedApiKeyGenerationResponse(username);
+	}
+
+	private ResponseEntity<PiazzaResponse> getFailedApiKeyGenerationResponse(final String username) {
+		final String error = "Authentication failed for user " + username;
+		pzLogger.log(error, Severity.INFORMATIONAL, new AuditElement(username, "failedToGenerateKey", ""));
+		return new ResponseEntity<>(new ErrorResponse(error, IDAM_COMPONENT_NAME), HttpStatus.UNAUTHORIZED);
 	}
 
 	private void updateAPIKey(final String username, final String uuid) {
@@ -300,7 +492,7 @@ public class AuthController {
 	 * @return String UUID generated from the UUIDFactory in pz-jobcommon
 	 */
 	@RequestMapping(value = "/v2/key", method = RequestMethod.POST, produces = MediaType.APPLICATION_JSON_VALUE)
-	public ResponseEntity<PiazzaResponse> generateApiKeyV2() {
+	public CompletableFuture<ResponseEntity<PiazzaResponse>> generateApiKeyV2() {
 		return generateApiKey();
 	}
 
@@ -313,40 +505,71 @@ public class AuthController {
 	 * @return String UUID generated from the UUIDFactory in pz-jobcommon
 	 */
 	@RequestMapping(value = "/v2/key", method = RequestMethod.GET, produces = MediaType.APPLICATION_JSON_VALUE)
-	public ResponseEntity<PiazzaResponse> getExistingApiKey() {
+	public CompletableFuture<ResponseEntity<PiazzaResponse>> getExistingApiKey() {
 		try {
 			// Decode credentials. We need to get the username of this account.
-			final String authHeader = request.getHeader("Authorization");
-			String username = null;
+			final String decodedAuthNInfo = getDecodedAuthorizationHeader();
 
 			// Ensure the Authorization Header is present
-			if (authHeader != null && authHeader.split(" ").length == 2) {
-				final String[] headerParts = authHeader.split(" ");
-
-				String decodedAuthNInfo = new String(Base64.getDecoder().decode(headerParts[1]), StandardCharsets.UTF_8);
-				username = getAuthenticatedUsername(decodedAuthNInfo);
-				
-				// Username found and authenticated. Get the API Key.
-				if (username != null) {
-					String apiKey = accessor.getApiKey(username);
-					return getExistingAPIKeyResponse(apiKey, username);
-				}
+			if (decodedAuthNInfo == null) {
+				return CompletableFuture.completedFuture(getFailedExistingApiKeyResponse(null));
 			}
-			// If the username was not found and authenticated from the auth header, then no API Key can be returned.
-			// Return an error.
-			String error = "Could not get existing API Key.";
-			pzLogger.log(error, Severity.INFORMATIONAL, new AuditElement(username, "failedToGetExistingKey", ""));
-			return new ResponseEntity<>(new ErrorResponse(error, IDAM_COMPONENT_NAME), HttpStatus.UNAUTHORIZED);
+
+			// Authenticate against GeoAxis off the servlet thread
+			return gxRequestExecutor.supplyAsync(() -> getExistingApiKey(decodedAuthNInfo)).exceptionally(this::getApiKeyErrorResponse);
 		} catch (Exception exception) {
-			// Log
-			String error = String.format("Error retrieving API Key: %s", exception.getMessage());
-			LOGGER.error(error, exception);
-			pzLogger.log(error, Severity.ERROR);
-			// Return Error
-			return new ResponseEntity<>(new ErrorResponse(error, IDAM_COMPONENT_NAME), HttpStatus.UNAUTHORIZED);
+			return CompletableFuture.completedFuture(getApiKeyErrorResponse(exception));
 		}
 	}
-	
+
+	private ResponseEntity<PiazzaResponse> getExistingApiKey(final String decodedAuthNInfo) {
+		final String username = getAuthenticatedUsername(decodedAuthNInfo);
+
+		// Username found and authenticated. Get the API Key.
+		if (username != null) {
+			String apiKey = accessor.getApiKey(username);
+			return getExistingAPIKeyResponse(apiKey, username);
+		}
+		return getFailedExistingApiKeyResponse(username);
+	}
+
+	private ResponseEntity<PiazzaResponse> getFailedExistingApiKeyResponse(final String username) {
+		// If the username was not found and authenticated from the auth header, then no API Key can be returned.
+		// Return an error.
+		String error = "Could not get existing API Key.";
+		pzLogger.log(error, Severity.INFORMATIONAL, new AuditElement(username, "failedToGetExistingKey", ""));
+		return new ResponseEntity<>(new ErrorResponse(error, IDAM_COMPONENT_NAME), HttpStatus.UNAUTHORIZED);
+	}
+
+	/**
+	 * Decodes the credentials of the Basic Authorization header. Must be called on the servlet thread.
+	 * 
+	 * @return The decoded credentials, or null if the header is missing or malformed
+	 */
+	private String getDecodedAuthorizationHeader() {
+		final String headerValue = request.getHeader("Authorization");
+		if (headerValue != null && headerValue.split(" ").length == 2) {
+			final String[] headerParts = headerValue.split(" ");
+			return new String(Base64.getDecoder().decode(headerParts[1]), StandardCharsets.UTF_8);
+		}
+		return null;
+	}
+
+	private ResponseEntity<PiazzaResponse> getApiKeyErrorResponse(final Throwable throwable) {
+		final Throwable exception = throwable instanceof CompletionException && throwable.getCause() != null ? throwable.getCause()
+				: throwable;
+		String error = String.format("Error retrieving API Key: %s", exception.getMessage());
+		LOGGER.error(error, exception);
+		pzLogger.log(error, Severity.ERROR);
+		// GeoAxis is unreachable or saturated, rather than the credentials wrong
+		HttpStatus status = isUnavailable(exception) ? HttpStatus.SERVICE_UNAVAILABLE : HttpStatus.UNAUTHORIZED;
+		return new ResponseEntity<>(new ErrorResponse(error, IDAM_COMPONENT_NAME), status);
+	}
+
+	private static boolean isUnavailable(final Throwable exception) {
+		return exception instanceof RejectedExecutionException || exception instanceof GxUnavailableException;
+	}
+
 	private String getAuthenticatedUsername(final String decodedAuthNInfo) {
 		String username = null;
 		AuthResponse authResponse = null;
@@ -396,84 +619,95 @@ public class AuthController {
 
 	@Profile("geoaxis")
 	@RequestMapping(value = "/login", method = RequestMethod.GET, produces = MediaType.APPLICATION_JSON_VALUE)
-	public RedirectView oauthResponse(@RequestParam String code, HttpSession session, HttpServletResponse response) {
+	public CompletableFuture<ResponseEntity<Void>> oauthResponse(@RequestParam String code, HttpSession session) {
 		try {
-			try {
-				pzLogger.log(String.format("Requesting access token with code=%s", code), Severity.DEBUG);
-                final String redirectUri = oAuthClient.getRedirectUri(request);
-				final String accessToken = oAuthClient.getAccessToken(code, redirectUri);
-				pzLogger.log(String.format("access token = %s", accessToken), Severity.DEBUG);
-
-				pzLogger.log("Requesting user profile...", Severity.DEBUG);
-				final ResponseEntity<GxOAuthResponse> profileResponse = oAuthClient.getGxUserProfile(accessToken);
-				pzLogger.log(String.format("  user profile = %s", profileResponse.getBody()), Severity.DEBUG);
-
-				final String username = profileResponse.getBody().getUsername();
-				String dn = profileResponse.getBody().getDn();
-				if (dn == null || dn.isEmpty()) {
-					String uid = profileResponse.getBody().getUid();
-					String firstname = profileResponse.getBody().getFirstname();
-					String lastname = profileResponse.getBody().getLastname();
-					if ((uid != null && !uid.isEmpty()) &&
-						(firstname != null && !firstname.isEmpty()) &&
-						(lastname != null && !lastname.isEmpty())) {
-						dn = String.format("UID=%s,CN=%s.%s,OU=ID.me,O=Beachfront", uid, lastname, firstname);
-					} else {
-						// We don't have any identifying values
-						pzLogger.log(String.format("Geoaxis response missing DN and unable to generate: %s",
-								profileResponse.getBody().toString()),
-								Severity.ERROR);
-						RedirectView errorView = new RedirectView();
-						errorView.setStatusCode(HttpStatus.UNAUTHORIZED);
-						return errorView;
-					}
-				}
+			// Read everything needed from the request on the servlet thread
+			final String redirectUri = oAuthClient.getRedirectUri(request);
+			int dotIndex = request.getServerName().indexOf(".") + 1;
+			final String domain = request.getServerName().substring(dotIndex);
+			final String uiUrl = oAuthClient.getUiUrl(request);
+
+			// Exchange the code with GeoAxis off the servlet thread. The cookie and redirect are returned as headers, which
+			// the container writes once it resumes the request, so the pool never touches the servlet response.
+			return gxRequestExecutor.supplyAsync(() -> login(code, redirectUri, domain, uiUrl))
+					.exceptionally(this::getLoginErrorResponse);
+		} catch (Exception exception) {
+			return CompletableFuture.completedFuture(getLoginErrorResponse(exception));
+		}
+	}
 
-				// If there's no profile create one and make sure they have an api key
-                pzLogger.log(String.format("Checking user profile for %s with dn=%s", username, dn), Severity.DEBUG);
-                if (!accessor.hasUserProfile(username, dn)) {
-                    pzLogger.log(String.format("Creating user profile for %s", username), Severity.DEBUG);
-					UserProfile profile = oAuthClient.getUserProfileFromGxProfile(profileResponse.getBody());
-					accessor.insertUserProfile(profile);
-					accessor.createApiKey(username, uuidFactory.getUUID());
+	private ResponseEntity<Void> login(final String code, final String redirectUri, final String domain, final String uiUrl) {
+		try {
+			pzLogger.log(String.format("Requesting access token with code=%s", code), Severity.DEBUG);
+			final String accessToken = oAuthClient.getAccessToken(code, redirectUri);
+			pzLogger.log(String.format("access token = %s", accessToken), Severity.DEBUG);
+
+			pzLogger.log("Requesting user profile...", Severity.DEBUG);
+			final ResponseEntity<GxOAuthResponse> profileResponse = oAuthClient.getGxUserProfile(accessToken);
+			pzLogger.log(String.format("  user profile = %s", profileResponse.getBody()), Severity.DEBUG);
+
+			final String username = profileResponse.getBody().getUsername();
+			String dn = profileResponse.getBody().getDn();
+			if (dn == null || dn.isEmpty()) {
+				String uid = profileResponse.getBody().getUid();
+				String firstname = profileResponse.getBody().getFirstname();
+				String lastname = profileResponse.getBody().getLastname();
+				if ((uid != null && !uid.isEmpty()) &&
+					(firstname != null && !firstname.isEmpty()) &&
+					(lastname != null && !lastname.isEmpty())) {
+					dn = String.format("UID=%s,CN=%s.%s,OU=ID.me,O=Beachfront", uid, lastname, firstname);
+				} else {
+					// We don't have any identifying values
+					pzLogger.log(String.format("Geoaxis response missing DN and unable to generate: %s",
+							profileResponse.getBody().toString()),
+							Severity.ERROR);
+					return new ResponseEntity<>(HttpStatus.UNAUTHORIZED);
 				}
+			}
 
-				// final UserProfile user = accessor.getUserProfileByUsername(username);
-				String apiKey = accessor.getApiKey(username);
+			// If there's no profile create one and make sure they have an api key
+			pzLogger.log(String.format("Checking user profile for %s with dn=%s", username, dn), Severity.DEBUG);
+			if (!accessor.hasUserProfile(username, dn)) {
+				pzLogger.log(String.format("Creating user profile for %s", username), Severity.DEBUG);
+				UserProfile profile = oAuthClient.getUserProfileFromGxProfile(profileResponse.getBody());
+				accessor.insertUserProfile(profile);
+				accessor.createApiKey(username, uuidFactory.getUUID());
+			}
 
-				// If key is invalid, delete and reissue
-				if (!accessor.isApiKeyValid(apiKey)) {
-					accessor.deleteApiKey(apiKey);
-					apiKey = uuidFactory.getUUID();
-					accessor.createApiKey(username, apiKey);
-				}
+			// final UserProfile user = accessor.getUserProfileByUsername(username);
+			String apiKey = accessor.getApiKey(username);
 
-				//session.setAttribute("api_key", apiKey);
-				// TODO: We probably don't need both of these. Remove the one we don't need.
-				Cookie cookie = new Cookie("api_key", apiKey);
-				cookie.setHttpOnly(true);
-				cookie.setSecure(true);
-				int dotIndex = request.getServerName().indexOf(".") + 1;
-				String domain = request.getServerName().substring(dotIndex);
-				cookie.setDomain(domain);
-				response.addCookie(cookie);
-
-				return new RedirectView(String.format("%s?logged_in=true", oAuthClient.getUiUrl(request)));
-			} catch (HttpClientErrorException | HttpServerErrorException hee) {
-				LOGGER.error(hee.getResponseBodyAsString(), hee);
-				pzLogger.log(hee.getResponseBodyAsString(), Severity.ERROR);
-				RedirectView errorView = new RedirectView();
-				errorView.setStatusCode(hee.getStatusCode());
-				return errorView;
+			// If key is invalid, delete and reissue
+			if (!accessor.isApiKeyValid(apiKey)) {
+				accessor.deleteApiKey(apiKey);
+				apiKey = uuidFactory.getUUID();
+				accessor.createApiKey(username, apiKey);
 			}
+
+			//session.setAttribute("api_key", apiKey);
+			// TODO: We probably don't need both of these. Remove the one we don't need.
+			HttpHeaders headers = new HttpHeaders();
+			headers.add(HttpHeaders.SET_COOKIE, String.format("api_key=%s; Domain=%s; Secure; HttpOnly", apiKey, domain));
+			headers.add(HttpHeaders.LOCATION, String.format("%s?logged_in=true", uiUrl));
+			return new ResponseEntity<>(headers, HttpStatus.FOUND);
 		} catch (Exception exception) {
-			String error = String.format("Error during login: %s", exception.getMessage());
-			LOGGER.error(error, exception);
-			pzLogger.log(error, Severity.ERROR);
-			RedirectView errorView = new RedirectView();
-			errorView.setStatusCode(HttpStatus.INTERNAL_SERVER_ERROR);
-			return errorView;
+			return getLoginErrorResponse(exception);
+		}
+	}
+
+	private ResponseEntity<Void> getLoginErrorResponse(final Throwable throwable) {
+		final Throwable exception = throwable instanceof CompletionException && throwable.getCause() != null ? throwable.getCause()
+				: throwable;
+		if (exception instanceof HttpStatusCodeException) {
+			HttpStatusCodeException hee = (HttpStatusCodeException) exception;
+			LOGGER.error(hee.getResponseBodyAsString(), hee);
+			pzLogger.log(hee.getResponseBodyAsString(), Severity.ERROR);
+			return new ResponseEntity<>(hee.getStatusCode());
 		}
+		String error = String.format("Error during login: %s", exception.getMessage());
+		LOGGER.error(error, exception);
+		pzLogger.log(error, Severity.ERROR);
+		return new ResponseEntity<>(isUnavailable(exception) ? HttpStatus.SERVICE_UNAVAILABLE : HttpStatus.INTERNAL_SERVER_ERROR);
 	}
 
 	@Profile("geoaxis")
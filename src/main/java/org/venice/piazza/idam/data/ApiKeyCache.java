@@ -0,0 +1,168 @@
+/**
+ * Copyright 2016, RadiantBlue Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package org.venice.piazza.idam.data;
+
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.venice.piazza.idam.util.BoundedCache;
+
+import model.security.ApiKey;
+
+/**
+ * Size-bounded, least-recently-used cache of API Keys that were valid when they were loaded from the database. Entries
+ * live for at most the configured TTL, after which the next lookup goes back to the database. This bounds how long a
+ * key deleted by another IDAM instance can still be honored here.
+ */
+@Component
+public class ApiKeyCache {
+	@Value("${key.cache.max.size}")
+	private int maxSize;
+	@Value("${key.cache.ttl.ms}")
+	private long ttlMs;
+
+	private final BoundedCache<String, Entry> entries = new BoundedCache<>(() -> maxSize);
+
+	/**
+	 * Gets the cached API Key for the specified uuid.
+	 *
+	 * @param uuid
+	 *            The API Key
+	 * @return The cached entry, or null if the key is not cached or its entry has outlived the TTL.
+	 */
+	public Entry get(final String uuid) {
+		if (uuid == null) {
+			return null;
+		}
+		return entries.get(uuid, entry -> System.currentTimeMillis() - entry.getCachedOn() <= ttlMs);
+	}
+
+	/**
+	 * Caches a copy of the specified API Key. Later changes to the ApiKey object are not reflected in the cache.
+	 *
+	 * @param apiKey
+	 *            The API Key, as read from the database
+	 * @return The cached entry
+	 */
+	public Entry put(final ApiKey apiKey) {
+		Entry entry = new Entry(apiKey.getUuid(), apiKey.getUsername(), apiKey.getExpiresOn(), apiKey.getLastUsedOn());
+		entries.put(entry.getUuid(), entry);
+		return entry;
+	}
+
+	/**
+	 * Removes the entry for the specified uuid, if present.
+	 *
+	 * @param uuid
+	 *            The API Key
+	 */
+	public void invalidate(final String uuid) {
+		if (uuid == null) {
+			return;
+		}
+		entries.remove(uuid);
+	}
+
+	/**
+	 * Removes every entry belonging to the specified user. Used when a user's key is replaced and the old uuid is not
+	 * known to the caller.
+	 *
+	 * @param username
+	 *            The username
+	 */
+	public void invalidateUser(final String username) {
+		if (username == null) {
+			return;
+		}
+		entries.removeIf(entry -> username.equals(entry.getUsername()));
+	}
+
+	/**
+	 * Removes all entries from the cache.
+	 */
+	public void clear() {
+		entries.clear();
+	}
+
+	/**
+	 * Gets the current cache statistics, for reporting through the admin endpoint.
+	 *
+	 * @return Map of the statistic name to its value
+	 */
+	public Map<String, Object> getStatistics() {
+		Map<String, Object> statistics = entries.getStatistics();
+		statistics.put("ttlMs", ttlMs);
+		return statistics;
+	}
+
+	/**
+	 * A cached API Key. The last used time is tracked in memory so that repeated validations of a hot key do not need to
+	 * touch the database.
+	 */
+	public static final class Entry {
+		private final String uuid;
+		private final String username;
+		private final long expiresOn;
+		private final long cachedOn;
+		private volatile long lastUsedOn;
+		private volatile long lastRecordedOn;
+
+		private Entry(String uuid, String username, long expiresOn, long lastUsedOn) {
+			this.uuid = uuid;
+			this.username = username;
+			this.expiresOn = expiresOn;
+			this.lastUsedOn = lastUsedOn;
+			this.lastRecordedOn = lastUsedOn;
+			this.cachedOn = System.currentTimeMillis();
+		}
+
+		public String getUuid() {
+			return uuid;
+		}
+
+		public String getUsername() {
+			return username;
+		}
+
+		public long getExpiresOn() {
+			return expiresOn;
+		}
+
+		public long getLastUsedOn() {
+			return lastUsedOn;
+		}
+
+		public void setLastUsedOn(long lastUsedOn) {
+			this.lastUsedOn = lastUsedOn;
+		}
+
+		/**
+		 * @return The last usage time that was persisted, or handed to the write-behind buffer to be persisted
+		 */
+		public long getLastRecordedOn() {
+			return lastRecordedOn;
+		}
+
+		public void setLastRecordedOn(long lastRecordedOn) {
+			this.lastRecordedOn = lastRecordedOn;
+		}
+
+		public long getCachedOn() {
+			return cachedOn;
+		}
+	}
+}
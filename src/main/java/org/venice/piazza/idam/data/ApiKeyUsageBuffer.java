@@ -0,0 +1,64 @@
+/**
+ * Copyright 2016, RadiantBlue Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package org.venice.piazza.idam.data;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Write-behind buffer of API Key last usage times. Usages of the same key are coalesced into the latest timestamp, so
+ * that each key is written at most once per flush.
+ */
+public class ApiKeyUsageBuffer {
+	private final Map<String, Long> pending = new ConcurrentHashMap<>();
+
+	/**
+	 * Records that the specified key was used at the specified time.
+	 *
+	 * @param uuid
+	 *            The API Key
+	 * @param lastUsedOn
+	 *            The time of usage
+	 */
+	public void recordUsage(final String uuid, final long lastUsedOn) {
+		pending.merge(uuid, lastUsedOn, Math::max);
+	}
+
+	/**
+	 * Removes and returns all pending usages. Usages recorded while draining are either returned or left for the next
+	 * drain; none are lost.
+	 *
+	 * @return Map of API Key to its latest time of usage
+	 */
+	public Map<String, Long> drain() {
+		Map<String, Long> drained = new HashMap<>();
+		for (String uuid : pending.keySet()) {
+			Long lastUsedOn = pending.remove(uuid);
+			if (lastUsedOn != null) {
+				drained.put(uuid, lastUsedOn);
+			}
+		}
+		return drained;
+	}
+
+	/**
+	 * @return The number of keys with an unflushed usage
+	 */
+	public int size() {
+		return pending.size();
+	}
+}
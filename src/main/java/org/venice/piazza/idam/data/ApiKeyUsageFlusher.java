@@ -0,0 +1,91 @@
+/**
+ * Copyright 2016, RadiantBlue Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package org.venice.piazza.idam.data;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import model.logger.Severity;
+import util.PiazzaLogger;
+
+/**
+ * Periodically flushes the buffered API Key usage times to the database. A final flush is performed when the
+ * application context stops, before the data source is closed.
+ */
+@Component
+public class ApiKeyUsageFlusher implements SmartLifecycle {
+	@Autowired
+	private DatabaseAccessor accessor;
+	@Autowired
+	private PiazzaLogger pzLogger;
+
+	private volatile boolean running = false;
+	private static final Logger LOGGER = LoggerFactory.getLogger(ApiKeyUsageFlusher.class);
+
+	/**
+	 * Every interval, write the buffered API Key usage times to the database.
+	 */
+	@Scheduled(fixedDelayString = "${key.lastused.flush.interval.ms}")
+	public void flush() {
+		try {
+			int flushed = accessor.flushApiKeyUsage();
+			if (flushed > 0) {
+				LOGGER.debug("Flushed last usage time for {} API Keys.", flushed);
+			}
+		} catch (Exception exception) {
+			String error = String.format("Error flushing API Key usage times: %s", exception.getMessage());
+			LOGGER.error(error, exception);
+			pzLogger.log(error, Severity.WARNING);
+		}
+	}
+
+	@Override
+	public void start() {
+		running = true;
+	}
+
+	@Override
+	public void stop() {
+		flush();
+		running = false;
+	}
+
+	@Override
+	public boolean isRunning() {
+		return running;
+	}
+
+	@Override
+	public int getPhase() {
+		// Stop after the other lifecycle components, such as the message listener containers
+		return Integer.MIN_VALUE;
+	}
+
+	@Override
+	public boolean isAutoStartup() {
+		return true;
+	}
+
+	@Override
+	public void stop(Runnable callback) {
+		stop();
+		callback.run();
+	}
+}
@@ -0,0 +1,53 @@
+/**
+ * Copyright 2016, RadiantBlue Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package org.venice.piazza.idam.data;
+
+/**
+ * The persisted progress of a run of a background daemon, so that a run interrupted by a crash or redeploy can resume
+ * where it stopped. Everything up to and including the position has been processed.
+ */
+public class DaemonCheckpoint {
+	private final String position;
+	private final long startedOn;
+	private final long updatedOn;
+
+	public DaemonCheckpoint(final String position, final long startedOn, final long updatedOn) {
+		this.position = position;
+		this.startedOn = startedOn;
+		this.updatedOn = updatedOn;
+	}
+
+	/**
+	 * @return The key of the last processed item, in the order the daemon processes them
+	 */
+	public String getPosition() {
+		return position;
+	}
+
+	/**
+	 * @return The time the run started, in epoch milliseconds
+	 */
+	public long getStartedOn() {
+		return startedOn;
+	}
+
+	/**
+	 * @return The time the checkpoint was written, in epoch milliseconds
+	 */
+	public long getUpdatedOn() {
+		return updatedOn;
+	}
+}
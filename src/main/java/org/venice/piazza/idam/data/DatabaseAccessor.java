@@ -16,13 +16,27 @@
 package org.venice.piazza.idam.data;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
 
+import javax.annotation.PostConstruct;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+
+import org.hibernate.Session;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.venice.piazza.common.hibernate.dao.ApiKeyDao;
 import org.venice.piazza.common.hibernate.dao.UserProfileDao;
 import org.venice.piazza.common.hibernate.dao.UserThrottlesDao;
@@ -43,8 +57,38 @@ public class DatabaseAccessor {
 	private long KEY_EXPIRATION_DURATION_MS;
 	@Value("${key.inactivity.threshold.ms}")
 	private long KEY_INACTIVITY_THESHOLD_MS;
+	@Value("${key.lastused.max.staleness.ms}")
+	private long KEY_LAST_USED_MAX_STALENESS_MS;
 
 	private static final Logger LOGGER = LoggerFactory.getLogger(DatabaseAccessor.class);
+	private static final String UPDATE_API_KEY_LAST_USED_SQL = "UPDATE api_key SET data = jsonb_set(data, '{lastUsedOn}', to_jsonb(?::bigint)) "
+			+ "WHERE data ->> 'uuid' = ? AND (data ->> 'lastUsedOn')::bigint < ?";
+
+	private static final String SELECT_API_KEY_WITH_PROFILE_SQL = "SELECT {k.*}, {p.*} FROM api_key k "
+			+ "LEFT JOIN user_profile p ON p.data ->> 'username' = k.data ->> 'username' WHERE k.data ->> 'uuid' = :uuid";
+	private static final String SELECT_API_KEYS_WITH_PROFILES_SQL = "SELECT {k.*}, {p.*} FROM api_key k "
+			+ "LEFT JOIN user_profile p ON p.data ->> 'username' = k.data ->> 'username' WHERE k.data ->> 'uuid' IN (:uuids)";
+	private static final String SELECT_USER_PROFILES_SQL = "SELECT * FROM user_profile WHERE data ->> 'username' IN (:usernames)";
+	private static final String INCREMENT_USER_THROTTLE_SQL = "UPDATE user_throttles SET data = jsonb_set(data, ARRAY['throttles', ?::text], "
+			+ "to_jsonb(COALESCE((data -> 'throttles' ->> ?)::int, 0) + ?)) WHERE data ->> 'username' = ?";
+	private static final String LOCK_USER_THROTTLES_SQL = "SELECT pg_advisory_xact_lock(hashtext(?))";
+	private static final String SELECT_USER_PROFILE_PAGE_SQL = "SELECT * FROM user_profile WHERE data ->> 'username' > :after "
+			+ "ORDER BY data ->> 'username' LIMIT :limit";
+	private static final String COUNT_USER_PROFILES_SQL = "SELECT count(*) FROM user_profile";
+	private static final String SELECT_USER_PROFILES_BY_HASH_SQL = "SELECT * FROM user_profile "
+			+ "WHERE hashtext(data ->> 'username') BETWEEN :low AND :high";
+	private static final String CREATE_USER_PROFILE_HASH_INDEX_SQL = "CREATE INDEX IF NOT EXISTS user_profile_username_hash "
+			+ "ON user_profile (hashtext(data ->> 'username'))";
+	private static final String CREATE_DAEMON_CHECKPOINT_TABLE_SQL = "CREATE TABLE IF NOT EXISTS daemon_checkpoint "
+			+ "(name VARCHAR(64) PRIMARY KEY, position TEXT NOT NULL, started_on BIGINT NOT NULL, updated_on BIGINT NOT NULL)";
+	private static final String SELECT_DAEMON_CHECKPOINT_SQL = "SELECT position, started_on, updated_on FROM daemon_checkpoint WHERE name = ?";
+	private static final String UPDATE_DAEMON_CHECKPOINT_SQL = "UPDATE daemon_checkpoint SET position = ?, started_on = ?, updated_on = ? "
+			+ "WHERE name = ?";
+	private static final String INSERT_DAEMON_CHECKPOINT_SQL = "INSERT INTO daemon_checkpoint (position, started_on, updated_on, name) "
+			+ "VALUES (?, ?, ?, ?)";
+	private static final String DELETE_DAEMON_CHECKPOINT_SQL = "DELETE FROM daemon_checkpoint WHERE name = ?";
+
+	private final ApiKeyUsageBuffer apiKeyUsageBuffer = new ApiKeyUsageBuffer();
 
 	@Autowired
 	private UserProfileDao userProfileDao;
@@ -52,10 +96,37 @@ public class DatabaseAccessor {
 	private ApiKeyDao apiKeyDao;
 	@Autowired
 	private UserThrottlesDao userThrottlesDao;
+	@Autowired
+	private ApiKeyCache apiKeyCache;
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+	@Autowired
+	private TransactionTemplate transactionTemplate;
+	@PersistenceContext
+	private EntityManager entityManager;
 
 	@Autowired
 	private PiazzaLogger pzLogger;
 
+	/**
+	 * Creates the table of daemon checkpoints, which is not backed by an entity, and the index on the username hash of
+	 * the profiles, if they do not yet exist.
+	 */
+	@PostConstruct
+	public void initializeDaemonCheckpoints() {
+		try {
+			jdbcTemplate.execute(CREATE_DAEMON_CHECKPOINT_TABLE_SQL);
+		} catch (DataAccessException exception) {
+			LOGGER.error("Could not create the daemon checkpoint table; interrupted daemon runs will start over.", exception);
+		}
+		try {
+			jdbcTemplate.execute(CREATE_USER_PROFILE_HASH_INDEX_SQL);
+		} catch (DataAccessException exception) {
+			LOGGER.warn("Could not create the user profile hash index; profiles due for verification will be found by table scan.",
+					exception);
+		}
+	}
+
 	/**
 	 * Updates the API Key for the specified user in DB
 	 * 
@@ -67,6 +138,8 @@ public class DatabaseAccessor {
 	public void updateApiKey(final String username, final String uuid) {
 		ApiKeyEntity apiKeyEntity = apiKeyDao.getApiKeyByUserName(username);
 		if (apiKeyEntity != null) {
+			// The previous key for this user must no longer validate from the cache
+			apiKeyCache.invalidateUser(username);
 			long currentTime = System.currentTimeMillis();
 			ApiKey apiKey = new ApiKey(uuid, username, currentTime, currentTime + KEY_EXPIRATION_DURATION_MS);
 			apiKeyEntity.setApiKey(apiKey);
@@ -85,19 +158,184 @@ public class DatabaseAccessor {
 	public void createApiKey(final String username, final String uuid) {
 		long currentTime = System.currentTimeMillis();
 		ApiKey apiKey = new ApiKey(uuid, username, currentTime, currentTime + KEY_EXPIRATION_DURATION_MS);
+		apiKeyCache.invalidateUser(username);
 		apiKeyDao.save(new ApiKeyEntity(apiKey));
 	}
 
 	/**
 	 * Determines if an API Key is valid in the API Key Collection
+	 * <p>
+	 * Keys that were valid when last read are served from the {@link ApiKeyCache}. The time of last use is not written
+	 * on every validation; it is handed to a write-behind buffer, at most once per key per configured staleness
+	 * interval, and flushed to the database in batches.
+	 * </p>
 	 * 
 	 * @param uuid
 	 *            The API Key
 	 * @return True if valid. False if not.
 	 */
 	public boolean isApiKeyValid(final String uuid) {
-		ApiKeyEntity apiKeyEntity = apiKeyDao.getApiKeyByUuid(uuid);
+		ApiKeyCache.Entry cachedApiKey = apiKeyCache.get(uuid);
+		if (cachedApiKey != null) {
+			return isCachedApiKeyValid(cachedApiKey);
+		}
+		return isApiKeyEntityValid(apiKeyDao.getApiKeyByUuid(uuid));
+	}
+
+	/**
+	 * Gets the Profile for the user of the specified API Key, if that key is valid. This resolves key validity, the
+	 * username and the profile in a single database query, instead of the separate key, key and profile lookups of
+	 * {@link #isApiKeyValid(String)} followed by {@link #getUserProfileByApiKey(String)}.
+	 * 
+	 * @param uuid
+	 *            The API Key
+	 * @return The User Profile. Null if the API Key is not valid. If the key is valid but the user has no stored
+	 *         profile, a profile containing only the username is returned.
+	 */
+	public UserProfile getUserProfileByValidApiKey(final String uuid) {
+		ApiKeyCache.Entry cachedApiKey = apiKeyCache.get(uuid);
+		if (cachedApiKey != null) {
+			// Validity is known without the database. Only the profile must be read.
+			return isCachedApiKeyValid(cachedApiKey) ? getUserProfileByUsername(cachedApiKey.getUsername()) : null;
+		}
+
+		// Read the key and its profile together
+		@SuppressWarnings("unchecked")
+		List<Object[]> results = entityManager.unwrap(Session.class).createSQLQuery(SELECT_API_KEY_WITH_PROFILE_SQL)
+				.addEntity("k", ApiKeyEntity.class).addEntity("p", UserProfileEntity.class).setParameter("uuid", uuid).list();
+		if (results.isEmpty() || !isApiKeyEntityValid((ApiKeyEntity) results.get(0)[0])) {
+			return null;
+		}
+		return getUserProfileOrDefault(((ApiKeyEntity) results.get(0)[0]).getApiKey().getUsername(),
+				(UserProfileEntity) results.get(0)[1]);
+	}
+
+	/**
+	 * Gets the Profiles for the users of the specified API Keys, for those keys that are valid. Keys not in the cache
+	 * are read together with their profiles in one query; profiles for cached keys are read in one further query.
+	 * 
+	 * @param uuids
+	 *            The API Keys
+	 * @return Map of each valid API Key to the Profile of its user. Invalid keys are absent from the map. Valid keys
+	 *         whose user has no stored profile map to a profile containing only the username.
+	 */
+	public Map<String, UserProfile> getUserProfilesByValidApiKeys(final Collection<String> uuids) {
+		Map<String, UserProfile> userProfiles = new HashMap<>();
+		Map<String, String> cachedUsernames = new HashMap<>();
+		Set<String> uncachedUuids = new HashSet<>();
+		for (String uuid : uuids) {
+			if (uuid == null) {
+				continue;
+			}
+			ApiKeyCache.Entry cachedApiKey = apiKeyCache.get(uuid);
+			if (cachedApiKey == null) {
+				uncachedUuids.add(uuid);
+			} else if (isCachedApiKeyValid(cachedApiKey)) {
+				cachedUsernames.put(uuid, cachedApiKey.getUsername());
+			}
+		}
+
+		// Read all uncached keys together with their profiles
+		if (!uncachedUuids.isEmpty()) {
+			@SuppressWarnings("unchecked")
+			List<Object[]> results = entityManager.unwrap(Session.class).createSQLQuery(SELECT_API_KEYS_WITH_PROFILES_SQL)
+					.addEntity("k", ApiKeyEntity.class).addEntity("p", UserProfileEntity.class).setParameterList("uuids", uncachedUuids)
+					.list();
+			for (Object[] result : results) {
+				ApiKeyEntity apiKeyEntity = (ApiKeyEntity) result[0];
+				if (isApiKeyEntityValid(apiKeyEntity)) {
+					ApiKey apiKey = apiKeyEntity.getApiKey();
+					userProfiles.put(apiKey.getUuid(), getUserProfileOrDefault(apiKey.getUsername(), (UserProfileEntity) result[1]));
+				}
+			}
+		}
+
+		// Read the profiles for all cached keys
+		if (!cachedUsernames.isEmpty()) {
+			Map<String, UserProfile> cachedUserProfiles = getUserProfilesByUsernames(new HashSet<>(cachedUsernames.values()));
+			for (Map.Entry<String, String> cachedUsername : cachedUsernames.entrySet()) {
+				userProfiles.put(cachedUsername.getKey(), cachedUserProfiles.get(cachedUsername.getValue()));
+			}
+		}
+
+		return userProfiles;
+	}
+
+	/**
+	 * Gets the Profiles for the specified users in one query.
+	 * 
+	 * @param usernames
+	 *            The usernames
+	 * @return Map of each username to its Profile. Users without a stored profile map to a profile containing only the
+	 *         username, as with {@link #getUserProfileByUsername(String)}.
+	 */
+	public Map<String, UserProfile> getUserProfilesByUsernames(final Collection<String> usernames) {
+		Map<String, UserProfile> userProfiles = new HashMap<>();
+		if (usernames.isEmpty()) {
+			return userProfiles;
+		}
+		Map<String, UserProfileEntity> userProfileEntities = new HashMap<>();
+		for (UserProfileEntity userProfileEntity : getUserProfileEntities(usernames)) {
+			userProfileEntities.put(userProfileEntity.getUserProfile().getUsername(), userProfileEntity);
+		}
+		for (String username : usernames) {
+			userProfiles.put(username, getUserProfileOrDefault(username, userProfileEntities.get(username)));
+		}
+		return userProfiles;
+	}
+
+	/**
+	 * Gets the stored Profile entities for the specified users in one query.
+	 * 
+	 * @param usernames
+	 *            The usernames
+	 * @return The Profile entities of those users that have one
+	 */
+	@SuppressWarnings("unchecked")
+	private List<UserProfileEntity> getUserProfileEntities(final Collection<String> usernames) {
+		return entityManager.unwrap(Session.class).createSQLQuery(SELECT_USER_PROFILES_SQL).addEntity(UserProfileEntity.class)
+				.setParameterList("usernames", usernames).list();
+	}
 
+	/**
+	 * Returns the Profile held by the entity, or a Profile containing only the username if the user has no stored
+	 * profile.
+	 */
+	private UserProfile getUserProfileOrDefault(final String username, final UserProfileEntity userProfileEntity) {
+		if (userProfileEntity == null) {
+			UserProfile userProfile = new UserProfile();
+			userProfile.setUsername(username);
+			return userProfile;
+		}
+		return userProfileEntity.getUserProfile();
+	}
+
+	/**
+	 * Determines if a cached API Key is still valid, and records its usage if so.
+	 * 
+	 * @param cachedApiKey
+	 *            The cached API Key
+	 * @return True if valid. False if not.
+	 */
+	private boolean isCachedApiKeyValid(final ApiKeyCache.Entry cachedApiKey) {
+		long currentTime = System.currentTimeMillis();
+		if (isApiKeyActive(cachedApiKey.getExpiresOn(), cachedApiKey.getLastUsedOn(), currentTime)) {
+			recordApiKeyUsage(cachedApiKey, currentTime);
+			return true;
+		}
+		// Key has expired or gone inactive while cached
+		apiKeyCache.invalidate(cachedApiKey.getUuid());
+		return false;
+	}
+
+	/**
+	 * Determines if an API Key read from the database is valid. Valid keys are cached, and their usage recorded.
+	 * 
+	 * @param apiKeyEntity
+	 *            The API Key entity. May be null, if no key exists.
+	 * @return True if valid. False if not.
+	 */
+	private boolean isApiKeyEntityValid(final ApiKeyEntity apiKeyEntity) {
 		// No key exists
 		if (apiKeyEntity == null) {
 			return false;
@@ -115,30 +353,71 @@ public class DatabaseAccessor {
 			apiKeyDao.save(apiKeyEntity);
 		}
 
-		// Key exists. Check expiration date to ensure it's valid
-		if (apiKey.getExpiresOn() < System.currentTimeMillis()) {
-			// Key has expired and is not valid any longer
+		// Key exists. Check expiration date and Inactivity date.
+		if (isApiKeyActive(apiKey.getExpiresOn(), apiKey.getLastUsedOn(), currentTime)) {
+			// Key is Valid. Cache it, and record the time of this usage.
+			recordApiKeyUsage(apiKeyCache.put(apiKey), currentTime);
+			return true;
+		} else {
 			return false;
 		}
+	}
 
-		// Key has not expired. Check Inactivity date.
-		if ((System.currentTimeMillis() - apiKey.getLastUsedOn()) < KEY_INACTIVITY_THESHOLD_MS) {
-			// Key is not inactive.
-			// First, update the last time this key was used.
-			try {
-				apiKey.setLastUsedOn(System.currentTimeMillis());
-				apiKeyDao.save(apiKeyEntity);
-			} catch (Exception exception) {
-				String error = "Could not update time of last usage for API Key.";
-				LOGGER.error(error, exception);
-				pzLogger.log(error, Severity.WARNING);
-			}
+	/**
+	 * Records the usage of a valid API Key. The usage is buffered for writing only if the last recorded usage is older
+	 * than the maximum staleness, so a hot key costs at most one write per staleness interval.
+	 * 
+	 * @param cachedApiKey
+	 *            The cached API Key
+	 * @param currentTime
+	 *            The time of usage
+	 */
+	private void recordApiKeyUsage(final ApiKeyCache.Entry cachedApiKey, final long currentTime) {
+		cachedApiKey.setLastUsedOn(currentTime);
+		if ((currentTime - cachedApiKey.getLastRecordedOn()) >= KEY_LAST_USED_MAX_STALENESS_MS) {
+			cachedApiKey.setLastRecordedOn(currentTime);
+			apiKeyUsageBuffer.recordUsage(cachedApiKey.getUuid(), currentTime);
+		}
+	}
 
-			// Key is Valid
-			return true;
-		} else {
-			return false;
+	/**
+	 * Writes all buffered API Key usage times to the database as one batch, one row per key. A row is only updated if
+	 * the buffered time is newer than the stored one.
+	 * 
+	 * @return The number of keys that were flushed
+	 */
+	public int flushApiKeyUsage() {
+		Map<String, Long> usages = apiKeyUsageBuffer.drain();
+		if (usages.isEmpty()) {
+			return 0;
+		}
+		List<Object[]> batchArgs = new ArrayList<>(usages.size());
+		for (Map.Entry<String, Long> usage : usages.entrySet()) {
+			batchArgs.add(new Object[] { usage.getValue(), usage.getKey(), usage.getValue() });
 		}
+		try {
+			jdbcTemplate.batchUpdate(UPDATE_API_KEY_LAST_USED_SQL, batchArgs);
+		} catch (Exception exception) {
+			// Put the usages back so they are retried on the next flush
+			usages.forEach(apiKeyUsageBuffer::recordUsage);
+			throw exception;
+		}
+		return usages.size();
+	}
+
+	/**
+	 * Determines if a key with the specified expiration and last usage times can still be used.
+	 * 
+	 * @param expiresOn
+	 *            The expiration time of the key
+	 * @param lastUsedOn
+	 *            The last time the key was used
+	 * @param currentTime
+	 *            The current time
+	 * @return True if the key has neither expired nor gone inactive
+	 */
+	private boolean isApiKeyActive(final long expiresOn, final long lastUsedOn, final long currentTime) {
+		return (expiresOn >= currentTime) && ((currentTime - lastUsedOn) < KEY_INACTIVITY_THESHOLD_MS);
 	}
 
 	/**
@@ -149,6 +428,10 @@ public class DatabaseAccessor {
 	 * @return The username. Null if the API Key is not valid.
 	 */
 	public String getUsername(String uuid) {
+		ApiKeyCache.Entry cachedApiKey = apiKeyCache.get(uuid);
+		if (cachedApiKey != null) {
+			return cachedApiKey.getUsername();
+		}
 		ApiKeyEntity apiKeyEntity = apiKeyDao.getApiKeyByUuid(uuid);
 		if (apiKeyEntity == null) {
 			return null;
@@ -184,6 +467,7 @@ public class DatabaseAccessor {
 		if (uuid == null) {
 			throw new InvalidInputException("Unable to delete null api key");
 		}
+		apiKeyCache.invalidate(uuid);
 		ApiKeyEntity entity = apiKeyDao.getApiKeyByUuid(uuid);
 		if (entity != null) {
 			apiKeyDao.delete(entity);
@@ -210,7 +494,8 @@ public class DatabaseAccessor {
 	}
 
 	/**
-	 * Gets all the User Profiles. Not paginated, can be large.
+	 * Gets all the User Profiles. Not paginated, can be large; use {@link #getUserProfilePage(String, int)} to read
+	 * them a page at a time.
 	 * 
 	 * @return The list of User Profiles
 	 */
@@ -225,6 +510,94 @@ public class DatabaseAccessor {
 		return userProfiles;
 	}
 
+	/**
+	 * Gets a page of the User Profiles, ordered by username. Pages are read by keyset rather than by offset, so each
+	 * page costs the same however deep into the table it is, and profiles added or removed between pages never cause
+	 * another profile to be skipped or read twice.
+	 * 
+	 * @param afterUsername
+	 *            The last username of the previous page, or the empty string for the first page
+	 * @param pageSize
+	 *            The maximum number of profiles to return
+	 * @return The profiles of the page. A page shorter than the page size is the last.
+	 */
+	public List<UserProfile> getUserProfilePage(final String afterUsername, final int pageSize) {
+		@SuppressWarnings("unchecked")
+		List<UserProfileEntity> results = entityManager.unwrap(Session.class).createSQLQuery(SELECT_USER_PROFILE_PAGE_SQL)
+				.addEntity(UserProfileEntity.class).setParameter("after", afterUsername).setParameter("limit", pageSize).list();
+		List<UserProfile> userProfiles = new ArrayList<>(results.size());
+		for (UserProfileEntity userProfileEntity : results) {
+			userProfiles.add(userProfileEntity.getUserProfile());
+		}
+		return userProfiles;
+	}
+
+	/**
+	 * Gets the User Profiles whose username hashes, by the PostgreSQL hashtext function, into the specified range. The
+	 * ranges partition the profiles into stable, evenly sized groups.
+	 * 
+	 * @param low
+	 *            The lowest hash of the range, inclusive
+	 * @param high
+	 *            The highest hash of the range, inclusive
+	 * @return The profiles in the range
+	 */
+	public List<UserProfile> getUserProfilesByUsernameHash(final int low, final int high) {
+		@SuppressWarnings("unchecked")
+		List<UserProfileEntity> results = entityManager.unwrap(Session.class).createSQLQuery(SELECT_USER_PROFILES_BY_HASH_SQL)
+				.addEntity(UserProfileEntity.class).setParameter("low", low).setParameter("high", high).list();
+		List<UserProfile> userProfiles = new ArrayList<>(results.size());
+		for (UserProfileEntity userProfileEntity : results) {
+			userProfiles.add(userProfileEntity.getUserProfile());
+		}
+		return userProfiles;
+	}
+
+	/**
+	 * @return The number of stored User Profiles
+	 */
+	public long getUserProfileCount() {
+		return jdbcTemplate.queryForObject(COUNT_USER_PROFILES_SQL, Long.class);
+	}
+
+	/**
+	 * Gets the checkpoint of the interrupted run of a daemon
+	 * 
+	 * @param name
+	 *            The name of the daemon
+	 * @return The checkpoint, or null if the daemon has no run in progress
+	 */
+	public DaemonCheckpoint getDaemonCheckpoint(final String name) {
+		List<DaemonCheckpoint> checkpoints = jdbcTemplate.query(SELECT_DAEMON_CHECKPOINT_SQL,
+				(resultSet, row) -> new DaemonCheckpoint(resultSet.getString(1), resultSet.getLong(2), resultSet.getLong(3)), name);
+		return checkpoints.isEmpty() ? null : checkpoints.get(0);
+	}
+
+	/**
+	 * Saves the checkpoint of the run in progress of a daemon, replacing any previous checkpoint
+	 * 
+	 * @param name
+	 *            The name of the daemon
+	 * @param checkpoint
+	 *            The checkpoint
+	 */
+	public void saveDaemonCheckpoint(final String name, final DaemonCheckpoint checkpoint) {
+		Object[] args = { checkpoint.getPosition(), checkpoint.getStartedOn(), checkpoint.getUpdatedOn(), name };
+		if (jdbcTemplate.update(UPDATE_DAEMON_CHECKPOINT_SQL, args) == 0) {
+			jdbcTemplate.update(INSERT_DAEMON_CHECKPOINT_SQL, args);
+		}
+	}
+
+	/**
+	 * Deletes the checkpoint of a daemon, once its run has completed
+	 * 
+	 * @param name
+	 *            The name of the daemon
+	 */
+	public void deleteDaemonCheckpoint(final String name) {
+		jdbcTemplate.update(DELETE_DAEMON_CHECKPOINT_SQL, name);
+	}
+
 	/**
 	 * Gets the Profile for the specified user with a valid API Key
 	 * 
@@ -381,12 +754,82 @@ public class DatabaseAccessor {
 	 *            The component, as defined in the Throttle model
 	 */
 	public void incrementUserThrottles(String username, model.security.authz.Throttle.Component component) {
-		UserThrottlesEntity userThrottlesEntity = userThrottlesDao.getUserThrottlesByUserName(username);
-		if (userThrottlesEntity != null) {
-			Integer currentInvocations = userThrottlesEntity.getUserThrottles().getThrottles().get(component.toString());
-			userThrottlesEntity.getUserThrottles().getThrottles().put(component.toString(), ++currentInvocations);
-			userThrottlesDao.save(userThrottlesEntity);
+		incrementUserThrottles(username, component, 1);
+	}
+
+	/**
+	 * Increments the count for a users throttles for the specific component by the specified amount.
+	 * <p>
+	 * The counter is incremented in place by a single UPDATE, so that concurrent increments from several consumers are
+	 * never lost. If the user has no throttles yet, the row is created while holding a transaction-scoped advisory lock
+	 * on the username, so that racing consumers do not create duplicate rows.
+	 * </p>
+	 * 
+	 * @param username
+	 *            The username
+	 * @param component
+	 *            The component, as defined in the Throttle model
+	 * @param count
+	 *            The number of invocations to add
+	 */
+	public void incrementUserThrottles(final String username, final model.security.authz.Throttle.Component component, final int count) {
+		if (incrementExistingUserThrottles(username, component, count) == 0) {
+			transactionTemplate.execute(status -> createUserThrottles(username, component, count));
+		}
+	}
+
+	/**
+	 * Increments the counts for many users throttles for the specific component, in a single transaction. The existing
+	 * counters are incremented in one batched UPDATE, and any missing rows are then created as in
+	 * {@link #incrementUserThrottles(String, model.security.authz.Throttle.Component, int)}.
+	 * 
+	 * @param counts
+	 *            Map of each username to the number of invocations to add
+	 * @param component
+	 *            The component, as defined in the Throttle model
+	 */
+	public void incrementUserThrottles(final Map<String, Integer> counts, final model.security.authz.Throttle.Component component) {
+		if (counts.isEmpty()) {
+			return;
 		}
+		// Update in a consistent order, so that concurrent batches cannot deadlock on each others rows
+		final List<String> usernames = new ArrayList<>(new TreeSet<>(counts.keySet()));
+		final List<Object[]> batchArgs = new ArrayList<>(usernames.size());
+		for (String username : usernames) {
+			batchArgs.add(new Object[] { component.toString(), component.toString(), counts.get(username), username });
+		}
+		transactionTemplate.execute(status -> {
+			int[] updated = jdbcTemplate.batchUpdate(INCREMENT_USER_THROTTLE_SQL, batchArgs);
+			for (int i = 0; i < updated.length; i++) {
+				if (updated[i] == 0) {
+					createUserThrottles(usernames.get(i), component, counts.get(usernames.get(i)));
+				}
+			}
+			return updated.length;
+		});
+	}
+
+	/**
+	 * Creates the throttles for the user with the specified count, or increments them if another consumer created them
+	 * first. Must be called within a transaction, which holds the advisory lock on the username until it ends.
+	 */
+	private int createUserThrottles(final String username, final model.security.authz.Throttle.Component component, final int count) {
+		jdbcTemplate.queryForList(LOCK_USER_THROTTLES_SQL, username);
+		// Another consumer may have created the row while this one waited for the lock
+		if (userThrottlesDao.getUserThrottlesByUserName(username) != null) {
+			return incrementExistingUserThrottles(username, component, count);
+		}
+		UserThrottles userThrottles = new UserThrottles(username);
+		Integer currentInvocations = userThrottles.getThrottles().get(component.toString());
+		userThrottles.getThrottles().put(component.toString(), (currentInvocations != null ? currentInvocations : 0) + count);
+		userThrottlesDao.save(new UserThrottlesEntity(userThrottles));
+		entityManager.flush();
+		return 1;
+	}
+
+	private int incrementExistingUserThrottles(final String username, final model.security.authz.Throttle.Component component,
+			final int count) {
+		return jdbcTemplate.update(INCREMENT_USER_THROTTLE_SQL, component.toString(), component.toString(), count, username);
 	}
 
 	/**
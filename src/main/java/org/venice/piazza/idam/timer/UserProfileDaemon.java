@@ -15,15 +15,29 @@
  **/
 package org.venice.piazza.idam.timer;
 
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Profile;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
+import org.venice.piazza.idam.data.DaemonCheckpoint;
 import org.venice.piazza.idam.data.DatabaseAccessor;
 import org.venice.piazza.idam.util.GxUserProfileClient;
+import org.venice.piazza.idam.util.ProfileAttributeCache;
 
 import exception.InvalidInputException;
 import model.logger.AuditElement;
@@ -31,54 +45,395 @@ import model.logger.Severity;
 import model.security.authz.UserProfile;
 import util.PiazzaLogger;
 
+/**
+ * Periodically verifies every stored UserProfile against GeoAxis, removing the API Key and Profile of each user that
+ * is no longer active. Profiles are verified concurrently on a bounded pool, at no more than the configured rate of
+ * GeoAxis calls. Progress is logged as the run goes, and a summary when it completes.
+ * <p>
+ * Profiles are read a page at a time in username order, so only a few pages are ever held in memory. After each page
+ * is fully verified, the last username of the page is saved as a checkpoint; a run interrupted by a crash or redeploy
+ * is resumed from its checkpoint rather than started over.
+ * </p>
+ * <p>
+ * In continuous mode, the weekly run is replaced by a small run every tick, which verifies only the profiles due in
+ * that tick. Each profile is due once per window, in a slot chosen by the hash of its username, so GeoAxis sees a
+ * flat, predictable load rather than a weekly burst. The last verified slot is checkpointed, and slots missed while
+ * the service was down are caught up, up to a limit, on the next tick.
+ * </p>
+ */
 @Component
 @Profile({ "geoaxis" })
 public class UserProfileDaemon {
 
 	@Value("${vcap.services.geoaxis.credentials.api.url.ata}")
 	private String gxApiUrlAta;
+	@Value("${profile.daemon.parallelism}")
+	private int parallelism;
+	@Value("${profile.daemon.rate.limit}")
+	private double rateLimit;
+	@Value("${profile.daemon.progress.interval}")
+	private int progressInterval;
+	@Value("${profile.daemon.page.size}")
+	private int pageSize;
+	@Value("${profile.daemon.checkpoint.max.age.ms}")
+	private long checkpointMaxAgeMs;
+	@Value("${profile.daemon.continuous.enabled}")
+	private boolean continuous;
+	@Value("${profile.daemon.continuous.window.ms}")
+	private long windowMs;
+	@Value("${profile.daemon.continuous.tick.ms}")
+	private long tickMs;
+	@Value("${profile.daemon.continuous.max.catchup.slots}")
+	private int maxCatchUpSlots;
 	@Autowired
 	private PiazzaLogger logger;
 	@Autowired
 	private DatabaseAccessor accessor;
 	@Autowired
 	private GxUserProfileClient gxUserProfileClient;
-	
+	@Autowired
+	private ProfileAttributeCache profileAttributeCache;
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(UserProfileDaemon.class);
+	private static final String CHECKPOINT_NAME = "userProfileDaemon";
+	private static final String CONTINUOUS_CHECKPOINT_NAME = "userProfileDaemonContinuous";
+	private static final long HASH_SPACE = 1L << 32;
+	private final AtomicBoolean running = new AtomicBoolean();
+	private final Object pacerLock = new Object();
+	private long nextPermitNanos;
+	private volatile VerificationRun currentRun;
+	private volatile VerificationRun lastRun;
+	private volatile VerificationRun continuousRun;
+	private volatile long lastSlot = -1;
+	private LongSupplier clock = System::currentTimeMillis;
+
 	@Scheduled(cron = "0 0 0 * * SUN")
-	private void verifyExistingApiKeys() throws InvalidInputException {
-	
-		logger.log("UserProfileDaemon starting to check existing UserProfiles for validity!", Severity.INFORMATIONAL,
-				new AuditElement("idam", "profileAttributeRetrievalAttemptDAEMON", ""));
-		
-		final List<UserProfile> userProfiles = accessor.getUserProfiles();
-		
-		for( final UserProfile originalUserProfile : userProfiles ) {
-			final String username = originalUserProfile.getUsername();
-			final String dn = originalUserProfile.getDistinguishedName();
+	private void verifyExistingApiKeys() {
+		if (continuous) {
+			return;
+		}
+		try {
+			verifyUserProfiles();
+		} catch (Exception exception) {
+			String error = String.format("UserProfileDaemon run failed and will resume from its checkpoint: %s", exception.getMessage());
+			LOGGER.error(error, exception);
+			logger.log(error, Severity.WARNING);
+		}
+	}
+
+	/**
+	 * Resumes a run that was interrupted by a crash or redeploy, shortly after startup and periodically thereafter.
+	 */
+	@Scheduled(initialDelayString = "${profile.daemon.resume.check.interval.ms}", fixedDelayString = "${profile.daemon.resume.check.interval.ms}")
+	public void resumeInterruptedRun() {
+		if (!continuous && !running.get() && getResumableCheckpoint() != null) {
+			LOGGER.info("UserProfileDaemon resuming an interrupted run.");
+			verifyExistingApiKeys();
+		}
+	}
+
+	/**
+	 * Verifies every stored UserProfile against GeoAxis, resuming the interrupted run if there is one. Only one run may
+	 * be in progress at a time.
+	 *
+	 * @return The summary of the run, or null if a run was already in progress or this one was interrupted
+	 */
+	public Map<String, Object> verifyUserProfiles() {
+		if (!running.compareAndSet(false, true)) {
+			LOGGER.warn("UserProfileDaemon run requested while another is in progress; skipping.");
+			return null;
+		}
+		try {
+			logger.log("UserProfileDaemon starting to check existing UserProfiles for validity!", Severity.INFORMATIONAL,
+					new AuditElement("idam", "profileAttributeRetrievalAttemptDAEMON", ""));
+
+			final DaemonCheckpoint checkpoint = getResumableCheckpoint();
+			final String position = checkpoint != null ? checkpoint.getPosition() : "";
+			final long startedOn = checkpoint != null ? checkpoint.getStartedOn() : System.currentTimeMillis();
+			VerificationRun run = new VerificationRun(accessor.getUserProfileCount(), position, startedOn);
+			currentRun = run;
+			if (!verify(run)) {
+				return null;
+			}
+			accessor.deleteDaemonCheckpoint(CHECKPOINT_NAME);
+			run.finish();
+			lastRun = run;
+
+			Map<String, Object> summary = run.toMap();
+			logger.log(String.format("UserProfileDaemon completed: %s", summary), Severity.INFORMATIONAL,
+					new AuditElement("idam", "userProfileVerificationSummaryDAEMON", ""));
+			return summary;
+		} finally {
+			currentRun = null;
+			running.set(false);
+		}
+	}
+
+	/**
+	 * In continuous mode, verifies the profiles of every slot that has come due since the last verified slot.
+	 */
+	@Scheduled(fixedDelayString = "${profile.daemon.continuous.tick.ms}")
+	public void verifyDueUserProfiles() {
+		if (!continuous || !running.compareAndSet(false, true)) {
+			return;
+		}
+		try {
+			final long now = clock.getAsLong();
+			final long currentSlot = now / tickMs;
+			final DaemonCheckpoint checkpoint = accessor.getDaemonCheckpoint(CONTINUOUS_CHECKPOINT_NAME);
+			long firstSlot = checkpoint != null ? Long.parseLong(checkpoint.getPosition()) + 1 : currentSlot;
+			if (currentSlot - firstSlot >= maxCatchUpSlots) {
+				// Catching up on a long outage at once would be the very burst this mode avoids
+				LOGGER.warn("UserProfileDaemon skipping {} missed slots; their profiles are verified in the next window.",
+						currentSlot - firstSlot + 1 - maxCatchUpSlots);
+				firstSlot = currentSlot - maxCatchUpSlots + 1;
+			}
+			if (continuousRun == null) {
+				continuousRun = new VerificationRun(accessor.getUserProfileCount(), "", now);
+			}
+			for (long slot = firstSlot; slot <= currentSlot; slot++) {
+				verifySlot(slot, continuousRun);
+				accessor.saveDaemonCheckpoint(CONTINUOUS_CHECKPOINT_NAME,
+						new DaemonCheckpoint(Long.toString(slot), continuousRun.runStartedOn, clock.getAsLong()));
+				lastSlot = slot;
+			}
+		} catch (Exception exception) {
+			String error = String.format("UserProfileDaemon failed to verify the profiles due: %s", exception.getMessage());
+			LOGGER.error(error, exception);
+			logger.log(error, Severity.WARNING);
+		} finally {
+			running.set(false);
+		}
+	}
+
+	/**
+	 * Gets the progress of the current run, and the summary of the last completed run.
+	 *
+	 * @return Map of the statistic name to its value
+	 */
+	public Map<String, Object> getStatistics() {
+		Map<String, Object> statistics = new HashMap<>();
+		statistics.put("parallelism", parallelism);
+		statistics.put("rateLimit", rateLimit);
+		statistics.put("continuous", continuous);
+		if (continuous) {
+			statistics.put("slotCount", getSlotCount());
+			statistics.put("lastSlot", lastSlot);
+			VerificationRun run = continuousRun;
+			if (run != null) {
+				statistics.put("continuousRun", run.toMap());
+			}
+		}
+		VerificationRun run = currentRun;
+		if (run != null) {
+			statistics.put("currentRun", run.toMap());
+		}
+		run = lastRun;
+		if (run != null) {
+			statistics.put("lastRun", run.toMap());
+		}
+		return statistics;
+	}
+
+	/**
+	 * Gets the checkpoint of the interrupted run, if it is recent enough to resume. An older checkpoint belongs to a run
+	 * that the next scheduled run supersedes, so it is discarded.
+	 */
+	private DaemonCheckpoint getResumableCheckpoint() {
+		DaemonCheckpoint checkpoint = accessor.getDaemonCheckpoint(CHECKPOINT_NAME);
+		if (checkpoint != null && System.currentTimeMillis() - checkpoint.getStartedOn() > checkpointMaxAgeMs) {
+			LOGGER.info("UserProfileDaemon discarding the checkpoint of the run started on {}.", checkpoint.getStartedOn());
+			accessor.deleteDaemonCheckpoint(CHECKPOINT_NAME);
+			return null;
+		}
+		return checkpoint;
+	}
+
+	/**
+	 * Verifies the profiles after the position of the run, a page at a time, on a pool of the configured parallelism.
+	 * As the pool runs work on the submitting thread when its queue is full, profiles are never read far ahead of the
+	 * workers. The next page is submitted before waiting for the previous one, so the pool stays
+	 * busy across page boundaries.
+	 *
+	 * @return True if every profile was verified, false if the run was interrupted
+	 */
+	private boolean verify(final VerificationRun run) {
+		ThreadPoolExecutor executor = createExecutor();
+		String position = run.resumedFrom;
+		CountDownLatch previousPage = null;
+		String previousPosition = position;
+		try {
+			List<UserProfile> page;
+			do {
+				page = accessor.getUserProfilePage(position, pageSize);
+				final CountDownLatch pageVerified = new CountDownLatch(page.size());
+				for (final UserProfile userProfile : page) {
+					executor.execute(() -> {
+						try {
+							verify(userProfile, run);
+						} finally {
+							pageVerified.countDown();
+						}
+					});
+				}
+				if (!page.isEmpty()) {
+					position = page.get(page.size() - 1).getUsername();
+				}
+				if (previousPage != null) {
+					checkpoint(previousPage, previousPosition, run);
+				}
+				previousPage = pageVerified;
+				previousPosition = position;
+			} while (page.size() == pageSize);
+			// The checkpoint is deleted once the run completes, so the last page is only waited for
+			previousPage.await();
+			return true;
+		} catch (InterruptedException exception) {
+			Thread.currentThread().interrupt();
+			executor.shutdownNow();
+			LOGGER.warn("UserProfileDaemon interrupted; the run will resume from its checkpoint.");
+			return false;
+		} finally {
+			awaitTermination(executor);
+		}
+	}
+
+	/**
+	 * Verifies the profiles of a slot. The window is divided into slots of one tick each, and the hash space of the
+	 * usernames into as many equal ranges; a slot verifies the profiles whose username hashes into its range. A range
+	 * rather than a modulus keeps the query on the username hash index.
+	 *
+	 * @param slot
+	 *            The number of ticks since the epoch
+	 */
+	private void verifySlot(final long slot, final VerificationRun run) {
+		final long slotCount = getSlotCount();
+		final long index = slot % slotCount;
+		final int low = (int) (Integer.MIN_VALUE + index * HASH_SPACE / slotCount);
+		final int high = (int) (Integer.MIN_VALUE + (index + 1) * HASH_SPACE / slotCount - 1);
+		final List<UserProfile> userProfiles = accessor.getUserProfilesByUsernameHash(low, high);
+		LOGGER.debug("UserProfileDaemon verifying {} profiles of slot {} of {}.", userProfiles.size(), index, slotCount);
+		ThreadPoolExecutor executor = createExecutor();
+		try {
+			for (final UserProfile userProfile : userProfiles) {
+				executor.execute(() -> verify(userProfile, run));
+			}
+		} finally {
+			awaitTermination(executor);
+		}
+	}
+
+	private long getSlotCount() {
+		return Math.max(1, windowMs / tickMs);
+	}
+
+	/**
+	 * Creates a pool of the configured parallelism. The pool queue is bounded, and a full queue runs the verification
+	 * on the submitting thread.
+	 */
+	private ThreadPoolExecutor createExecutor() {
+		AtomicInteger threadCount = new AtomicInteger();
+		return new ThreadPoolExecutor(parallelism, parallelism, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(parallelism * 2),
+				runnable -> {
+					Thread thread = new Thread(runnable, "profile-verifier-" + threadCount.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}, new ThreadPoolExecutor.CallerRunsPolicy());
+	}
+
+	private void awaitTermination(final ThreadPoolExecutor executor) {
+		executor.shutdown();
+		try {
+			while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+				LOGGER.info("UserProfileDaemon waiting for {} verifications to finish.", executor.getActiveCount());
+			}
+		} catch (InterruptedException exception) {
+			Thread.currentThread().interrupt();
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Waits for every profile of a page to be verified, then saves the last username of the page as the checkpoint.
+	 */
+	private void checkpoint(final CountDownLatch pageVerified, final String position, final VerificationRun run)
+			throws InterruptedException {
+		pageVerified.await();
+		accessor.saveDaemonCheckpoint(CHECKPOINT_NAME, new DaemonCheckpoint(position, run.runStartedOn, System.currentTimeMillis()));
+	}
+
+	private void verify(final UserProfile originalUserProfile, final VerificationRun run) {
+		final String username = originalUserProfile.getUsername();
+		final String dn = originalUserProfile.getDistinguishedName();
+		try {
+			acquirePermit();
 			final UserProfile newUserProfile = gxUserProfileClient.getUserProfileFromGx(username, dn);
-			
+
 			if( !isUserProfileActive(newUserProfile) ) {
 				// Profile not active, remove ApiKey and UserProfile
 				logger.log("UserProfileDaemon failed to verify UserProfile for user: " + username, Severity.INFORMATIONAL,
-						new AuditElement("idam", "userProfileVerificationFailureDAEMON", ""));				
-				
+						new AuditElement("idam", "userProfileVerificationFailureDAEMON", ""));
+
+				profileAttributeCache.invalidate(username);
 				final String apiKey = accessor.getApiKey(username);
-				accessor.deleteApiKey(apiKey);
+				if (apiKey != null) {
+					accessor.deleteApiKey(apiKey);
+				}
 				accessor.deleteUserProfile(username);
+				run.removed.incrementAndGet();
 			}
 			else {
+				// The daemon always asks GeoAxis, so its answer also warms the cache for the next login
+				profileAttributeCache.put(newUserProfile);
+
 				// Log verified ApiKey
 				logger.log("UserProfileDaemon successfully verified UserProfile for user: " + username, Severity.INFORMATIONAL,
-						new AuditElement("idam", "userProfileVerificationSuccessDAEMON", ""));				
+						new AuditElement("idam", "userProfileVerificationSuccessDAEMON", ""));
+				run.verified.incrementAndGet();
 			}
-		}		
+		} catch (InterruptedException exception) {
+			Thread.currentThread().interrupt();
+			run.failed.incrementAndGet();
+		} catch (InvalidInputException | RuntimeException exception) {
+			// Leave the profile in place; it is checked again on the next run
+			LOGGER.error("UserProfileDaemon could not verify UserProfile for user {}", username, exception);
+			run.failed.incrementAndGet();
+		}
+
+		long processed = run.processed.incrementAndGet();
+		if (processed % progressInterval == 0) {
+			LOGGER.info("UserProfileDaemon progress: {}", run.toMap());
+		}
 	}
-	
+
+	/**
+	 * Blocks until the next GeoAxis call is allowed under the rate limit. Permits are spaced evenly, so the calls of all
+	 * workers together never exceed the limit.
+	 */
+	private void acquirePermit() throws InterruptedException {
+		if (rateLimit <= 0) {
+			return;
+		}
+		long interval = (long) (TimeUnit.SECONDS.toNanos(1) / rateLimit);
+		long wait;
+		synchronized (pacerLock) {
+			long now = System.nanoTime();
+			if (nextPermitNanos - now < 0) {
+				nextPermitNanos = now;
+			}
+			wait = nextPermitNanos - now;
+			nextPermitNanos += interval;
+		}
+		if (wait > 0) {
+			TimeUnit.NANOSECONDS.sleep(wait);
+		}
+	}
+
 	private boolean isUserProfileActive(final UserProfile userProfile) {
 		boolean isCountryPopulated = false;
 		boolean isAdminCodePopulated = false;
 		boolean isDutyCodePopulated = false;
-		
+
 		if( userProfile.getCountry() != null && !userProfile.getCountry().isEmpty()) {
 			isCountryPopulated = true;
 		}
@@ -88,7 +443,56 @@ public class UserProfileDaemon {
 		if( userProfile.getDutyCode() != null && !userProfile.getDutyCode().isEmpty()) {
 			isDutyCodePopulated = true;
 		}
-		
+
 		return isCountryPopulated && isAdminCodePopulated && isDutyCodePopulated;
 	}
+
+	/**
+	 * The counters of a single run of the daemon.
+	 */
+	private static final class VerificationRun {
+		private final long total;
+		private final String resumedFrom;
+		private final long runStartedOn;
+		private final long startedOn = System.currentTimeMillis();
+		private final long startNanos = System.nanoTime();
+		private volatile long elapsedNanos = -1;
+		private final AtomicLong processed = new AtomicLong();
+		private final AtomicLong verified = new AtomicLong();
+		private final AtomicLong removed = new AtomicLong();
+		private final AtomicLong failed = new AtomicLong();
+
+		/**
+		 * @param resumedFrom
+		 *            The checkpoint position the run resumes from, or the empty string for a new run
+		 * @param runStartedOn
+		 *            The time the run was first started, before any interruption
+		 */
+		private VerificationRun(final long total, final String resumedFrom, final long runStartedOn) {
+			this.total = total;
+			this.resumedFrom = resumedFrom;
+			this.runStartedOn = runStartedOn;
+		}
+
+		private void finish() {
+			elapsedNanos = System.nanoTime() - startNanos;
+		}
+
+		private Map<String, Object> toMap() {
+			long elapsed = elapsedNanos >= 0 ? elapsedNanos : System.nanoTime() - startNanos;
+			long processedCount = processed.get();
+			Map<String, Object> map = new HashMap<>();
+			map.put("startedOn", startedOn);
+			map.put("runStartedOn", runStartedOn);
+			map.put("resumed", !resumedFrom.isEmpty());
+			map.put("total", total);
+			map.put("processed", processedCount);
+			map.put("verified", verified.get());
+			map.put("removed", removed.get());
+			map.put("failed", failed.get());
+			map.put("elapsedMs", TimeUnit.NANOSECONDS.toMillis(elapsed));
+			map.put("profilesPerSecond", elapsed > 0 ? processedCount * 1e9 / elapsed : 0);
+			return map;
+		}
+	}
 }
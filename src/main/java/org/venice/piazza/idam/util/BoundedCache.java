@@ -0,0 +1,186 @@
+/**
+ * Copyright 2016, RadiantBlue Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package org.venice.piazza.idam.util;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntSupplier;
+import java.util.function.Predicate;
+
+/**
+ * Size-bounded, least-recently-used store of cache entries, counting the hits, misses and evictions that the caches
+ * built on it report. Entries do not expire on their own; a lookup passes the test of whether the entry it finds is
+ * still fresh, so that each cache applies its own TTL, and a stale entry is removed when it is found.
+ *
+ * @param <K>
+ *            The type of the key
+ * @param <V>
+ *            The type of the entry
+ */
+public class BoundedCache<K, V> {
+	private final IntSupplier maxSize;
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
+	// Access-ordered, so iteration starts at the least recently used entry
+	private final Map<K, V> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+	/**
+	 * @param maxSize
+	 *            Supplies the maximum number of entries. It is read on every insertion, so that the bound follows the
+	 *            configuration of the cache built on this one.
+	 */
+	public BoundedCache(final IntSupplier maxSize) {
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * Gets the entry for the key, and counts the lookup as a hit or a miss.
+	 *
+	 * @param key
+	 *            The key
+	 * @param fresh
+	 *            Tests whether the entry may still be served
+	 * @return The entry, or null if there is none or it is no longer fresh. A stale entry is removed.
+	 */
+	public V get(final K key, final Predicate<? super V> fresh) {
+		V entry;
+		synchronized (entries) {
+			entry = entries.get(key);
+			if ((entry != null) && !fresh.test(entry)) {
+				entries.remove(key);
+				entry = null;
+			}
+		}
+		if (entry == null) {
+			misses.incrementAndGet();
+		} else {
+			hits.incrementAndGet();
+		}
+		return entry;
+	}
+
+	/**
+	 * Gets the entry for the key without counting the lookup, for a cache that decides outside of the lock whether the
+	 * entry can be served. Such a cache counts the outcome with {@link #recordHit} or {@link #recordMiss}.
+	 *
+	 * @param key
+	 *            The key
+	 * @return The entry, or null if there is none
+	 */
+	public V peek(final K key) {
+		synchronized (entries) {
+			return entries.get(key);
+		}
+	}
+
+	public void recordHit() {
+		hits.incrementAndGet();
+	}
+
+	public void recordMiss() {
+		misses.incrementAndGet();
+	}
+
+	/**
+	 * Stores the entry for the key, evicting the least recently used entries beyond the maximum size.
+	 *
+	 * @param key
+	 *            The key
+	 * @param entry
+	 *            The entry
+	 */
+	public void put(final K key, final V entry) {
+		synchronized (entries) {
+			entries.put(key, entry);
+			Iterator<V> iterator = entries.values().iterator();
+			while ((entries.size() > maxSize.getAsInt()) && iterator.hasNext()) {
+				iterator.next();
+				iterator.remove();
+				evictions.incrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * @return The removed entry, or null if there was none
+	 */
+	public V remove(final K key) {
+		synchronized (entries) {
+			return entries.remove(key);
+		}
+	}
+
+	/**
+	 * Removes the entry for the key only if it has not since been replaced.
+	 *
+	 * @return True if the entry was removed
+	 */
+	public boolean remove(final K key, final V entry) {
+		synchronized (entries) {
+			return entries.remove(key, entry);
+		}
+	}
+
+	/**
+	 * Removes every entry that matches the predicate.
+	 *
+	 * @return The number of removed entries
+	 */
+	public int removeIf(final Predicate<? super V> predicate) {
+		int removed = 0;
+		synchronized (entries) {
+			Iterator<V> iterator = entries.values().iterator();
+			while (iterator.hasNext()) {
+				if (predicate.test(iterator.next())) {
+					iterator.remove();
+					removed++;
+				}
+			}
+		}
+		return removed;
+	}
+
+	public void clear() {
+		synchronized (entries) {
+			entries.clear();
+		}
+	}
+
+	/**
+	 * Gets the size and lookup statistics, to which the cache built on this one adds its own.
+	 *
+	 * @return Map of the statistic name to its value
+	 */
+	public Map<String, Object> getStatistics() {
+		Map<String, Object> statistics = new HashMap<>();
+		synchronized (entries) {
+			statistics.put("size", entries.size());
+		}
+		long hitCount = hits.get();
+		long missCount = misses.get();
+		statistics.put("maxSize", maxSize.getAsInt());
+		statistics.put("hits", hitCount);
+		statistics.put("misses", missCount);
+		statistics.put("evictions", evictions.get());
+		statistics.put("hitRatio", (hitCount + missCount) == 0 ? 0.0 : (double) hitCount / (hitCount + missCount));
+		return statistics;
+	}
+}
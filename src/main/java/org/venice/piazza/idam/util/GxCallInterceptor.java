@@ -0,0 +1,201 @@
+/**
+ * Copyright 2016, RadiantBlue Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package org.venice.piazza.idam.util;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+import javax.annotation.PostConstruct;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.HttpRequest;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.stereotype.Component;
+
+/**
+ * Guards every call made through the GeoAxis RestTemplate with the circuit breaker and bulkhead of the endpoint it
+ * calls, so that a slow or failing GeoAxis endpoint fails fast rather than holding request threads, and cannot starve
+ * calls to the other endpoints. In front of each breaker, an adaptive concurrency limiter bounds the calls in flight to
+ * the endpoint to what its round trip times show GeoAxis can absorb.
+ * <p>
+ * A call fails if it raises an I/O error, including a timeout, or GeoAxis answers with a server error. Client errors,
+ * such as rejected credentials, are answers from a healthy GeoAxis and count as successes.
+ * </p>
+ */
+@Component
+@Profile({ "geoaxis" })
+public class GxCallInterceptor implements ClientHttpRequestInterceptor {
+	@Value("${vcap.services.geoaxis.credentials.api.url.atncert}")
+	private String gxApiUrlAtnCert;
+	@Value("${vcap.services.geoaxis.credentials.api.url.atnbasic}")
+	private String gxApiUrlAtnBasic;
+	@Value("${vcap.services.geoaxis.credentials.api.url.ata}")
+	private String gxApiUrlAta;
+	@Value("${GEOAXIS_TOKENS}")
+	private String gxTokensUrl;
+	@Value("${GEOAXIS_PROFILE}")
+	private String gxProfileUrl;
+	@Value("${gx.breaker.window.ms}")
+	private long windowMs;
+	@Value("${gx.breaker.buckets}")
+	private int buckets;
+	@Value("${gx.breaker.minimum.calls}")
+	private int minimumCalls;
+	@Value("${gx.breaker.failure.rate.threshold}")
+	private double failureRateThreshold;
+	@Value("${gx.breaker.slow.call.ms}")
+	private long slowCallMs;
+	@Value("${gx.breaker.slow.call.rate.threshold}")
+	private double slowCallRateThreshold;
+	@Value("${gx.breaker.open.ms}")
+	private long openMs;
+	@Value("${gx.breaker.half.open.calls}")
+	private int halfOpenCalls;
+	@Value("${gx.bulkhead.max.concurrent}")
+	private int maxConcurrentCalls;
+	@Value("${gx.bulkhead.max.wait.ms}")
+	private long maxWaitMs;
+	@Value("${gx.limiter.enabled}")
+	private boolean limiterEnabled;
+	@Value("${gx.limiter.initial.limit}")
+	private int initialLimit;
+	@Value("${gx.limiter.min.limit}")
+	private int minLimit;
+	@Value("${gx.limiter.max.limit}")
+	private int maxLimit;
+	@Value("${gx.limiter.backoff.ratio}")
+	private double backoffRatio;
+	@Value("${gx.limiter.rtt.tolerance}")
+	private double rttTolerance;
+	@Value("${gx.limiter.min.rtt.window.ms}")
+	private long minRttWindowMs;
+
+	private static final String OTHER_ENDPOINT = "other";
+	private LongSupplier clock = System::currentTimeMillis;
+	private LongSupplier nanoClock = System::nanoTime;
+	// The endpoint name of each configured GeoAxis URL, without its query
+	private final Map<String, String> endpoints = new LinkedHashMap<>();
+	private final Map<String, GxCircuitBreaker> breakers = new ConcurrentHashMap<>();
+	// One per endpoint, as the round trip times of the endpoints differ too widely to share a baseline
+	private final Map<String, GxConcurrencyLimiter> limiters = new ConcurrentHashMap<>();
+
+	/**
+	 * Creates a breaker and a concurrency limiter for each GeoAxis endpoint.
+	 */
+	@PostConstruct
+	public void initialize() {
+		endpoints.put(stripQuery(gxApiUrlAtnCert), "atncert");
+		endpoints.put(stripQuery(gxApiUrlAtnBasic), "atnbasic");
+		endpoints.put(stripQuery(gxApiUrlAta), "ata");
+		endpoints.put(stripQuery(gxTokensUrl), "tokens");
+		endpoints.put(stripQuery(gxProfileUrl), "profile");
+		GxCircuitBreaker.Config config = new GxCircuitBreaker.Config(windowMs, buckets, minimumCalls, failureRateThreshold, slowCallMs,
+				slowCallRateThreshold, openMs, halfOpenCalls, maxConcurrentCalls, maxWaitMs);
+		for (String endpoint : endpoints.values()) {
+			breakers.put(endpoint, new GxCircuitBreaker(endpoint, config, clock));
+		}
+		breakers.put(OTHER_ENDPOINT, new GxCircuitBreaker(OTHER_ENDPOINT, config, clock));
+		if (limiterEnabled) {
+			for (String endpoint : breakers.keySet()) {
+				limiters.put(endpoint,
+						new GxConcurrencyLimiter(initialLimit, minLimit, maxLimit, backoffRatio, rttTolerance, minRttWindowMs, nanoClock));
+			}
+		}
+	}
+
+	@Override
+	public ClientHttpResponse intercept(final HttpRequest request, final byte[] body, final ClientHttpRequestExecution execution)
+			throws IOException {
+		String endpoint = getEndpoint(request.getURI());
+		GxCircuitBreaker breaker = breakers.get(endpoint);
+		GxConcurrencyLimiter limiter = limiters.get(endpoint);
+		if (limiter != null) {
+			limiter.acquire(endpoint);
+		}
+		try {
+			breaker.acquire();
+		} catch (GxUnavailableException exception) {
+			if (limiter != null) {
+				limiter.cancel();
+			}
+			throw exception;
+		}
+		long start = nanoClock.getAsLong();
+		boolean success = false;
+		try {
+			ClientHttpResponse response = execution.execute(request, body);
+			success = response.getRawStatusCode() < 500;
+			return response;
+		} finally {
+			long elapsedNanos = nanoClock.getAsLong() - start;
+			breaker.release(elapsedNanos / 1000000, success);
+			if (limiter != null) {
+				limiter.release(elapsedNanos, !success);
+			}
+		}
+	}
+
+	/**
+	 * Gets the state of the breaker of each GeoAxis endpoint.
+	 *
+	 * @return Map of the endpoint name to the statistics of its breaker
+	 */
+	public Map<String, Object> getStatistics() {
+		Map<String, Object> statistics = new LinkedHashMap<>();
+		for (String endpoint : endpoints.values()) {
+			statistics.put(endpoint, breakers.get(endpoint).getStatistics());
+		}
+		statistics.put(OTHER_ENDPOINT, breakers.get(OTHER_ENDPOINT).getStatistics());
+		return statistics;
+	}
+
+	/**
+	 * Gets the current limit and round trip estimates of the concurrency limiter of each GeoAxis endpoint.
+	 *
+	 * @return Map of the endpoint name to the statistics of its limiter, or null if the limiters are disabled
+	 */
+	public Map<String, Object> getLimiterStatistics() {
+		if (limiters.isEmpty()) {
+			return null;
+		}
+		Map<String, Object> statistics = new LinkedHashMap<>();
+		for (String endpoint : endpoints.values()) {
+			statistics.put(endpoint, limiters.get(endpoint).getStatistics());
+		}
+		statistics.put(OTHER_ENDPOINT, limiters.get(OTHER_ENDPOINT).getStatistics());
+		return statistics;
+	}
+
+	/**
+	 * @return The name of the configured GeoAxis endpoint the URI calls, or "other" if it is none of them
+	 */
+	private String getEndpoint(final URI uri) {
+		String endpoint = endpoints.get(stripQuery(uri.toString()));
+		return endpoint != null ? endpoint : OTHER_ENDPOINT;
+	}
+
+	private static String stripQuery(final String url) {
+		int query = url.indexOf('?');
+		return query >= 0 ? url.substring(0, query) : url;
+	}
+}
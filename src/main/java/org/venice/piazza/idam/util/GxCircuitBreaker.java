@@ -0,0 +1,268 @@
+/**
+ * Copyright 2016, RadiantBlue Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package org.venice.piazza.idam.util;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Circuit breaker and bulkhead for a single GeoAxis endpoint.
+ * <p>
+ * The breaker counts the outcomes of calls over a rolling window of buckets. While closed, once the window holds
+ * enough calls, it opens if too many of them failed or were slow. While open, every call is rejected. After the open
+ * duration it is half-open, and lets a few trial calls through: if they all succeed it closes, and if any fails it
+ * opens again.
+ * </p>
+ * <p>
+ * The bulkhead bounds the calls in flight to the endpoint, so that a slow endpoint holds at most that many threads,
+ * and excess calls are rejected rather than queued.
+ * </p>
+ */
+public class GxCircuitBreaker {
+	public enum State {
+		CLOSED, OPEN, HALF_OPEN
+	}
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(GxCircuitBreaker.class);
+
+	private final String endpoint;
+	private final Config config;
+	private final LongSupplier clock;
+	private final Semaphore bulkhead;
+	private final long bucketMs;
+	private final long[] bucketStarts;
+	private final int[] calls;
+	private final int[] failures;
+	private final int[] slowCalls;
+	private final AtomicLong rejectedOpen = new AtomicLong();
+	private final AtomicLong rejectedFull = new AtomicLong();
+	private State state = State.CLOSED;
+	private long openedOn;
+	private int trialCalls;
+	private int trialSuccesses;
+	private long transitions;
+
+	public GxCircuitBreaker(final String endpoint, final Config config, final LongSupplier clock) {
+		this.endpoint = endpoint;
+		this.config = config;
+		this.clock = clock;
+		this.bulkhead = new Semaphore(config.maxConcurrentCalls);
+		this.bucketMs = Math.max(1, config.windowMs / config.buckets);
+		this.bucketStarts = new long[config.buckets];
+		this.calls = new int[config.buckets];
+		this.failures = new int[config.buckets];
+		this.slowCalls = new int[config.buckets];
+	}
+
+	/**
+	 * Admits a call to the endpoint. Every admitted call must be followed by exactly one {@link #release}.
+	 *
+	 * @throws GxUnavailableException
+	 *             If the circuit is open, or the bulkhead is full
+	 */
+	public void acquire() {
+		synchronized (this) {
+			long now = clock.getAsLong();
+			if (state == State.OPEN && now - openedOn >= config.openMs) {
+				transition(State.HALF_OPEN, now);
+			}
+			if (state == State.OPEN || (state == State.HALF_OPEN && trialCalls >= config.halfOpenCalls)) {
+				rejectedOpen.incrementAndGet();
+				throw new GxUnavailableException(endpoint, "circuit open");
+			}
+			if (state == State.HALF_OPEN) {
+				trialCalls++;
+			}
+		}
+		boolean acquired;
+		try {
+			acquired = bulkhead.tryAcquire(config.maxWaitMs, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException exception) {
+			Thread.currentThread().interrupt();
+			acquired = false;
+		}
+		if (!acquired) {
+			synchronized (this) {
+				// The trial was never made, so give it back
+				if (state == State.HALF_OPEN && trialCalls > 0) {
+					trialCalls--;
+				}
+			}
+			rejectedFull.incrementAndGet();
+			throw new GxUnavailableException(endpoint, String.format("%d calls already in flight", config.maxConcurrentCalls));
+		}
+	}
+
+	/**
+	 * Records the outcome of an admitted call and releases its place in the bulkhead.
+	 *
+	 * @param elapsedMs
+	 *            The duration of the call
+	 * @param success
+	 *            False if the call failed with an I/O error or a server error
+	 */
+	public void release(final long elapsedMs, final boolean success) {
+		bulkhead.release();
+		boolean slow = elapsedMs >= config.slowCallMs;
+		synchronized (this) {
+			long now = clock.getAsLong();
+			if (state == State.HALF_OPEN) {
+				if (!success || slow) {
+					transition(State.OPEN, now);
+				} else if (++trialSuccesses >= config.halfOpenCalls) {
+					transition(State.CLOSED, now);
+				}
+				return;
+			}
+			if (state == State.OPEN) {
+				// A call admitted before the circuit opened
+				return;
+			}
+			int bucket = getBucket(now);
+			calls[bucket]++;
+			if (!success) {
+				failures[bucket]++;
+			}
+			if (slow) {
+				slowCalls[bucket]++;
+			}
+			int[] totals = getTotals(now);
+			if (totals[0] >= config.minimumCalls && ((double) totals[1] / totals[0] >= config.failureRateThreshold
+					|| (double) totals[2] / totals[0] >= config.slowCallRateThreshold)) {
+				transition(State.OPEN, now);
+			}
+		}
+	}
+
+	public synchronized State getState() {
+		if (state == State.OPEN && clock.getAsLong() - openedOn >= config.openMs) {
+			return State.HALF_OPEN;
+		}
+		return state;
+	}
+
+	/**
+	 * Gets the current state and counts of the breaker and bulkhead.
+	 *
+	 * @return Map of the statistic name to its value
+	 */
+	public Map<String, Object> getStatistics() {
+		Map<String, Object> statistics = new HashMap<>();
+		synchronized (this) {
+			int[] totals = getTotals(clock.getAsLong());
+			statistics.put("state", getState().toString());
+			statistics.put("windowCalls", totals[0]);
+			statistics.put("windowFailureRate", totals[0] > 0 ? (double) totals[1] / totals[0] : 0);
+			statistics.put("windowSlowCallRate", totals[0] > 0 ? (double) totals[2] / totals[0] : 0);
+			statistics.put("transitions", transitions);
+		}
+		statistics.put("inFlight", config.maxConcurrentCalls - bulkhead.availablePermits());
+		statistics.put("maxConcurrentCalls", config.maxConcurrentCalls);
+		statistics.put("rejectedOpen", rejectedOpen.get());
+		statistics.put("rejectedFull", rejectedFull.get());
+		return statistics;
+	}
+
+	private void transition(final State newState, final long now) {
+		if (newState == State.OPEN) {
+			LOGGER.warn("GeoAxis {} circuit opened; calls are rejected for {} ms.", endpoint, config.openMs);
+			openedOn = now;
+		} else {
+			LOGGER.info("GeoAxis {} circuit {}.", endpoint, newState == State.CLOSED ? "closed" : "half-open");
+		}
+		state = newState;
+		trialCalls = 0;
+		trialSuccesses = 0;
+		transitions++;
+		if (newState == State.CLOSED) {
+			// The calls that opened the circuit must not reopen it
+			for (int i = 0; i < bucketStarts.length; i++) {
+				bucketStarts[i] = 0;
+				calls[i] = 0;
+				failures[i] = 0;
+				slowCalls[i] = 0;
+			}
+		}
+	}
+
+	/**
+	 * Gets the bucket of the current time, clearing it first if it last held an earlier period.
+	 */
+	private int getBucket(final long now) {
+		long start = now - now % bucketMs;
+		int bucket = (int) ((now / bucketMs) % bucketStarts.length);
+		if (bucketStarts[bucket] != start) {
+			bucketStarts[bucket] = start;
+			calls[bucket] = 0;
+			failures[bucket] = 0;
+			slowCalls[bucket] = 0;
+		}
+		return bucket;
+	}
+
+	/**
+	 * @return The calls, failures and slow calls of the buckets within the window
+	 */
+	private int[] getTotals(final long now) {
+		int[] totals = new int[3];
+		for (int i = 0; i < bucketStarts.length; i++) {
+			if (now - bucketStarts[i] < config.windowMs) {
+				totals[0] += calls[i];
+				totals[1] += failures[i];
+				totals[2] += slowCalls[i];
+			}
+		}
+		return totals;
+	}
+
+	/**
+	 * The thresholds shared by the breakers of every endpoint.
+	 */
+	public static class Config {
+		private final long windowMs;
+		private final int buckets;
+		private final int minimumCalls;
+		private final double failureRateThreshold;
+		private final long slowCallMs;
+		private final double slowCallRateThreshold;
+		private final long openMs;
+		private final int halfOpenCalls;
+		private final int maxConcurrentCalls;
+		private final long maxWaitMs;
+
+		public Config(final long windowMs, final int buckets, final int minimumCalls, final double failureRateThreshold, final long slowCallMs,
+				final double slowCallRateThreshold, final long openMs, final int halfOpenCalls, final int maxConcurrentCalls,
+				final long maxWaitMs) {
+			this.windowMs = windowMs;
+			this.buckets = buckets;
+			this.minimumCalls = minimumCalls;
+			this.failureRateThreshold = failureRateThreshold;
+			this.slowCallMs = slowCallMs;
+			this.slowCallRateThreshold = slowCallRateThreshold;
+			this.openMs = openMs;
+			this.halfOpenCalls = halfOpenCalls;
+			this.maxConcurrentCalls = maxConcurrentCalls;
+			this.maxWaitMs = maxWaitMs;
+		}
+	}
+}
@@ -0,0 +1,169 @@
+/**
+ * Copyright 2016, RadiantBlue Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package org.venice.piazza.idam.util;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * Adaptive limit on the calls in flight to a GeoAxis endpoint, sized by additive-increase, multiplicative-decrease on
+ * the observed round trip times.
+ * <p>
+ * The limiter keeps the lowest round trip time seen over a rolling window as the baseline of an unloaded endpoint, and
+ * a smoothed average of recent round trip times. While the limit is in use and the average stays within the tolerance
+ * of the baseline, the limit grows by one call per limit's worth of calls, about one call per round trip. When the
+ * average rises beyond the tolerance, meaning that calls are queueing inside GeoAxis, or a call is dropped, the limit
+ * is cut by the backoff ratio, at most once per round trip. A limit that is not in use is left as it is either way, as
+ * the calls under it cannot be what loads GeoAxis. Calls beyond the limit are rejected at once.
+ * </p>
+ */
+public class GxConcurrencyLimiter {
+	private static final double RTT_SMOOTHING = 0.2;
+
+	private final int minLimit;
+	private final int maxLimit;
+	private final double backoffRatio;
+	private final double rttTolerance;
+	private final long minRttWindowNanos;
+	private final LongSupplier nanoClock;
+	private double limit;
+	private int inFlight;
+	private double smoothedRttNanos;
+	private long baselineRttNanos;
+	private long windowMinRttNanos = Long.MAX_VALUE;
+	private long windowStart;
+	private long lastDecrease;
+	private long accepted;
+	private long rejected;
+	private long drops;
+	private long decreases;
+
+	public GxConcurrencyLimiter(final int initialLimit, final int minLimit, final int maxLimit, final double backoffRatio,
+			final double rttTolerance, final long minRttWindowMs, final LongSupplier nanoClock) {
+		this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+		this.minLimit = minLimit;
+		this.maxLimit = maxLimit;
+		this.backoffRatio = backoffRatio;
+		this.rttTolerance = rttTolerance;
+		this.minRttWindowNanos = minRttWindowMs * 1000000;
+		this.nanoClock = nanoClock;
+		this.windowStart = nanoClock.getAsLong();
+		this.lastDecrease = windowStart - minRttWindowNanos;
+	}
+
+	/**
+	 * Admits a call. Every admitted call must be followed by exactly one {@link #release} or {@link #cancel}.
+	 *
+	 * @param endpoint
+	 *            The name of the GeoAxis endpoint called, for the error
+	 * @throws GxUnavailableException
+	 *             If the limit of calls is already in flight
+	 */
+	public synchronized void acquire(final String endpoint) {
+		if (inFlight >= (int) limit) {
+			rejected++;
+			throw new GxUnavailableException(endpoint, String.format("concurrency limit of %d calls reached", (int) limit));
+		}
+		inFlight++;
+		accepted++;
+	}
+
+	/**
+	 * Releases an admitted call that was not made.
+	 */
+	public synchronized void cancel() {
+		inFlight--;
+	}
+
+	/**
+	 * Releases an admitted call, and adjusts the limit by its outcome.
+	 *
+	 * @param rttNanos
+	 *            The round trip time of the call
+	 * @param dropped
+	 *            True if the call failed with an I/O error, such as a timeout, or a server error
+	 */
+	public synchronized void release(final long rttNanos, final boolean dropped) {
+		// Whether the limit was in use, so that an idle limit neither grows without bound nor sinks to the minimum
+		boolean limited = inFlight * 2 >= limit;
+		inFlight--;
+		long now = nanoClock.getAsLong();
+		updateRtt(rttNanos, now);
+		if (dropped) {
+			drops++;
+		}
+		if (!limited) {
+			return;
+		}
+
+		if (dropped || smoothedRttNanos > getBaselineRttNanos() * rttTolerance) {
+			// A single congestion event raises many signals; react to it once
+			if (now - lastDecrease >= smoothedRttNanos) {
+				limit = Math.max(minLimit, limit * backoffRatio);
+				lastDecrease = now;
+				decreases++;
+			}
+		} else {
+			limit = Math.min(maxLimit, limit + 1 / limit);
+		}
+	}
+
+	public synchronized int getLimit() {
+		return (int) limit;
+	}
+
+	/**
+	 * Gets the current limit and round trip estimates.
+	 *
+	 * @return Map of the statistic name to its value
+	 */
+	public synchronized Map<String, Object> getStatistics() {
+		Map<String, Object> statistics = new HashMap<>();
+		statistics.put("limit", (int) limit);
+		statistics.put("inFlight", inFlight);
+		statistics.put("smoothedRttMs", smoothedRttNanos / 1000000);
+		statistics.put("baselineRttMs", (double) getBaselineRttNanos() / 1000000);
+		statistics.put("accepted", accepted);
+		statistics.put("rejected", rejected);
+		statistics.put("drops", drops);
+		statistics.put("decreases", decreases);
+		return statistics;
+	}
+
+	/**
+	 * Folds the sample into the smoothed average and the window minimum. When the window rolls over, the baseline
+	 * becomes the minimum of the window that ended, so that it follows a lasting change in GeoAxis.
+	 */
+	private void updateRtt(final long rttNanos, final long now) {
+		smoothedRttNanos = smoothedRttNanos == 0 ? rttNanos : smoothedRttNanos + RTT_SMOOTHING * (rttNanos - smoothedRttNanos);
+		if (now - windowStart >= minRttWindowNanos) {
+			if (windowMinRttNanos != Long.MAX_VALUE) {
+				baselineRttNanos = windowMinRttNanos;
+			}
+			windowMinRttNanos = Long.MAX_VALUE;
+			windowStart = now;
+		}
+		windowMinRttNanos = Math.min(windowMinRttNanos, rttNanos);
+	}
+
+	private long getBaselineRttNanos() {
+		if (baselineRttNanos == 0) {
+			return windowMinRttNanos == Long.MAX_VALUE ? 0 : windowMinRttNanos;
+		}
+		return Math.min(baselineRttNanos, windowMinRttNanos);
+	}
+}
@@ -0,0 +1,134 @@
+/**
+ * Copyright 2016, RadiantBlue Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package org.venice.piazza.idam.util;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Runs the GeoAxis round trips of the API Key and login requests, and the database work that follows them, off the
+ * servlet threads. The request handlers return the resulting future, so that a servlet thread is released as soon as
+ * the request is handed over, and requests waiting on GeoAxis cannot exhaust the pool that also serves /authn and
+ * /authz.
+ * <p>
+ * The pool and its queue are bounded. Once both are full, further requests fail at once with a
+ * {@link RejectedExecutionException} instead of queueing behind a slow GeoAxis. Work that is still queued when its
+ * request reaches the async request timeout is dropped the same way, as the container has already answered the caller.
+ * </p>
+ * <p>
+ * Each request makes its GeoAxis calls one at a time, so the pool has at least as many threads as the bulkhead of an
+ * endpoint admits concurrent calls ({@code gx.bulkhead.max.concurrent}). A smaller pool would queue requests that
+ * GeoAxis could serve, and the adaptive limit of an endpoint ({@code gx.limiter.max.limit}, which defaults to the
+ * bulkhead) could never grow past the pool size.
+ * </p>
+ */
+@Component
+public class GxRequestExecutor {
+	@Value("${gx.request.threads}")
+	private int threads;
+	@Value("${gx.request.queue.size}")
+	private int queueSize;
+	@Value("${gx.bulkhead.max.concurrent}")
+	private int maxConcurrentCalls;
+	@Value("${spring.mvc.async.request-timeout}")
+	private long requestTimeoutMs;
+
+	private final AtomicLong submitted = new AtomicLong();
+	private final AtomicLong rejected = new AtomicLong();
+	private final AtomicLong expired = new AtomicLong();
+	private ThreadPoolExecutor executor;
+
+	/**
+	 * Creates the pool of threads that run the requests.
+	 */
+	@PostConstruct
+	public void initialize() {
+		threads = Math.max(threads, maxConcurrentCalls);
+		AtomicInteger threadCount = new AtomicInteger();
+		executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(queueSize), runnable -> {
+			Thread thread = new Thread(runnable, "gx-request-" + threadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		executor.allowCoreThreadTimeOut(true);
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		if (executor != null) {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Runs the work on the request pool.
+	 *
+	 * @param work
+	 *            The work of the request, which must not use the request-scoped servlet objects
+	 * @return Future completed with the result of the work, or exceptionally with its exception. If the pool is full,
+	 *         or the work does not start before the request times out, it is completed exceptionally with a
+	 *         RejectedExecutionException.
+	 */
+	public <T> CompletableFuture<T> supplyAsync(final Supplier<T> work) {
+		submitted.incrementAndGet();
+		final long submittedOn = System.nanoTime();
+		try {
+			return CompletableFuture.supplyAsync(() -> {
+				if (requestTimeoutMs > 0 && System.nanoTime() - submittedOn >= TimeUnit.MILLISECONDS.toNanos(requestTimeoutMs)) {
+					expired.incrementAndGet();
+					throw new RejectedExecutionException("The request timed out before it left the queue.");
+				}
+				return work.get();
+			}, executor);
+		} catch (RejectedExecutionException exception) {
+			rejected.incrementAndGet();
+			CompletableFuture<T> future = new CompletableFuture<>();
+			future.completeExceptionally(exception);
+			return future;
+		}
+	}
+
+	/**
+	 * Gets the load of the request pool.
+	 *
+	 * @return Map of the statistic name to its value
+	 */
+	public Map<String, Object> getStatistics() {
+		Map<String, Object> statistics = new HashMap<>();
+		statistics.put("threads", threads);
+		statistics.put("active", executor.getActiveCount());
+		statistics.put("queued", executor.getQueue().size());
+		statistics.put("submitted", submitted.get());
+		statistics.put("completed", executor.getCompletedTaskCount());
+		statistics.put("rejected", rejected.get());
+		statistics.put("expired", expired.get());
+		return statistics;
+	}
+}
@@ -0,0 +1,40 @@
+/**
+ * Copyright 2016, RadiantBlue Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package org.venice.piazza.idam.util;
+
+import org.springframework.web.client.RestClientException;
+
+/**
+ * Thrown in place of a GeoAxis call that was not made, because the circuit of its endpoint is open or the endpoint
+ * already has as many calls in flight as it may.
+ */
+public class GxUnavailableException extends RestClientException {
+	private static final long serialVersionUID = 1L;
+
+	private final String endpoint;
+
+	public GxUnavailableException(final String endpoint, final String reason) {
+		super(String.format("GeoAxis %s endpoint unavailable: %s", endpoint, reason));
+		this.endpoint = endpoint;
+	}
+
+	/**
+	 * @return The name of the GeoAxis endpoint that was not called
+	 */
+	public String getEndpoint() {
+		return endpoint;
+	}
+}
@@ -0,0 +1,276 @@
+/**
+ * Copyright 2016, RadiantBlue Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package org.venice.piazza.idam.util;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import model.security.authz.UserProfile;
+
+/**
+ * Size-bounded, least-recently-used cache of the user profile attributes retrieved from GeoAxis. The attributes change
+ * rarely, so an entry is served as is until it is older than the refresh interval. From then until its TTL it is
+ * still served, while a refresh is started in the background, so that users who log in regularly never wait on
+ * GeoAxis. An entry past its TTL is fetched again before it is served; if GeoAxis fails, or does not answer within the
+ * fetch timeout, the stale entry is served instead for up to the stale-if-error age.
+ */
+@Component
+@Profile({ "geoaxis" })
+public class ProfileAttributeCache {
+	@Value("${gx.profile.cache.max.size}")
+	private int maxSize;
+	@Value("${gx.profile.cache.refresh.after.ms}")
+	private long refreshAfterMs;
+	@Value("${gx.profile.cache.ttl.ms}")
+	private long ttlMs;
+	@Value("${gx.profile.cache.stale.if.error.ms}")
+	private long staleIfErrorMs;
+	@Value("${gx.profile.cache.fetch.timeout.ms}")
+	private long fetchTimeoutMs;
+	@Value("${gx.profile.cache.refresh.threads}")
+	private int refreshThreads;
+	@Value("${gx.profile.cache.refresh.queue.size}")
+	private int refreshQueueSize;
+
+	@Autowired
+	private GxUserProfileClient gxUserProfileClient;
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(ProfileAttributeCache.class);
+	private final AtomicLong staleServed = new AtomicLong();
+	private final AtomicLong refreshes = new AtomicLong();
+	private final AtomicLong refreshFailures = new AtomicLong();
+	private final AtomicLong refreshRejections = new AtomicLong();
+	private final AtomicLong refreshNanos = new AtomicLong();
+	private final AtomicLong maxRefreshNanos = new AtomicLong();
+	private LongSupplier clock = System::currentTimeMillis;
+	private ThreadPoolExecutor executor;
+
+	private final BoundedCache<String, Entry> entries = new BoundedCache<>(() -> maxSize);
+	// The refresh in progress for each user, so that concurrent logins share a single GeoAxis call
+	private final Map<String, FutureTask<UserProfile>> refreshing = new ConcurrentHashMap<>();
+
+	/**
+	 * Creates the pool of threads that refresh entries in the background.
+	 */
+	@PostConstruct
+	public void initialize() {
+		AtomicInteger threadCount = new AtomicInteger();
+		executor = new ThreadPoolExecutor(refreshThreads, refreshThreads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(refreshQueueSize),
+				runnable -> {
+					Thread thread = new Thread(runnable, "profile-refresh-" + threadCount.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				});
+		executor.allowCoreThreadTimeOut(true);
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		if (executor != null) {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Gets the profile attributes of the user, from the cache where possible.
+	 *
+	 * @param username
+	 *            The username
+	 * @param dn
+	 *            The distinguished name of the user
+	 * @return A new UserProfile holding the username, DN and the GeoAxis attributes of the user
+	 */
+	public UserProfile getUserProfile(final String username, final String dn) {
+		Entry entry = entries.peek(username);
+		long now = clock.getAsLong();
+		if (entry != null && !Objects.equals(entry.dn, dn)) {
+			// The username now maps to a different certificate or account, so nothing cached about it is served
+			entry = null;
+		}
+		if (entry != null && now - entry.fetchedOn < ttlMs) {
+			entries.recordHit();
+			if (now - entry.fetchedOn >= refreshAfterMs) {
+				refresh(username, dn);
+			}
+			return entry.toUserProfile(username);
+		}
+		entries.recordMiss();
+
+		if (entry == null || now - entry.fetchedOn >= staleIfErrorMs) {
+			// Nothing may be served in place of GeoAxis, so fetch on the calling thread
+			return fetch(username, dn);
+		}
+		FutureTask<UserProfile> task = refresh(username, dn);
+		try {
+			if (task != null) {
+				return copy(task.get(fetchTimeoutMs, TimeUnit.MILLISECONDS));
+			}
+			return fetch(username, dn);
+		} catch (InterruptedException exception) {
+			Thread.currentThread().interrupt();
+			LOGGER.warn("Interrupted while refreshing the profile of {}, serving the stale profile.", username);
+		} catch (TimeoutException exception) {
+			LOGGER.warn("GeoAxis did not return the profile of {} within {} ms, serving the stale profile.", username, fetchTimeoutMs);
+		} catch (ExecutionException | RuntimeException exception) {
+			LOGGER.warn("GeoAxis failed to return the profile of {}, serving the stale profile.", username, exception);
+		}
+		staleServed.incrementAndGet();
+		return entry.toUserProfile(username);
+	}
+
+	/**
+	 * Caches profile attributes that were retrieved from GeoAxis by the caller.
+	 *
+	 * @param userProfile
+	 *            The profile, holding the username, DN and the GeoAxis attributes
+	 */
+	public void put(final UserProfile userProfile) {
+		Entry entry = new Entry(userProfile, clock.getAsLong());
+		entries.put(userProfile.getUsername(), entry);
+	}
+
+	/**
+	 * Removes the cached attributes of the user, if any.
+	 *
+	 * @param username
+	 *            The username
+	 */
+	public void invalidate(final String username) {
+		entries.remove(username);
+	}
+
+	/**
+	 * Gets the current cache statistics.
+	 *
+	 * @return Map of the statistic name to its value
+	 */
+	public Map<String, Object> getStatistics() {
+		Map<String, Object> statistics = entries.getStatistics();
+		statistics.put("refreshAfterMs", refreshAfterMs);
+		statistics.put("ttlMs", ttlMs);
+		statistics.put("staleIfErrorMs", staleIfErrorMs);
+		statistics.put("staleServed", staleServed.get());
+		long refreshCount = refreshes.get();
+		statistics.put("refreshes", refreshCount);
+		statistics.put("refreshFailures", refreshFailures.get());
+		statistics.put("refreshRejections", refreshRejections.get());
+		statistics.put("refreshesInProgress", refreshing.size());
+		statistics.put("averageRefreshMs", refreshCount > 0 ? refreshNanos.get() / 1e6 / refreshCount : 0);
+		statistics.put("maxRefreshMs", maxRefreshNanos.get() / 1e6);
+		return statistics;
+	}
+
+	/**
+	 * Starts a background refresh of the user, unless one is already in progress.
+	 *
+	 * @return The refresh, or null if the refresh queue is full
+	 */
+	private FutureTask<UserProfile> refresh(final String username, final String dn) {
+		FutureTask<UserProfile> task = new FutureTask<>(() -> fetch(username, dn));
+		FutureTask<UserProfile> existing = refreshing.putIfAbsent(username, task);
+		if (existing != null) {
+			return existing;
+		}
+		try {
+			executor.execute(() -> {
+				try {
+					task.run();
+				} finally {
+					refreshing.remove(username, task);
+				}
+			});
+			return task;
+		} catch (RejectedExecutionException exception) {
+			refreshing.remove(username, task);
+			refreshRejections.incrementAndGet();
+			return null;
+		}
+	}
+
+	/**
+	 * Retrieves the attributes of the user from GeoAxis and caches them.
+	 */
+	private UserProfile fetch(final String username, final String dn) {
+		long start = System.nanoTime();
+		try {
+			UserProfile userProfile = gxUserProfileClient.getUserProfileFromGx(username, dn);
+			put(userProfile);
+			return userProfile;
+		} catch (RuntimeException exception) {
+			refreshFailures.incrementAndGet();
+			throw exception;
+		} finally {
+			long elapsed = System.nanoTime() - start;
+			refreshes.incrementAndGet();
+			refreshNanos.addAndGet(elapsed);
+			maxRefreshNanos.accumulateAndGet(elapsed, Math::max);
+		}
+	}
+
+	/**
+	 * Copies a profile, so that callers which share a refresh may each modify their own.
+	 */
+	private static UserProfile copy(final UserProfile userProfile) {
+		return new Entry(userProfile, 0).toUserProfile(userProfile.getUsername());
+	}
+
+	private static final class Entry {
+		private final String dn;
+		private final String country;
+		private final String adminCode;
+		private final String dutyCode;
+		private final long fetchedOn;
+
+		private Entry(final UserProfile userProfile, final long fetchedOn) {
+			this.dn = userProfile.getDistinguishedName();
+			this.country = userProfile.getCountry();
+			this.adminCode = userProfile.getAdminCode();
+			this.dutyCode = userProfile.getDutyCode();
+			this.fetchedOn = fetchedOn;
+		}
+
+		private UserProfile toUserProfile(final String username) {
+			UserProfile userProfile = new UserProfile();
+			userProfile.setUsername(username);
+			userProfile.setDistinguishedName(dn);
+			userProfile.setCountry(country);
+			userProfile.setAdminCode(adminCode);
+			userProfile.setDutyCode(dutyCode);
+			return userProfile;
+		}
+	}
+}
@@ -0,0 +1,155 @@
+/**
+ * Copyright 2016, RadiantBlue Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package org.venice.piazza.idam.test.benchmark;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.persistence.EntityManager;
+
+import org.hibernate.SQLQuery;
+import org.hibernate.Session;
+import org.mockito.stubbing.Answer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.venice.piazza.common.hibernate.dao.ApiKeyDao;
+import org.venice.piazza.common.hibernate.dao.UserProfileDao;
+import org.venice.piazza.common.hibernate.entity.ApiKeyEntity;
+import org.venice.piazza.common.hibernate.entity.UserProfileEntity;
+import org.venice.piazza.idam.data.ApiKeyCache;
+import org.venice.piazza.idam.data.DatabaseAccessor;
+
+import model.security.ApiKey;
+import model.security.authz.UserProfile;
+import util.PiazzaLogger;
+
+/**
+ * Compares the /authn lookup through isApiKeyValid followed by getUserProfileByApiKey, against the fused
+ * getUserProfileByValidApiKey lookup. Every database query is simulated by parking for one round trip, so the results
+ * reflect the number of serial round trips each path makes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class AuthnLookupBenchmark {
+	private static final String UUID = "benchmark_uuid";
+	private static final String USERNAME = "benchmark_user";
+
+	@Param({ "500" })
+	public long roundTripMicros;
+	@Param({ "false", "true" })
+	public boolean cached;
+
+	private DatabaseAccessor accessor;
+	private ApiKeyCache apiKeyCache;
+
+	@Setup
+	public void setup() {
+		long currentTime = System.currentTimeMillis();
+		ApiKey apiKey = new ApiKey(UUID, USERNAME, currentTime, currentTime + TimeUnit.DAYS.toMillis(1));
+		apiKey.setLastUsedOn(currentTime);
+		apiKey.setExpiresOn(currentTime + TimeUnit.DAYS.toMillis(1));
+		ApiKeyEntity apiKeyEntity = new ApiKeyEntity(apiKey);
+		UserProfile userProfile = new UserProfile();
+		userProfile.setUsername(USERNAME);
+		UserProfileEntity userProfileEntity = new UserProfileEntity(userProfile);
+
+		ApiKeyDao apiKeyDao = mock(ApiKeyDao.class);
+		when(apiKeyDao.getApiKeyByUuid(UUID)).thenAnswer(roundTrip(apiKeyEntity));
+		UserProfileDao userProfileDao = mock(UserProfileDao.class);
+		when(userProfileDao.getUserProfileByUserName(USERNAME)).thenAnswer(roundTrip(userProfileEntity));
+
+		EntityManager entityManager = mock(EntityManager.class);
+		Session session = mock(Session.class);
+		SQLQuery sqlQuery = mock(SQLQuery.class);
+		when(entityManager.unwrap(Session.class)).thenReturn(session);
+		when(session.createSQLQuery(anyString())).thenReturn(sqlQuery);
+		when(sqlQuery.addEntity(anyString(), any(Class.class))).thenReturn(sqlQuery);
+		when(sqlQuery.setParameter(anyString(), any())).thenReturn(sqlQuery);
+		when(sqlQuery.list()).thenAnswer(roundTrip(Collections.singletonList(new Object[] { apiKeyEntity, userProfileEntity })));
+
+		apiKeyCache = new ApiKeyCache();
+		ReflectionTestUtils.setField(apiKeyCache, "maxSize", 10000);
+		ReflectionTestUtils.setField(apiKeyCache, "ttlMs", TimeUnit.HOURS.toMillis(1));
+
+		accessor = new DatabaseAccessor();
+		ReflectionTestUtils.setField(accessor, "KEY_EXPIRATION_DURATION_MS", 31556952000L);
+		ReflectionTestUtils.setField(accessor, "KEY_INACTIVITY_THESHOLD_MS", 15778476000L);
+		ReflectionTestUtils.setField(accessor, "KEY_LAST_USED_MAX_STALENESS_MS", 300000L);
+		ReflectionTestUtils.setField(accessor, "apiKeyDao", apiKeyDao);
+		ReflectionTestUtils.setField(accessor, "userProfileDao", userProfileDao);
+		ReflectionTestUtils.setField(accessor, "apiKeyCache", apiKeyCache);
+		ReflectionTestUtils.setField(accessor, "entityManager", entityManager);
+		ReflectionTestUtils.setField(accessor, "jdbcTemplate", mock(JdbcTemplate.class));
+		ReflectionTestUtils.setField(accessor, "pzLogger", mock(PiazzaLogger.class));
+	}
+
+	@Benchmark
+	public UserProfile separateQueries() {
+		prepareCache();
+		return accessor.isApiKeyValid(UUID) ? accessor.getUserProfileByApiKey(UUID) : null;
+	}
+
+	@Benchmark
+	public UserProfile fusedQuery() {
+		prepareCache();
+		return accessor.getUserProfileByValidApiKey(UUID);
+	}
+
+	/**
+	 * Cold lookups start from an empty cache; warm lookups find the key already cached.
+	 */
+	private void prepareCache() {
+		if (!cached) {
+			apiKeyCache.clear();
+		}
+	}
+
+	private <T> Answer<T> roundTrip(final T result) {
+		final long roundTripNanos = TimeUnit.MICROSECONDS.toNanos(roundTripMicros);
+		return invocation -> {
+			LockSupport.parkNanos(roundTripNanos);
+			return result;
+		};
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder().include(AuthnLookupBenchmark.class.getSimpleName()).build()).run();
+	}
+}
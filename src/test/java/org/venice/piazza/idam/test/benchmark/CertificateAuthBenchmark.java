@@ -0,0 +1,170 @@
+/**
+ * Copyright 2016, RadiantBlue Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package org.venice.piazza.idam.test.benchmark;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.cert.CertificateFactory;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.StreamUtils;
+import org.springframework.web.client.RestTemplate;
+import org.venice.piazza.idam.authn.CertificateDecisionCache;
+import org.venice.piazza.idam.authn.GxAuthenticator;
+import org.venice.piazza.idam.authn.LocalCertificateValidator;
+import org.venice.piazza.idam.authn.PemCertificates;
+import org.venice.piazza.idam.data.DatabaseAccessor;
+import org.venice.piazza.idam.model.GxAuthNResponse;
+import org.venice.piazza.idam.model.Principal;
+import org.venice.piazza.idam.model.PrincipalItem;
+import org.venice.piazza.idam.util.GxUserProfileClient;
+import org.venice.piazza.idam.util.ProfileAttributeCache;
+
+import model.response.AuthResponse;
+import model.security.authz.UserProfile;
+import util.PiazzaLogger;
+
+/**
+ * Compares PKI certificate authentication through GeoAxis on every request, local validation of the NPE certificate
+ * against the trust store on every request, and authentication served from the certificate fingerprint cache. The
+ * GeoAxis call is simulated by parking for one round trip.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CertificateAuthBenchmark {
+	private static final String UID = "testnpe";
+	private static final String DN = "CN=testnpe.piazza,UID=testnpe,OU=component,O=Piazza Test,C=US";
+
+	@Param({ "2000" })
+	public long roundTripMicros;
+	@Param({ "geoaxis", "local", "cached" })
+	public String mode;
+
+	private GxAuthenticator gxAuthenticator;
+	private CertificateDecisionCache certificateDecisionCache;
+	private String pem;
+	private String fingerprint;
+
+	@Setup
+	public void setup() throws IOException, GeneralSecurityException {
+		// The certificate is passed with its lines joined by spaces, as it is in a header
+		pem = StreamUtils.copyToString(new ClassPathResource("certificates/npe.pem").getInputStream(), StandardCharsets.US_ASCII).trim()
+				.replace('\n', ' ');
+		fingerprint = PemCertificates.getFingerprint(PemCertificates.decode(pem));
+
+		PrincipalItem uid = new PrincipalItem();
+		uid.setName("UID");
+		uid.setValue(UID);
+		PrincipalItem dn = new PrincipalItem();
+		dn.setName("DN");
+		dn.setValue(DN);
+		Principal principal = new Principal();
+		principal.setPrincipal(Arrays.asList(uid, dn));
+		GxAuthNResponse gxResponse = new GxAuthNResponse();
+		gxResponse.setSuccessful(true);
+		gxResponse.setPrincipals(principal);
+		final long roundTripNanos = TimeUnit.MICROSECONDS.toNanos(roundTripMicros);
+		RestTemplate restTemplate = mock(RestTemplate.class);
+		when(restTemplate.postForObject(anyString(), any(), eq(GxAuthNResponse.class))).thenAnswer(invocation -> {
+			LockSupport.parkNanos(roundTripNanos);
+			return gxResponse;
+		});
+
+		UserProfile userProfile = new UserProfile();
+		userProfile.setUsername(UID);
+		userProfile.setDistinguishedName(DN);
+		GxUserProfileClient gxUserProfileClient = mock(GxUserProfileClient.class);
+		when(gxUserProfileClient.getUserProfileFromGx(UID, DN)).thenReturn(userProfile);
+		ProfileAttributeCache profileAttributeCache = new ProfileAttributeCache();
+		ReflectionTestUtils.setField(profileAttributeCache, "maxSize", 10000);
+		ReflectionTestUtils.setField(profileAttributeCache, "refreshAfterMs", TimeUnit.HOURS.toMillis(1));
+		ReflectionTestUtils.setField(profileAttributeCache, "ttlMs", TimeUnit.HOURS.toMillis(2));
+		ReflectionTestUtils.setField(profileAttributeCache, "staleIfErrorMs", TimeUnit.HOURS.toMillis(4));
+		ReflectionTestUtils.setField(profileAttributeCache, "fetchTimeoutMs", 1000L);
+		ReflectionTestUtils.setField(profileAttributeCache, "refreshThreads", 1);
+		ReflectionTestUtils.setField(profileAttributeCache, "refreshQueueSize", 10);
+		ReflectionTestUtils.setField(profileAttributeCache, "gxUserProfileClient", gxUserProfileClient);
+		profileAttributeCache.initialize();
+
+		certificateDecisionCache = new CertificateDecisionCache();
+		ReflectionTestUtils.setField(certificateDecisionCache, "maxSize", 10000);
+		ReflectionTestUtils.setField(certificateDecisionCache, "ttlMs", TimeUnit.HOURS.toMillis(1));
+
+		KeyStore trustStore = KeyStore.getInstance(KeyStore.getDefaultType());
+		trustStore.load(null, null);
+		trustStore.setCertificateEntry("ca",
+				CertificateFactory.getInstance("X.509").generateCertificate(new ClassPathResource("certificates/ca.pem").getInputStream()));
+		LocalCertificateValidator localCertificateValidator = new LocalCertificateValidator();
+		ReflectionTestUtils.setField(localCertificateValidator, "enabled", "local".equals(mode));
+		ReflectionTestUtils.setField(localCertificateValidator, "piazzaTrustStore", trustStore);
+		localCertificateValidator.initialize();
+		DatabaseAccessor accessor = mock(DatabaseAccessor.class);
+		when(accessor.getUserProfileByUsername(UID)).thenReturn(userProfile);
+
+		gxAuthenticator = new GxAuthenticator();
+		ReflectionTestUtils.setField(gxAuthenticator, "gxApiUrlAtnCert", "https://geoaxis.api.com/atnrest/cert");
+		ReflectionTestUtils.setField(gxAuthenticator, "npeUsersOnly", true);
+		ReflectionTestUtils.setField(gxAuthenticator, "logger", mock(PiazzaLogger.class));
+		ReflectionTestUtils.setField(gxAuthenticator, "profileAttributeCache", profileAttributeCache);
+		ReflectionTestUtils.setField(gxAuthenticator, "restTemplate", restTemplate);
+		ReflectionTestUtils.setField(gxAuthenticator, "accessor", accessor);
+		ReflectionTestUtils.setField(gxAuthenticator, "certificateDecisionCache", certificateDecisionCache);
+		ReflectionTestUtils.setField(gxAuthenticator, "localCertificateValidator", localCertificateValidator);
+	}
+
+	@Benchmark
+	public AuthResponse authenticateCertificate() {
+		// Uncached authentications revoke the decision first, so that every request is authenticated in full
+		if (!"cached".equals(mode)) {
+			certificateDecisionCache.revoke(fingerprint);
+		}
+		return gxAuthenticator.getAuthenticationDecision(pem);
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder().include(CertificateAuthBenchmark.class.getSimpleName()).build()).run();
+	}
+}
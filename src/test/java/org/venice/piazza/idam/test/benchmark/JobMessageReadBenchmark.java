@@ -0,0 +1,108 @@
+/**
+ * Copyright 2016, RadiantBlue Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package org.venice.piazza.idam.test.benchmark;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.venice.piazza.idam.authz.throttle.JobMessageReader;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import model.job.Job;
+
+/**
+ * Compares reading the creator of a Job message by binding the whole Job, against the streaming JobMessageReader.
+ * The samples resemble the messages on the IDAMThrottles queue: an ingest Job carrying inline text content and
+ * metadata, and a service execution Job carrying several inputs.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class JobMessageReadBenchmark {
+	@Param({ "ingest", "execute-service" })
+	public String jobType;
+	@Param({ "1024", "65536" })
+	public int contentLength;
+
+	private final ObjectMapper mapper = new ObjectMapper();
+	private final JobMessageReader jobMessageReader = new JobMessageReader();
+	private String message;
+
+	@Setup
+	public void setup() throws IOException {
+		String content = getContent(contentLength);
+		if ("ingest".equals(jobType)) {
+			message = String.format("{\"jobId\":\"2b1c4a4e-5d6f-4c1e-9a8b-7c6d5e4f3a2b\",\"jobType\":{\"type\":\"ingest\",\"host\":true,"
+					+ "\"data\":{\"dataId\":\"9f8e7d6c-5b4a-4392-8170-6f5e4d3c2b1a\",\"dataType\":{\"type\":\"text\",\"content\":\"%s\","
+					+ "\"mimeType\":\"text/plain\"},\"metadata\":{\"name\":\"Benchmark Ingest\",\"description\":\"%s\"}}},"
+					+ "\"createdBy\":\"benchmark_user\"}", content, content);
+		} else {
+			message = String.format("{\"jobId\":\"2b1c4a4e-5d6f-4c1e-9a8b-7c6d5e4f3a2b\",\"jobType\":{\"type\":\"execute-service\","
+					+ "\"data\":{\"serviceId\":\"0a1b2c3d-4e5f-4a6b-8c7d-9e0f1a2b3c4d\",\"dataInputs\":{"
+					+ "\"first\":{\"type\":\"text\",\"content\":\"%s\"},\"second\":{\"type\":\"text\",\"content\":\"%s\"},"
+					+ "\"body\":{\"type\":\"body\",\"content\":\"%s\",\"mimeType\":\"application/json\"}},"
+					+ "\"dataOutput\":[{\"type\":\"text\"}]}},\"createdBy\":\"benchmark_user\"}", content, content, content);
+		}
+
+		// Ensure both paths read the same creator from the sample
+		String boundCreator = fullBind();
+		String streamedCreator = streamingRead();
+		if (!"benchmark_user".equals(boundCreator) || !boundCreator.equals(streamedCreator)) {
+			throw new IllegalStateException(String.format("Sample read as %s and %s", boundCreator, streamedCreator));
+		}
+	}
+
+	@Benchmark
+	public String fullBind() throws IOException {
+		return mapper.readValue(message, Job.class).getCreatedBy();
+	}
+
+	@Benchmark
+	public String streamingRead() throws IOException {
+		return jobMessageReader.read(message).getCreatedBy();
+	}
+
+	private static String getContent(int length) {
+		StringBuilder builder = new StringBuilder(length);
+		String words = "Lorem ipsum dolor sit amet, consectetur adipiscing elit. ";
+		while (builder.length() < length) {
+			builder.append(words);
+		}
+		return builder.substring(0, length);
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder().include(JobMessageReadBenchmark.class.getSimpleName()).build()).run();
+	}
+}
@@ -0,0 +1,338 @@
+/**
+ * Copyright 2016, RadiantBlue Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package org.venice.piazza.idam.test.controller;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.venice.piazza.idam.authz.AuthorizationDecisionCache;
+import org.venice.piazza.idam.authz.AuthorizerChain;
+import org.venice.piazza.idam.authz.endpoint.EndpointAuthorizer;
+import org.venice.piazza.idam.authz.throttle.ThrottleAuthorizer;
+
+import model.response.AuthResponse;
+import model.security.authz.AuthorizationCheck;
+import model.security.authz.Permission;
+import util.PiazzaLogger;
+
+/**
+ * Tests the chain of Authorizers and the caching of their decisions
+ */
+public class AuthorizerChainTests {
+	@Mock
+	private EndpointAuthorizer endpointAuthorizer;
+	@Mock
+	private ThrottleAuthorizer throttleAuthorizer;
+	@Mock
+	private PiazzaLogger pzLogger;
+
+	private final AtomicLong now = new AtomicLong(1000000);
+	private AuthorizationDecisionCache decisionCache = new AuthorizationDecisionCache();
+	private AuthorizerChain authorizerChain = new AuthorizerChain();
+
+	/**
+	 * Initialize mock objects.
+	 */
+	@Before
+	public void setup() {
+		MockitoAnnotations.initMocks(this);
+		ReflectionTestUtils.setField(decisionCache, "maxSize", 2);
+		ReflectionTestUtils.setField(decisionCache, "ttlMs", 5000L);
+		ReflectionTestUtils.setField(decisionCache, "clock", (LongSupplier) now::get);
+		ReflectionTestUtils.setField(authorizerChain, "endpointAuthorizer", endpointAuthorizer);
+		ReflectionTestUtils.setField(authorizerChain, "throttleAuthorizer", throttleAuthorizer);
+		ReflectionTestUtils.setField(authorizerChain, "decisionCache", decisionCache);
+		ReflectionTestUtils.setField(authorizerChain, "pzLogger", pzLogger);
+		ReflectionTestUtils.setField(authorizerChain, "parallelThreads", 4);
+		ReflectionTestUtils.setField(authorizerChain, "parallelQueueSize", 16);
+		authorizerChain.initializeAuthorizers();
+
+		when(endpointAuthorizer.getMaxDecisionAgeMs()).thenReturn(Long.MAX_VALUE);
+		when(endpointAuthorizer.isCacheable()).thenReturn(true);
+		when(endpointAuthorizer.canUserPerformAction(any())).thenReturn(new AuthResponse(true));
+		when(endpointAuthorizer.canUserPerformActions(any())).thenAnswer(invocation -> {
+			List<?> checks = (List<?>) invocation.getArguments()[0];
+			return Collections.nCopies(checks.size(), new AuthResponse(true));
+		});
+		when(throttleAuthorizer.canUserPerformAction(any())).thenReturn(new AuthResponse(true));
+	}
+
+	@After
+	public void shutdown() {
+		authorizerChain.shutdown();
+	}
+
+	/**
+	 * Tests that cacheable decisions are served from the cache until the TTL, and that throttling is evaluated live
+	 */
+	@Test
+	public void testCachedDecisions() {
+		AuthorizationCheck check = new AuthorizationCheck("tester", new Permission("POST", "job"));
+		assertTrue(authorizerChain.authorize(check).getIsAuthSuccess());
+		assertTrue(authorizerChain.authorize(check).getIsAuthSuccess());
+		verify(endpointAuthorizer, times(1)).canUserPerformAction(any());
+		verify(throttleAuthorizer, times(2)).canUserPerformAction(any());
+
+		// A denial by the live Authorizer is not masked by the cache
+		when(throttleAuthorizer.canUserPerformAction(any())).thenReturn(new AuthResponse(false, "Throttled"));
+		assertEquals("Throttled", authorizerChain.authorize(check).getDetails());
+
+		// Different users and uris are decided separately
+		authorizerChain.authorize(new AuthorizationCheck("other", new Permission("POST", "job")));
+		verify(endpointAuthorizer, times(2)).canUserPerformAction(any());
+
+		// Decisions expire after the TTL
+		now.addAndGet(5001);
+		authorizerChain.authorize(check);
+		verify(endpointAuthorizer, times(3)).canUserPerformAction(any());
+		assertEquals(2L, decisionCache.getStatistics().get("hits"));
+	}
+
+	/**
+	 * Tests that checks without a request method and uri bypass the cache, and are denied by the Authorizers
+	 */
+	@Test
+	public void testIncompleteCheck() {
+		when(endpointAuthorizer.canUserPerformAction(any())).thenReturn(new AuthResponse(false, "Incomplete"));
+		when(endpointAuthorizer.canUserPerformActions(any()))
+				.thenReturn(Collections.singletonList(new AuthResponse(false, "Incomplete")));
+		AuthorizationCheck check = new AuthorizationCheck("tester", null);
+		assertEquals("Incomplete", authorizerChain.authorize(check).getDetails());
+		assertEquals("Incomplete", authorizerChain.authorize(new AuthorizationCheck("tester", new Permission("POST", null))).getDetails());
+		assertEquals("Incomplete", authorizerChain.authorizeAll(Collections.singletonList(check)).get(0).getDetails());
+		verify(endpointAuthorizer, times(2)).canUserPerformAction(any());
+		verify(endpointAuthorizer, times(1)).canUserPerformActions(any());
+		assertEquals(0, decisionCache.getStatistics().get("size"));
+	}
+
+	/**
+	 * Tests that throttle decisions are never served past their maximum age
+	 */
+	@Test
+	public void testBoundedStaleness() {
+		when(throttleAuthorizer.getMaxDecisionAgeMs()).thenReturn(100L);
+		when(throttleAuthorizer.isCacheable()).thenReturn(true);
+		AuthorizationCheck check = new AuthorizationCheck("tester", new Permission("POST", "job"));
+		authorizerChain.authorize(check);
+		now.addAndGet(100);
+		authorizerChain.authorize(check);
+		verify(throttleAuthorizer, times(1)).canUserPerformAction(any());
+		now.addAndGet(1);
+		authorizerChain.authorize(check);
+		verify(throttleAuthorizer, times(2)).canUserPerformAction(any());
+	}
+
+	/**
+	 * Tests that a group of checks only evaluates the uncached checks, and stops evaluating denied checks
+	 */
+	@Test
+	public void testAuthorizeAll() {
+		AuthorizationCheck cached = new AuthorizationCheck("tester", new Permission("GET", "data"));
+		authorizerChain.authorize(cached);
+		when(throttleAuthorizer.canUserPerformActions(any())).thenReturn(Arrays.asList(new AuthResponse(true), new AuthResponse(false, "Throttled")));
+		when(endpointAuthorizer.canUserPerformActions(any())).thenReturn(Arrays.asList(new AuthResponse(true), new AuthResponse(false, "Denied")));
+
+		List<AuthResponse> decisions = authorizerChain.authorizeAll(Arrays.asList(cached,
+				new AuthorizationCheck("tester", new Permission("POST", "job")), new AuthorizationCheck("tester", new Permission("GET", "admin"))));
+		assertTrue(decisions.get(0).getIsAuthSuccess());
+		assertEquals("Throttled", decisions.get(1).getDetails());
+		assertEquals("Denied", decisions.get(2).getDetails());
+		verify(endpointAuthorizer, times(1)).canUserPerformActions(any());
+		verify(throttleAuthorizer, times(1)).canUserPerformActions(any());
+
+		// The cache is bounded, evicting the least recently used decision
+		assertEquals(2, decisionCache.getStatistics().get("size"));
+		assertEquals(1L, decisionCache.getStatistics().get("evictions"));
+	}
+
+	/**
+	 * Tests that parallel evaluation returns the first denial without waiting on, and then cancels, slower Authorizers
+	 */
+	@Test
+	public void testParallelDenial() throws Exception {
+		ReflectionTestUtils.setField(authorizerChain, "parallelEnabled", true);
+		authorizerChain.initializeAuthorizers();
+		CountDownLatch interrupted = new CountDownLatch(1);
+		when(endpointAuthorizer.isCacheable()).thenReturn(false);
+		when(endpointAuthorizer.canUserPerformAction(any())).thenAnswer(invocation -> {
+			try {
+				Thread.sleep(10000);
+			} catch (InterruptedException exception) {
+				interrupted.countDown();
+			}
+			return new AuthResponse(true);
+		});
+		when(throttleAuthorizer.canUserPerformAction(any())).thenReturn(new AuthResponse(false, "Throttled"));
+
+		long start = System.currentTimeMillis();
+		AuthResponse response = authorizerChain.authorize(new AuthorizationCheck("tester", new Permission("POST", "job")));
+		assertEquals("Throttled", response.getDetails());
+		assertTrue(System.currentTimeMillis() - start < 5000);
+		assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+	}
+
+	/**
+	 * Tests the timeout and failure policies of parallel evaluation
+	 */
+	@Test
+	public void testParallelFailurePolicy() {
+		ReflectionTestUtils.setField(authorizerChain, "parallelEnabled", true);
+		authorizerChain.initializeAuthorizers();
+		AuthorizationCheck check = new AuthorizationCheck("tester", new Permission("POST", "job"));
+		when(endpointAuthorizer.isCacheable()).thenReturn(false);
+		when(endpointAuthorizer.getTimeoutMs()).thenReturn(50L);
+		when(endpointAuthorizer.canUserPerformAction(any())).thenAnswer(invocation -> {
+			Thread.sleep(10000);
+			return new AuthResponse(true);
+		});
+
+		// Fail-closed on timeout
+		AuthResponse response = authorizerChain.authorize(check);
+		assertTrue(!response.getIsAuthSuccess());
+		assertTrue(response.getDetails().toString().contains("did not complete within 50 ms"));
+
+		// Fail-open on timeout
+		when(endpointAuthorizer.isFailOpen()).thenReturn(true);
+		assertTrue(authorizerChain.authorize(check).getIsAuthSuccess());
+
+		// Fail-closed on error
+		when(throttleAuthorizer.canUserPerformAction(any())).thenThrow(new RuntimeException("Database down"));
+		response = authorizerChain.authorize(check);
+		assertTrue(!response.getIsAuthSuccess());
+		assertTrue(response.getDetails().toString().contains("Database down"));
+	}
+
+	/**
+	 * Tests that the timeout and failure policies also apply to Authorizers that do not run concurrently, such as those
+	 * with side effects
+	 */
+	@Test
+	public void testSequentialFailurePolicy() {
+		AuthorizationCheck check = new AuthorizationCheck("tester", new Permission("POST", "job"));
+		when(throttleAuthorizer.hasSideEffects()).thenReturn(true);
+		when(throttleAuthorizer.canUserPerformAction(any())).thenThrow(new RuntimeException("Database down"));
+		when(throttleAuthorizer.canUserPerformActions(any())).thenThrow(new RuntimeException("Database down"));
+		authorizerChain.initializeAuthorizers();
+
+		// Errors are decided by the failure policy, with or without parallel mode
+		AuthResponse response = authorizerChain.authorize(check);
+		assertTrue(!response.getIsAuthSuccess());
+		assertTrue(response.getDetails().toString().contains("Database down"));
+		assertTrue(!authorizerChain.authorizeAll(Arrays.asList(check)).get(0).getIsAuthSuccess());
+		when(throttleAuthorizer.isFailOpen()).thenReturn(true);
+		assertTrue(authorizerChain.authorize(check).getIsAuthSuccess());
+		assertTrue(authorizerChain.authorizeAll(Arrays.asList(check)).get(0).getIsAuthSuccess());
+
+		// In parallel mode, the only Authorizer without side effects still times out
+		ReflectionTestUtils.setField(authorizerChain, "parallelEnabled", true);
+		authorizerChain.initializeAuthorizers();
+		when(endpointAuthorizer.isCacheable()).thenReturn(false);
+		when(endpointAuthorizer.getTimeoutMs()).thenReturn(50L);
+		when(endpointAuthorizer.canUserPerformAction(any())).thenAnswer(invocation -> {
+			Thread.sleep(10000);
+			return new AuthResponse(true);
+		});
+		long start = System.currentTimeMillis();
+		response = authorizerChain.authorize(check);
+		assertTrue(System.currentTimeMillis() - start < 5000);
+		assertTrue(!response.getIsAuthSuccess());
+		assertTrue(response.getDetails().toString().contains("did not complete within 50 ms"));
+		verify(throttleAuthorizer, times(2)).canUserPerformAction(any());
+	}
+
+	/**
+	 * Tests that the chain is reordered so that the Authorizer that denies most cheaply runs first
+	 */
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testAdaptiveOrdering() {
+		ReflectionTestUtils.setField(authorizerChain, "adaptiveOrdering", true);
+		ReflectionTestUtils.setField(authorizerChain, "smoothing", 0.5);
+		when(endpointAuthorizer.isCacheable()).thenReturn(false);
+		when(endpointAuthorizer.getEstimatedCost()).thenReturn(100.0);
+		when(throttleAuthorizer.getEstimatedCost()).thenReturn(100.0);
+		authorizerChain.initializeAuthorizers();
+
+		// The throttle denies every check, so the endpoint check is wasted work
+		when(throttleAuthorizer.canUserPerformAction(any())).thenReturn(new AuthResponse(false, "Throttled"));
+		AuthorizationCheck check = new AuthorizationCheck("tester", new Permission("POST", "job"));
+		for (int i = 0; i < 10; i++) {
+			authorizerChain.authorize(check);
+		}
+		verify(endpointAuthorizer, times(10)).canUserPerformAction(any());
+		authorizerChain.reorderAuthorizers();
+		List<Map<String, Object>> order = (List<Map<String, Object>>) authorizerChain.getStatistics().get("authorizers");
+		assertTrue(order.get(0).get("name").toString().contains("ThrottleAuthorizer"));
+
+		// The endpoint check is now skipped for denied checks
+		authorizerChain.authorize(check);
+		verify(endpointAuthorizer, times(10)).canUserPerformAction(any());
+		verify(throttleAuthorizer, times(11)).canUserPerformAction(any());
+	}
+
+	/**
+	 * Tests that an Authorizer with side effects only runs for checks every other Authorizer permits
+	 */
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testSideEffectsLast() {
+		ReflectionTestUtils.setField(authorizerChain, "adaptiveOrdering", true);
+		ReflectionTestUtils.setField(authorizerChain, "parallelEnabled", true);
+		ReflectionTestUtils.setField(authorizerChain, "smoothing", 0.5);
+		when(throttleAuthorizer.hasSideEffects()).thenReturn(true);
+		when(endpointAuthorizer.isCacheable()).thenReturn(false);
+		when(endpointAuthorizer.getEstimatedCost()).thenReturn(100.0);
+		when(throttleAuthorizer.getEstimatedCost()).thenReturn(1.0);
+		authorizerChain.initializeAuthorizers();
+
+		// Though the throttle is cheaper and always denies, it stays after the endpoint check
+		when(throttleAuthorizer.canUserPerformAction(any())).thenReturn(new AuthResponse(false, "Throttled"));
+		AuthorizationCheck check = new AuthorizationCheck("tester", new Permission("POST", "job"));
+		for (int i = 0; i < 10; i++) {
+			authorizerChain.authorize(check);
+		}
+		authorizerChain.reorderAuthorizers();
+		List<Map<String, Object>> order = (List<Map<String, Object>>) authorizerChain.getStatistics().get("authorizers");
+		assertTrue(order.get(1).get("name").toString().contains("ThrottleAuthorizer"));
+
+		// Checks denied by the endpoint check never reach the throttle, even in parallel mode
+		when(endpointAuthorizer.canUserPerformAction(any())).thenReturn(new AuthResponse(false, "Denied"));
+		assertEquals("Denied", authorizerChain.authorize(check).getDetails());
+		when(endpointAuthorizer.canUserPerformActions(any())).thenReturn(Arrays.asList(new AuthResponse(false, "Denied")));
+		assertEquals("Denied", authorizerChain.authorizeAll(Arrays.asList(check)).get(0).getDetails());
+		verify(throttleAuthorizer, times(10)).canUserPerformAction(any());
+		verify(throttleAuthorizer, times(0)).canUserPerformActions(any());
+	}
+}
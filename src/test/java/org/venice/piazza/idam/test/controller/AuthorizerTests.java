@@ -15,20 +15,34 @@
  **/
 package org.venice.piazza.idam.test.controller;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.when;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.venice.piazza.idam.authz.ProfileTemplateFactory;
+import org.venice.piazza.idam.authz.ProfileTemplateRegistry;
+import org.venice.piazza.idam.authz.endpoint.EndpointAuthorizer;
+import org.venice.piazza.idam.authz.endpoint.RouteTrie;
+import org.venice.piazza.idam.authz.throttle.RateLimiter;
 import org.venice.piazza.idam.authz.throttle.ThrottleAuthorizer;
-import org.venice.piazza.idam.data.DatabaseAccessor;
+import org.venice.piazza.idam.authz.throttle.ThrottleCounters;
 
 import model.response.AuthResponse;
 import model.security.authz.AuthorizationCheck;
 import model.security.authz.Permission;
+import model.security.authz.ProfileTemplate;
 import util.PiazzaLogger;
 
 /**
@@ -39,11 +53,19 @@ import util.PiazzaLogger;
  */
 public class AuthorizerTests {
 	@Mock
-	private DatabaseAccessor accessor;
+	private ThrottleCounters throttleCounters;
+	@Mock
+	private RateLimiter rateLimiter;
+	@Mock
+	private ProfileTemplateFactory profileTemplateFactory;
+	@Mock
+	private ProfileTemplateRegistry profileTemplateRegistry;
 	@Mock
 	private PiazzaLogger pzLogger;
 	@InjectMocks
 	private ThrottleAuthorizer throttleAuthorizer;
+	@InjectMocks
+	private EndpointAuthorizer endpointAuthorizer;
 
 	/**
 	 * Initialize mock objects.
@@ -51,6 +73,7 @@ public class AuthorizerTests {
 	@Before
 	public void setup() {
 		MockitoAnnotations.initMocks(this);
+		when(rateLimiter.tryAcquire("tester", model.security.authz.Throttle.Component.JOB)).thenReturn(true);
 	}
 
 	/**
@@ -71,7 +94,7 @@ public class AuthorizerTests {
 		assertTrue(response.isAuthSuccess.equals(true));
 
 		// Test POST methods where the user is not throttled.
-		when(accessor.getInvocationsForUserThrottle("tester", model.security.authz.Throttle.Component.JOB)).thenReturn(new Integer(5));
+		when(throttleCounters.getInvocations("tester", model.security.authz.Throttle.Component.JOB)).thenReturn(5L);
 		mockCheck.setAction(new Permission("POST", "data"));
 		response = throttleAuthorizer.canUserPerformAction(mockCheck);
 		assertTrue(response.isAuthSuccess.equals(true));
@@ -80,12 +103,114 @@ public class AuthorizerTests {
 		assertTrue(response.isAuthSuccess.equals(true));
 
 		// Test Jobs where the user is throttled due to excessive Jobs
-		when(accessor.getInvocationsForUserThrottle("tester", model.security.authz.Throttle.Component.JOB))
-				.thenReturn(new Integer(10000000));
+		when(throttleCounters.getInvocations("tester", model.security.authz.Throttle.Component.JOB)).thenReturn(10000000L);
 		mockCheck.setAction(new Permission("POST", "data"));
 		response = throttleAuthorizer.canUserPerformAction(mockCheck);
 		assertTrue(response.isAuthSuccess.equals(false));
 		assertTrue(response.getDetails().toString().contains("exceeded"));
+
+		// Test Jobs where the user is within the daily limit, but over the rate limit
+		when(throttleCounters.getInvocations("tester", model.security.authz.Throttle.Component.JOB)).thenReturn(5L);
+		when(rateLimiter.tryAcquire("tester", model.security.authz.Throttle.Component.JOB)).thenReturn(false);
+		response = throttleAuthorizer.canUserPerformAction(mockCheck);
+		assertTrue(response.isAuthSuccess.equals(false));
+		assertTrue(response.getDetails().toString().contains("Rate"));
+	}
+
+	/**
+	 * Tests throttling for a group of checks
+	 */
+	@Test
+	public void testThrottlingAuthorizerBatch() {
+		when(throttleCounters.getInvocations("tester", model.security.authz.Throttle.Component.JOB)).thenReturn(10000000L);
+		List<AuthorizationCheck> checks = Arrays.asList(new AuthorizationCheck("tester", new Permission("POST", "data")),
+				new AuthorizationCheck("tester", new Permission("GET", "data")),
+				new AuthorizationCheck("tester", new Permission("POST", "job")));
+
+		List<AuthResponse> responses = throttleAuthorizer.canUserPerformActions(checks);
+
+		assertTrue(responses.size() == 3);
+		assertTrue(responses.get(0).isAuthSuccess.equals(false));
+		assertTrue(responses.get(1).isAuthSuccess.equals(true));
+		assertTrue(responses.get(2).isAuthSuccess.equals(false));
+	}
+
+	/**
+	 * Tests matching requests against compiled routes
+	 */
+	@Test
+	public void testRouteTrie() {
+		RouteTrie routes = RouteTrie.compile(Arrays.asList("GET data", "GET data/me", "POST data/file", "DELETE deployment/group", "bogus"));
+		assertEquals(4, routes.getRouteCount());
+		int getData = routes.getRouteId("GET data");
+		int getDataMe = routes.getRouteId("GET data/me");
+		assertTrue(getData >= 0 && getDataMe >= 0 && getData != getDataMe);
+
+		// Longest prefix wins, regardless of slashes and method case
+		assertEquals(getData, routes.match("GET", "data"));
+		assertEquals(getData, routes.match("get", "/data/1234/"));
+		assertEquals(getDataMe, routes.match("GET", "data/me"));
+		assertEquals(routes.getRouteId("POST data/file"), routes.match("POST", "data/file"));
+		assertEquals(routes.getRouteId("DELETE deployment/group"), routes.match("DELETE", "deployment//group/5678"));
+
+		// No route
+		assertEquals(-1, routes.match("POST", "data"));
+		assertEquals(-1, routes.match("DELETE", "deployment"));
+		assertEquals(-1, routes.match("PATCH", "data"));
+		assertEquals(-1, routes.getRouteId("bogus"));
 	}
 
+	/**
+	 * Tests endpoint permission checks against the user's template
+	 */
+	@Test
+	public void testEndpointAuthorizer() throws Exception {
+		Map<String, Boolean> permissions = new HashMap<>();
+		permissions.put("GET data", true);
+		permissions.put("GET data/me", false);
+		permissions.put("POST data", true);
+		ProfileTemplate template = new ProfileTemplate();
+		template.setPermissions(permissions);
+		Map<String, Boolean> otherPermissions = Collections.singletonMap("DELETE data", true);
+		ProfileTemplate otherTemplate = new ProfileTemplate();
+		otherTemplate.setPermissions(otherPermissions);
+		Map<String, ProfileTemplate> templates = new HashMap<>();
+		templates.put("admin", template);
+		templates.put("other", otherTemplate);
+		when(profileTemplateRegistry.getTemplates()).thenReturn(templates);
+		when(profileTemplateFactory.getProfileTemplateForUser("tester")).thenReturn(template);
+
+		AuthorizationCheck mockCheck = new AuthorizationCheck("tester", new Permission("GET", "data/1234"));
+		assertTrue(endpointAuthorizer.canUserPerformAction(mockCheck).isAuthSuccess.equals(true));
+		mockCheck.setAction(new Permission("POST", "data"));
+		assertTrue(endpointAuthorizer.canUserPerformAction(mockCheck).isAuthSuccess.equals(true));
+
+		// Explicitly denied, and not granted by this template
+		mockCheck.setAction(new Permission("GET", "data/me"));
+		assertTrue(endpointAuthorizer.canUserPerformAction(mockCheck).isAuthSuccess.equals(false));
+		mockCheck.setAction(new Permission("DELETE", "data/1234"));
+		assertTrue(endpointAuthorizer.canUserPerformAction(mockCheck).isAuthSuccess.equals(false));
+
+		// Unknown endpoints
+		mockCheck.setAction(new Permission("GET", "unknown"));
+		assertTrue(endpointAuthorizer.canUserPerformAction(mockCheck).isAuthSuccess.equals(false));
+		ReflectionTestUtils.setField(endpointAuthorizer, "unknownEndpointsAllowed", true);
+		assertTrue(endpointAuthorizer.canUserPerformAction(mockCheck).isAuthSuccess.equals(true));
+
+		// Incomplete actions are denied rather than failing
+		mockCheck.setAction(new Permission(null, "data/1234"));
+		assertTrue(endpointAuthorizer.canUserPerformAction(mockCheck).isAuthSuccess.equals(false));
+		mockCheck.setAction(new Permission("GET", null));
+		assertTrue(endpointAuthorizer.canUserPerformAction(mockCheck).isAuthSuccess.equals(false));
+
+		// Reloaded templates are compiled again
+		Map<String, ProfileTemplate> reloadedTemplates = new HashMap<>(templates);
+		ProfileTemplate reloadedTemplate = new ProfileTemplate();
+		reloadedTemplate.setPermissions(Collections.singletonMap("DELETE data", true));
+		reloadedTemplates.put("admin", reloadedTemplate);
+		when(profileTemplateRegistry.getTemplates()).thenReturn(reloadedTemplates);
+		when(profileTemplateFactory.getProfileTemplateForUser("tester")).thenReturn(reloadedTemplate);
+		mockCheck.setAction(new Permission("DELETE", "data/1234"));
+		assertTrue(endpointAuthorizer.canUserPerformAction(mockCheck).isAuthSuccess.equals(true));
+	}
 }
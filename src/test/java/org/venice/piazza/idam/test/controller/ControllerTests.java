@@ -29,31 +29,44 @@ import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
 import org.springframework.core.env.Environment;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
-import org.springframework.mock.web.MockHttpServletResponse;
 import org.springframework.mock.web.MockHttpSession;
+import org.springframework.test.util.ReflectionTestUtils;
 import org.springframework.web.client.HttpClientErrorException;
 import org.springframework.web.client.RestTemplate;
-import org.springframework.web.servlet.view.RedirectView;
+import org.venice.piazza.idam.authn.CertificateDecisionCache;
 import org.venice.piazza.idam.authn.PiazzaAuthenticator;
+import org.venice.piazza.idam.authz.AuthorizationDecisionCache;
+import org.venice.piazza.idam.authz.AuthorizerChain;
+import org.venice.piazza.idam.authz.ProfileTemplateRegistry;
 import org.venice.piazza.idam.authz.endpoint.EndpointAuthorizer;
+import org.venice.piazza.idam.authz.throttle.RateLimiter;
 import org.venice.piazza.idam.authz.throttle.ThrottleAuthorizer;
 import org.venice.piazza.idam.controller.AdminController;
 import org.venice.piazza.idam.controller.AuthController;
+import org.venice.piazza.idam.data.ApiKeyCache;
 import org.venice.piazza.idam.data.DatabaseAccessor;
 import org.venice.piazza.idam.model.GxOAuthResponse;
 import org.venice.piazza.idam.util.GxOAuthClient;
+import org.venice.piazza.idam.util.GxRequestExecutor;
 import util.PiazzaLogger;
 import util.UUIDFactory;
 
 import javax.servlet.http.HttpServletRequest;
-import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
 import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
@@ -81,6 +94,16 @@ public class ControllerTests {
     private EndpointAuthorizer endpointAuthorizer;
     @Mock
     private GxOAuthClient oAuthClient;
+    @Mock
+    private ApiKeyCache apiKeyCache;
+    @Mock
+    private ProfileTemplateRegistry profileTemplateRegistry;
+    @Mock
+    private AuthorizationDecisionCache authorizationDecisionCache;
+    @Mock
+    private CertificateDecisionCache certificateDecisionCache;
+    @Mock
+    private RateLimiter rateLimiter;
 
     @InjectMocks
     private AdminController adminController;
@@ -93,6 +116,23 @@ public class ControllerTests {
     @Before
     public void setup() {
         MockitoAnnotations.initMocks(this);
+        ReflectionTestUtils.setField(authenticationController, "authBatchMaxSize", 500);
+
+        // Run the GeoAxis requests on a real pool
+        GxRequestExecutor gxRequestExecutor = new GxRequestExecutor();
+        ReflectionTestUtils.setField(gxRequestExecutor, "threads", 2);
+        ReflectionTestUtils.setField(gxRequestExecutor, "queueSize", 2);
+        gxRequestExecutor.initialize();
+        ReflectionTestUtils.setField(authenticationController, "gxRequestExecutor", gxRequestExecutor);
+
+        // Run the checks through the mocked Authorizers
+        AuthorizerChain authorizerChain = new AuthorizerChain();
+        ReflectionTestUtils.setField(authorizerChain, "endpointAuthorizer", endpointAuthorizer);
+        ReflectionTestUtils.setField(authorizerChain, "throttleAuthorizer", throttleAuthorizer);
+        ReflectionTestUtils.setField(authorizerChain, "decisionCache", authorizationDecisionCache);
+        authorizerChain.initializeAuthorizers();
+        ReflectionTestUtils.setField(authenticationController, "authorizerChain", authorizerChain);
+        ReflectionTestUtils.setField(adminController, "authorizerChain", authorizerChain);
     }
 
     /**
@@ -107,8 +147,28 @@ public class ControllerTests {
     @Test
     public void testGetAdminStats() {
         when(env.getActiveProfiles()).thenReturn(new String[]{"geoaxis"});
-        String result = adminController.getAdminStats();
-        assertTrue("{ \"profiles\":\"geoaxis\" }".equals(result));
+        when(apiKeyCache.getStatistics()).thenReturn(Collections.singletonMap("hits", 5L));
+        when(profileTemplateRegistry.getStatistics()).thenReturn(Collections.singletonMap("templateCount", 1));
+        when(authorizationDecisionCache.getStatistics()).thenReturn(Collections.singletonMap("hits", 3L));
+        when(rateLimiter.getStatistics()).thenReturn(Collections.singletonMap("tracked", 2));
+        Map<String, Object> result = adminController.getAdminStats();
+        assertTrue("geoaxis".equals(result.get("profiles")));
+        assertTrue(Collections.singletonMap("hits", 5L).equals(result.get("apiKeyCache")));
+        assertTrue(Collections.singletonMap("templateCount", 1).equals(result.get("profileTemplates")));
+        assertTrue(Collections.singletonMap("hits", 3L).equals(result.get("authzDecisionCache")));
+        assertNotNull(result.get("authorizerChain"));
+        assertTrue(Collections.singletonMap("tracked", 2).equals(result.get("rateLimiter")));
+    }
+
+    @Test
+    public void testRevokeCertificate() {
+        when(certificateDecisionCache.revoke("cached")).thenReturn(true);
+        assertTrue(adminController.revokeCertificate("cached").getStatusCode().equals(HttpStatus.OK));
+        assertTrue(adminController.revokeCertificate("uncached").getStatusCode().equals(HttpStatus.NOT_FOUND));
+
+        // Without certificate authentication
+        ReflectionTestUtils.setField(adminController, "certificateDecisionCache", null);
+        assertTrue(adminController.revokeCertificate("cached").getStatusCode().equals(HttpStatus.NOT_FOUND));
     }
 
     @Test
@@ -125,11 +185,10 @@ public class ControllerTests {
         // (2) Mock uuid is present in request, but missing
         Map<String, String> body = new HashMap<String, String>();
         body.put("uuid", "1234");
-        when(accessor.isApiKeyValid("1234")).thenReturn(false);
+        when(accessor.getUserProfileByValidApiKey("1234")).thenReturn(null);
 
         UserProfile mockProfile = new UserProfile();
         mockProfile.setUsername("bsmith");
-        when(accessor.getUserProfileByApiKey(Mockito.eq("1234"))).thenReturn(mockProfile);
 
         // Test
         response = authenticationController.authenticateApiKey(body);
@@ -139,8 +198,7 @@ public class ControllerTests {
         assertTrue(((AuthResponse) response.getBody()).getIsAuthSuccess().booleanValue() == false);
 
         // (3) Mock uuid is present in request, and valid
-        when(accessor.getUserProfileByApiKey(Mockito.eq("1234"))).thenReturn(mockProfile);
-        when(accessor.isApiKeyValid("1234")).thenReturn(true);
+        when(accessor.getUserProfileByValidApiKey(Mockito.eq("1234"))).thenReturn(mockProfile);
 
         // Test
         response = authenticationController.authenticateApiKey(body);
@@ -151,7 +209,7 @@ public class ControllerTests {
         assertTrue(((AuthResponse) response.getBody()).getUserProfile().getUsername().equals("bsmith"));
 
         // (4) Mock Exception thrown
-        when(accessor.getUserProfileByApiKey(Mockito.eq("1234"))).thenThrow(new RuntimeException("My Bad"));
+        when(accessor.getUserProfileByValidApiKey(Mockito.eq("1234"))).thenThrow(new RuntimeException("My Bad"));
         Mockito.doNothing().when(logger).log(Mockito.anyString(), Mockito.any());
 
         // Test
@@ -163,13 +221,45 @@ public class ControllerTests {
     }
 
     @Test
-    public void testRetrieveUUID() {
+    public void testAuthenticateUsersByUUIDs() {
+        // (1) Mock uuids are missing
+        ResponseEntity<List<AuthResponse>> response = authenticationController.authenticateApiKeys(new HashMap<String, List<String>>());
+        assertTrue(response.getStatusCode().equals(HttpStatus.BAD_REQUEST));
+
+        // (2) Mock too many uuids
+        ReflectionTestUtils.setField(authenticationController, "authBatchMaxSize", 1);
+        Map<String, List<String>> body = new HashMap<String, List<String>>();
+        body.put("uuids", Arrays.asList("1234", "5678", null));
+        response = authenticationController.authenticateApiKeys(body);
+        assertTrue(response.getStatusCode().equals(HttpStatus.BAD_REQUEST));
+
+        // (3) Mock one valid, one invalid and one null uuid. Responses are in request order.
+        ReflectionTestUtils.setField(authenticationController, "authBatchMaxSize", 500);
+        UserProfile mockProfile = new UserProfile();
+        mockProfile.setUsername("bsmith");
+        when(accessor.getUserProfilesByValidApiKeys(body.get("uuids"))).thenReturn(Collections.singletonMap("5678", mockProfile));
+        response = authenticationController.authenticateApiKeys(body);
+        assertTrue(response.getStatusCode().equals(HttpStatus.OK));
+        assertTrue(response.getBody().size() == 3);
+        assertTrue(response.getBody().get(0).getIsAuthSuccess().booleanValue() == false);
+        assertTrue(response.getBody().get(1).getIsAuthSuccess().booleanValue());
+        assertTrue(response.getBody().get(1).getUserProfile().getUsername().equals("bsmith"));
+        assertTrue(response.getBody().get(2).getIsAuthSuccess().booleanValue() == false);
+
+        // (4) Mock Exception thrown
+        when(accessor.getUserProfilesByValidApiKeys(body.get("uuids"))).thenThrow(new RuntimeException("My Bad"));
+        response = authenticationController.authenticateApiKeys(body);
+        assertTrue(response.getStatusCode().equals(HttpStatus.INTERNAL_SERVER_ERROR));
+    }
+
+    @Test
+    public void testRetrieveUUID() throws Exception {
 
         // (1) Mock - Header is missing
         when(request.getHeader("Authorization")).thenReturn(null);
 
         // Test
-        ResponseEntity<PiazzaResponse> response = authenticationController.generateApiKey();
+        ResponseEntity<PiazzaResponse> response = authenticationController.generateApiKey().get();
 
         // Verify
         assertTrue(response.getBody() instanceof ErrorResponse);
@@ -182,7 +272,7 @@ public class ControllerTests {
         when(piazzaAuthenticator.getAuthenticationDecision("testuser", "testpass")).thenReturn(new AuthResponse(false, mockProfile));
 
         // Test
-        response = authenticationController.generateApiKey();
+        response = authenticationController.generateApiKey().get();
 
         // Verify
         assertTrue(response.getBody() instanceof ErrorResponse);
@@ -194,7 +284,7 @@ public class ControllerTests {
         Mockito.doNothing().when(accessor).createApiKey("testuser", "1234");
 
         // Test
-        response = authenticationController.generateApiKey();
+        response = authenticationController.generateApiKey().get();
 
         // Verify
         assertTrue(response.getBody() instanceof UUIDResponse);
@@ -205,7 +295,7 @@ public class ControllerTests {
         Mockito.doNothing().when(accessor).updateApiKey("testuser", "1234");
 
         // Test
-        response = authenticationController.generateApiKey();
+        response = authenticationController.generateApiKey().get();
 
         // Verify
         assertTrue(response.getBody() instanceof UUIDResponse);
@@ -221,7 +311,7 @@ public class ControllerTests {
         Mockito.doNothing().when(accessor).updateApiKey("testuser", "1234");
 
         // Test
-        response = authenticationController.generateApiKey();
+        response = authenticationController.generateApiKey().get();
 
         // Verify
         assertTrue(response.getBody() instanceof UUIDResponse);
@@ -233,7 +323,7 @@ public class ControllerTests {
         Mockito.doNothing().when(logger).log(Mockito.anyString(), Mockito.any());
 
         // Test
-        response = authenticationController.generateApiKey();
+        response = authenticationController.generateApiKey().get();
 
         // Verify
         assertTrue(response.getBody() instanceof ErrorResponse);
@@ -241,10 +331,10 @@ public class ControllerTests {
     }
 
     @Test
-    public void testGetExistingApiKey() {
+    public void testGetExistingApiKey() throws Exception {
         // (1) Mock - Header is missing
         when(request.getHeader("Authorization")).thenReturn(null);
-        ResponseEntity<PiazzaResponse> response = authenticationController.getExistingApiKey();
+        ResponseEntity<PiazzaResponse> response = authenticationController.getExistingApiKey().get();
         assertTrue(response.getBody() instanceof ErrorResponse);
 
         // (2) Mock - Header present, Auth fails. Username/Password
@@ -252,13 +342,13 @@ public class ControllerTests {
         UserProfile mockProfile = new UserProfile();
         mockProfile.setUsername("testuser");
         when(piazzaAuthenticator.getAuthenticationDecision("testuser", "testpass")).thenReturn(new AuthResponse(false, mockProfile));
-        response = authenticationController.getExistingApiKey();
+        response = authenticationController.getExistingApiKey().get();
         assertTrue(response.getBody() instanceof ErrorResponse);
 
         // (3) Mock - Header present, Username/Password works, return Existing Key
         when(piazzaAuthenticator.getAuthenticationDecision("testuser", "testpass")).thenReturn(new AuthResponse(true, mockProfile));
         when(accessor.getApiKey("testuser")).thenReturn("1234");
-        response = authenticationController.getExistingApiKey();
+        response = authenticationController.getExistingApiKey().get();
         assertTrue(response.getBody() instanceof UUIDResponse);
         assertTrue(((UUIDResponse) (response.getBody())).getUuid().equals("1234"));
 
@@ -268,17 +358,17 @@ public class ControllerTests {
         when(piazzaAuthenticator.getAuthenticationDecision("-----BEGIN CERTIFICATE----- pemTest -----END CERTIFICATE-----"))
                 .thenReturn(new AuthResponse(true, mockProfile));
         when(accessor.getApiKey("testuser")).thenReturn("1234");
-        response = authenticationController.getExistingApiKey();
+        response = authenticationController.getExistingApiKey().get();
         assertTrue(response.getBody() instanceof UUIDResponse);
         assertTrue(((UUIDResponse) (response.getBody())).getUuid().equals("1234"));
 
         // (5) Exception Handling
         when(request.getHeader("Authorization")).thenReturn("bogusheader");
-        response = authenticationController.getExistingApiKey();
+        response = authenticationController.getExistingApiKey().get();
         assertTrue(response.getBody() instanceof ErrorResponse);
 
         when(request.getHeader(anyString())).thenThrow(new RuntimeException());
-        this.authenticationController.getExistingApiKey();
+        this.authenticationController.getExistingApiKey().get();
     }
 
     @Test
@@ -291,16 +381,78 @@ public class ControllerTests {
     }
 
     @Test
-    public void testGenerateApiKey() {
-        ResponseEntity<PiazzaResponse> resp = this.authenticationController.generateApiKeyV2();
+    public void testGenerateApiKey() throws Exception {
+        ResponseEntity<PiazzaResponse> resp = this.authenticationController.generateApiKeyV2().get();
         assertNotNull(resp);
     }
 
     @Test
-    public void testAuthorizationEndpoint() {
-        // Initialize Authorizers
-        authenticationController.initializeAuthorizers();
+    public void testApiKeyRequestsAtCapacity() throws Exception {
+        GxRequestExecutor gxRequestExecutor = new GxRequestExecutor();
+        ReflectionTestUtils.setField(gxRequestExecutor, "threads", 1);
+        ReflectionTestUtils.setField(gxRequestExecutor, "queueSize", 1);
+        gxRequestExecutor.initialize();
+        ReflectionTestUtils.setField(authenticationController, "gxRequestExecutor", gxRequestExecutor);
+
+        // Hold the only GeoAxis request thread until released
+        CountDownLatch release = new CountDownLatch(1);
+        UserProfile mockProfile = new UserProfile();
+        mockProfile.setUsername("testuser");
+        when(request.getHeader("Authorization")).thenReturn("Basic dGVzdHVzZXI6dGVzdHBhc3M=");
+        when(piazzaAuthenticator.getAuthenticationDecision("testuser", "testpass")).thenAnswer(invocation -> {
+            release.await();
+            return new AuthResponse(true, mockProfile);
+        });
+        when(uuidFactory.getUUID()).thenReturn("1234");
 
+        // The handler returns before GeoAxis answers; once the pool and its queue are full, requests fail fast
+        CompletableFuture<ResponseEntity<PiazzaResponse>> running = authenticationController.generateApiKey();
+        CompletableFuture<ResponseEntity<PiazzaResponse>> queued = authenticationController.generateApiKey();
+        ResponseEntity<PiazzaResponse> rejected = authenticationController.generateApiKey().get();
+        assertTrue(rejected.getStatusCode().equals(HttpStatus.SERVICE_UNAVAILABLE));
+        assertFalse(running.isDone());
+        assertEquals(1L, gxRequestExecutor.getStatistics().get("rejected"));
+
+        release.countDown();
+        assertTrue(running.get().getStatusCode().equals(HttpStatus.CREATED));
+        assertTrue(queued.get().getStatusCode().equals(HttpStatus.CREATED));
+        gxRequestExecutor.shutdown();
+    }
+
+    @Test
+    public void testApiKeyRequestsExpireInQueue() throws Exception {
+        GxRequestExecutor gxRequestExecutor = new GxRequestExecutor();
+        ReflectionTestUtils.setField(gxRequestExecutor, "threads", 1);
+        ReflectionTestUtils.setField(gxRequestExecutor, "queueSize", 1);
+        ReflectionTestUtils.setField(gxRequestExecutor, "requestTimeoutMs", 50L);
+        gxRequestExecutor.initialize();
+        ReflectionTestUtils.setField(authenticationController, "gxRequestExecutor", gxRequestExecutor);
+
+        // Hold the only GeoAxis request thread until released
+        CountDownLatch release = new CountDownLatch(1);
+        UserProfile mockProfile = new UserProfile();
+        mockProfile.setUsername("testuser");
+        when(request.getHeader("Authorization")).thenReturn("Basic dGVzdHVzZXI6dGVzdHBhc3M=");
+        when(piazzaAuthenticator.getAuthenticationDecision("testuser", "testpass")).thenAnswer(invocation -> {
+            release.await();
+            return new AuthResponse(true, mockProfile);
+        });
+        when(uuidFactory.getUUID()).thenReturn("1234");
+
+        // A request still queued when it times out is dropped, without minting a key for a caller that has given up
+        CompletableFuture<ResponseEntity<PiazzaResponse>> running = authenticationController.generateApiKey();
+        CompletableFuture<ResponseEntity<PiazzaResponse>> queued = authenticationController.generateApiKey();
+        Thread.sleep(100);
+        release.countDown();
+        assertTrue(running.get().getStatusCode().equals(HttpStatus.CREATED));
+        assertTrue(queued.get().getStatusCode().equals(HttpStatus.SERVICE_UNAVAILABLE));
+        Mockito.verify(uuidFactory, Mockito.times(1)).getUUID();
+        assertEquals(1L, gxRequestExecutor.getStatistics().get("expired"));
+        gxRequestExecutor.shutdown();
+    }
+
+    @Test
+    public void testAuthorizationEndpoint() {
         // 1 - Test Invalid Input: Missing username.
         AuthorizationCheck authorizationCheck = new AuthorizationCheck(null, new Permission("GET", "data"));
         ResponseEntity<AuthResponse> response = authenticationController.authenticateAndAuthorize(authorizationCheck);
@@ -345,10 +497,70 @@ public class ControllerTests {
     }
 
     @Test
-    public void testLogin() {
+    public void testAuthorizationBatchEndpoint() {
+        // 1 - Test Invalid Input: Missing list, and too many checks.
+        ResponseEntity<List<AuthResponse>> response = authenticationController.authenticateAndAuthorizeBatch(null);
+        assertTrue(response.getStatusCode().equals(HttpStatus.BAD_REQUEST));
+        ReflectionTestUtils.setField(authenticationController, "authBatchMaxSize", 1);
+        List<AuthorizationCheck> authorizationChecks = Arrays.asList(new AuthorizationCheck("testerA", new Permission("GET", "data")),
+                new AuthorizationCheck("testerA", new Permission("POST", "job")));
+        response = authenticationController.authenticateAndAuthorizeBatch(authorizationChecks);
+        assertTrue(response.getStatusCode().equals(HttpStatus.BAD_REQUEST));
+        ReflectionTestUtils.setField(authenticationController, "authBatchMaxSize", 500);
+
+        // 2 - Mock checks: two by username, one by valid key, one by invalid key, one by mismatched key, one missing both.
+        AuthorizationCheck keyCheck = new AuthorizationCheck(null, new Permission("GET", "data"));
+        keyCheck.setApiKey("testerBApiKey");
+        AuthorizationCheck invalidKeyCheck = new AuthorizationCheck(null, new Permission("GET", "data"));
+        invalidKeyCheck.setApiKey("invalidApiKey");
+        AuthorizationCheck mismatchedKeyCheck = new AuthorizationCheck("testerA", new Permission("GET", "data"));
+        mismatchedKeyCheck.setApiKey("testerBApiKey");
+        authorizationChecks = Arrays.asList(new AuthorizationCheck("testerA", new Permission("GET", "data")), keyCheck,
+                new AuthorizationCheck("testerA", new Permission("POST", "job")), invalidKeyCheck, mismatchedKeyCheck,
+                new AuthorizationCheck(null, new Permission("GET", "data")));
+        UserProfile profileA = new UserProfile();
+        profileA.setUsername("testerA");
+        UserProfile profileB = new UserProfile();
+        profileB.setUsername("testerB");
+        when(accessor.getUserProfilesByValidApiKeys(any())).thenReturn(Collections.singletonMap("testerBApiKey", profileB));
+        when(accessor.getUserProfilesByUsernames(any())).thenReturn(Collections.singletonMap("testerA", profileA));
+        when(endpointAuthorizer.canUserPerformActions(any())).thenAnswer(invocation -> {
+            List<?> checks = (List<?>) invocation.getArguments()[0];
+            return Collections.nCopies(checks.size(), new AuthResponse(true));
+        });
+        // Deny the Job of testerA
+        when(throttleAuthorizer.canUserPerformActions(any())).thenAnswer(invocation -> {
+            List<?> checks = (List<?>) invocation.getArguments()[0];
+            return checks.size() == 2 ? Arrays.asList(new AuthResponse(true), new AuthResponse(false, "Bad Stuff"))
+                    : Collections.nCopies(checks.size(), new AuthResponse(true));
+        });
+        response = authenticationController.authenticateAndAuthorizeBatch(authorizationChecks);
+
+        // Ensure per-check results, in request order
+        assertTrue(response.getStatusCode().equals(HttpStatus.OK));
+        assertTrue(response.getBody().size() == 6);
+        assertTrue(response.getBody().get(0).getIsAuthSuccess().equals(true));
+        assertTrue(response.getBody().get(0).getUserProfile().getUsername().equals("testerA"));
+        assertTrue(response.getBody().get(1).getIsAuthSuccess().equals(true));
+        assertTrue(response.getBody().get(1).getUserProfile().getUsername().equals("testerB"));
+        assertTrue(response.getBody().get(2).getIsAuthSuccess().equals(false));
+        assertTrue(response.getBody().get(2).getDetails().toString().contains("Bad Stuff"));
+        assertTrue(response.getBody().get(3).getIsAuthSuccess().equals(false));
+        assertTrue(response.getBody().get(4).getIsAuthSuccess().equals(false));
+        assertTrue(response.getBody().get(5).getIsAuthSuccess().equals(false));
+        // Ensure each user's checks were evaluated as a single group
+        Mockito.verify(throttleAuthorizer, Mockito.times(2)).canUserPerformActions(any());
+
+        // 3 - Test General Exception
+        when(accessor.getUserProfilesByUsernames(any())).thenThrow(new RuntimeException("My Bad"));
+        response = authenticationController.authenticateAndAuthorizeBatch(authorizationChecks);
+        assertTrue(response.getStatusCode().equals(HttpStatus.INTERNAL_SERVER_ERROR));
+    }
+
+    @Test
+    public void testLogin() throws Exception {
 
         HttpSession httpSession = new MockHttpSession();
-        HttpServletResponse servletResponse = new MockHttpServletResponse();
 
         GxOAuthResponse respBody = new GxOAuthResponse();
         respBody.setUsername("my_username");
@@ -359,29 +571,40 @@ public class ControllerTests {
         Mockito.when(this.oAuthClient.getAccessToken(theCode, "my_redirect_uri")).thenReturn("my_access_token");
         Mockito.when(this.oAuthClient.getGxUserProfile("my_access_token")).thenReturn(profile);
         Mockito.when(this.request.getServerName()).thenReturn("my.test.domain");
+        Mockito.when(this.oAuthClient.getUiUrl(this.request)).thenReturn("https://beachfront.test.domain");
+        Mockito.when(this.uuidFactory.getUUID()).thenReturn("1234");
 
-        RedirectView errorView = this.authenticationController.oauthResponse(theCode, httpSession, servletResponse);
+        // No DN, and none can be generated
+        ResponseEntity<Void> errorResponse = this.authenticationController.oauthResponse(theCode, httpSession).get();
+        assertEquals(HttpStatus.UNAUTHORIZED, errorResponse.getStatusCode());
 
         respBody.setUid("my_uid");
         respBody.setFirstname("my_first_name");
         respBody.setLastname("my_last_name");
-        RedirectView error2 = this.authenticationController.oauthResponse(theCode, httpSession, servletResponse);
+        ResponseEntity<Void> generatedDnResponse = this.authenticationController.oauthResponse(theCode, httpSession).get();
+        assertEquals(HttpStatus.FOUND, generatedDnResponse.getStatusCode());
 
+        // The key cookie and redirect are returned as headers, for the container to write
         respBody.setDn("my_distinguished_name");
-        RedirectView goodView = this.authenticationController.oauthResponse(theCode, httpSession, servletResponse);
+        ResponseEntity<Void> goodResponse = this.authenticationController.oauthResponse(theCode, httpSession).get();
+        assertEquals(HttpStatus.FOUND, goodResponse.getStatusCode());
+        assertEquals("https://beachfront.test.domain?logged_in=true", goodResponse.getHeaders().getFirst(HttpHeaders.LOCATION));
+        assertEquals("api_key=1234; Domain=test.domain; Secure; HttpOnly", goodResponse.getHeaders().getFirst(HttpHeaders.SET_COOKIE));
     }
 
     @Test
-    public void testLoginHttpError() {
+    public void testLoginHttpError() throws Exception {
         Mockito.when(this.oAuthClient.getRedirectUri(any(HttpServletRequest.class))).thenThrow(
                 new HttpClientErrorException(HttpStatus.UNAUTHORIZED, "status_text", "The response body".getBytes(), Charset.defaultCharset()));
-        RedirectView errorView = this.authenticationController.oauthResponse("my_code", new MockHttpSession(), new MockHttpServletResponse());
+        ResponseEntity<Void> errorResponse = this.authenticationController.oauthResponse("my_code", new MockHttpSession()).get();
+        assertEquals(HttpStatus.UNAUTHORIZED, errorResponse.getStatusCode());
     }
 
     @Test
-    public void testLoginOtherException() {
+    public void testLoginOtherException() throws Exception {
         Mockito.when(this.oAuthClient.getRedirectUri(any(HttpServletRequest.class))).thenThrow(Exception.class);
-        RedirectView errorView = this.authenticationController.oauthResponse("my_code", new MockHttpSession(), new MockHttpServletResponse());
+        ResponseEntity<Void> errorResponse = this.authenticationController.oauthResponse("my_code", new MockHttpSession()).get();
+        assertEquals(HttpStatus.INTERNAL_SERVER_ERROR, errorResponse.getStatusCode());
     }
 
     @Test
@@ -16,27 +16,44 @@
 package org.venice.piazza.idam.test.controller;
 
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.when;
 
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+
+import javax.persistence.EntityManager;
+
+import org.hibernate.SQLQuery;
+import org.hibernate.Session;
 
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.InOrder;
 import org.mockito.InjectMocks;
+import org.mockito.Matchers;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
 import org.mockito.Spy;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.venice.piazza.common.hibernate.dao.ApiKeyDao;
 import org.venice.piazza.common.hibernate.dao.UserProfileDao;
 import org.venice.piazza.common.hibernate.dao.UserThrottlesDao;
 import org.venice.piazza.common.hibernate.entity.ApiKeyEntity;
 import org.venice.piazza.common.hibernate.entity.UserProfileEntity;
 import org.venice.piazza.common.hibernate.entity.UserThrottlesEntity;
+import org.venice.piazza.idam.data.ApiKeyCache;
+import org.venice.piazza.idam.data.DaemonCheckpoint;
 import org.venice.piazza.idam.data.DatabaseAccessor;
 
 import exception.InvalidInputException;
@@ -67,6 +84,18 @@ public class DatabaseAccessorTests {
 	private UserProfileDao userProfileDao;
 	@Mock
 	private UserThrottlesDao userThrottlesDao;
+	@Mock
+	private JdbcTemplate jdbcTemplate;
+	@Mock
+	private TransactionTemplate transactionTemplate;
+	@Mock
+	private EntityManager entityManager;
+	@Mock
+	private Session session;
+	@Mock
+	private SQLQuery sqlQuery;
+	@Spy
+	private ApiKeyCache apiKeyCache = new ApiKeyCache();
 
 	@Spy
 	@InjectMocks
@@ -82,6 +111,9 @@ public class DatabaseAccessorTests {
 		// These values are from the application.properties file.
 		ReflectionTestUtils.setField(this.accessor, "KEY_EXPIRATION_DURATION_MS", 31556952000L);
 		ReflectionTestUtils.setField(this.accessor, "KEY_INACTIVITY_THESHOLD_MS", 15778476000L);
+		ReflectionTestUtils.setField(this.accessor, "KEY_LAST_USED_MAX_STALENESS_MS", 300000L);
+		ReflectionTestUtils.setField(this.apiKeyCache, "maxSize", 10000);
+		ReflectionTestUtils.setField(this.apiKeyCache, "ttlMs", 60000L);
 
 		this.userProfile.setUsername(apiKey.getUsername());
 		this.userProfile.setDistinguishedName("my_dn");
@@ -94,6 +126,13 @@ public class DatabaseAccessorTests {
 		when(this.apiKeyDao.getApiKeyByUuid(apiKey.getUuid())).thenReturn(this.apiKeyEntity);
 
 		when(this.userProfileDao.getUserProfileByUserName(this.userProfile.getUsername())).thenReturn(this.userProfileEntity);
+
+		when(this.entityManager.unwrap(Session.class)).thenReturn(this.session);
+		when(this.session.createSQLQuery(anyString())).thenReturn(this.sqlQuery);
+		when(this.sqlQuery.addEntity(anyString(), any(Class.class))).thenReturn(this.sqlQuery);
+		when(this.sqlQuery.setParameter(anyString(), any())).thenReturn(this.sqlQuery);
+		when(this.sqlQuery.setParameterList(anyString(), any(Collection.class))).thenReturn(this.sqlQuery);
+		when(this.sqlQuery.addEntity(any(Class.class))).thenReturn(this.sqlQuery);
 		when(this.userProfileDao.getUserProfileByUserNameAndDn(this.userProfile.getUsername(), this.userProfile.getDistinguishedName()))
 				.thenReturn(this.userProfileEntity);
 	}
@@ -141,6 +180,77 @@ public class DatabaseAccessorTests {
 		Assert.assertTrue(this.accessor.isApiKeyValid("valid_uuid"));
 	}
 
+	@Test
+	public void testIsApiKeyValidCached() throws InvalidInputException {
+		apiKey.setLastUsedOn(System.currentTimeMillis() - 1000);
+		apiKey.setExpiresOn(System.currentTimeMillis() + (1000 * 60));
+
+		// First check loads the key, subsequent checks are served from the cache
+		Assert.assertTrue(this.accessor.isApiKeyValid("valid_uuid"));
+		Assert.assertTrue(this.accessor.isApiKeyValid("valid_uuid"));
+		Assert.assertEquals("valid_username", this.accessor.getUsername("valid_uuid"));
+		Mockito.verify(this.apiKeyDao, times(1)).getApiKeyByUuid("valid_uuid");
+		Assert.assertEquals(2L, this.apiKeyCache.getStatistics().get("hits"));
+
+		// Deleting the key evicts it from the cache
+		this.accessor.deleteApiKey("valid_uuid");
+		when(this.apiKeyDao.getApiKeyByUuid("valid_uuid")).thenReturn(null);
+		Assert.assertFalse(this.accessor.isApiKeyValid("valid_uuid"));
+
+		// Replacing a key evicts the previous key for that user
+		when(this.apiKeyDao.getApiKeyByUuid("valid_uuid")).thenReturn(this.apiKeyEntity);
+		Assert.assertTrue(this.accessor.isApiKeyValid("valid_uuid"));
+		this.accessor.updateApiKey("valid_username", "new_uuid");
+		Assert.assertNull(this.apiKeyCache.get("valid_uuid"));
+	}
+
+	@Test
+	public void testFlushApiKeyUsage() {
+		ReflectionTestUtils.setField(this.accessor, "KEY_LAST_USED_MAX_STALENESS_MS", 0L);
+		apiKey.setLastUsedOn(System.currentTimeMillis() - 1000);
+		apiKey.setExpiresOn(System.currentTimeMillis() + (1000 * 60));
+
+		// Validations do not write, and repeated usages of one key are coalesced into one row
+		Assert.assertTrue(this.accessor.isApiKeyValid("valid_uuid"));
+		Assert.assertTrue(this.accessor.isApiKeyValid("valid_uuid"));
+		Mockito.verify(this.apiKeyDao, times(0)).save(any(ApiKeyEntity.class));
+		Assert.assertEquals(1, this.accessor.flushApiKeyUsage());
+		Mockito.verify(this.jdbcTemplate, times(1)).batchUpdate(anyString(), anyListOf(Object[].class));
+
+		// Nothing left to flush
+		Assert.assertEquals(0, this.accessor.flushApiKeyUsage());
+
+		// Failed flushes are retried
+		Assert.assertTrue(this.accessor.isApiKeyValid("valid_uuid"));
+		when(this.jdbcTemplate.batchUpdate(anyString(), anyListOf(Object[].class))).thenThrow(new RuntimeException("Dummy batch exception."));
+		try {
+			this.accessor.flushApiKeyUsage();
+			Assert.fail("Expected the flush to fail.");
+		} catch (RuntimeException exception) {
+			Mockito.reset(this.jdbcTemplate);
+		}
+		Assert.assertEquals(1, this.accessor.flushApiKeyUsage());
+	}
+
+	@Test
+	public void testApiKeyCacheEviction() {
+		ReflectionTestUtils.setField(this.apiKeyCache, "maxSize", 2);
+		this.apiKeyCache.put(new ApiKey("uuid_1", "user_1", 1000, 1000));
+		this.apiKeyCache.put(new ApiKey("uuid_2", "user_2", 1000, 1000));
+		// Touch the first key so that the second is the least recently used
+		Assert.assertNotNull(this.apiKeyCache.get("uuid_1"));
+		this.apiKeyCache.put(new ApiKey("uuid_3", "user_3", 1000, 1000));
+
+		Assert.assertNotNull(this.apiKeyCache.get("uuid_1"));
+		Assert.assertNull(this.apiKeyCache.get("uuid_2"));
+		Assert.assertNotNull(this.apiKeyCache.get("uuid_3"));
+		Assert.assertEquals(1L, this.apiKeyCache.getStatistics().get("evictions"));
+
+		// Entries older than the TTL are not served
+		ReflectionTestUtils.setField(this.apiKeyCache, "ttlMs", -1L);
+		Assert.assertNull(this.apiKeyCache.get("uuid_1"));
+	}
+
 	@Test
 	public void testGetUsername() {
 		// Test a valid entity
@@ -191,6 +301,33 @@ public class DatabaseAccessorTests {
 		Assert.assertArrayEquals(new UserProfile[] { this.userProfile }, results.toArray());
 	}
 
+	@Test
+	public void testGetUserProfilePage() {
+		when(this.sqlQuery.list()).thenReturn(Collections.singletonList(this.userProfileEntity));
+
+		// Pages are read by keyset, after the last username of the previous page
+		List<UserProfile> results = this.accessor.getUserProfilePage("a_username", 500);
+		Assert.assertArrayEquals(new UserProfile[] { this.userProfile }, results.toArray());
+		Mockito.verify(this.sqlQuery).setParameter("after", "a_username");
+		Mockito.verify(this.sqlQuery).setParameter("limit", 500);
+		Mockito.verify(this.userProfileDao, times(0)).findAll();
+	}
+
+	@Test
+	public void testSaveDaemonCheckpoint() {
+		DaemonCheckpoint checkpoint = new DaemonCheckpoint("a_username", 1000, 2000);
+
+		// The existing checkpoint is updated in place
+		when(this.jdbcTemplate.update(Matchers.startsWith("UPDATE daemon_checkpoint"), Matchers.<Object> anyVararg())).thenReturn(1);
+		this.accessor.saveDaemonCheckpoint("a_daemon", checkpoint);
+		Mockito.verify(this.jdbcTemplate, times(0)).update(Matchers.startsWith("INSERT"), Matchers.<Object> anyVararg());
+
+		// Otherwise a new one is inserted
+		when(this.jdbcTemplate.update(Matchers.startsWith("UPDATE daemon_checkpoint"), Matchers.<Object> anyVararg())).thenReturn(0);
+		this.accessor.saveDaemonCheckpoint("a_daemon", checkpoint);
+		Mockito.verify(this.jdbcTemplate, times(1)).update(Matchers.startsWith("INSERT"), Matchers.<Object> anyVararg());
+	}
+
 	@Test
 	public void testGetUserProfilebyApiKey() {
 		// Test missing key
@@ -199,6 +336,58 @@ public class DatabaseAccessorTests {
 		Assert.assertEquals(this.userProfile, this.accessor.getUserProfileByApiKey(this.apiKey.getUuid()));
 	}
 
+	@Test
+	public void testGetUserProfileByValidApiKey() {
+		apiKey.setLastUsedOn(System.currentTimeMillis() - 1000);
+		apiKey.setExpiresOn(System.currentTimeMillis() + (1000 * 60));
+
+		// Unknown key
+		when(this.sqlQuery.list()).thenReturn(Collections.emptyList());
+		Assert.assertNull(this.accessor.getUserProfileByValidApiKey("an_invalid_key"));
+
+		// Key and Profile are read together in a single query
+		when(this.sqlQuery.list()).thenReturn(Collections.singletonList(new Object[] { this.apiKeyEntity, this.userProfileEntity }));
+		Assert.assertEquals(this.userProfile, this.accessor.getUserProfileByValidApiKey(this.apiKey.getUuid()));
+		Mockito.verify(this.apiKeyDao, times(0)).getApiKeyByUuid(anyString());
+		Mockito.verify(this.userProfileDao, times(0)).getUserProfileByUserName(anyString());
+
+		// Once cached, only the Profile is read
+		Assert.assertEquals(this.userProfile, this.accessor.getUserProfileByValidApiKey(this.apiKey.getUuid()));
+		Mockito.verify(this.session, times(2)).createSQLQuery(anyString());
+		Mockito.verify(this.userProfileDao, times(1)).getUserProfileByUserName(this.userProfile.getUsername());
+
+		// Valid key without a stored Profile
+		this.apiKeyCache.clear();
+		when(this.sqlQuery.list()).thenReturn(Collections.singletonList(new Object[] { this.apiKeyEntity, null }));
+		Assert.assertEquals(this.apiKey.getUsername(), this.accessor.getUserProfileByValidApiKey(this.apiKey.getUuid()).getUsername());
+
+		// Expired key
+		this.apiKeyCache.clear();
+		apiKey.setExpiresOn(System.currentTimeMillis() - (1000 * 60));
+		Assert.assertNull(this.accessor.getUserProfileByValidApiKey(this.apiKey.getUuid()));
+	}
+
+	@Test
+	public void testGetUserProfilesByValidApiKeys() {
+		apiKey.setLastUsedOn(System.currentTimeMillis() - 1000);
+		apiKey.setExpiresOn(System.currentTimeMillis() + (1000 * 60));
+
+		// Uncached keys are resolved together with their Profiles in one query
+		when(this.sqlQuery.list()).thenReturn(Collections.singletonList(new Object[] { this.apiKeyEntity, this.userProfileEntity }));
+		Map<String, UserProfile> results = this.accessor.getUserProfilesByValidApiKeys(Arrays.asList("valid_uuid", "invalid_uuid", null));
+		Assert.assertEquals(1, results.size());
+		Assert.assertEquals(this.userProfile, results.get("valid_uuid"));
+		Mockito.verify(this.session, times(1)).createSQLQuery(anyString());
+		Mockito.verify(this.apiKeyDao, times(0)).getApiKeyByUuid(anyString());
+
+		// Cached keys only need their Profiles, which are read in one query
+		when(this.sqlQuery.list()).thenReturn(Collections.singletonList(this.userProfileEntity));
+		results = this.accessor.getUserProfilesByValidApiKeys(Collections.singletonList("valid_uuid"));
+		Assert.assertEquals(this.userProfile, results.get("valid_uuid"));
+		Mockito.verify(this.session, times(2)).createSQLQuery(anyString());
+		Mockito.verify(this.userProfileDao, times(0)).getUserProfileByUserName(anyString());
+	}
+
 	@Test
 	public void testUpdateUserProfile() {
 		String newUsername = "my_new_username";
@@ -272,11 +461,58 @@ public class DatabaseAccessorTests {
 
 	@Test
 	public void testIncrementUserThrottles() {
-		Mockito.when(this.userThrottlesDao.getUserThrottlesByUserName(this.userProfile.getUsername())).thenReturn(this.userThrottlesEntity);
-		int startValue = this.accessor.getInvocationsForUserThrottle(this.userProfile.getUsername(), Throttle.Component.QUERY);
-		this.accessor.incrementUserThrottles(this.userProfileEntity.getUserProfile().getUsername(), Throttle.Component.QUERY);
-		int endValue = this.accessor.getInvocationsForUserThrottle(this.userProfile.getUsername(), Throttle.Component.QUERY);
-		Assert.assertEquals(startValue + 1, endValue);
+		// Existing throttles are incremented in place
+		when(this.jdbcTemplate.update(anyString(), Matchers.<Object> anyVararg())).thenReturn(1);
+		this.accessor.incrementUserThrottles(this.userProfile.getUsername(), Throttle.Component.QUERY);
+		Mockito.verify(this.jdbcTemplate, times(1)).update(anyString(), Matchers.<Object> anyVararg());
+		Mockito.verify(this.userThrottlesDao, times(0)).save(any(UserThrottlesEntity.class));
+		Mockito.verify(this.transactionTemplate, times(0)).execute(any());
+
+		// Missing throttles are created with the increment applied
+		when(this.jdbcTemplate.update(anyString(), Matchers.<Object> anyVararg())).thenReturn(0);
+		when(this.transactionTemplate.execute(any()))
+				.thenAnswer(invocation -> ((TransactionCallback<?>) invocation.getArguments()[0]).doInTransaction(null));
+		this.accessor.incrementUserThrottles("new_user", Throttle.Component.QUERY);
+		Mockito.verify(this.userThrottlesDao, times(1)).save(any(UserThrottlesEntity.class));
+		Mockito.verify(this.entityManager, times(1)).flush();
+	}
+
+	@Test
+	public void testIncrementUserThrottlesBatch() {
+		Map<String, Integer> counts = new java.util.HashMap<>();
+		counts.put("existing_user", 3);
+		counts.put("new_user", 2);
+		// Rows are updated in username order; the second user does not exist yet
+		when(this.jdbcTemplate.batchUpdate(anyString(), anyListOf(Object[].class))).thenReturn(new int[] { 1, 0 });
+		when(this.transactionTemplate.execute(any()))
+				.thenAnswer(invocation -> ((TransactionCallback<?>) invocation.getArguments()[0]).doInTransaction(null));
+
+		this.accessor.incrementUserThrottles(counts, Throttle.Component.JOB);
+
+		Mockito.verify(this.transactionTemplate, times(1)).execute(any());
+		Mockito.verify(this.jdbcTemplate, times(1)).batchUpdate(anyString(), anyListOf(Object[].class));
+		Mockito.verify(this.userThrottlesDao, times(1)).save(any(UserThrottlesEntity.class));
+	}
+
+	@Test
+	public void testIncrementUserThrottlesRechecksAfterLock() {
+		// The row is missing on the first UPDATE, but exists once the advisory lock is held
+		final String username = "late_user";
+		when(this.jdbcTemplate.update(anyString(), Matchers.<Object> anyVararg())).thenReturn(0, 1);
+		when(this.userThrottlesDao.getUserThrottlesByUserName(username)).thenReturn(this.userThrottlesEntity);
+		when(this.transactionTemplate.execute(any()))
+				.thenAnswer(invocation -> ((TransactionCallback<?>) invocation.getArguments()[0]).doInTransaction(null));
+
+		this.accessor.incrementUserThrottles(username, Throttle.Component.JOB);
+
+		// Ensure the lock is taken before the re-check, and the existing row is incremented rather than duplicated
+		InOrder inOrder = Mockito.inOrder(this.jdbcTemplate, this.userThrottlesDao);
+		inOrder.verify(this.jdbcTemplate).update(anyString(), Matchers.<Object> anyVararg());
+		inOrder.verify(this.jdbcTemplate).queryForList(anyString(), Matchers.<Object> anyVararg());
+		inOrder.verify(this.userThrottlesDao).getUserThrottlesByUserName(username);
+		inOrder.verify(this.jdbcTemplate).update(anyString(), Matchers.<Object> anyVararg());
+		Mockito.verify(this.userThrottlesDao, times(0)).save(any(UserThrottlesEntity.class));
+		Mockito.verify(this.entityManager, times(0)).flush();
 	}
 
 	@Test
@@ -25,19 +25,33 @@ import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
 import org.springframework.test.util.ReflectionTestUtils;
 import org.springframework.web.client.RestTemplate;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.util.StreamUtils;
+import org.venice.piazza.idam.authn.CertificateDecisionCache;
+import org.venice.piazza.idam.authn.CredentialDecisionCache;
+import org.venice.piazza.idam.authn.PemCertificates;
 import org.venice.piazza.idam.authn.GxAuthenticator;
+import org.venice.piazza.idam.authn.LocalCertificateValidator;
 import org.venice.piazza.idam.data.DatabaseAccessor;
 import org.venice.piazza.idam.model.*;
 import org.venice.piazza.idam.util.GxUserProfileClient;
+import org.venice.piazza.idam.util.ProfileAttributeCache;
 import sun.reflect.Reflection;
 import util.PiazzaLogger;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.cert.CertificateFactory;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.function.LongSupplier;
 
 import static org.junit.Assert.*;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.refEq;
 import static org.mockito.Mockito.when;
 
@@ -51,6 +65,12 @@ public class GxAuthTests {
     private PiazzaLogger logger;
     @Mock
     private GxUserProfileClient userProfileClient;
+    @Mock
+    private CredentialDecisionCache credentialDecisionCache;
+    @Mock
+    private CertificateDecisionCache certificateDecisionCache;
+    @Mock
+    private LocalCertificateValidator localCertificateValidator;
 
     @InjectMocks
     private GxAuthenticator gxAuthenticator;
@@ -64,6 +84,21 @@ public class GxAuthTests {
         MockitoAnnotations.initMocks(this);
 
         ReflectionTestUtils.setField(this.gxAuthenticator, "npeUsersOnly", false);
+        ReflectionTestUtils.setField(this.gxAuthenticator, "profileAttributeCache", getProfileAttributeCache());
+    }
+
+    private ProfileAttributeCache getProfileAttributeCache() {
+        ProfileAttributeCache cache = new ProfileAttributeCache();
+        ReflectionTestUtils.setField(cache, "maxSize", 10);
+        ReflectionTestUtils.setField(cache, "refreshAfterMs", 60000L);
+        ReflectionTestUtils.setField(cache, "ttlMs", 120000L);
+        ReflectionTestUtils.setField(cache, "staleIfErrorMs", 600000L);
+        ReflectionTestUtils.setField(cache, "fetchTimeoutMs", 1000L);
+        ReflectionTestUtils.setField(cache, "refreshThreads", 1);
+        ReflectionTestUtils.setField(cache, "refreshQueueSize", 10);
+        ReflectionTestUtils.setField(cache, "gxUserProfileClient", userProfileClient);
+        cache.initialize();
+        return cache;
     }
 
     @Test
@@ -77,6 +112,33 @@ public class GxAuthTests {
 
     @Test
     public void testGetAuthenticatiohnDecisionUserPassValid() {
+        AuthResponse authenticatedResponse = testGetAuthenicationDecisionUserPass(getSuccessfulGxResponse());
+        assertTrue(authenticatedResponse.getIsAuthSuccess());
+    }
+
+    @Test
+    public void testGetAuthenticationDecisionUserPassCached() {
+        CredentialDecisionCache cache = new CredentialDecisionCache();
+        ReflectionTestUtils.setField(cache, "maxSize", 10);
+        ReflectionTestUtils.setField(cache, "ttlMs", 60000L);
+        ReflectionTestUtils.setField(cache, "hashIterations", 1000);
+        ReflectionTestUtils.setField(gxAuthenticator, "credentialDecisionCache", cache);
+
+        // Repeated logins are served from the cache
+        assertTrue(testGetAuthenicationDecisionUserPass(getSuccessfulGxResponse()).getIsAuthSuccess());
+        assertTrue(gxAuthenticator.getAuthenticationDecision("bsmith", "mypass").getIsAuthSuccess());
+        Mockito.verify(restTemplate, Mockito.times(1)).postForObject(any(String.class), any(), eq(GxAuthNResponse.class));
+
+        // A different credential is checked by GeoAxis, and its failure invalidates the cached decision
+        GxAuthNResponse failedResponse = new GxAuthNResponse();
+        failedResponse.setSuccessful(false);
+        Mockito.doReturn(failedResponse).when(restTemplate).postForObject(any(String.class), any(), eq(GxAuthNResponse.class));
+        assertFalse(gxAuthenticator.getAuthenticationDecision("bsmith", "otherpass").getIsAuthSuccess());
+        assertFalse(gxAuthenticator.getAuthenticationDecision("bsmith", "mypass").getIsAuthSuccess());
+        Mockito.verify(restTemplate, Mockito.times(3)).postForObject(any(String.class), any(), eq(GxAuthNResponse.class));
+    }
+
+    private GxAuthNResponse getSuccessfulGxResponse() {
         GxAuthNResponse gxResponse = new GxAuthNResponse();
         gxResponse.setSuccessful(true);
 
@@ -97,9 +159,7 @@ public class GxAuthTests {
         ReflectionTestUtils.setField(this.gxAuthenticator, "npeUsersOnly", false);
         Mockito.when(this.userProfileClient.getUserProfileFromGx("my_uid_value", "my_dn_value"))
                 .thenReturn(new UserProfile());
-
-        AuthResponse authenticatedResponse = testGetAuthenicationDecisionUserPass(gxResponse);
-        assertTrue(authenticatedResponse.getIsAuthSuccess());
+        return gxResponse;
     }
 
     private AuthResponse testGetAuthenicationDecisionUserPass(GxAuthNResponse gxResponse) {
@@ -189,4 +249,107 @@ public class GxAuthTests {
         assertFalse(isAuthenticated);
         assertNull(profile);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testGetAuthenticationDecisionPKICached() throws IOException {
+        CertificateDecisionCache cache = new CertificateDecisionCache();
+        ReflectionTestUtils.setField(cache, "maxSize", 10);
+        ReflectionTestUtils.setField(cache, "ttlMs", 60000L);
+        ReflectionTestUtils.setField(gxAuthenticator, "certificateDecisionCache", cache);
+        ReflectionTestUtils.setField(gxAuthenticator, "gxApiUrlAtnCert", "https://geoaxis.api.com/atnrest/cert");
+
+        String pem = getNpePem();
+        UserProfile profile = new UserProfile();
+        profile.setUsername("my_uid_value");
+        profile.setDistinguishedName("my_dn_value");
+        GxAuthNResponse gxResponse = getSuccessfulGxResponse();
+        when(userProfileClient.getUserProfileFromGx("my_uid_value", "my_dn_value")).thenReturn(profile);
+        Mockito.doReturn(gxResponse).when(restTemplate).postForObject(eq("https://geoaxis.api.com/atnrest/cert"), any(),
+                eq(GxAuthNResponse.class));
+
+        // Repeated authentications of the certificate are served from the cache
+        assertTrue(gxAuthenticator.getAuthenticationDecision(pem).getIsAuthSuccess());
+        assertEquals("my_uid_value", gxAuthenticator.getAuthenticationDecision(pem).getUserProfile().getUsername());
+        Mockito.verify(restTemplate, Mockito.times(1)).postForObject(any(String.class), any(), eq(GxAuthNResponse.class));
+
+        // A revoked certificate is checked again
+        String fingerprint = PemCertificates.getFingerprint(PemCertificates.decode(pem));
+        assertTrue(cache.revoke(fingerprint.toUpperCase()));
+        assertFalse(cache.revoke(fingerprint));
+        assertTrue(gxAuthenticator.getAuthenticationDecision(pem).getIsAuthSuccess());
+        Mockito.verify(restTemplate, Mockito.times(2)).postForObject(any(String.class), any(), eq(GxAuthNResponse.class));
+        assertEquals(1, cache.revokeUser("my_uid_value"));
+
+        // Entries never outlive the certificate
+        long notAfter = 1000000L;
+        ReflectionTestUtils.setField(cache, "clock", (LongSupplier) () -> notAfter - 10);
+        cache.put(fingerprint, "my_uid_value", "my_dn_value", notAfter, new AuthResponse(true));
+        assertEquals(notAfter, cache.get(fingerprint).getExpiresOn());
+        ReflectionTestUtils.setField(cache, "clock", (LongSupplier) () -> notAfter);
+        assertNull(cache.get(fingerprint));
+    }
+
+    @Test
+    public void testGetAuthenticationDecisionPKILocal() throws IOException, GeneralSecurityException {
+        ReflectionTestUtils.setField(gxAuthenticator, "localCertificateValidator", getLocalCertificateValidator("certificates/ca.pem"));
+        ReflectionTestUtils.setField(gxAuthenticator, "gxApiUrlAtnCert", "https://geoaxis.api.com/atnrest/cert");
+        String dn = "CN=testnpe.piazza,UID=testnpe,OU=component,O=Piazza Test,C=US";
+        UserProfile profile = new UserProfile();
+        profile.setUsername("testnpe");
+        profile.setDistinguishedName(dn);
+        when(accessor.getUserProfileByUsername("testnpe")).thenReturn(profile);
+
+        // The NPE certificate chains to the trust store, so GeoAxis is not called
+        AuthResponse response = gxAuthenticator.getAuthenticationDecision(getNpePem());
+        assertTrue(response.getIsAuthSuccess());
+        assertEquals("testnpe", response.getUserProfile().getUsername());
+        Mockito.verify(restTemplate, Mockito.times(0)).postForObject(any(String.class), any(), eq(GxAuthNResponse.class));
+
+        // A certificate that does not chain to the trust store is left to GeoAxis
+        ReflectionTestUtils.setField(gxAuthenticator, "localCertificateValidator", getLocalCertificateValidator("certificates/other-ca.pem"));
+        GxAuthNResponse failedResponse = new GxAuthNResponse();
+        failedResponse.setSuccessful(false);
+        Mockito.doReturn(failedResponse).when(restTemplate).postForObject(any(String.class), any(), eq(GxAuthNResponse.class));
+        assertFalse(gxAuthenticator.getAuthenticationDecision(getNpePem()).getIsAuthSuccess());
+        Mockito.verify(restTemplate, Mockito.times(1)).postForObject(any(String.class), any(), eq(GxAuthNResponse.class));
+    }
+
+    @Test
+    public void testGetAuthenticationDecisionPKILocalDnFormats() throws IOException, GeneralSecurityException {
+        ReflectionTestUtils.setField(gxAuthenticator, "localCertificateValidator", getLocalCertificateValidator("certificates/ca.pem"));
+        UserProfile profile = new UserProfile();
+        profile.setUsername("testnpe");
+        when(accessor.getUserProfileByUsername("testnpe")).thenReturn(profile);
+
+        // The stored DN matches the RFC 2253 DN of the certificate regardless of its spacing, case and RDN order
+        for (String storedDn : Arrays.asList("cn=testnpe.piazza, uid=testnpe, ou=component, o=Piazza Test, c=US",
+                "C=US, O=Piazza Test, OU=component, UID=testnpe, CN=testnpe.piazza")) {
+            profile.setDistinguishedName(storedDn);
+            AuthResponse response = gxAuthenticator.getAuthenticationDecision(getNpePem());
+            assertTrue(response.getIsAuthSuccess());
+            assertEquals(storedDn, response.getUserProfile().getDistinguishedName());
+        }
+        Mockito.verify(userProfileClient, Mockito.times(0)).getUserProfileFromGx(any(String.class), any(String.class));
+        Mockito.verify(accessor, Mockito.times(0)).insertUserProfile(any(UserProfile.class));
+    }
+
+    private LocalCertificateValidator getLocalCertificateValidator(String trustedCertificate) throws IOException, GeneralSecurityException {
+        KeyStore trustStore = KeyStore.getInstance(KeyStore.getDefaultType());
+        trustStore.load(null, null);
+        trustStore.setCertificateEntry("ca",
+                CertificateFactory.getInstance("X.509").generateCertificate(new ClassPathResource(trustedCertificate).getInputStream()));
+        LocalCertificateValidator validator = new LocalCertificateValidator();
+        ReflectionTestUtils.setField(validator, "enabled", true);
+        ReflectionTestUtils.setField(validator, "piazzaTrustStore", trustStore);
+        validator.initialize();
+        return validator;
+    }
+
+    /**
+     * The test NPE certificate, with its lines joined by spaces as it is passed in a header
+     */
+    private String getNpePem() throws IOException {
+        return StreamUtils.copyToString(new ClassPathResource("certificates/npe.pem").getInputStream(), StandardCharsets.US_ASCII)
+                .trim().replace('\n', ' ');
+    }
+}
@@ -0,0 +1,176 @@
+/**
+ * Copyright 2016, RadiantBlue Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package org.venice.piazza.idam.test.controller;
+
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyMapOf;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.rabbit.listener.ListenerContainerIdleEvent;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.venice.piazza.idam.authz.throttle.JobConsumer;
+import org.venice.piazza.idam.authz.throttle.ThrottleCounters;
+import org.venice.piazza.idam.data.DatabaseAccessor;
+
+import com.rabbitmq.client.Channel;
+
+import model.security.authz.Throttle;
+import util.PiazzaLogger;
+
+/**
+ * Tests the consumption of Job messages into the throttles
+ */
+public class JobConsumerTests {
+	@Mock
+	private PiazzaLogger pzLogger;
+	@Mock
+	private ThrottleCounters throttleCounters;
+	@Mock
+	private DatabaseAccessor accessor;
+	@Mock
+	private Channel channel;
+	@InjectMocks
+	private JobConsumer jobConsumer;
+
+	private long deliveryTag = 0;
+	private final AtomicLong now = new AtomicLong(1000000);
+
+	/**
+	 * Initialize mock objects.
+	 */
+	@Before
+	public void setup() {
+		MockitoAnnotations.initMocks(this);
+		ReflectionTestUtils.setField(jobConsumer, "batchSize", 3);
+		ReflectionTestUtils.setField(jobConsumer, "batchTimeoutMs", 1000L);
+		ReflectionTestUtils.setField(jobConsumer, "clock", (LongSupplier) now::get);
+		when(channel.isOpen()).thenReturn(true);
+	}
+
+	private Message getJobMessage(String username) {
+		MessageProperties properties = new MessageProperties();
+		properties.setDeliveryTag(++deliveryTag);
+		return new Message(String.format("{\"createdBy\":\"%s\"}", username).getBytes(StandardCharsets.UTF_8), properties);
+	}
+
+	private ListenerContainerIdleEvent getIdleEvent() {
+		return new ListenerContainerIdleEvent(this, 1000, "throttles", "IDAMThrottles");
+	}
+
+	/**
+	 * Tests that outside of batch mode each Job increments the live counters
+	 */
+	@Test
+	public void testSingleMessage() {
+		ReflectionTestUtils.setField(jobConsumer, "batchEnabled", false);
+		jobConsumer.receiveJobMessage(getJobMessage("tester"), channel);
+		jobConsumer.receiveJobMessage(new Message("not a job".getBytes(StandardCharsets.UTF_8), new MessageProperties()), channel);
+		verify(throttleCounters, times(1)).increment("tester", Throttle.Component.JOB);
+	}
+
+	/**
+	 * Tests that a full batch is aggregated per user, written once, and then acknowledged as a whole
+	 */
+	@Test
+	public void testBatch() throws IOException {
+		ReflectionTestUtils.setField(jobConsumer, "batchEnabled", true);
+		jobConsumer.receiveJobMessage(getJobMessage("testerA"), channel);
+		jobConsumer.receiveJobMessage(getJobMessage("testerB"), channel);
+		verify(accessor, never()).incrementUserThrottles(anyMapOf(String.class, Integer.class), eq(Throttle.Component.JOB));
+		verify(channel, never()).basicAck(anyLong(), anyBoolean());
+
+		jobConsumer.receiveJobMessage(getJobMessage("testerA"), channel);
+		Map<String, Integer> counts = new HashMap<>();
+		counts.put("testerA", 2);
+		counts.put("testerB", 1);
+		verify(accessor, times(1)).incrementUserThrottles(counts, Throttle.Component.JOB);
+		verify(channel, times(1)).basicAck(3, true);
+		verify(throttleCounters, never()).increment("testerA", Throttle.Component.JOB);
+
+		// A partial batch is written once its container is idle
+		jobConsumer.receiveJobMessage(getJobMessage("testerB"), channel);
+		jobConsumer.onContainerIdle(getIdleEvent());
+		verify(accessor, times(1)).incrementUserThrottles(Collections.singletonMap("testerB", 1), Throttle.Component.JOB);
+		verify(channel, times(1)).basicAck(4, true);
+	}
+
+	/**
+	 * Tests that a batch whose write fails is requeued rather than acknowledged
+	 */
+	@Test
+	public void testBatchFailure() throws IOException {
+		ReflectionTestUtils.setField(jobConsumer, "batchEnabled", true);
+		doThrow(new RuntimeException("Database down")).when(accessor)
+				.incrementUserThrottles(anyMapOf(String.class, Integer.class), eq(Throttle.Component.JOB));
+		jobConsumer.receiveJobMessage(getJobMessage("tester"), channel);
+		jobConsumer.onContainerIdle(getIdleEvent());
+		verify(channel, never()).basicAck(anyLong(), anyBoolean());
+		verify(channel, times(1)).basicNack(1, true, true);
+	}
+
+	/**
+	 * Tests that a partial batch is written by the next message after the batch timeout, on the consumer thread
+	 */
+	@Test
+	public void testBatchTimeout() throws IOException {
+		ReflectionTestUtils.setField(jobConsumer, "batchEnabled", true);
+		jobConsumer.receiveJobMessage(getJobMessage("tester"), channel);
+		now.addAndGet(999);
+		jobConsumer.receiveJobMessage(getJobMessage("tester"), channel);
+		verify(channel, never()).basicAck(anyLong(), anyBoolean());
+		now.addAndGet(1);
+		jobConsumer.receiveJobMessage(getJobMessage("tester"), channel);
+		verify(accessor, times(1)).incrementUserThrottles(Collections.singletonMap("tester", 3), Throttle.Component.JOB);
+		verify(channel, times(1)).basicAck(3, true);
+	}
+
+	/**
+	 * Tests that the channel of a batch is never used from a thread other than the consumer that received it
+	 */
+	@Test
+	public void testBatchOwnedByConsumerThread() throws Exception {
+		ReflectionTestUtils.setField(jobConsumer, "batchEnabled", true);
+		Thread consumer = new Thread(() -> jobConsumer.receiveJobMessage(getJobMessage("tester"), channel));
+		consumer.start();
+		consumer.join();
+
+		// An idle event published by another container thread leaves the batch alone
+		jobConsumer.onContainerIdle(getIdleEvent());
+		verify(accessor, never()).incrementUserThrottles(anyMapOf(String.class, Integer.class), eq(Throttle.Component.JOB));
+		verify(channel, never()).basicAck(anyLong(), anyBoolean());
+	}
+}
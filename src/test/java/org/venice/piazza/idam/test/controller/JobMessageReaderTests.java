@@ -0,0 +1,66 @@
+/**
+ * Copyright 2016, RadiantBlue Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package org.venice.piazza.idam.test.controller;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+
+import org.junit.Test;
+import org.venice.piazza.idam.authz.throttle.JobMessageReader;
+
+/**
+ * Tests reading the throttling fields of Job messages
+ */
+public class JobMessageReaderTests {
+	private JobMessageReader jobMessageReader = new JobMessageReader();
+
+	/**
+	 * Tests reading the creator and type, skipping nested content and fields in any order
+	 */
+	@Test
+	public void testRead() throws IOException {
+		JobMessageReader.JobFields jobFields = jobMessageReader.read("{\"jobId\":\"123\",\"jobType\":{\"data\":{\"createdBy\":\"nested\","
+				+ "\"type\":\"text\",\"values\":[1,{\"type\":\"x\"}]},\"type\":\"ingest\"},\"createdBy\":\"tester\",\"status\":\"Pending\"}");
+		assertEquals("tester", jobFields.getCreatedBy());
+		assertEquals("ingest", jobFields.getJobType());
+
+		jobFields = jobMessageReader.read("{\"createdBy\":\"tester\",\"jobType\":{\"type\":\"execute-service\"}}");
+		assertEquals("tester", jobFields.getCreatedBy());
+		assertEquals("execute-service", jobFields.getJobType());
+
+		jobFields = jobMessageReader.read("{\"jobId\":\"123\",\"createdBy\":null}");
+		assertNull(jobFields.getCreatedBy());
+		assertNull(jobFields.getJobType());
+	}
+
+	/**
+	 * Tests that malformed messages are rejected
+	 */
+	@Test(expected = IOException.class)
+	public void testReadMalformed() throws IOException {
+		jobMessageReader.read("not a job");
+	}
+
+	/**
+	 * Tests that messages that are not objects are rejected
+	 */
+	@Test(expected = IOException.class)
+	public void testReadNotObject() throws IOException {
+		jobMessageReader.read("[\"createdBy\"]");
+	}
+}
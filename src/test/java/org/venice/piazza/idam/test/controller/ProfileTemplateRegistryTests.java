@@ -0,0 +1,118 @@
+/**
+ * Copyright 2016, RadiantBlue Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package org.venice.piazza.idam.test.controller;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.venice.piazza.idam.authz.ProfileTemplateFactory;
+import org.venice.piazza.idam.authz.ProfileTemplateRegistry;
+
+import model.security.authz.ProfileTemplate;
+import util.PiazzaLogger;
+
+/**
+ * Tests loading and reloading of the Profile Templates
+ */
+public class ProfileTemplateRegistryTests {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Mock
+	private PiazzaLogger pzLogger;
+	@InjectMocks
+	private ProfileTemplateRegistry profileTemplateRegistry;
+	@InjectMocks
+	private ProfileTemplateFactory profileTemplateFactory;
+
+	/**
+	 * Initialize mock objects.
+	 */
+	@Before
+	public void setup() {
+		MockitoAnnotations.initMocks(this);
+		ReflectionTestUtils.setField(profileTemplateFactory, "profileTemplateRegistry", profileTemplateRegistry);
+	}
+
+	/**
+	 * Tests that the packaged templates are parsed once and shared, and cannot be modified
+	 */
+	@Test
+	public void testClasspathTemplates() throws IOException {
+		profileTemplateRegistry.initialize();
+		ProfileTemplate template = profileTemplateFactory.getDefaultTemplate("admin");
+		assertNotNull(template);
+		assertTrue(template.getPermissions().get("POST data"));
+		assertSame(template, profileTemplateFactory.getDefaultTemplate("admin"));
+		assertEquals(1, profileTemplateRegistry.getStatistics().get("templateCount"));
+		try {
+			template.getPermissions().put("POST data", false);
+			assertTrue("Template permissions were modifiable.", false);
+		} catch (UnsupportedOperationException exception) {
+			// Expected
+		}
+	}
+
+	/**
+	 * Tests that templates in the external directory are swapped in when they change, and that a bad template keeps
+	 * the previous templates in use
+	 */
+	@Test
+	public void testExternalTemplatesReload() throws IOException {
+		ReflectionTestUtils.setField(profileTemplateRegistry, "externalDirectory", folder.getRoot().getAbsolutePath());
+		profileTemplateRegistry.initialize();
+		assertNull(profileTemplateRegistry.getTemplate("analyst"));
+
+		// Add a new role
+		File analyst = folder.newFile("analyst.json");
+		FileUtils.writeStringToFile(analyst, "{\"permissions\":{\"GET data\":true}}", StandardCharsets.UTF_8);
+		profileTemplateRegistry.reloadIfChanged();
+		ProfileTemplate template = profileTemplateRegistry.getTemplate("analyst");
+		assertTrue(template.getPermissions().get("GET data"));
+		assertNotNull(profileTemplateRegistry.getTemplate("admin"));
+		assertEquals(2L, profileTemplateRegistry.getStatistics().get("loads"));
+
+		// A malformed template is not swapped in
+		FileUtils.writeStringToFile(analyst, "{\"permissions\":", StandardCharsets.UTF_8);
+		analyst.setLastModified(analyst.lastModified() + 1000);
+		profileTemplateRegistry.reloadIfChanged();
+		assertSame(template, profileTemplateRegistry.getTemplate("analyst"));
+
+		// Unchanged directories are not reloaded
+		FileUtils.writeStringToFile(analyst, "{\"permissions\":{\"GET data\":false}}", StandardCharsets.UTF_8);
+		analyst.setLastModified(analyst.lastModified() + 1000);
+		profileTemplateRegistry.reloadIfChanged();
+		profileTemplateRegistry.reloadIfChanged();
+		assertEquals(false, profileTemplateRegistry.getTemplate("analyst").getPermissions().get("GET data"));
+		assertEquals(3L, profileTemplateRegistry.getStatistics().get("loads"));
+	}
+}
@@ -0,0 +1,145 @@
+/**
+ * Copyright 2016, RadiantBlue Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package org.venice.piazza.idam.test.controller;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.venice.piazza.idam.authz.throttle.SlidingWindowRateLimiter;
+import org.venice.piazza.idam.authz.throttle.TokenBucketRateLimiter;
+import org.venice.piazza.idam.authz.throttle.UserRateLimiter;
+
+import model.security.authz.Throttle;
+
+/**
+ * Tests the rate limiting engines against a controlled clock
+ */
+public class RateLimiterTests {
+	private static final Throttle.Component JOB = Throttle.Component.JOB;
+	private final AtomicLong now = new AtomicLong(1000000);
+
+	private <T extends UserRateLimiter<?>> T initialize(T rateLimiter) {
+		ReflectionTestUtils.setField(rateLimiter, "limit", 10);
+		ReflectionTestUtils.setField(rateLimiter, "windowMs", 1000L);
+		ReflectionTestUtils.setField(rateLimiter, "clock", (LongSupplier) now::get);
+		return rateLimiter;
+	}
+
+	/**
+	 * Tests that the sliding window admits the limit, and carries the previous window over as it slides
+	 */
+	@Test
+	public void testSlidingWindow() {
+		SlidingWindowRateLimiter rateLimiter = initialize(new SlidingWindowRateLimiter());
+		for (int i = 0; i < 10; i++) {
+			assertTrue(rateLimiter.tryAcquire("tester", JOB));
+		}
+		assertFalse(rateLimiter.tryAcquire("tester", JOB));
+		// Other users have their own budget
+		assertTrue(rateLimiter.tryAcquire("other", JOB));
+
+		// Halfway into the next window, half of the previous window still counts
+		now.addAndGet(1500);
+		for (int i = 0; i < 5; i++) {
+			assertTrue(rateLimiter.tryAcquire("tester", JOB));
+		}
+		assertFalse(rateLimiter.tryAcquire("tester", JOB));
+
+		// After a full idle window, the budget is restored
+		now.addAndGet(2000);
+		for (int i = 0; i < 10; i++) {
+			assertTrue(rateLimiter.tryAcquire("tester", JOB));
+		}
+	}
+
+	/**
+	 * Tests that the token bucket admits a burst of the limit and then refills at the sustained rate
+	 */
+	@Test
+	public void testTokenBucket() {
+		TokenBucketRateLimiter rateLimiter = initialize(new TokenBucketRateLimiter());
+		for (int i = 0; i < 10; i++) {
+			assertTrue(rateLimiter.tryAcquire("tester", JOB));
+		}
+		assertFalse(rateLimiter.tryAcquire("tester", JOB));
+		assertTrue(rateLimiter.tryAcquire("other", JOB));
+
+		// One token is refilled every 100 milliseconds
+		now.addAndGet(100);
+		assertTrue(rateLimiter.tryAcquire("tester", JOB));
+		assertFalse(rateLimiter.tryAcquire("tester", JOB));
+
+		// The bucket never holds more than the limit
+		now.addAndGet(60000);
+		for (int i = 0; i < 10; i++) {
+			assertTrue(rateLimiter.tryAcquire("tester", JOB));
+		}
+		assertFalse(rateLimiter.tryAcquire("tester", JOB));
+	}
+
+	/**
+	 * Tests that every user has a budget of their own, however many users are being limited
+	 */
+	@Test
+	public void testNoSharedBudgets() {
+		for (UserRateLimiter<?> rateLimiter : Arrays.asList(initialize(new SlidingWindowRateLimiter()),
+				initialize(new TokenBucketRateLimiter()))) {
+			for (int i = 0; i < 10; i++) {
+				assertTrue(rateLimiter.tryAcquire("heavy", JOB));
+			}
+			assertFalse(rateLimiter.tryAcquire("heavy", JOB));
+			for (int user = 0; user < 5000; user++) {
+				assertTrue(rateLimiter.tryAcquire("user" + user, JOB));
+			}
+			assertTrue(rateLimiter.tryAcquire("heavy", Throttle.Component.QUERY));
+			assertEquals(5002, rateLimiter.getStatistics().get("tracked"));
+		}
+	}
+
+	/**
+	 * Tests that only the state of idle users is evicted, and that eviction does not restore a budget early
+	 */
+	@Test
+	public void testIdleEviction() {
+		for (UserRateLimiter<?> rateLimiter : Arrays.asList(initialize(new SlidingWindowRateLimiter()),
+				initialize(new TokenBucketRateLimiter()))) {
+			now.set(1000000);
+			for (int i = 0; i < 10; i++) {
+				assertTrue(rateLimiter.tryAcquire("tester", JOB));
+			}
+			rateLimiter.evictIdleUsers();
+			assertEquals(1, rateLimiter.getStatistics().get("tracked"));
+			assertFalse(rateLimiter.tryAcquire("tester", JOB));
+
+			// Once idle, the evicted state would have admitted a full budget anyway
+			now.addAndGet(2000);
+			rateLimiter.evictIdleUsers();
+			assertEquals(0, rateLimiter.getStatistics().get("tracked"));
+			assertEquals(1L, rateLimiter.getStatistics().get("evictions"));
+			for (int i = 0; i < 10; i++) {
+				assertTrue(rateLimiter.tryAcquire("tester", JOB));
+			}
+			assertFalse(rateLimiter.tryAcquire("tester", JOB));
+		}
+	}
+}
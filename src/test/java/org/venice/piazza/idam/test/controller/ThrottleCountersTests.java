@@ -0,0 +1,151 @@
+/**
+ * Copyright 2016, RadiantBlue Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package org.venice.piazza.idam.test.controller;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyMapOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.venice.piazza.idam.authz.throttle.ThrottleCounters;
+import org.venice.piazza.idam.data.DatabaseAccessor;
+
+import model.security.authz.Throttle;
+import model.security.authz.UserThrottles;
+import util.PiazzaLogger;
+
+/**
+ * Tests the live throttle counters and their persistence
+ */
+public class ThrottleCountersTests {
+	@Mock
+	private DatabaseAccessor accessor;
+	@Mock
+	private PiazzaLogger pzLogger;
+	@InjectMocks
+	private ThrottleCounters throttleCounters;
+
+	private UserThrottles persistedThrottles = new UserThrottles("tester");
+
+	/**
+	 * Initialize mock objects.
+	 */
+	@Before
+	public void setup() {
+		MockitoAnnotations.initMocks(this);
+		persistedThrottles.getThrottles().put(Throttle.Component.JOB.toString(), 7);
+		when(accessor.getAllUserThrottles()).thenReturn(Collections.singletonList(persistedThrottles));
+	}
+
+	/**
+	 * Tests that counters are rehydrated from the throttle table and include unflushed increments
+	 */
+	@Test
+	public void testRehydrateAndIncrement() {
+		throttleCounters.initialize();
+		assertEquals(7, throttleCounters.getInvocations("tester", Throttle.Component.JOB));
+		assertEquals(0, throttleCounters.getInvocations("unknown", Throttle.Component.JOB));
+
+		throttleCounters.increment("tester", Throttle.Component.JOB);
+		throttleCounters.increment("tester", Throttle.Component.JOB);
+		throttleCounters.increment("unknown", Throttle.Component.JOB);
+		assertEquals(9, throttleCounters.getInvocations("tester", Throttle.Component.JOB));
+		assertEquals(1, throttleCounters.getInvocations("unknown", Throttle.Component.JOB));
+		verify(accessor, times(0)).incrementUserThrottles(anyString(), eq(Throttle.Component.JOB), anyInt());
+	}
+
+	/**
+	 * Tests that only the increments since the last flush are persisted, in one batch per component, and that the
+	 * counters are not double counted after being refreshed from the throttle table
+	 */
+	@Test
+	public void testFlush() {
+		throttleCounters.initialize();
+		throttleCounters.increment("tester", Throttle.Component.JOB);
+		throttleCounters.increment("tester", Throttle.Component.JOB);
+		throttleCounters.increment("other", Throttle.Component.JOB);
+
+		// The throttle table reflects the flushed increments
+		persistedThrottles.getThrottles().put(Throttle.Component.JOB.toString(), 9);
+		throttleCounters.flush();
+		Map<String, Integer> deltas = new HashMap<>();
+		deltas.put("tester", 2);
+		deltas.put("other", 1);
+		verify(accessor, times(1)).incrementUserThrottles(deltas, Throttle.Component.JOB);
+		verify(accessor, times(0)).incrementUserThrottles(anyString(), eq(Throttle.Component.JOB), anyInt());
+		assertEquals(9, throttleCounters.getInvocations("tester", Throttle.Component.JOB));
+
+		// Nothing new to flush
+		throttleCounters.flush();
+		verify(accessor, times(1)).incrementUserThrottles(anyMapOf(String.class, Integer.class), eq(Throttle.Component.JOB));
+
+		// A failed flush is retried on the next one
+		throttleCounters.increment("tester", Throttle.Component.JOB);
+		doThrow(new RuntimeException("Database down")).when(accessor).incrementUserThrottles(Collections.singletonMap("tester", 1),
+				Throttle.Component.JOB);
+		throttleCounters.flush();
+		assertEquals(10, throttleCounters.getInvocations("tester", Throttle.Component.JOB));
+		throttleCounters.flush();
+		verify(accessor, times(2)).incrementUserThrottles(Collections.singletonMap("tester", 1), Throttle.Component.JOB);
+	}
+
+	/**
+	 * Tests that a clear of the throttle table by another instance resets the persisted part of the counters
+	 */
+	@Test
+	public void testRehydrateAfterExternalClear() {
+		throttleCounters.initialize();
+		throttleCounters.increment("tester", Throttle.Component.JOB);
+		persistedThrottles.getThrottles().put(Throttle.Component.JOB.toString(), 8);
+		throttleCounters.flush();
+		assertEquals(8, throttleCounters.getInvocations("tester", Throttle.Component.JOB));
+
+		// Another instance clears every row; only increments not yet flushed remain
+		when(accessor.getAllUserThrottles()).thenReturn(Collections.emptyList());
+		throttleCounters.increment("tester", Throttle.Component.JOB);
+		doThrow(new RuntimeException("Database down")).when(accessor).incrementUserThrottles(Collections.singletonMap("tester", 1),
+				Throttle.Component.JOB);
+		throttleCounters.flush();
+		throttleCounters.initialize();
+		assertEquals(1, throttleCounters.getInvocations("tester", Throttle.Component.JOB));
+	}
+
+	/**
+	 * Tests that clearing resets both the throttle table and the counters
+	 */
+	@Test
+	public void testClear() {
+		throttleCounters.initialize();
+		throttleCounters.increment("tester", Throttle.Component.JOB);
+		throttleCounters.clear();
+		verify(accessor, times(1)).clearThrottles();
+		assertEquals(0, throttleCounters.getInvocations("tester", Throttle.Component.JOB));
+	}
+}
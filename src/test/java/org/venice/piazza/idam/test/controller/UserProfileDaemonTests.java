@@ -0,0 +1,233 @@
+/**
+ * Copyright 2016, RadiantBlue Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package org.venice.piazza.idam.test.controller;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import java.util.stream.Collectors;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.client.ResourceAccessException;
+import org.venice.piazza.idam.data.DaemonCheckpoint;
+import org.venice.piazza.idam.data.DatabaseAccessor;
+import org.venice.piazza.idam.timer.UserProfileDaemon;
+import org.venice.piazza.idam.util.GxUserProfileClient;
+import org.venice.piazza.idam.util.ProfileAttributeCache;
+
+import exception.InvalidInputException;
+import model.security.authz.UserProfile;
+import util.PiazzaLogger;
+
+/**
+ * Tests the verification of stored User Profiles against GeoAxis
+ */
+public class UserProfileDaemonTests {
+	@Mock
+	private PiazzaLogger logger;
+	@Mock
+	private DatabaseAccessor accessor;
+	@Mock
+	private GxUserProfileClient gxUserProfileClient;
+	@Mock
+	private ProfileAttributeCache profileAttributeCache;
+	@InjectMocks
+	private UserProfileDaemon userProfileDaemon;
+
+	@Before
+	public void setup() {
+		MockitoAnnotations.initMocks(this);
+		ReflectionTestUtils.setField(userProfileDaemon, "parallelism", 4);
+		ReflectionTestUtils.setField(userProfileDaemon, "rateLimit", 0.0);
+		ReflectionTestUtils.setField(userProfileDaemon, "progressInterval", 10);
+		ReflectionTestUtils.setField(userProfileDaemon, "pageSize", 8);
+		ReflectionTestUtils.setField(userProfileDaemon, "checkpointMaxAgeMs", 60000L);
+	}
+
+	@Test
+	public void testVerifyUserProfiles() throws InvalidInputException {
+		List<UserProfile> userProfiles = new ArrayList<>();
+		for (int i = 0; i < 50; i++) {
+			String username = "user" + i;
+			userProfiles.add(getProfile(username, null));
+			if (i % 10 == 0) {
+				// Inactive in GeoAxis
+				when(gxUserProfileClient.getUserProfileFromGx(eq(username), anyString())).thenReturn(getProfile(username, null));
+				when(accessor.getApiKey(username)).thenReturn("key-" + username);
+			} else if (i % 10 == 1) {
+				// GeoAxis failure
+				when(gxUserProfileClient.getUserProfileFromGx(eq(username), anyString())).thenThrow(new ResourceAccessException("Timed out"));
+			} else {
+				when(gxUserProfileClient.getUserProfileFromGx(eq(username), anyString())).thenReturn(getProfile(username, "US"));
+			}
+		}
+		mockUserProfilePages(userProfiles);
+
+		Map<String, Object> summary = userProfileDaemon.verifyUserProfiles();
+
+		// Inactive users are removed; users that could not be checked are left for the next run
+		assertEquals(50L, summary.get("processed"));
+		assertEquals(40L, summary.get("verified"));
+		assertEquals(5L, summary.get("removed"));
+		assertEquals(5L, summary.get("failed"));
+		verify(accessor, times(5)).deleteApiKey(anyString());
+		verify(accessor, times(5)).deleteUserProfile(anyString());
+		verify(accessor, never()).deleteUserProfile("user1");
+		verify(accessor).deleteApiKey("key-user0");
+		assertTrue(userProfileDaemon.getStatistics().containsKey("lastRun"));
+
+		// Profiles are read a page at a time, checkpointing each completed page, and the checkpoint is cleared at the end
+		verify(accessor, never()).getUserProfiles();
+		verify(accessor, times(7)).getUserProfilePage(anyString(), eq(8));
+		verify(accessor, times(6)).saveDaemonCheckpoint(eq("userProfileDaemon"), any(DaemonCheckpoint.class));
+		verify(accessor).deleteDaemonCheckpoint("userProfileDaemon");
+	}
+
+	@Test
+	public void testResumeFromCheckpoint() {
+		List<UserProfile> userProfiles = new ArrayList<>();
+		for (int i = 0; i < 20; i++) {
+			userProfiles.add(getProfile(String.format("user%02d", i), null));
+		}
+		mockUserProfilePages(userProfiles);
+		when(gxUserProfileClient.getUserProfileFromGx(anyString(), anyString())).thenReturn(getProfile("user", "US"));
+
+		// The interrupted run resumes after the last checkpointed username, keeping its original start time
+		long startedOn = System.currentTimeMillis() - 1000;
+		when(accessor.getDaemonCheckpoint("userProfileDaemon")).thenReturn(new DaemonCheckpoint("user11", startedOn, startedOn));
+		userProfileDaemon.resumeInterruptedRun();
+		verify(gxUserProfileClient, times(8)).getUserProfileFromGx(anyString(), anyString());
+		verify(gxUserProfileClient, never()).getUserProfileFromGx(eq("user11"), anyString());
+		ArgumentCaptor<DaemonCheckpoint> checkpoint = ArgumentCaptor.forClass(DaemonCheckpoint.class);
+		verify(accessor).saveDaemonCheckpoint(eq("userProfileDaemon"), checkpoint.capture());
+		assertEquals("user19", checkpoint.getValue().getPosition());
+		assertEquals(startedOn, checkpoint.getValue().getStartedOn());
+
+		// A checkpoint older than the maximum age is discarded, and the run starts over
+		when(accessor.getDaemonCheckpoint("userProfileDaemon")).thenReturn(new DaemonCheckpoint("user11", 0, 0));
+		assertEquals(20L, userProfileDaemon.verifyUserProfiles().get("processed"));
+	}
+
+	@Test
+	public void testRateLimit() {
+		List<UserProfile> userProfiles = new ArrayList<>();
+		for (int i = 0; i < 10; i++) {
+			userProfiles.add(getProfile("user" + i, null));
+		}
+		mockUserProfilePages(userProfiles);
+		when(gxUserProfileClient.getUserProfileFromGx(anyString(), anyString())).thenReturn(getProfile("user", "US"));
+		ReflectionTestUtils.setField(userProfileDaemon, "rateLimit", 50.0);
+
+		// Ten calls at 50 per second are spread over at least 180 milliseconds, whatever the parallelism
+		Map<String, Object> summary = userProfileDaemon.verifyUserProfiles();
+		assertEquals(10L, summary.get("verified"));
+		assertTrue((Long) summary.get("elapsedMs") >= 180);
+	}
+
+	@Test
+	public void testContinuousMode() {
+		List<UserProfile> userProfiles = new ArrayList<>();
+		for (int i = 0; i < 100; i++) {
+			userProfiles.add(getProfile("user" + i, null));
+		}
+		// The username hash stands in for the database hashtext function
+		when(accessor.getUserProfilesByUsernameHash(anyInt(), anyInt())).thenAnswer(invocation -> {
+			int low = (Integer) invocation.getArguments()[0];
+			int high = (Integer) invocation.getArguments()[1];
+			return userProfiles.stream().filter(profile -> profile.getUsername().hashCode() >= low && profile.getUsername().hashCode() <= high)
+					.collect(Collectors.toList());
+		});
+		when(gxUserProfileClient.getUserProfileFromGx(anyString(), anyString())).thenReturn(getProfile("user", "US"));
+		AtomicLong time = new AtomicLong(100000);
+		ReflectionTestUtils.setField(userProfileDaemon, "continuous", true);
+		ReflectionTestUtils.setField(userProfileDaemon, "windowMs", 4000L);
+		ReflectionTestUtils.setField(userProfileDaemon, "tickMs", 1000L);
+		ReflectionTestUtils.setField(userProfileDaemon, "maxCatchUpSlots", 3);
+		ReflectionTestUtils.setField(userProfileDaemon, "clock", (LongSupplier) time::get);
+
+		// The weekly run does not run in continuous mode
+		when(accessor.getDaemonCheckpoint("userProfileDaemon")).thenReturn(new DaemonCheckpoint("user11", time.get(), time.get()));
+		userProfileDaemon.resumeInterruptedRun();
+		verify(accessor, never()).getUserProfilePage(anyString(), anyInt());
+
+		// The first tick verifies only the current slot; later ticks verify the slots due since
+		userProfileDaemon.verifyDueUserProfiles();
+		verify(accessor, times(1)).getUserProfilesByUsernameHash(anyInt(), anyInt());
+		when(accessor.getDaemonCheckpoint("userProfileDaemonContinuous")).thenReturn(new DaemonCheckpoint("100", 0, 0));
+		time.set(103500);
+		userProfileDaemon.verifyDueUserProfiles();
+
+		// Over a window, the slots cover the hash space exactly, so every profile is verified once
+		verify(accessor, times(4)).getUserProfilesByUsernameHash(anyInt(), anyInt());
+		verify(accessor).getUserProfilesByUsernameHash(Integer.MIN_VALUE, -1073741825);
+		verify(accessor).getUserProfilesByUsernameHash(1073741824, Integer.MAX_VALUE);
+		verify(gxUserProfileClient, times(100)).getUserProfileFromGx(anyString(), anyString());
+
+		// After a long outage, only the most recent slots are caught up
+		Mockito.reset(accessor);
+		when(accessor.getDaemonCheckpoint("userProfileDaemonContinuous")).thenReturn(new DaemonCheckpoint("103", 0, 0));
+		time.set(110000);
+		userProfileDaemon.verifyDueUserProfiles();
+		ArgumentCaptor<DaemonCheckpoint> checkpoint = ArgumentCaptor.forClass(DaemonCheckpoint.class);
+		verify(accessor, times(3)).saveDaemonCheckpoint(eq("userProfileDaemonContinuous"), checkpoint.capture());
+		assertEquals("108", checkpoint.getAllValues().get(0).getPosition());
+		assertEquals("110", checkpoint.getAllValues().get(2).getPosition());
+	}
+
+	/**
+	 * Serves the profiles from the accessor by keyset page, as the database does
+	 */
+	private void mockUserProfilePages(List<UserProfile> userProfiles) {
+		when(accessor.getUserProfileCount()).thenReturn((long) userProfiles.size());
+		when(accessor.getUserProfilePage(anyString(), anyInt())).thenAnswer(invocation -> {
+			String after = (String) invocation.getArguments()[0];
+			int pageSize = (Integer) invocation.getArguments()[1];
+			return userProfiles.stream().filter(profile -> profile.getUsername().compareTo(after) > 0)
+					.sorted(Comparator.comparing(UserProfile::getUsername)).limit(pageSize).collect(Collectors.toList());
+		});
+	}
+
+	private UserProfile getProfile(String username, String country) {
+		UserProfile profile = new UserProfile();
+		profile.setUsername(username);
+		profile.setDistinguishedName("CN=" + username);
+		profile.setCountry(country);
+		profile.setAdminCode("NGA");
+		profile.setDutyCode("NGA");
+		return profile;
+	}
+}
@@ -0,0 +1,88 @@
+/**
+ * Copyright 2016, RadiantBlue Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package org.venice.piazza.idam.test.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.venice.piazza.idam.util.BoundedCache;
+
+/**
+ * Tests the eviction, freshness and statistics of the bounded cache that the IDAM caches are built on
+ */
+public class BoundedCacheTests {
+	private int maxSize = 2;
+	private BoundedCache<String, Integer> cache;
+
+	@Before
+	public void setup() {
+		cache = new BoundedCache<>(() -> maxSize);
+	}
+
+	@Test
+	public void testEvictLeastRecentlyUsed() {
+		cache.put("a", 1);
+		cache.put("b", 2);
+		// Reading "a" makes "b" the least recently used
+		assertEquals(Integer.valueOf(1), cache.get("a", value -> true));
+		cache.put("c", 3);
+		assertNull(cache.peek("b"));
+		assertEquals(Integer.valueOf(1), cache.peek("a"));
+
+		// The bound is read on every insertion
+		maxSize = 1;
+		cache.put("d", 4);
+		assertNull(cache.peek("a"));
+		assertNull(cache.peek("c"));
+
+		Map<String, Object> statistics = cache.getStatistics();
+		assertEquals(1, statistics.get("size"));
+		assertEquals(1, statistics.get("maxSize"));
+		assertEquals(3L, statistics.get("evictions"));
+	}
+
+	@Test
+	public void testFreshness() {
+		cache.put("a", 1);
+		cache.put("b", 2);
+
+		// A stale entry is a miss, and is removed
+		assertNull(cache.get("a", value -> value > 1));
+		assertNull(cache.peek("a"));
+		assertEquals(Integer.valueOf(2), cache.get("b", value -> value > 1));
+
+		// Entries may be removed only if they have not been replaced
+		assertFalse(cache.remove("b", 3));
+		assertTrue(cache.remove("b", 2));
+		cache.put("c", 3);
+		cache.put("d", 4);
+		assertEquals(1, cache.removeIf(value -> value % 2 == 0));
+
+		// Lookups counted by the caller are included in the statistics
+		cache.recordMiss();
+		Map<String, Object> statistics = cache.getStatistics();
+		assertEquals(1L, statistics.get("hits"));
+		assertEquals(2L, statistics.get("misses"));
+		assertEquals(1.0 / 3, (double) statistics.get("hitRatio"), 0.0001);
+		assertEquals(1, statistics.get("size"));
+	}
+}
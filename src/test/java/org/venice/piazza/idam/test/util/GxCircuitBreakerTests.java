@@ -0,0 +1,242 @@
+/**
+ * Copyright 2016, RadiantBlue Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package org.venice.piazza.idam.test.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.HttpRequest;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.venice.piazza.idam.util.GxCallInterceptor;
+import org.venice.piazza.idam.util.GxCircuitBreaker;
+import org.venice.piazza.idam.util.GxCircuitBreaker.State;
+import org.venice.piazza.idam.util.GxUnavailableException;
+
+/**
+ * Tests the circuit breaker and bulkhead guarding the GeoAxis endpoints
+ */
+public class GxCircuitBreakerTests {
+	private final AtomicLong time = new AtomicLong(1000000L);
+	private GxCircuitBreaker breaker;
+
+	@Before
+	public void setup() {
+		breaker = new GxCircuitBreaker("atncert", new GxCircuitBreaker.Config(10000, 10, 10, 0.5, 1000, 0.8, 5000, 2, 3, 0),
+				(LongSupplier) time::get);
+	}
+
+	@Test
+	public void testOpenOnFailureRate() {
+		// Failures below the minimum number of calls do not open the circuit
+		for (int i = 0; i < 5; i++) {
+			breaker.acquire();
+			breaker.release(10, false);
+		}
+		assertEquals(State.CLOSED, breaker.getState());
+
+		// Half of the calls in the window failed
+		for (int i = 0; i < 5; i++) {
+			breaker.acquire();
+			breaker.release(10, true);
+		}
+		assertEquals(State.OPEN, breaker.getState());
+		assertRejected();
+
+		// After the open duration, the trial calls close the circuit if they succeed
+		time.addAndGet(5000);
+		assertEquals(State.HALF_OPEN, breaker.getState());
+		breaker.acquire();
+		breaker.acquire();
+		assertRejected();
+		breaker.release(10, true);
+		breaker.release(10, true);
+		assertEquals(State.CLOSED, breaker.getState());
+		assertEquals(0, breaker.getStatistics().get("windowCalls"));
+	}
+
+	@Test
+	public void testReopenOnTrialFailure() {
+		// Slow calls open the circuit even if they succeed
+		for (int i = 0; i < 10; i++) {
+			breaker.acquire();
+			breaker.release(2000, true);
+		}
+		assertEquals(State.OPEN, breaker.getState());
+		time.addAndGet(5000);
+		breaker.acquire();
+		breaker.release(10, false);
+		assertEquals(State.OPEN, breaker.getState());
+		assertRejected();
+	}
+
+	@Test
+	public void testWindowExpiry() {
+		// Failures older than the window are forgotten
+		for (int i = 0; i < 9; i++) {
+			breaker.acquire();
+			breaker.release(10, false);
+		}
+		time.addAndGet(10000);
+		breaker.acquire();
+		breaker.release(10, false);
+		assertEquals(State.CLOSED, breaker.getState());
+		assertEquals(1, breaker.getStatistics().get("windowCalls"));
+	}
+
+	@Test
+	public void testBulkhead() {
+		for (int i = 0; i < 3; i++) {
+			breaker.acquire();
+		}
+		assertRejected();
+		assertEquals(1L, breaker.getStatistics().get("rejectedFull"));
+		breaker.release(10, true);
+		breaker.acquire();
+		assertEquals(3, breaker.getStatistics().get("inFlight"));
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testInterceptor() throws IOException {
+		GxCallInterceptor interceptor = getInterceptor();
+		interceptor.initialize();
+
+		HttpRequest atnCert = mock(HttpRequest.class);
+		when(atnCert.getURI()).thenReturn(URI.create("https://gxisaccess.gxaccess.com/ms_oauth/resources/userprofile/atncert"));
+		HttpRequest profile = mock(HttpRequest.class);
+		when(profile.getURI()).thenReturn(URI.create("https://gxisaccess.gxaccess.com/ms_oauth/resources/userprofile/me?access_token=1"));
+		ClientHttpResponse serverError = mock(ClientHttpResponse.class);
+		when(serverError.getRawStatusCode()).thenReturn(503);
+		ClientHttpResponse clientError = mock(ClientHttpResponse.class);
+		when(clientError.getRawStatusCode()).thenReturn(401);
+		ClientHttpRequestExecution execution = mock(ClientHttpRequestExecution.class);
+
+		// Client errors are answers from a healthy GeoAxis
+		when(execution.execute(any(HttpRequest.class), any(byte[].class))).thenReturn(clientError);
+		interceptor.intercept(profile, new byte[0], execution);
+		interceptor.intercept(profile, new byte[0], execution);
+
+		// Server errors open the circuit of their endpoint only
+		when(execution.execute(any(HttpRequest.class), any(byte[].class))).thenReturn(serverError);
+		interceptor.intercept(atnCert, new byte[0], execution);
+		interceptor.intercept(atnCert, new byte[0], execution);
+		try {
+			interceptor.intercept(atnCert, new byte[0], execution);
+			fail("The atncert circuit should be open.");
+		} catch (GxUnavailableException exception) {
+			assertEquals("atncert", exception.getEndpoint());
+		}
+		Map<String, Object> statistics = interceptor.getStatistics();
+		assertEquals("OPEN", ((Map<String, Object>) statistics.get("atncert")).get("state"));
+		assertEquals("CLOSED", ((Map<String, Object>) statistics.get("profile")).get("state"));
+		assertEquals(2, ((Map<String, Object>) statistics.get("profile")).get("windowCalls"));
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testInterceptorLimitsPerEndpoint() throws IOException {
+		AtomicLong nanoTime = new AtomicLong(TimeUnit.SECONDS.toNanos(1000));
+		GxCallInterceptor interceptor = getInterceptor();
+		ReflectionTestUtils.setField(interceptor, "nanoClock", (LongSupplier) nanoTime::get);
+		ReflectionTestUtils.setField(interceptor, "limiterEnabled", true);
+		ReflectionTestUtils.setField(interceptor, "initialLimit", 2);
+		ReflectionTestUtils.setField(interceptor, "minLimit", 1);
+		ReflectionTestUtils.setField(interceptor, "maxLimit", 20);
+		ReflectionTestUtils.setField(interceptor, "backoffRatio", 0.5);
+		ReflectionTestUtils.setField(interceptor, "rttTolerance", 2.0);
+		ReflectionTestUtils.setField(interceptor, "minRttWindowMs", 60000L);
+		interceptor.initialize();
+
+		HttpRequest atnBasic = mock(HttpRequest.class);
+		when(atnBasic.getURI()).thenReturn(URI.create("https://gxisaccess.gxaccess.com/ms_oauth/resources/userprofile/atnbasic"));
+		HttpRequest profile = mock(HttpRequest.class);
+		when(profile.getURI()).thenReturn(URI.create("https://gxisaccess.gxaccess.com/ms_oauth/resources/userprofile/me?access_token=1"));
+		ClientHttpResponse ok = mock(ClientHttpResponse.class);
+		when(ok.getRawStatusCode()).thenReturn(200);
+		ClientHttpRequestExecution execution = mock(ClientHttpRequestExecution.class);
+		when(execution.execute(any(HttpRequest.class), any(byte[].class))).thenAnswer(invocation -> {
+			nanoTime.addAndGet(TimeUnit.MILLISECONDS.toNanos(invocation.getArguments()[0] == profile ? 10 : 100));
+			return ok;
+		});
+
+		// A fast and a slow endpoint, each steady, are neither congested; sharing a baseline, the mix would look like
+		// queueing at several times the round trip of the fast one
+		for (int i = 0; i < 50; i++) {
+			interceptor.intercept(profile, new byte[0], execution);
+			interceptor.intercept(atnBasic, new byte[0], execution);
+		}
+		Map<String, Object> statistics = interceptor.getLimiterStatistics();
+		Map<String, Object> profileLimiter = (Map<String, Object>) statistics.get("profile");
+		Map<String, Object> atnBasicLimiter = (Map<String, Object>) statistics.get("atnbasic");
+		assertEquals(10.0, profileLimiter.get("baselineRttMs"));
+		assertEquals(10.0, profileLimiter.get("smoothedRttMs"));
+		assertEquals(100.0, atnBasicLimiter.get("baselineRttMs"));
+		assertEquals(100.0, atnBasicLimiter.get("smoothedRttMs"));
+		assertEquals(0L, profileLimiter.get("decreases"));
+		assertEquals(0L, atnBasicLimiter.get("decreases"));
+		assertEquals(2, profileLimiter.get("limit"));
+		assertEquals(2, atnBasicLimiter.get("limit"));
+		assertEquals(50L, profileLimiter.get("accepted"));
+		assertEquals(0L, ((Map<String, Object>) statistics.get("ata")).get("accepted"));
+	}
+
+	/**
+	 * @return An interceptor for the test GeoAxis endpoints, with its limiters disabled unless set before it is
+	 *         initialized
+	 */
+	private GxCallInterceptor getInterceptor() {
+		GxCallInterceptor interceptor = new GxCallInterceptor();
+		ReflectionTestUtils.setField(interceptor, "gxApiUrlAtnCert", "https://gxisaccess.gxaccess.com/ms_oauth/resources/userprofile/atncert");
+		ReflectionTestUtils.setField(interceptor, "gxApiUrlAtnBasic", "https://gxisaccess.gxaccess.com/ms_oauth/resources/userprofile/atnbasic");
+		ReflectionTestUtils.setField(interceptor, "gxApiUrlAta", "https://gxisaccess.gxaccess.com/ms_oauth/resources/userprofile/ata");
+		ReflectionTestUtils.setField(interceptor, "gxTokensUrl", "https://gxisaccess.gxaccess.com/ms_oauth/oauth2/endpoints/oauthservice/tokens");
+		ReflectionTestUtils.setField(interceptor, "gxProfileUrl", "https://gxisaccess.gxaccess.com/ms_oauth/resources/userprofile/me");
+		ReflectionTestUtils.setField(interceptor, "windowMs", 10000L);
+		ReflectionTestUtils.setField(interceptor, "buckets", 10);
+		ReflectionTestUtils.setField(interceptor, "minimumCalls", 2);
+		ReflectionTestUtils.setField(interceptor, "failureRateThreshold", 0.5);
+		ReflectionTestUtils.setField(interceptor, "slowCallMs", 5000L);
+		ReflectionTestUtils.setField(interceptor, "slowCallRateThreshold", 0.8);
+		ReflectionTestUtils.setField(interceptor, "openMs", 5000L);
+		ReflectionTestUtils.setField(interceptor, "halfOpenCalls", 1);
+		ReflectionTestUtils.setField(interceptor, "maxConcurrentCalls", 10);
+		ReflectionTestUtils.setField(interceptor, "maxWaitMs", 0L);
+		return interceptor;
+	}
+
+	private void assertRejected() {
+		try {
+			breaker.acquire();
+			fail("The call should have been rejected.");
+		} catch (GxUnavailableException exception) {
+			assertEquals("atncert", exception.getEndpoint());
+		}
+	}
+}
@@ -0,0 +1,153 @@
+/**
+ * Copyright 2016, RadiantBlue Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package org.venice.piazza.idam.test.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.venice.piazza.idam.util.GxConcurrencyLimiter;
+import org.venice.piazza.idam.util.GxUnavailableException;
+
+/**
+ * Tests the sizing of the adaptive GeoAxis concurrency limit from round trip times
+ */
+public class GxConcurrencyLimiterTests {
+	private static final long FAST = TimeUnit.MILLISECONDS.toNanos(10);
+	private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(100);
+
+	private final AtomicLong time = new AtomicLong(TimeUnit.SECONDS.toNanos(1000));
+	private GxConcurrencyLimiter limiter;
+
+	@Before
+	public void setup() {
+		limiter = new GxConcurrencyLimiter(10, 2, 20, 0.5, 2.0, 60000, (LongSupplier) time::get);
+	}
+
+	@Test
+	public void testRejectAtLimit() {
+		for (int i = 0; i < 10; i++) {
+			limiter.acquire("atncert");
+		}
+		try {
+			limiter.acquire("atncert");
+			fail("The call beyond the limit should have been rejected.");
+		} catch (GxUnavailableException exception) {
+			assertEquals("atncert", exception.getEndpoint());
+		}
+		assertEquals(1L, limiter.getStatistics().get("rejected"));
+
+		// A call that was not made frees its place
+		limiter.cancel();
+		limiter.acquire("atncert");
+		assertEquals(10, limiter.getStatistics().get("inFlight"));
+	}
+
+	@Test
+	public void testIncreaseWhileFast() {
+		// While the round trip stays at the baseline and the limit is in use, it grows up to the maximum
+		for (int round = 0; round < 200; round++) {
+			runRound(limiter.getLimit(), FAST);
+		}
+		assertEquals(20, limiter.getLimit());
+
+		// A limit that is not in use does not grow
+		limiter = new GxConcurrencyLimiter(10, 2, 20, 0.5, 2.0, 60000, (LongSupplier) time::get);
+		for (int round = 0; round < 200; round++) {
+			runRound(2, FAST);
+		}
+		assertEquals(10, limiter.getLimit());
+	}
+
+	@Test
+	public void testDecreaseWhenQueueing() {
+		runRound(10, FAST);
+
+		// The round trip rising well beyond the baseline cuts the limit once per round trip, down to the minimum
+		for (int round = 0; round < 4; round++) {
+			runRound(limiter.getLimit(), SLOW);
+		}
+		assertTrue(limiter.getLimit() < 10);
+		assertTrue(limiter.getLimit() >= 2);
+		for (int round = 0; round < 20; round++) {
+			time.addAndGet(SLOW);
+			runRound(limiter.getLimit(), SLOW);
+		}
+		assertEquals(2, limiter.getLimit());
+
+		// Once the window rolls over, the slower round trip becomes the baseline, and the limit grows again
+		time.addAndGet(TimeUnit.SECONDS.toNanos(60));
+		runRound(limiter.getLimit(), SLOW);
+		time.addAndGet(TimeUnit.SECONDS.toNanos(60));
+		for (int round = 0; round < 20; round++) {
+			runRound(limiter.getLimit(), SLOW);
+		}
+		assertTrue(limiter.getLimit() > 2);
+		assertEquals(100.0, limiter.getStatistics().get("baselineRttMs"));
+	}
+
+	@Test
+	public void testDecreaseOncePerDropBurst() {
+		runRound(10, FAST);
+
+		// Dropped calls completing together are a single congestion event
+		for (int i = 0; i < 10; i++) {
+			limiter.acquire("ata");
+		}
+		for (int i = 0; i < 10; i++) {
+			limiter.release(FAST, true);
+		}
+		assertEquals(5, limiter.getLimit());
+		assertEquals(10L, limiter.getStatistics().get("drops"));
+		assertEquals(1L, limiter.getStatistics().get("decreases"));
+	}
+
+	@Test
+	public void testIdleLimitUnchanged() {
+		runRound(10, FAST);
+
+		// Slow or dropped calls well below the limit are not what loads GeoAxis, so they do not cut it
+		for (int round = 0; round < 20; round++) {
+			time.addAndGet(SLOW);
+			runRound(2, SLOW);
+		}
+		limiter.acquire("ata");
+		time.addAndGet(SLOW);
+		limiter.release(FAST, true);
+		assertEquals(10, limiter.getLimit());
+		assertEquals(1L, limiter.getStatistics().get("drops"));
+		assertEquals(0L, limiter.getStatistics().get("decreases"));
+	}
+
+	/**
+	 * Starts the calls together, then completes them all with the round trip time
+	 */
+	private void runRound(int calls, long rttNanos) {
+		for (int i = 0; i < calls; i++) {
+			limiter.acquire("ata");
+		}
+		time.addAndGet(rttNanos);
+		for (int i = 0; i < calls; i++) {
+			limiter.release(rttNanos, false);
+		}
+	}
+}
@@ -0,0 +1,139 @@
+/**
+ * Copyright 2016, RadiantBlue Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package org.venice.piazza.idam.test.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.client.ResourceAccessException;
+import org.venice.piazza.idam.util.GxUserProfileClient;
+import org.venice.piazza.idam.util.ProfileAttributeCache;
+
+import model.security.authz.UserProfile;
+
+/**
+ * Tests the refresh-ahead and stale-if-error behavior of the profile attribute cache
+ */
+public class ProfileAttributeCacheTests {
+	private static final String USERNAME = "bsmith";
+	private static final String DN = "CN=bsmith,OU=people,O=Piazza Test,C=US";
+
+	@Mock
+	private GxUserProfileClient gxUserProfileClient;
+
+	private ProfileAttributeCache cache;
+	private final AtomicLong time = new AtomicLong(1000000L);
+
+	@Before
+	public void setup() {
+		MockitoAnnotations.initMocks(this);
+		cache = new ProfileAttributeCache();
+		ReflectionTestUtils.setField(cache, "maxSize", 10);
+		ReflectionTestUtils.setField(cache, "refreshAfterMs", 1000L);
+		ReflectionTestUtils.setField(cache, "ttlMs", 2000L);
+		ReflectionTestUtils.setField(cache, "staleIfErrorMs", 10000L);
+		ReflectionTestUtils.setField(cache, "fetchTimeoutMs", 1000L);
+		ReflectionTestUtils.setField(cache, "refreshThreads", 1);
+		ReflectionTestUtils.setField(cache, "refreshQueueSize", 10);
+		ReflectionTestUtils.setField(cache, "gxUserProfileClient", gxUserProfileClient);
+		ReflectionTestUtils.setField(cache, "clock", (LongSupplier) time::get);
+		cache.initialize();
+	}
+
+	@After
+	public void teardown() {
+		cache.shutdown();
+	}
+
+	@Test
+	public void testRefreshAhead() throws InterruptedException {
+		when(gxUserProfileClient.getUserProfileFromGx(USERNAME, DN)).thenReturn(getProfile("US"), getProfile("GB"));
+
+		// Fresh entries are served without a GeoAxis call, each as its own copy
+		UserProfile first = cache.getUserProfile(USERNAME, DN);
+		UserProfile second = cache.getUserProfile(USERNAME, DN);
+		assertEquals("US", second.getCountry());
+		assertNotSame(first, second);
+		verify(gxUserProfileClient, times(1)).getUserProfileFromGx(USERNAME, DN);
+
+		// Past the refresh interval, the entry is still served while it is refreshed in the background
+		time.addAndGet(1500);
+		assertEquals("US", cache.getUserProfile(USERNAME, DN).getCountry());
+		waitForRefreshes(2);
+		assertEquals("GB", cache.getUserProfile(USERNAME, DN).getCountry());
+		verify(gxUserProfileClient, times(2)).getUserProfileFromGx(USERNAME, DN);
+		assertEquals(3L, cache.getStatistics().get("hits"));
+		assertEquals(1L, cache.getStatistics().get("misses"));
+
+		// A different DN for the username is never served from the entry
+		when(gxUserProfileClient.getUserProfileFromGx(USERNAME, "CN=other")).thenReturn(getProfile("US"));
+		cache.getUserProfile(USERNAME, "CN=other");
+		verify(gxUserProfileClient, times(1)).getUserProfileFromGx(USERNAME, "CN=other");
+	}
+
+	@Test
+	public void testStaleIfError() {
+		when(gxUserProfileClient.getUserProfileFromGx(USERNAME, DN)).thenReturn(getProfile("US"))
+				.thenThrow(new ResourceAccessException("GeoAxis is down"));
+		cache.getUserProfile(USERNAME, DN);
+
+		// Past its TTL, the entry is served when GeoAxis fails
+		time.addAndGet(5000);
+		assertEquals("US", cache.getUserProfile(USERNAME, DN).getCountry());
+		assertEquals(1L, cache.getStatistics().get("staleServed"));
+		assertEquals(1L, cache.getStatistics().get("refreshFailures"));
+
+		// Past the stale-if-error age, the failure is returned to the caller
+		time.addAndGet(10000);
+		try {
+			cache.getUserProfile(USERNAME, DN);
+			throw new AssertionError("Expected the GeoAxis failure");
+		} catch (ResourceAccessException exception) {
+			assertEquals(1L, cache.getStatistics().get("staleServed"));
+		}
+	}
+
+	private UserProfile getProfile(String country) {
+		UserProfile profile = new UserProfile();
+		profile.setUsername(USERNAME);
+		profile.setDistinguishedName(DN);
+		profile.setCountry(country);
+		profile.setAdminCode("NGA");
+		profile.setDutyCode("NGA");
+		return profile;
+	}
+
+	private void waitForRefreshes(long refreshes) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (((Long) cache.getStatistics().get("refreshes") < refreshes
+				|| (Integer) cache.getStatistics().get("refreshesInProgress") > 0) && System.nanoTime() < deadline) {
+			Thread.sleep(10);
+		}
+	}
+}